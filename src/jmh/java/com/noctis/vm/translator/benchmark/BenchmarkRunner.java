@@ -0,0 +1,47 @@
+package com.noctis.vm.translator.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Entry point of the benchmark jar, accepting the usual JMH command line.
+ * Unless the command line says otherwise, the allocation rate is measured with the GC profiler and the results are
+ * exported to {@value #DEFAULT_RESULT_FILE} in JSON, so they can be tracked over time.
+ * E.g. {@code java -jar HackVMTranslator-1.0-benchmarks.jar ParserBenchmark -p size=1GB}
+ *
+ * @author Noctis
+ * @date 2025/03/19
+ */
+public class BenchmarkRunner {
+
+   public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+   public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+      CommandLineOptions commandLine = new CommandLineOptions(args);
+      if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers()
+              || commandLine.shouldListResultFormats() || commandLine.shouldListWithParams()) {
+         //the listings are only printed by the JMH main
+         org.openjdk.jmh.Main.main(args);
+         return;
+      }
+      ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+      if (!commandLine.getResultFormat().hasValue()) {
+         options.resultFormat(ResultFormatType.JSON);
+      }
+      if (!commandLine.getResult().hasValue()) {
+         options.result(DEFAULT_RESULT_FILE);
+      }
+      if (commandLine.getProfilers().isEmpty()) {
+         options.addProfiler(GCProfiler.class);
+      }
+      new Runner(options.build()).run();
+   }
+}
@@ -0,0 +1,113 @@
+package com.noctis.vm.translator.benchmark;
+
+import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.parser.VMInstructionParser;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction and iteration of {@link VMInstructionParser} in the eager and the streaming modes.
+ * The {@code bytes} counter is the parsing throughput in bytes per second
+ *
+ * @author Noctis
+ * @date 2025/03/19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+   @Param({"arithmetic", "push-pop", "comparison"})
+   public String workload;
+
+   @Param({"64KB", "16MB"})
+   public String size;
+
+   private String vmFile;
+
+   private long fileSize;
+
+   /**
+    * Bytes parsed, reported as a rate next to the operations
+    */
+   @State(Scope.Thread)
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   public static class ParsedBytes {
+
+      public long bytes;
+
+      @Setup(Level.Iteration)
+      public void reset() {
+         bytes = 0;
+      }
+   }
+
+   @Setup(Level.Trial)
+   public void generate() throws IOException {
+      Path file = VMWorkloadGenerator.workloadFile(VMWorkloadGenerator.Workload.fromName(workload), size, VMWorkloadGenerator.DEFAULT_SEED);
+      vmFile = file.toString();
+      fileSize = Files.size(file);
+   }
+
+   /**
+    * The eager parser decodes the whole file in the constructor
+    */
+   @Benchmark
+   public VMInstructionParser constructEager(ParsedBytes parsed) throws InstructionParseException, IOException {
+      VMInstructionParser parser = new VMInstructionParser(vmFile);
+      parser.close();
+      parsed.bytes += fileSize;
+      return parser;
+   }
+
+   /**
+    * The streaming parser only maps the file in the constructor
+    */
+   @Benchmark
+   public VMInstructionParser constructStreaming() throws InstructionParseException, IOException {
+      VMInstructionParser parser = new VMInstructionParser(vmFile, true);
+      parser.close();
+      return parser;
+   }
+
+   @Benchmark
+   public void iterateEager(ParsedBytes parsed, Blackhole blackhole) throws InstructionParseException, IOException {
+      iterate(new VMInstructionParser(vmFile), blackhole);
+      parsed.bytes += fileSize;
+   }
+
+   @Benchmark
+   public void iterateStreaming(ParsedBytes parsed, Blackhole blackhole) throws InstructionParseException, IOException {
+      iterate(new VMInstructionParser(vmFile, true), blackhole);
+      parsed.bytes += fileSize;
+   }
+
+   private static void iterate(VMInstructionParser parser, Blackhole blackhole) throws InstructionParseException, IOException {
+      try (VMInstructionParser instructions = parser) {
+         while (instructions.hasMoreLines()) {
+            instructions.advance();
+            blackhole.consume(instructions.instruction());
+         }
+      }
+   }
+}
@@ -0,0 +1,69 @@
+package com.noctis.vm.translator.benchmark;
+
+import com.noctis.vm.translator.TranslationReport;
+import com.noctis.vm.translator.VMTranslator;
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.pipeline.PipelinedTranslator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end translation of a generated vm file to the asm file next to it, as run by {@link VMTranslator}.
+ * Measured as throughput and as sampled latency
+ *
+ * @author Noctis
+ * @date 2025/03/19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranslatorBenchmark {
+
+   @Param({"arithmetic", "push-pop", "comparison"})
+   public String workload;
+
+   @Param({"64KB", "16MB"})
+   public String size;
+
+   /**
+    * Command line options without the source, space separated, {@code none} for the defaults
+    */
+   @Param({"none", "--pipeline", "--fold-constants --peephole", "--select-addressing --cache-tos"})
+   public String options;
+
+   private TranslatorOptions translatorOptions;
+
+   @Setup(Level.Trial)
+   public void setUp() throws IOException {
+      String vmFile = VMWorkloadGenerator.workloadFile(VMWorkloadGenerator.Workload.fromName(workload), size,
+              VMWorkloadGenerator.DEFAULT_SEED).toString();
+      String arguments = "none".equals(options) ? vmFile : options + " " + vmFile;
+      translatorOptions = TranslatorOptions.parse(arguments.split(" "));
+   }
+
+   @Benchmark
+   public TranslationReport translate() throws InstructionParseException, AssemblyTranslationException, IOException {
+      if (translatorOptions.isPipeline()) {
+         return new PipelinedTranslator(translatorOptions.getSource(), translatorOptions).translate();
+      }
+      return VMTranslator.translate(translatorOptions.getSource(), translatorOptions);
+   }
+}
@@ -0,0 +1,226 @@
+package com.noctis.vm.translator.benchmark;
+
+import com.noctis.vm.translator.common.VMConstants;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Seeded generator of synthetic vm files, the same kind, size and seed always give the same file.
+ * The generated programs keep the stack depth bounded and only use valid segment indexes, so they can also be
+ * translated with the optimizations and run on the emulator.
+ * Usage: {@code VMWorkloadGenerator arithmetic|push-pop|comparison 64KB|16MB|1GB seed output.vm}
+ *
+ * @author Noctis
+ * @date 2025/03/19
+ */
+public class VMWorkloadGenerator {
+
+   public static final long DEFAULT_SEED = 20250319L;
+
+   private static final int MAX_STACK_DEPTH = 16;
+
+   private static final String[] BINARY_COMMANDS = {"add", "sub", "and", "or"};
+
+   private static final String[] UNARY_COMMANDS = {"neg", "not"};
+
+   private static final String[] COMPARISON_COMMANDS = {"eq", "gt", "lt"};
+
+   private static final String[] BASE_SEGMENTS = {"local", "argument", "this", "that"};
+
+   /**
+    * Shape of a synthetic program
+    */
+   public enum Workload {
+      /**
+       * Expressions of constants and locals, mostly arithmetic commands
+       */
+      ARITHMETIC,
+      /**
+       * Moves between all the segments through the stack
+       */
+      PUSH_POP,
+      /**
+       * Comparisons of pushed values combined with logic commands
+       */
+      COMPARISON;
+
+      public static Workload fromName(String name) {
+         return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+      }
+   }
+
+   private final Random random;
+
+   private int depth;
+
+   public VMWorkloadGenerator(long seed) {
+      this.random = new Random(seed);
+   }
+
+   public static void main(String[] args) throws IOException {
+      if (args.length != 4) {
+         System.out.println("Usage: VMWorkloadGenerator arithmetic|push-pop|comparison <size, e.g. 64KB/16MB/1GB> <seed> <output.vm>");
+         System.exit(1);
+      }
+      new VMWorkloadGenerator(Long.parseLong(args[2])).generate(Workload.fromName(args[0]), parseSize(args[1]), Paths.get(args[3]));
+   }
+
+   /**
+    * @param size size with a {@code KB/MB/GB} suffix, in bytes otherwise
+    * @return size in bytes
+    */
+   public static long parseSize(String size) {
+      String upper = size.toUpperCase(Locale.ROOT);
+      long unit = 1;
+      if (upper.endsWith("KB")) {
+         unit = 1L << 10;
+      } else if (upper.endsWith("MB")) {
+         unit = 1L << 20;
+      } else if (upper.endsWith("GB")) {
+         unit = 1L << 30;
+      }
+      String digits = unit == 1 ? upper : upper.substring(0, upper.length() - 2);
+      return Long.parseLong(digits.trim()) * unit;
+   }
+
+   /**
+    * Get the generated file of a workload, generating it into the temporary directory on first use
+    *
+    * @return path of the vm file, reused across benchmark runs
+    */
+   public static Path workloadFile(Workload workload, String size, long seed) throws IOException {
+      Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "vm-benchmark");
+      Files.createDirectories(directory);
+      String name = workload.name().toLowerCase(Locale.ROOT) + "-" + size + "-" + seed;
+      Path file = directory.resolve(name + VMConstants.VM_FILE_SUFFIX);
+      if (!Files.exists(file)) {
+         Path partial = Files.createTempFile(directory, name, ".partial");
+         new VMWorkloadGenerator(seed).generate(workload, parseSize(size), partial);
+         Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      return file;
+   }
+
+   /**
+    * Write vm commands until the file reaches the size, then pop the stack back to empty
+    */
+   public void generate(Workload workload, long size, Path output) throws IOException {
+      File parent = output.toAbsolutePath().getParent().toFile();
+      if (!parent.isDirectory() && !parent.mkdirs()) {
+         throw new IOException("Failed to create directory: " + parent);
+      }
+      depth = 0;
+      long written = 0;
+      StringBuilder line = new StringBuilder(32);
+      try (Writer writer = new BufferedWriter(Files.newBufferedWriter(output, StandardCharsets.US_ASCII), 1 << 16)) {
+         while (written < size) {
+            line.setLength(0);
+            switch (workload) {
+               case ARITHMETIC:
+                  nextArithmetic(line);
+                  break;
+               case PUSH_POP:
+                  nextPushPop(line);
+                  break;
+               case COMPARISON:
+               default:
+                  nextComparison(line);
+                  break;
+            }
+            line.append('\n');
+            writer.append(line);
+            written += line.length();
+         }
+         while (depth > 0) {
+            line.setLength(0);
+            pop(line);
+            line.append('\n');
+            writer.append(line);
+         }
+      }
+   }
+
+   private void nextArithmetic(StringBuilder line) {
+      int choice = random.nextInt(10);
+      if (depth < 2 || depth < MAX_STACK_DEPTH && choice < 4) {
+         if (random.nextBoolean()) {
+            push(line, "constant", random.nextInt(32768));
+         } else {
+            push(line, "local", random.nextInt(8));
+         }
+      } else if (choice < 8) {
+         command(line, BINARY_COMMANDS[random.nextInt(BINARY_COMMANDS.length)], -1);
+      } else {
+         command(line, UNARY_COMMANDS[random.nextInt(UNARY_COMMANDS.length)], 0);
+      }
+   }
+
+   private void nextPushPop(StringBuilder line) {
+      if (depth == 0 || depth < MAX_STACK_DEPTH && random.nextBoolean()) {
+         switch (random.nextInt(6)) {
+            case 0:
+               push(line, "constant", random.nextInt(32768));
+               break;
+            case 1:
+               push(line, "static", random.nextInt(16));
+               break;
+            case 2:
+               push(line, "temp", random.nextInt(8));
+               break;
+            case 3:
+               push(line, "pointer", random.nextInt(2));
+               break;
+            default:
+               push(line, BASE_SEGMENTS[random.nextInt(BASE_SEGMENTS.length)], random.nextInt(10));
+               break;
+         }
+      } else {
+         pop(line);
+      }
+   }
+
+   private void nextComparison(StringBuilder line) {
+      int choice = random.nextInt(10);
+      if (depth < 2 || depth < MAX_STACK_DEPTH && choice < 5) {
+         push(line, "constant", random.nextInt(4));
+      } else if (choice < 8) {
+         command(line, COMPARISON_COMMANDS[random.nextInt(COMPARISON_COMMANDS.length)], -1);
+      } else {
+         command(line, random.nextBoolean() ? "and" : "or", -1);
+      }
+   }
+
+   private void push(StringBuilder line, String segment, int index) {
+      line.append("push ").append(segment).append(' ').append(index);
+      depth++;
+   }
+
+   /**
+    * Pop to a segment that does not move the segment pointers
+    */
+   private void pop(StringBuilder line) {
+      if (random.nextBoolean()) {
+         line.append("pop temp ").append(random.nextInt(8));
+      } else if (random.nextBoolean()) {
+         line.append("pop static ").append(random.nextInt(16));
+      } else {
+         line.append("pop ").append(BASE_SEGMENTS[random.nextInt(BASE_SEGMENTS.length)]).append(' ').append(random.nextInt(10));
+      }
+      depth--;
+   }
+
+   private void command(StringBuilder line, String command, int depthChange) {
+      line.append(command);
+      depth += depthChange;
+   }
+}
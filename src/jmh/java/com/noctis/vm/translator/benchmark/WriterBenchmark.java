@@ -0,0 +1,108 @@
+package com.noctis.vm.translator.benchmark;
+
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.common.VMOpcode;
+import com.noctis.vm.translator.common.VirtualSegment;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+import com.noctis.vm.translator.ir.VMInstruction;
+import com.noctis.vm.translator.writer.AssemblyCodeWriter;
+import com.noctis.vm.translator.writer.AssemblySink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Code generation of one kind of vm command by {@link AssemblyCodeWriter}, covering each of its translate methods.
+ * The code goes to a sink that drops it, so only the writer is measured
+ *
+ * @author Noctis
+ * @date 2025/03/19
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriterBenchmark {
+
+   private static final int INSTRUCTIONS_PER_INVOCATION = 1024;
+
+   /**
+    * {@code push-<segment>}, {@code pop-<segment>}, an arithmetic command or {@code store-constant}
+    */
+   @Param({"push-constant", "push-local", "push-static", "push-temp", "push-pointer", "pop-local", "pop-static", "pop-temp",
+           "pop-pointer", "add", "neg", "eq", "store-constant"})
+   public String command;
+
+   /**
+    * Code generation option changing the writer templates, {@code none} for the default code
+    */
+   @Param({"none", "--shared-compare", "--select-addressing", "--cache-tos"})
+   public String option;
+
+   private AssemblyCodeWriter writer;
+
+   private long instruction;
+
+   @Setup(Level.Trial)
+   public void setUp() {
+      TranslatorOptions options = new TranslatorOptions();
+      options.setSharedComparison("--shared-compare".equals(option));
+      options.setSelectAddressing("--select-addressing".equals(option));
+      options.setTopOfStackCaching("--cache-tos".equals(option));
+      writer = new AssemblyCodeWriter("Bench", new DiscardingAssemblySink(), "", options);
+      instruction = instruction(command);
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(INSTRUCTIONS_PER_INVOCATION)
+   public void translate() throws AssemblyTranslationException, IOException {
+      for (int i = 0; i < INSTRUCTIONS_PER_INVOCATION; i++) {
+         writer.writeInstruction(instruction);
+      }
+   }
+
+   private static long instruction(String command) {
+      if ("store-constant".equals(command)) {
+         return VMInstruction.storeConstant(VirtualSegment.LOCAL, 3, (short) 1234);
+      }
+      int separator = command.indexOf('-');
+      if (separator < 0) {
+         return VMInstruction.arithmetic(VMOpcode.fromCommand(command));
+      }
+      VMOpcode opcode = VMOpcode.fromCommand(command.substring(0, separator));
+      VirtualSegment segment = VirtualSegment.fromName(command.substring(separator + 1).toLowerCase(Locale.ROOT));
+      return VMInstruction.pushPop(opcode, segment, segment == VirtualSegment.POINTER ? 1 : 3);
+   }
+
+   /**
+    * Sink dropping the generated code
+    */
+   private static class DiscardingAssemblySink implements AssemblySink {
+
+      @Override
+      public void write(ByteBuffer buffer) {
+         buffer.position(buffer.limit());
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+}
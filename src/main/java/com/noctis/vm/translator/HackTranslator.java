@@ -0,0 +1,249 @@
+package com.noctis.vm.translator;
+
+import com.noctis.vm.translator.common.OutputFormat;
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.ir.VMSymbolTable;
+import com.noctis.vm.translator.metrics.TranslationMetrics;
+import com.noctis.vm.translator.optimizer.CallGraph;
+import com.noctis.vm.translator.parallel.DirectoryTranslator;
+import com.noctis.vm.translator.parser.VMInstructionLexer;
+import com.noctis.vm.translator.parser.VMInstructionParser;
+import com.noctis.vm.translator.writer.AssemblyCodeWriter;
+import com.noctis.vm.translator.writer.AssemblyRuntime;
+import com.noctis.vm.translator.writer.HackCodeBuffer;
+import com.noctis.vm.translator.writer.HackLinker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Translate vm code straight to hack machine code, without the asm file and the separate assembler: the code writer emits
+ * into {@link HackCodeBuffer}s, one per vm file as the fragments of a directory, and the {@link HackLinker} resolves
+ * the labels and allocates the variables. The program is written as a {@code .hack} text file or as a packed binary image
+ *
+ * @author Noctis
+ * @date 2025/03/27
+ */
+public class HackTranslator {
+
+   private final TranslatorOptions options;
+
+   private final OutputFormat format;
+
+   /**
+    * @param options translation options, their output format is the machine code to generate
+    */
+   public HackTranslator(TranslatorOptions options) {
+      this.options = options;
+      this.format = options.getOutputFormat();
+   }
+
+   /**
+    * @param source absolute / relative path of the vm file or directory
+    * @param format machine code format
+    * @return path of the machine code file, next to the vm file or inside the directory and named after it
+    */
+   public static String resultFileLocation(String source, OutputFormat format) {
+      File file = new File(source);
+      if (file.isDirectory()) {
+         File directory = file.getAbsoluteFile();
+         return new File(directory, directory.getName() + format.fileSuffix()).getPath();
+      }
+      String asmFileLocation = AssemblyCodeWriter.resultFileLocation(source);
+      return asmFileLocation.substring(0, asmFileLocation.lastIndexOf('.')) + format.fileSuffix();
+   }
+
+   /**
+    * Translate the vm file or directory to the machine code file
+    *
+    * @param source absolute / relative path of the vm file or directory
+    * @return counters of the translation
+    */
+   public TranslationReport translate(String source) throws InstructionParseException, AssemblyTranslationException, IOException {
+      TranslationReport report = new TranslationReport();
+      HackLinker linker = translateProgram(source, report);
+      long start = System.nanoTime();
+      short[] rom = linker.link();
+      try (FileChannel channel = FileChannel.open(Paths.get(resultFileLocation(source, format)),
+              StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+         HackLinker.write(rom, format, channel);
+      }
+      addLinkMetrics(report, System.nanoTime() - start);
+      return report;
+   }
+
+   /**
+    * Translate the vm file or directory without linking nor writing it, e.g. to measure a program that may not fit in the ROM
+    *
+    * @param source absolute / relative path of the vm file or directory
+    * @param report report of the translation
+    * @return number of instructions of the program
+    */
+   public int measure(String source, TranslationReport report) throws InstructionParseException, AssemblyTranslationException, IOException {
+      return translateProgram(source, report).size();
+   }
+
+   /**
+    * @return linker holding the code of the program, from the bootstrap code to the shared routines
+    */
+   private HackLinker translateProgram(String source, TranslationReport report)
+           throws InstructionParseException, AssemblyTranslationException, IOException {
+      HackLinker linker = new HackLinker();
+      if (new File(source).isDirectory()) {
+         translateDirectory(source, linker, report);
+      } else {
+         linker.add(translateFile(new File(source), "", null, report));
+      }
+      HackCodeBuffer epilogue = new HackCodeBuffer();
+      AssemblyRuntime.writeRoutines(epilogue, report.getRequiredRoutines());
+      linker.add(epilogue);
+      addRuntimeMetrics(report, epilogue);
+      return linker;
+   }
+
+   /**
+    * Translate the vm code read from the channel to machine code written to the channel, which are not closed
+    *
+    * @param moduleName prefix of the static symbols, i.e. the vm file name without extension
+    * @return counters of the translation
+    */
+   public TranslationReport translate(ReadableByteChannel in, WritableByteChannel out, String moduleName)
+           throws InstructionParseException, AssemblyTranslationException, IOException {
+      TranslationReport report = new TranslationReport();
+      HackCodeBuffer code = new HackCodeBuffer();
+      TranslationUnit unit;
+      try (VMInstructionParser instructionParser = new VMInstructionParser(new VMInstructionLexer(in, new VMSymbolTable()))) {
+         unit = new TranslationUnit(moduleName, code, "", options, instructionParser.symbols(), null);
+         unit.translate(instructionParser);
+      }
+      unit.finish();
+      unit.writeRuntimeRoutines();
+      unit.close(report);
+      long start = System.nanoTime();
+      HackLinker linker = new HackLinker();
+      linker.add(code);
+      HackLinker.write(linker.link(), format, out);
+      addLinkMetrics(report, System.nanoTime() - start);
+      return report;
+   }
+
+   /**
+    * Translate the vm files of the directory in parallel, each one into its own buffer, after the bootstrap code
+    */
+   private void translateDirectory(String directoryLocation, HackLinker linker, TranslationReport report)
+           throws InstructionParseException, AssemblyTranslationException, IOException {
+      List<File> vmFiles = new DirectoryTranslator(directoryLocation, options).listVMFiles();
+      if (vmFiles.isEmpty()) {
+         throw new IOException("No vm file found in directory: " + directoryLocation);
+      }
+      CallGraph callGraph = DirectoryTranslator.callGraph(vmFiles, options, report);
+      Set<String> reachableFunctions = callGraph == null ? null : callGraph.reachableFrom(AssemblyRuntime.ENTRY_FUNCTION);
+      if (DirectoryTranslator.hasBootstrap(vmFiles)) {
+         HackCodeBuffer prologue = new HackCodeBuffer();
+         report.addRequiredRoutines(AssemblyRuntime.writeBootstrap(prologue));
+         linker.add(prologue);
+         addRuntimeMetrics(report, prologue);
+      }
+      ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+      try {
+         List<Future<HackCodeBuffer>> buffers = new ArrayList<>(vmFiles.size());
+         List<TranslationReport> reports = new ArrayList<>(vmFiles.size());
+         for (File vmFile : vmFiles) {
+            TranslationReport fileReport = new TranslationReport();
+            String labelNamespace = AssemblyCodeWriter.moduleName(vmFile.getPath()) + ".";
+            buffers.add(pool.submit(() -> translateFile(vmFile, labelNamespace, reachableFunctions, fileReport)));
+            reports.add(fileReport);
+         }
+         //the machine code is small enough for all the buffers of a program to be held until they are linked
+         for (int i = 0; i < vmFiles.size(); i++) {
+            linker.add(result(buffers.get(i), vmFiles.get(i)));
+            report.merge(reports.get(i));
+         }
+      } finally {
+         pool.shutdownNow();
+      }
+   }
+
+   /**
+    * Translate one vm file into a buffer, without the shared routines
+    *
+    * @param labelNamespace     prefix of the generated labels, empty for the global namespace
+    * @param reachableFunctions functions to translate, {@code null} to translate all of them
+    */
+   private HackCodeBuffer translateFile(File vmFile, String labelNamespace, Set<String> reachableFunctions, TranslationReport report)
+           throws InstructionParseException, AssemblyTranslationException, IOException {
+      HackCodeBuffer code = new HackCodeBuffer();
+      TranslationUnit unit;
+      try (VMInstructionParser instructionParser = new VMInstructionParser(vmFile.getPath(), true)) {
+         unit = new TranslationUnit(AssemblyCodeWriter.moduleName(vmFile.getPath()), code, labelNamespace, options,
+                 instructionParser.symbols(), reachableFunctions);
+         if (unit.getMetrics() != null) {
+            unit.getMetrics().addFile();
+         }
+         unit.translate(instructionParser);
+      }
+      unit.finish();
+      unit.close(report);
+      return code;
+   }
+
+   /**
+    * Wait for the translation of a vm file and rethrow its checked exception prefixed by the file name
+    */
+   private static HackCodeBuffer result(Future<HackCodeBuffer> buffer, File vmFile)
+           throws InstructionParseException, AssemblyTranslationException, IOException {
+      try {
+         return buffer.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while translating " + vmFile.getName(), e);
+      } catch (ExecutionException e) {
+         Throwable failure = e.getCause();
+         if (failure instanceof InstructionParseException) {
+            throw new InstructionParseException(vmFile.getName() + ": " + failure.getMessage(), failure);
+         } else if (failure instanceof AssemblyTranslationException) {
+            throw new AssemblyTranslationException(vmFile.getName() + ": " + failure.getMessage(), failure);
+         } else if (failure instanceof IOException) {
+            throw new IOException(vmFile.getName() + ": " + failure.getMessage(), failure);
+         } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+         }
+         throw new IllegalStateException(failure);
+      }
+   }
+
+   /**
+    * With the metrics, count the machine code of the bootstrap code or of the shared routines as runtime code
+    */
+   private void addRuntimeMetrics(TranslationReport report, HackCodeBuffer runtime) {
+      if (options.isStats()) {
+         TranslationMetrics metrics = new TranslationMetrics();
+         metrics.addRuntimeInstructions(runtime.size());
+         report.addMetrics(metrics);
+      }
+   }
+
+   /**
+    * With the metrics, linking and writing the program is the write phase
+    */
+   private void addLinkMetrics(TranslationReport report, long nanos) {
+      if (options.isStats()) {
+         TranslationMetrics link = new TranslationMetrics();
+         link.addWriteNanos(nanos);
+         report.addMetrics(link);
+      }
+   }
+}
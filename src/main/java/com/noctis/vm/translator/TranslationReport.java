@@ -0,0 +1,384 @@
+package com.noctis.vm.translator;
+
+import com.noctis.vm.translator.metrics.TranslationMetrics;
+import com.noctis.vm.translator.optimizer.DeadFunctionFilter;
+import com.noctis.vm.translator.optimizer.peephole.PeepholeAssemblySink;
+import com.noctis.vm.translator.writer.AssemblyCodeWriter;
+import com.noctis.vm.translator.writer.AssemblyRuntime;
+import com.noctis.vm.translator.writer.PushPopFragmentTable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counters collected while translating a program, a report of a directory is merged from the reports of its vm files
+ *
+ * @author Noctis
+ * @date 2025/03/12
+ */
+public class TranslationReport {
+
+   private int instructionCount;
+
+   private int comparisonCount;
+
+   /**
+    * Comparisons calling the shared routines, the others are inlined, e.g. the sites a profile-guided plan inlines
+    */
+   private int sharedComparisonCount;
+
+   private int callCount;
+
+   private int returnCount;
+
+   private boolean constantFolding;
+
+   private int foldedCount;
+
+   private boolean addressingSelection;
+
+   private long addressingSavedInstructions;
+
+   private boolean topOfStackCaching;
+
+   private int spillCount;
+
+   private boolean pushPopMemoization;
+
+   private long pushPopFragmentHits;
+
+   private long pushPopFragmentMisses;
+
+   private long pushPopFragmentEvictions;
+
+   private boolean deadFunctionElimination;
+
+   /**
+    * Why the dead functions are not eliminated although it is enabled, {@code null} when they are
+    */
+   private String deadFunctionEliminationSkipped;
+
+   private final List<String> removedFunctions = new ArrayList<>();
+
+   private int keptFunctionCount;
+
+   private int removedFunctionInstructions;
+
+   private long removedFunctionSavedInstructions;
+
+   /**
+    * Peephole rule name to the times it fired and the hack instructions it saved, in registration order
+    */
+   private final Map<String, long[]> peepholeCounters = new LinkedHashMap<>();
+
+   /**
+    * Shared routines referenced by the program, see {@link AssemblyRuntime}
+    */
+   private int requiredRoutines;
+
+   /**
+    * Vm files whose fragment was reused from the fragment cache, and the ones translated with the cache enabled
+    */
+   private int cacheHits;
+
+   private int cacheMisses;
+
+   /**
+    * Metrics collected with {@code --stats}, {@code null} otherwise. Not kept with a cached fragment, the times and sizes
+    * of a past translation do not describe this one
+    */
+   private TranslationMetrics metrics;
+
+   /**
+    * Collect the counters of a translation unit once it finishes generating code
+    */
+   public void addUnit(TranslationUnit unit) {
+      instructionCount += unit.getInstructionCount();
+      AssemblyCodeWriter assemblyCodeWriter = unit.getWriter();
+      comparisonCount += assemblyCodeWriter.getComparisonCount();
+      sharedComparisonCount += assemblyCodeWriter.getSharedComparisonCount();
+      callCount += assemblyCodeWriter.getCallCount();
+      returnCount += assemblyCodeWriter.getReturnCount();
+      requiredRoutines |= assemblyCodeWriter.getRequiredRoutines();
+      addressingSelection |= assemblyCodeWriter.isAddressingSelection();
+      addressingSavedInstructions += assemblyCodeWriter.getAddressingSavedInstructions();
+      topOfStackCaching |= assemblyCodeWriter.isTopOfStackCaching();
+      spillCount += assemblyCodeWriter.getSpillCount();
+      PushPopFragmentTable pushPopFragments = assemblyCodeWriter.getPushPopFragments();
+      if (pushPopFragments != null) {
+         pushPopMemoization = true;
+         pushPopFragmentHits += pushPopFragments.getHits();
+         pushPopFragmentMisses += pushPopFragments.getMisses();
+         pushPopFragmentEvictions += pushPopFragments.getEvictions();
+      }
+      DeadFunctionFilter deadFunctionFilter = unit.getDeadFunctionFilter();
+      if (deadFunctionFilter != null) {
+         deadFunctionElimination = true;
+         removedFunctions.addAll(deadFunctionFilter.getRemovedFunctions());
+         keptFunctionCount += deadFunctionFilter.getKeptFunctionCount();
+         removedFunctionInstructions += deadFunctionFilter.getRemovedInstructionCount();
+         removedFunctionSavedInstructions += deadFunctionFilter.getSavedInstructions();
+      }
+      if (unit.getConstantFoldingPass() != null) {
+         constantFolding = true;
+         foldedCount += unit.getConstantFoldingPass().getEliminatedCount();
+      }
+      PeepholeAssemblySink peephole = unit.getPeepholeAssemblySink();
+      if (peephole != null) {
+         for (int i = 0; i < peephole.getRules().size(); i++) {
+            long[] counters = peepholeCounters.computeIfAbsent(peephole.getRules().get(i).name(), name -> new long[2]);
+            counters[0] += peephole.getFireCount(i);
+            counters[1] += peephole.getSavedInstructions(i);
+         }
+      }
+      if (unit.getMetrics() != null) {
+         addMetrics(unit.getMetrics());
+      }
+   }
+
+   public void merge(TranslationReport other) {
+      instructionCount += other.instructionCount;
+      comparisonCount += other.comparisonCount;
+      sharedComparisonCount += other.sharedComparisonCount;
+      callCount += other.callCount;
+      returnCount += other.returnCount;
+      requiredRoutines |= other.requiredRoutines;
+      constantFolding |= other.constantFolding;
+      foldedCount += other.foldedCount;
+      addressingSelection |= other.addressingSelection;
+      addressingSavedInstructions += other.addressingSavedInstructions;
+      topOfStackCaching |= other.topOfStackCaching;
+      spillCount += other.spillCount;
+      pushPopMemoization |= other.pushPopMemoization;
+      pushPopFragmentHits += other.pushPopFragmentHits;
+      pushPopFragmentMisses += other.pushPopFragmentMisses;
+      pushPopFragmentEvictions += other.pushPopFragmentEvictions;
+      deadFunctionElimination |= other.deadFunctionElimination;
+      removedFunctions.addAll(other.removedFunctions);
+      keptFunctionCount += other.keptFunctionCount;
+      removedFunctionInstructions += other.removedFunctionInstructions;
+      removedFunctionSavedInstructions += other.removedFunctionSavedInstructions;
+      cacheHits += other.cacheHits;
+      cacheMisses += other.cacheMisses;
+      for (Map.Entry<String, long[]> entry : other.peepholeCounters.entrySet()) {
+         long[] counters = peepholeCounters.computeIfAbsent(entry.getKey(), name -> new long[2]);
+         counters[0] += entry.getValue()[0];
+         counters[1] += entry.getValue()[1];
+      }
+      if (other.metrics != null) {
+         addMetrics(other.metrics);
+      }
+   }
+
+   /**
+    * Write the counters in the format read by {@link #readFrom(DataInput)}, e.g. next to a cached fragment.
+    * The metrics are not written
+    */
+   public void writeTo(DataOutput out) throws IOException {
+      out.writeInt(instructionCount);
+      out.writeInt(comparisonCount);
+      out.writeInt(sharedComparisonCount);
+      out.writeInt(callCount);
+      out.writeInt(returnCount);
+      out.writeBoolean(constantFolding);
+      out.writeInt(foldedCount);
+      out.writeBoolean(addressingSelection);
+      out.writeLong(addressingSavedInstructions);
+      out.writeBoolean(topOfStackCaching);
+      out.writeInt(spillCount);
+      out.writeBoolean(pushPopMemoization);
+      out.writeLong(pushPopFragmentHits);
+      out.writeLong(pushPopFragmentMisses);
+      out.writeLong(pushPopFragmentEvictions);
+      out.writeBoolean(deadFunctionElimination);
+      out.writeBoolean(deadFunctionEliminationSkipped != null);
+      if (deadFunctionEliminationSkipped != null) {
+         out.writeUTF(deadFunctionEliminationSkipped);
+      }
+      out.writeInt(removedFunctions.size());
+      for (String function : removedFunctions) {
+         out.writeUTF(function);
+      }
+      out.writeInt(keptFunctionCount);
+      out.writeInt(removedFunctionInstructions);
+      out.writeLong(removedFunctionSavedInstructions);
+      out.writeInt(peepholeCounters.size());
+      for (Map.Entry<String, long[]> entry : peepholeCounters.entrySet()) {
+         out.writeUTF(entry.getKey());
+         out.writeLong(entry.getValue()[0]);
+         out.writeLong(entry.getValue()[1]);
+      }
+      out.writeInt(requiredRoutines);
+      out.writeInt(cacheHits);
+      out.writeInt(cacheMisses);
+   }
+
+   /**
+    * Read counters written by {@link #writeTo(DataOutput)}
+    *
+    * @throws IOException When the input ends early or a count is negative
+    */
+   public static TranslationReport readFrom(DataInput in) throws IOException {
+      TranslationReport report = new TranslationReport();
+      report.instructionCount = in.readInt();
+      report.comparisonCount = in.readInt();
+      report.sharedComparisonCount = in.readInt();
+      report.callCount = in.readInt();
+      report.returnCount = in.readInt();
+      report.constantFolding = in.readBoolean();
+      report.foldedCount = in.readInt();
+      report.addressingSelection = in.readBoolean();
+      report.addressingSavedInstructions = in.readLong();
+      report.topOfStackCaching = in.readBoolean();
+      report.spillCount = in.readInt();
+      report.pushPopMemoization = in.readBoolean();
+      report.pushPopFragmentHits = in.readLong();
+      report.pushPopFragmentMisses = in.readLong();
+      report.pushPopFragmentEvictions = in.readLong();
+      report.deadFunctionElimination = in.readBoolean();
+      if (in.readBoolean()) {
+         report.deadFunctionEliminationSkipped = in.readUTF();
+      }
+      int removedFunctionCount = readCount(in);
+      for (int i = 0; i < removedFunctionCount; i++) {
+         report.removedFunctions.add(in.readUTF());
+      }
+      report.keptFunctionCount = in.readInt();
+      report.removedFunctionInstructions = in.readInt();
+      report.removedFunctionSavedInstructions = in.readLong();
+      int peepholeRuleCount = readCount(in);
+      for (int i = 0; i < peepholeRuleCount; i++) {
+         report.peepholeCounters.put(in.readUTF(), new long[]{in.readLong(), in.readLong()});
+      }
+      report.requiredRoutines = in.readInt();
+      report.cacheHits = in.readInt();
+      report.cacheMisses = in.readInt();
+      return report;
+   }
+
+   private static int readCount(DataInput in) throws IOException {
+      int count = in.readInt();
+      if (count < 0) {
+         throw new IOException("Negative count: " + count);
+      }
+      return count;
+   }
+
+   /**
+    * Merge metrics collected outside a translation unit, e.g. the time spent writing the stitched fragments
+    */
+   public void addMetrics(TranslationMetrics other) {
+      if (metrics == null) {
+         metrics = new TranslationMetrics();
+      }
+      metrics.merge(other);
+   }
+
+   /**
+    * @return the metrics of the translation, {@code null} when they are not collected or every fragment came from the cache
+    */
+   public TranslationMetrics getMetrics() {
+      return metrics;
+   }
+
+   public int getInstructionCount() {
+      return instructionCount;
+   }
+
+   public int getComparisonCount() {
+      return comparisonCount;
+   }
+
+   public int getRequiredRoutines() {
+      return requiredRoutines;
+   }
+
+   /**
+    * Record routines referenced outside the translation units, e.g. by the bootstrap code
+    */
+   public void addRequiredRoutines(int routines) {
+      requiredRoutines |= routines;
+   }
+
+   /**
+    * Record that the dead function elimination is enabled but can not apply to the program
+    *
+    * @param reason why it does not apply
+    */
+   public void skipDeadFunctionElimination(String reason) {
+      deadFunctionEliminationSkipped = reason;
+   }
+
+   public void addCacheHit() {
+      cacheHits++;
+   }
+
+   public void addCacheMiss() {
+      cacheMisses++;
+   }
+
+   /**
+    * Print the report of the enabled optimizations
+    */
+   public void print(PrintStream out) {
+      if (cacheHits + cacheMisses > 0) {
+         out.printf("Fragment cache: %d hits, %d misses%n", cacheHits, cacheMisses);
+      }
+      if (deadFunctionEliminationSkipped != null) {
+         out.printf("Dead function elimination: skipped, %s%n", deadFunctionEliminationSkipped);
+      } else if (deadFunctionElimination) {
+         out.printf("Dead function elimination: removed %d of %d functions, %d vm instructions, saved %d instructions%n",
+                 removedFunctions.size(), removedFunctions.size() + keptFunctionCount, removedFunctionInstructions,
+                 removedFunctionSavedInstructions);
+         for (String function : removedFunctions) {
+            out.printf("  removed %s%n", function);
+         }
+      }
+      if (constantFolding) {
+         out.printf("Constant folding: eliminated %d of %d vm instructions%n", foldedCount, instructionCount);
+      }
+      if (addressingSelection) {
+         out.printf("Addressing selection: saved %d instructions over the generic push/pop sequences%n", addressingSavedInstructions);
+      }
+      if (topOfStackCaching) {
+         out.printf("Top-of-stack caching: stack top spilled from D to RAM %d times in %d vm instructions%n", spillCount, instructionCount);
+      }
+      if (pushPopMemoization) {
+         long lookups = pushPopFragmentHits + pushPopFragmentMisses;
+         out.printf("Push/pop memoization: %d hits, %d misses (%.1f%% hit rate), %d fragments evicted%n", pushPopFragmentHits,
+                 pushPopFragmentMisses, lookups == 0 ? 0.0 : 100.0 * pushPopFragmentHits / lookups, pushPopFragmentEvictions);
+      }
+      for (Map.Entry<String, long[]> entry : peepholeCounters.entrySet()) {
+         out.printf("Peephole %s: fired %d times, saved %d instructions%n", entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+      }
+      int comparisonRoutines = requiredRoutines & (AssemblyRuntime.ROUTINE_EQ | AssemblyRuntime.ROUTINE_GT | AssemblyRuntime.ROUTINE_LT);
+      if (comparisonRoutines != 0) {
+         //only the shared sites save ROM, the sites inlined by a profile-guided plan keep their inline size
+         int inlinedCount = comparisonCount - sharedComparisonCount;
+         int inlineSize = sharedComparisonCount * AssemblyRuntime.INLINE_COMPARISON_SIZE;
+         int sharedSize = sharedComparisonCount * AssemblyRuntime.COMPARISON_CALL_SIZE
+                 + AssemblyRuntime.routineCount(comparisonRoutines) * AssemblyRuntime.COMPARISON_ROUTINE_SIZE
+                 + AssemblyRuntime.HALT_LOOP_SIZE;
+         out.printf("Shared comparison routines: %d call sites%s, %d routines, ROM %d -> %d instructions (saved %d), "
+                         + "+%d~%d cycles per executed comparison%n",
+                 sharedComparisonCount, inlinedCount == 0 ? "" : " (inlined: " + inlinedCount + ")",
+                 AssemblyRuntime.routineCount(comparisonRoutines), inlineSize, sharedSize, inlineSize - sharedSize,
+                 AssemblyRuntime.COMPARISON_EXTRA_CYCLES_TRUE, AssemblyRuntime.COMPARISON_EXTRA_CYCLES_FALSE);
+      }
+      if (callCount + returnCount > 0) {
+         int inlineSize = callCount * AssemblyRuntime.INLINE_CALL_SIZE + returnCount * AssemblyRuntime.INLINE_RETURN_SIZE;
+         int sharedSize = callCount * AssemblyRuntime.CALL_SITE_SIZE + returnCount * AssemblyRuntime.RETURN_SITE_SIZE
+                 + ((requiredRoutines & AssemblyRuntime.ROUTINE_CALL) != 0 ? AssemblyRuntime.CALL_ROUTINE_SIZE : 0)
+                 + ((requiredRoutines & AssemblyRuntime.ROUTINE_RETURN) != 0 ? AssemblyRuntime.RETURN_ROUTINE_SIZE : 0)
+                 + AssemblyRuntime.HALT_LOOP_SIZE;
+         out.printf("Shared call/return routines: %d call sites, %d return sites, ROM %d -> %d instructions (saved %d)%n",
+                 callCount, returnCount, inlineSize, sharedSize, inlineSize - sharedSize);
+      }
+   }
+}
@@ -0,0 +1,273 @@
+package com.noctis.vm.translator;
+
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.ir.VMInstruction;
+import com.noctis.vm.translator.ir.VMInstructionSink;
+import com.noctis.vm.translator.ir.VMSymbolTable;
+import com.noctis.vm.translator.metrics.FlightRecorderEvents;
+import com.noctis.vm.translator.metrics.MeteredAssemblySink;
+import com.noctis.vm.translator.metrics.TranslationMetrics;
+import com.noctis.vm.translator.optimizer.ConstantFoldingPass;
+import com.noctis.vm.translator.optimizer.DeadFunctionFilter;
+import com.noctis.vm.translator.optimizer.peephole.PeepholeAssemblySink;
+import com.noctis.vm.translator.optimizer.peephole.PeepholeRuleRegistry;
+import com.noctis.vm.translator.parser.VMInstructionParser;
+import com.noctis.vm.translator.writer.AssemblyCodeWriter;
+import com.noctis.vm.translator.writer.AssemblySink;
+import com.noctis.vm.translator.writer.HackCodeBuffer;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Code generation of one vm file: the dead function filter of a whole-program translation, the optimization passes
+ * enabled by the options, followed by the code writer and the assembly level optimizer.
+ * With the binary backend the writer emits machine code into a {@link HackCodeBuffer} and there is no assembly level optimizer.
+ * With {@code --stats} the writer is followed by a {@link MeteredAssemblySink} and the unit collects its {@link TranslationMetrics}
+ *
+ * @author Noctis
+ * @date 2025/03/14
+ */
+public class TranslationUnit {
+
+   private final AssemblyCodeWriter assemblyCodeWriter;
+
+   /**
+    * First sink of the chain, the code writer itself when no pass is enabled
+    */
+   private final VMInstructionSink head;
+
+   private final ConstantFoldingPass constantFoldingPass;
+
+   private final DeadFunctionFilter deadFunctionFilter;
+
+   private final PeepholeAssemblySink peepholeAssemblySink;
+
+   private final MeteredAssemblySink meteredAssemblySink;
+
+   /**
+    * Machine code of the binary backend, {@code null} when assembly code is generated
+    */
+   private final HackCodeBuffer code;
+
+   /**
+    * Metrics of the unit, {@code null} when they are not collected
+    */
+   private final TranslationMetrics metrics;
+
+   private final String moduleName;
+
+   private int instructionCount = 0;
+
+   /**
+    * @param moduleName     vm filename without directory and extension, to generate static symbol Xxx.i
+    * @param sink           destination of the assembly code
+    * @param labelNamespace prefix of the generated labels, empty for the global namespace
+    * @param options        translation options
+    * @param symbols        names of the label and function ids, the table of the parser of the vm file
+    */
+   public TranslationUnit(String moduleName, AssemblySink sink, String labelNamespace, TranslatorOptions options, VMSymbolTable symbols) {
+      this(moduleName, sink, labelNamespace, options, symbols, null);
+   }
+
+   /**
+    * @param moduleName         vm filename without directory and extension, to generate static symbol Xxx.i
+    * @param sink               destination of the assembly code
+    * @param labelNamespace     prefix of the generated labels, empty for the global namespace
+    * @param options            translation options
+    * @param symbols            names of the label and function ids, the table of the parser of the vm file
+    * @param reachableFunctions functions to translate, the others are dropped, {@code null} to translate all of them
+    */
+   public TranslationUnit(String moduleName, AssemblySink sink, String labelNamespace, TranslatorOptions options, VMSymbolTable symbols,
+                          Set<String> reachableFunctions) {
+      this(moduleName, sink, null, labelNamespace, options, symbols, reachableFunctions);
+   }
+
+   /**
+    * Generate machine code with the binary backend, the assembly level optimizer does not apply
+    *
+    * @param moduleName         vm filename without directory and extension, to generate static symbol Xxx.i
+    * @param code               destination of the machine code, linked with the code of the other units of the program
+    * @param labelNamespace     prefix of the generated labels, empty for the global namespace
+    * @param options            translation options
+    * @param symbols            names of the label and function ids, the table of the parser of the vm file
+    * @param reachableFunctions functions to translate, the others are dropped, {@code null} to translate all of them
+    */
+   public TranslationUnit(String moduleName, HackCodeBuffer code, String labelNamespace, TranslatorOptions options, VMSymbolTable symbols,
+                          Set<String> reachableFunctions) {
+      this(moduleName, null, code, labelNamespace, options, symbols, reachableFunctions);
+   }
+
+   private TranslationUnit(String moduleName, AssemblySink sink, HackCodeBuffer code, String labelNamespace, TranslatorOptions options,
+                           VMSymbolTable symbols, Set<String> reachableFunctions) {
+      if (options.isPeephole() && code == null) {
+         peepholeAssemblySink = new PeepholeAssemblySink(sink, PeepholeRuleRegistry.defaults());
+         sink = peepholeAssemblySink;
+      } else {
+         peepholeAssemblySink = null;
+      }
+      if (options.isStats() && code == null) {
+         meteredAssemblySink = new MeteredAssemblySink(sink);
+         sink = meteredAssemblySink;
+      } else {
+         meteredAssemblySink = null;
+      }
+      metrics = options.isStats() ? new TranslationMetrics() : null;
+      this.code = code;
+      this.moduleName = moduleName;
+      assemblyCodeWriter = code == null ? new AssemblyCodeWriter(moduleName, sink, labelNamespace, options, symbols)
+              : new AssemblyCodeWriter(moduleName, code, labelNamespace, options, symbols);
+      VMInstructionSink chain = assemblyCodeWriter;
+      if (options.isConstantFolding()) {
+         constantFoldingPass = new ConstantFoldingPass(chain);
+         chain = constantFoldingPass;
+      } else {
+         constantFoldingPass = null;
+      }
+      if (reachableFunctions != null) {
+         deadFunctionFilter = new DeadFunctionFilter(chain, moduleName, options, symbols, reachableFunctions);
+         chain = deadFunctionFilter;
+      } else {
+         deadFunctionFilter = null;
+      }
+      head = chain;
+   }
+
+   /**
+    * @param instruction packed instruction decoded by the parser
+    */
+   public void accept(long instruction) throws AssemblyTranslationException, IOException {
+      instructionCount++;
+      if (metrics != null) {
+         acceptMetered(instruction);
+         return;
+      }
+      head.accept(instruction);
+   }
+
+   /**
+    * Translate all the instructions of the parser, with the metrics the time left after the code generation is the parse phase
+    */
+   public void translate(VMInstructionParser parser) throws InstructionParseException, AssemblyTranslationException, IOException {
+      long start = metrics == null ? 0 : System.nanoTime();
+      long codegenNanos = metrics == null ? 0 : metrics.getCodegenNanos();
+      long readNanos = parser.getReadNanos();
+      while (parser.hasMoreLines()) {
+         parser.advance();
+         assemblyCodeWriter.setSourceLine(parser.lineNumber());
+         accept(parser.instruction());
+      }
+      if (metrics != null) {
+         //the windows read while advancing are the read phase, including the first one read when the parser was opened
+         metrics.addParseNanos(System.nanoTime() - start - (metrics.getCodegenNanos() - codegenNanos)
+                 - (parser.getReadNanos() - readNanos));
+         metrics.addInput(parser.getBytesRead(), parser.getReadNanos());
+      }
+   }
+
+   /**
+    * Count and time the instruction, the code it generates is flushed to the metered sink to be attributed to its type
+    */
+   private void acceptMetered(long instruction) throws AssemblyTranslationException, IOException {
+      metrics.recordCommand(instruction);
+      if (code != null) {
+         //machine code is counted as it is generated, nothing is written before the program is linked
+         int size = code.size();
+         long start = System.nanoTime();
+         head.accept(instruction);
+         metrics.addCodegenNanos(System.nanoTime() - start);
+         metrics.addHackInstructions(VMInstruction.opcode(instruction).instructionType(), code.size() - size);
+         return;
+      }
+      meteredAssemblySink.attributeTo(VMInstruction.opcode(instruction).instructionType());
+      long writeNanos = meteredAssemblySink.getWriteNanos();
+      long start = System.nanoTime();
+      head.accept(instruction);
+      assemblyCodeWriter.flush();
+      long elapsed = System.nanoTime() - start;
+      meteredAssemblySink.attributeTo(null);
+      metrics.addCodegenNanos(elapsed - (meteredAssemblySink.getWriteNanos() - writeNanos));
+   }
+
+   /**
+    * Flush the passes after the last instruction, the writer stays open for the shared routines
+    */
+   public void finish() throws AssemblyTranslationException, IOException {
+      head.finish();
+   }
+
+   /**
+    * Emit the shared routines referenced by the code of the unit after its last instruction, counted as runtime code
+    * in the metrics. Only for a unit that translates a whole program
+    */
+   public void writeRuntimeRoutines() throws IOException {
+      if (meteredAssemblySink != null) {
+         //the code flushed at the end of the file stays unattributed
+         assemblyCodeWriter.flush();
+         meteredAssemblySink.attributeToRuntime();
+         assemblyCodeWriter.writeRuntimeRoutines();
+         assemblyCodeWriter.flush();
+         meteredAssemblySink.attributeTo(null);
+      } else if (metrics != null && code != null) {
+         int size = code.size();
+         assemblyCodeWriter.writeRuntimeRoutines();
+         metrics.addRuntimeInstructions(code.size() - size);
+      } else {
+         assemblyCodeWriter.writeRuntimeRoutines();
+      }
+   }
+
+   /**
+    * Close the writer and its sink, then collect the counters
+    *
+    * @param report report of the translation
+    */
+   public void close(TranslationReport report) throws IOException {
+      assemblyCodeWriter.close();
+      if (meteredAssemblySink != null) {
+         metrics.addHackInstructions(meteredAssemblySink);
+      }
+      if (metrics != null) {
+         FlightRecorderEvents.commitFile(moduleName, metrics);
+      }
+      report.addUnit(this);
+   }
+
+   public AssemblyCodeWriter getWriter() {
+      return assemblyCodeWriter;
+   }
+
+   public int getInstructionCount() {
+      return instructionCount;
+   }
+
+   /**
+    * @return the constant folding pass, {@code null} when it is disabled
+    */
+   public ConstantFoldingPass getConstantFoldingPass() {
+      return constantFoldingPass;
+   }
+
+   /**
+    * @return the dead function filter, {@code null} when all the functions are translated
+    */
+   public DeadFunctionFilter getDeadFunctionFilter() {
+      return deadFunctionFilter;
+   }
+
+   /**
+    * @return the metrics of the unit, {@code null} when they are not collected
+    */
+   public TranslationMetrics getMetrics() {
+      return metrics;
+   }
+
+   /**
+    * @return the peephole optimizer, {@code null} when it is disabled
+    */
+   public PeepholeAssemblySink getPeepholeAssemblySink() {
+      return peepholeAssemblySink;
+   }
+}
@@ -1,12 +1,43 @@
 package com.noctis.vm.translator;
 
-import com.noctis.vm.translator.common.InstructionType;
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.daemon.DaemonClient;
+import com.noctis.vm.translator.daemon.TranslationDaemon;
+import com.noctis.vm.translator.emulator.EmulationReport;
+import com.noctis.vm.translator.emulator.HackEmulator;
 import com.noctis.vm.translator.exception.AssemblyTranslationException;
 import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.ir.VMSymbolTable;
+import com.noctis.vm.translator.metrics.FlightRecorderEvents;
+import com.noctis.vm.translator.metrics.TranslationMetrics;
+import com.noctis.vm.translator.parallel.ChunkedFileTranslator;
+import com.noctis.vm.translator.parallel.DirectoryTranslator;
+import com.noctis.vm.translator.parser.ReaderByteChannel;
+import com.noctis.vm.translator.parser.VMInstructionLexer;
 import com.noctis.vm.translator.parser.VMInstructionParser;
+import com.noctis.vm.translator.pipeline.PipelinedTranslator;
+import com.noctis.vm.translator.profile.ProfileGuidedPlan;
+import com.noctis.vm.translator.profile.ProfileGuidedPlanner;
 import com.noctis.vm.translator.writer.AssemblyCodeWriter;
+import com.noctis.vm.translator.writer.AssemblyRuntime;
+import com.noctis.vm.translator.writer.AssemblySink;
+import com.noctis.vm.translator.writer.ChannelAssemblySink;
+import com.noctis.vm.translator.writer.FileAssemblySink;
+import com.noctis.vm.translator.writer.WriterAssemblySink;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 /**
  * @author Noctis
@@ -14,22 +45,189 @@ import java.io.IOException;
  */
 public class VMTranslator {
    public static void main(String[] args) throws InstructionParseException, IOException, AssemblyTranslationException {
-      if (args.length != 1) {
-         System.out.println("Usage: java -jar HackVMTranslator-1.0.jar 'absolute / relative file name'");
+      TranslatorOptions options = null;
+      try {
+         options = TranslatorOptions.parse(args);
+      } catch (IllegalArgumentException e) {
+         System.out.println(e.getMessage());
+         System.out.println(TranslatorOptions.USAGE);
          System.exit(1);
       }
-      String fileName = args[0];
-      VMInstructionParser instructionParser = new VMInstructionParser(fileName);
-      AssemblyCodeWriter assemblyCodeWriter = new AssemblyCodeWriter(fileName);
-      while (instructionParser.hasMoreLines()){
-         instructionParser.advance();
-         InstructionType instructionType = instructionParser.commandType();
-         if (InstructionType.C_ARITHMETIC.equals(instructionType)) {
-            assemblyCodeWriter.writeArithmetic(instructionParser.arg1());
+      if (options.isDaemon()) {
+         new TranslationDaemon(options).serve();
+      } else if (options.isConnect()) {
+         if (!new DaemonClient(options.getPort()).send(args, System.err)) {
+            System.exit(1);
+         }
+      } else {
+         if (options.isStats()) {
+            TranslationMetrics.resetPeakHeapUsage();
+         }
+         run(options, System.err, false);
+      }
+   }
+
+   /**
+    * Translate the vm file or directory of the options as requested by the command line
+    *
+    * @param out            stream receiving the report of the translation and of the emulation
+    * @param processPeakHeap whether the peak heap of the metrics is the one of the whole process, for a job of a daemon
+    *                        running other jobs at the same time. Otherwise the caller reset the peak before the translation
+    * @return counters of the translation
+    */
+   public static TranslationReport run(TranslatorOptions options, PrintStream out, boolean processPeakHeap)
+           throws InstructionParseException, IOException, AssemblyTranslationException {
+      long start = System.nanoTime();
+      ProfileGuidedPlan plan = null;
+      if (options.getProfile() != null) {
+         plan = ProfileGuidedPlanner.plan(options);
+         options.setProfileGuidedPlan(plan);
+      }
+      TranslationReport report;
+      if (options.getOutputFormat().isMachineCode() && options.isStandardStreams()) {
+         report = new HackTranslator(options).translate(Channels.newChannel(System.in), Channels.newChannel(System.out), options.getModuleName());
+         System.out.flush();
+      } else if (options.getOutputFormat().isMachineCode()) {
+         report = new HackTranslator(options).translate(options.getSource());
+      } else if (options.isStandardStreams()) {
+         report = translate(System.in, System.out, options.getModuleName(), options);
+      } else if (new File(options.getSource()).isDirectory()) {
+         report = new DirectoryTranslator(options.getSource(), options).translate();
+      } else if (options.isPipeline()) {
+         report = new PipelinedTranslator(options.getSource(), options).translate();
+      } else if (ChunkedFileTranslator.applies(options.getSource(), options)) {
+         report = new ChunkedFileTranslator(options.getSource(), options).translate();
+      } else {
+         report = translate(options.getSource(), options);
+      }
+      if (options.isDeadFunctionElimination() && !new File(options.getSource()).isDirectory()) {
+         report.skipDeadFunctionElimination("a single vm file has no bootstrap code calling " + AssemblyRuntime.ENTRY_FUNCTION);
+      }
+      report.print(out);
+      if (plan != null) {
+         plan.print(out);
+      }
+      if (options.isStats()) {
+         writeMetrics(options, report, System.nanoTime() - start, processPeakHeap, out);
+      }
+      if (options.isEmulate()) {
+         //the emulator maps the code to the vm commands as it is generated, the staging of the metered sink would hide it
+         options.setStats(false);
+         EmulationReport emulation = new HackEmulator(options).emulate(options.getSource(), options.getMaxCycles());
+         emulation.print(out);
+         if (options.getWriteProfile() != null) {
+            emulation.getExecutionProfile().write(options.getWriteProfile());
+         }
+      }
+      return report;
+   }
+
+   /**
+    * Complete the metrics of the translation, print them as json or write them to the stats file, and record them
+    * as a flight recorder event
+    *
+    * @param elapsedNanos wall time of the translation
+    * @param out          stream receiving the report of the translation
+    */
+   private static void writeMetrics(TranslatorOptions options, TranslationReport report, long elapsedNanos, boolean processPeakHeap,
+                                    PrintStream out) throws IOException {
+      TranslationMetrics metrics = report.getMetrics() == null ? new TranslationMetrics() : report.getMetrics();
+      long bytesOut = 0;
+      if (!options.isStandardStreams()) {
+         String resultFileLocation;
+         if (options.getOutputFormat().isMachineCode()) {
+            resultFileLocation = HackTranslator.resultFileLocation(options.getSource(), options.getOutputFormat());
+         } else if (new File(options.getSource()).isDirectory()) {
+            resultFileLocation = DirectoryTranslator.resultFileLocation(options.getSource());
          } else {
-            assemblyCodeWriter.writePushPop(instructionType, instructionParser.arg1(), instructionParser.arg2());
+            resultFileLocation = AssemblyCodeWriter.resultFileLocation(options.getSource());
          }
+         bytesOut = new File(resultFileLocation).length();
+      }
+      metrics.complete(elapsedNanos, bytesOut, processPeakHeap);
+      String json = metrics.toJson(options.getSource());
+      if (options.getStatsFile() == null) {
+         out.println(json);
+      } else {
+         Files.write(Paths.get(options.getStatsFile()), (json + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+      }
+      FlightRecorderEvents.commitTranslation(options.getSource(), metrics);
+   }
+
+   /**
+    * Translate the vm file to the asm file next to it, parsing, translating and writing on the calling thread
+    *
+    * @param fileName absolute / relative file name of the vm file
+    * @param options  translation options
+    * @return counters of the translation
+    */
+   public static TranslationReport translate(String fileName, TranslatorOptions options) throws InstructionParseException, IOException, AssemblyTranslationException {
+      //Stream the vm file so that the memory footprint does not grow with the input size, the asm file is only replaced
+      //once the whole vm file is translated
+      TranslationReport report = new TranslationReport();
+      try (VMInstructionParser instructionParser = new VMInstructionParser(fileName, true);
+           FileAssemblySink sink = FileAssemblySink.open(AssemblyCodeWriter.resultFileLocation(fileName))) {
+         TranslationUnit unit = new TranslationUnit(AssemblyCodeWriter.moduleName(fileName), sink, "", options, instructionParser.symbols());
+         if (unit.getMetrics() != null) {
+            unit.getMetrics().addFile();
+         }
+         unit.translate(instructionParser);
+         unit.finish();
+         unit.writeRuntimeRoutines();
+         sink.commit();
+         unit.close(report);
+      }
+      return report;
+   }
+
+   /**
+    * Translate the vm code read from the channel to the channel, without any file. The channels are not closed
+    *
+    * @param in         vm code
+    * @param out        destination of the assembly code, followed by the shared routines
+    * @param moduleName prefix of the static symbols, i.e. the vm file name without extension
+    * @param options    translation options
+    * @return counters of the translation
+    */
+   public static TranslationReport translate(ReadableByteChannel in, WritableByteChannel out, String moduleName, TranslatorOptions options)
+           throws InstructionParseException, IOException, AssemblyTranslationException {
+      return translate(new VMInstructionLexer(in, new VMSymbolTable()), new ChannelAssemblySink(out, false), moduleName, options);
+   }
+
+   /**
+    * Translate the vm code read from the stream to the stream, without any file. The streams are not closed, the output stream is flushed
+    *
+    * @see #translate(ReadableByteChannel, WritableByteChannel, String, TranslatorOptions)
+    */
+   public static TranslationReport translate(InputStream in, OutputStream out, String moduleName, TranslatorOptions options)
+           throws InstructionParseException, IOException, AssemblyTranslationException {
+      TranslationReport report = translate(Channels.newChannel(in), Channels.newChannel(out), moduleName, options);
+      out.flush();
+      return report;
+   }
+
+   /**
+    * Translate the vm code read from the reader to the writer, e.g. from and to strings. The reader and the writer are not closed,
+    * the writer is flushed
+    *
+    * @see #translate(ReadableByteChannel, WritableByteChannel, String, TranslatorOptions)
+    */
+   public static TranslationReport translate(Reader in, Writer out, String moduleName, TranslatorOptions options)
+           throws InstructionParseException, IOException, AssemblyTranslationException {
+      return translate(new VMInstructionLexer(new ReaderByteChannel(in), new VMSymbolTable()), new WriterAssemblySink(out), moduleName, options);
+   }
+
+   private static TranslationReport translate(VMInstructionLexer lexer, AssemblySink sink, String moduleName, TranslatorOptions options)
+           throws InstructionParseException, IOException, AssemblyTranslationException {
+      TranslationUnit unit;
+      try (VMInstructionParser instructionParser = new VMInstructionParser(lexer)) {
+         unit = new TranslationUnit(moduleName, sink, "", options, instructionParser.symbols());
+         unit.translate(instructionParser);
       }
-      assemblyCodeWriter.close();
+      TranslationReport report = new TranslationReport();
+      unit.finish();
+      unit.writeRuntimeRoutines();
+      unit.close(report);
+      return report;
    }
 }
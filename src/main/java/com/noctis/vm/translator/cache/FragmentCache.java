@@ -0,0 +1,327 @@
+package com.noctis.vm.translator.cache;
+
+import com.noctis.vm.translator.TranslationReport;
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.writer.MemoryAssemblySink;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of the assembly fragments of the vm files of a directory, see
+ * {@link com.noctis.vm.translator.parallel.DirectoryTranslator}.
+ * A fragment only depends on its vm file: the static symbols and the labels are namespaced by the file name and
+ * the label counter belongs to the writer of the file, so a cached fragment is valid wherever it is stitched.
+ * The key is a SHA-256 of the file name, the file content, the translator build and the code generation options,
+ * and of the functions of the file that the dead function elimination drops.
+ * An entry is the counters of the translation followed by the fragment, written with {@link java.io.DataOutput} and
+ * never deserialized into arbitrary objects.
+ * The cache is bounded in size, the least recently used entries are evicted first
+ *
+ * @author Noctis
+ * @date 2025/03/20
+ */
+public class FragmentCache {
+
+   private static final String ENTRY_SUFFIX = ".fragment";
+
+   private static final int ENTRY_FORMAT = 3;
+
+   private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+   private static final String TRANSLATOR_VERSION = "1.0";
+
+   private static final String CLASS_FILE_SUFFIX = ".class";
+
+   private final File directory;
+
+   private final long maxBytes;
+
+   private final String translatorFingerprint;
+
+   /**
+    * @param directory cache directory, created when missing
+    * @param maxBytes  size bound of the cache directory
+    * @throws IOException When the code of the translator can not be fingerprinted, the cache could serve stale fragments
+    */
+   public FragmentCache(File directory, long maxBytes) throws IOException {
+      this(directory, maxBytes, TranslatorFingerprint.VALUE);
+   }
+
+   private FragmentCache(File directory, long maxBytes, String translatorFingerprint) throws IOException {
+      if (translatorFingerprint == null) {
+         throw new IOException("Fragment cache unavailable: the code of the translator can not be fingerprinted");
+      }
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+         throw new IOException("Failed to create cache directory: " + directory);
+      }
+      this.directory = directory;
+      this.maxBytes = maxBytes;
+      this.translatorFingerprint = translatorFingerprint;
+   }
+
+   /**
+    * @return the cache configured by the options, {@code null} when the cache is disabled or when the code of the
+    * translator can not be fingerprinted
+    */
+   public static FragmentCache fromOptions(TranslatorOptions options) throws IOException {
+      if (options.getCacheDirectory() == null) {
+         return null;
+      }
+      String translatorFingerprint = TranslatorFingerprint.VALUE;
+      if (translatorFingerprint == null) {
+         System.err.println("Fragment cache disabled: the code of the translator can not be fingerprinted");
+         return null;
+      }
+      return new FragmentCache(new File(options.getCacheDirectory()), options.getCacheSizeMB() << 20, translatorFingerprint);
+   }
+
+   /**
+    * @return hex key of the fragment of the vm file translated with the options
+    */
+   public String key(File vmFile, TranslatorOptions options) throws IOException {
+      return key(vmFile, options, Collections.<String>emptyList());
+   }
+
+   /**
+    * @param removedFunctions functions of the vm file dropped by the dead function elimination, they depend on the
+    *                         other vm files of the program
+    * @return hex key of the fragment of the vm file translated with the options
+    */
+   public String key(File vmFile, TranslatorOptions options, List<String> removedFunctions) throws IOException {
+      MessageDigest digest = sha256();
+      digest.update(translatorFingerprint.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(options.codeGenerationKey().getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(vmFile.getName().getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      for (String function : removedFunctions) {
+         digest.update(function.getBytes(StandardCharsets.UTF_8));
+         digest.update((byte) 0);
+      }
+      digest.update((byte) 0);
+      hashFile(vmFile.toPath(), digest);
+      return hex(digest.digest());
+   }
+
+   /**
+    * Load a fragment and mark it as recently used
+    *
+    * @return the fragment, {@code null} when it is not cached or the entry can not be read
+    */
+   public CachedFragment load(String key) {
+      File entry = entryFile(key);
+      if (!entry.isFile()) {
+         return null;
+      }
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)))) {
+         if (in.readInt() != ENTRY_FORMAT) {
+            return null;
+         }
+         TranslationReport report = TranslationReport.readFrom(in);
+         int length = in.readInt();
+         //the length can not exceed the entry, a corrupted one must not allocate more
+         if (length < 0 || length > entry.length()) {
+            return null;
+         }
+         byte[] code = new byte[length];
+         in.readFully(code);
+         if (in.read() >= 0) {
+            return null;
+         }
+         //the modification time is the last use of the entry, failing to update it only makes the eviction earlier
+         entry.setLastModified(System.currentTimeMillis());
+         return new CachedFragment(new MemoryAssemblySink(code), report);
+      } catch (IOException e) {
+         //a corrupted or incompatible entry is a miss, it is replaced by the new fragment
+         return null;
+      }
+   }
+
+   /**
+    * Store a fragment, the entry is written to a temporary file and moved in place so that readers never see
+    * a partial entry
+    *
+    * @param report counters of the translation of the vm file alone
+    */
+   public void store(String key, MemoryAssemblySink fragment, TranslationReport report) throws IOException {
+      Path partial = Files.createTempFile(directory.toPath(), key, ".partial");
+      try {
+         try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+            out.writeInt(ENTRY_FORMAT);
+            report.writeTo(out);
+            byte[] code = fragment.toByteArray();
+            out.writeInt(code.length);
+            out.write(code);
+         }
+         Files.move(partial, entryFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+         Files.deleteIfExists(partial);
+      }
+   }
+
+   /**
+    * Delete the least recently used entries until the cache fits in its size bound
+    */
+   public void evict() throws IOException {
+      File[] entries = directory.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+      if (entries == null) {
+         throw new IOException("Failed to list cache directory: " + directory);
+      }
+      long totalBytes = 0;
+      for (File entry : entries) {
+         totalBytes += entry.length();
+      }
+      if (totalBytes <= maxBytes) {
+         return;
+      }
+      Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+      for (File entry : entries) {
+         if (totalBytes <= maxBytes) {
+            break;
+         }
+         long length = entry.length();
+         if (entry.delete()) {
+            totalBytes -= length;
+         }
+      }
+   }
+
+   private File entryFile(String key) {
+      return new File(directory, key + ENTRY_SUFFIX);
+   }
+
+   private static void hashFile(Path file, MessageDigest digest) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+         while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+         }
+      }
+   }
+
+   /**
+    * @return hash of the jar of the translator, or of the class files when it runs from a class directory, so that any
+    * new build invalidates the cache. {@code null} when the code of the translator can not be located
+    */
+   private static String translatorFingerprint() throws IOException {
+      CodeSource codeSource = FragmentCache.class.getProtectionDomain().getCodeSource();
+      if (codeSource == null || codeSource.getLocation() == null) {
+         return null;
+      }
+      Path location;
+      try {
+         location = new File(codeSource.getLocation().toURI()).toPath();
+      } catch (URISyntaxException | IllegalArgumentException e) {
+         return null;
+      }
+      MessageDigest digest = sha256();
+      if (Files.isDirectory(location)) {
+         hashClassFiles(location, digest);
+      } else if (Files.isRegularFile(location)) {
+         hashFile(location, digest);
+      } else {
+         return null;
+      }
+      return TRANSLATOR_VERSION + "-" + hex(digest.digest());
+   }
+
+   /**
+    * Hash the path and the content of each class file under the class directory, in path order
+    */
+   private static void hashClassFiles(Path classDirectory, MessageDigest digest) throws IOException {
+      List<Path> classFiles = new ArrayList<>();
+      try (Stream<Path> paths = Files.walk(classDirectory)) {
+         paths.filter(path -> path.toString().endsWith(CLASS_FILE_SUFFIX) && Files.isRegularFile(path))
+                 .forEach(classFiles::add);
+      }
+      Collections.sort(classFiles);
+      for (Path classFile : classFiles) {
+         digest.update(classDirectory.relativize(classFile).toString().getBytes(StandardCharsets.UTF_8));
+         digest.update((byte) 0);
+         hashFile(classFile, digest);
+      }
+   }
+
+   private static MessageDigest sha256() {
+      try {
+         return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+         //every java platform supports SHA-256
+         throw new IllegalStateException(e);
+      }
+   }
+
+   private static String hex(byte[] bytes) {
+      StringBuilder hex = new StringBuilder(bytes.length * 2);
+      for (byte b : bytes) {
+         hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return hex.toString();
+   }
+
+   /**
+    * Fingerprint of the translator, hashed once per jvm when the first cache is created rather than by every translation,
+    * e.g. by each job of the daemon. {@code null} when the code of the translator can not be located or read
+    */
+   private static final class TranslatorFingerprint {
+
+      private static final String VALUE = compute();
+
+      private static String compute() {
+         try {
+            return translatorFingerprint();
+         } catch (IOException e) {
+            return null;
+         }
+      }
+   }
+
+   /**
+    * Fragment loaded from the cache with the counters of its translation
+    */
+   public static class CachedFragment {
+
+      private final MemoryAssemblySink fragment;
+
+      private final TranslationReport report;
+
+      public CachedFragment(MemoryAssemblySink fragment, TranslationReport report) {
+         this.fragment = fragment;
+         this.report = report;
+      }
+
+      public MemoryAssemblySink getFragment() {
+         return fragment;
+      }
+
+      public TranslationReport getReport() {
+         return report;
+      }
+   }
+}
@@ -16,5 +16,29 @@ public enum InstructionType {
    /**
     * VM instructions starts with pop command
     */
-   C_POP
+   C_POP,
+   /**
+    * Label declaration, {@code label symbol}
+    */
+   C_LABEL,
+   /**
+    * Unconditional jump, {@code goto symbol}
+    */
+   C_GOTO,
+   /**
+    * Conditional jump on the popped stack top, {@code if-goto symbol}
+    */
+   C_IF,
+   /**
+    * Function declaration, {@code function name nVars}
+    */
+   C_FUNCTION,
+   /**
+    * Return from the current function
+    */
+   C_RETURN,
+   /**
+    * Function call, {@code call name nArgs}
+    */
+   C_CALL
 }
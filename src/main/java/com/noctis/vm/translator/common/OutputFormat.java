@@ -0,0 +1,62 @@
+package com.noctis.vm.translator.common;
+
+/**
+ * Form of the translated program: hack assembly, or hack machine code generated without an assembler
+ *
+ * @author Noctis
+ * @date 2025/03/27
+ */
+public enum OutputFormat {
+
+   /**
+    * Assembly code, the input of the standard assembler
+    */
+   ASM("asm", VMConstants.RESULT_ASM_FILE_SUFFIX),
+
+   /**
+    * Machine code as text, one instruction per line written as 16 binary digits, like the output of the standard assembler
+    */
+   HACK("hack", VMConstants.RESULT_HACK_FILE_SUFFIX),
+
+   /**
+    * Machine code as a packed image, one big-endian 16-bit word per instruction
+    */
+   BINARY("bin", VMConstants.RESULT_BINARY_FILE_SUFFIX);
+
+   private final String optionValue;
+
+   private final String fileSuffix;
+
+   OutputFormat(String optionValue, String fileSuffix) {
+      this.optionValue = optionValue;
+      this.fileSuffix = fileSuffix;
+   }
+
+   /**
+    * @param optionValue value of the {@code --output} option
+    * @return the format, {@code null} when the value is unknown
+    */
+   public static OutputFormat fromOptionValue(String optionValue) {
+      for (OutputFormat format : values()) {
+         if (format.optionValue.equals(optionValue)) {
+            return format;
+         }
+      }
+      return null;
+   }
+
+   public String optionValue() {
+      return optionValue;
+   }
+
+   public String fileSuffix() {
+      return fileSuffix;
+   }
+
+   /**
+    * @return whether the program is generated as machine code by the binary backend
+    */
+   public boolean isMachineCode() {
+      return this != ASM;
+   }
+}
@@ -0,0 +1,603 @@
+package com.noctis.vm.translator.common;
+
+import com.noctis.vm.translator.profile.ProfileGuidedPlan;
+
+/**
+ * Command line options of the translator
+ *
+ * @author Noctis
+ * @date 2025/03/08
+ */
+public class TranslatorOptions {
+
+   public static final long DEFAULT_MAX_CYCLES = 100_000_000L;
+
+   private static final String MAX_CYCLES_OPTION = "--max-cycles=";
+
+   public static final long DEFAULT_CACHE_SIZE_MB = 256;
+
+   private static final String CACHE_DIRECTORY_OPTION = "--cache-dir=";
+
+   private static final String CACHE_SIZE_OPTION = "--cache-size=";
+
+   /**
+    * Source standing for the standard streams, the vm code is read from the standard input and the assembly code written
+    * to the standard output
+    */
+   public static final String STANDARD_STREAMS = "-";
+
+   public static final String DEFAULT_MODULE_NAME = "Main";
+
+   private static final String MODULE_OPTION = "--module=";
+
+   public static final long DEFAULT_CHUNK_SIZE_KB = 4096;
+
+   private static final String CHUNK_SIZE_OPTION = "--chunk-size=";
+
+   public static final int DEFAULT_DAEMON_PORT = 7391;
+
+   private static final String PORT_OPTION = "--port=";
+
+   private static final String WORKERS_OPTION = "--workers=";
+
+   private static final String STATS_FILE_OPTION = "--stats=";
+
+   private static final String OUTPUT_OPTION = "--output=";
+
+   private static final String PROFILE_OPTION = "--profile=";
+
+   private static final String WRITE_PROFILE_OPTION = "--write-profile=";
+
+   public static final long DEFAULT_ROM_BUDGET = 32768;
+
+   private static final String ROM_BUDGET_OPTION = "--rom-budget=";
+
+   public static final String USAGE = String.join(System.lineSeparator(),
+           "Usage: java -jar HackVMTranslator-1.0.jar [options] 'absolute / relative file or directory name'",
+           "A directory is translated into one asm file named after it, its vm files are translated in parallel",
+           "With '" + STANDARD_STREAMS + "' as the file name the vm code is read from the standard input and the assembly code written to the standard output",
+           "A single vm file bigger than the chunk size is split into chunks translated in parallel, unless --fold-constants,",
+           "--peephole or --cache-tos carry state from one vm command to the next",
+           "Options:",
+           "  --output=FORMAT     asm (default), hack to generate the machine code as text without a separate assembler,",
+           "                      or bin for a packed image of big-endian 16-bit words, next to the vm file or in the directory",
+           "  --module=NAME       prefix of the static symbols of the standard input, " + DEFAULT_MODULE_NAME + " by default",
+           "  --pipeline          parse, translate and write a single vm file on separate threads",
+           "  --shared-compare    call one shared routine per eq/gt/lt instead of inlining each comparison",
+           "  --fold-constants    evaluate arithmetic on constants at translation time",
+           "  --peephole          rewrite wasteful assembly sequences between adjacent vm commands",
+           "  --select-addressing pick the cheapest push/pop address computation for each segment and index",
+           "  --cache-tos         keep the stack top in the D register between vm commands",
+           "  --memoize-push-pop  copy the code of recurring push/pop commands generated before instead of generating it again",
+           "  --eliminate-dead-functions",
+           "                      translate only the functions of a directory reachable from Sys.init",
+           "  --profile=FILE      inline the comparisons executed most in the profile and share the others, within the ROM budget,",
+           "                      FILE has one 'module line executions' line per vm line, e.g. from --write-profile,",
+           "                      not with --peephole",
+           "  --rom-budget=N      instructions the profile-guided program may use, " + DEFAULT_ROM_BUDGET + " by default",
+           "  --emulate           run the translated program on the built-in hack emulator and print the cycles per vm command",
+           "  --write-profile=FILE",
+           "                      with --emulate: write the executions of each vm line to FILE, the input of --profile",
+           "  --max-cycles=N      cycle budget of the emulator, " + DEFAULT_MAX_CYCLES + " by default",
+           "  --cache-dir=DIR     reuse the fragments of unchanged vm files of a directory from the cache in DIR",
+           "  --cache-size=MB     size bound of the fragment cache, least recently used fragments are evicted, "
+                   + DEFAULT_CACHE_SIZE_MB + " by default",
+           "  --chunk-size=KB     size of the chunks of a single vm file, " + DEFAULT_CHUNK_SIZE_KB + " by default",
+           "  --stats             print the phase times, vm command and hack instruction counts, bytes and peak heap as json",
+           "                      after the report, also recorded as flight recorder events when a recording is running",
+           "  --stats=FILE        write the json metrics to FILE instead",
+           "Daemon:",
+           "  --daemon            keep a warm translator running on the loopback port instead of translating, no vm file,",
+           "                      the clients of the same user authenticate with the token file in ~/.hackvmtranslator",
+           "  --cache-dir=DIR     with --daemon: fragment cache of all the jobs, the jobs can not choose their own",
+           "  --workers=N         jobs translated concurrently by the daemon, the number of processors by default",
+           "  --connect           send the translation to the daemon instead of translating in this process,",
+           "                      without --stats=FILE, --write-profile nor --cache-dir",
+           "  --stats             with --connect and no vm file: print the jobs served by the daemon and their mean latency",
+           "                      with --connect and a vm file: the daemon collects the metrics of the translation,",
+           "                      with the peak heap of the daemon process (peakHeapScope process)",
+           "  --shutdown          with --connect and no vm file: stop the daemon",
+           "  --port=N            loopback port of the daemon, " + DEFAULT_DAEMON_PORT + " by default");
+
+   private String source;
+
+   private boolean pipeline;
+
+   private boolean sharedComparison;
+
+   private boolean constantFolding;
+
+   private boolean peephole;
+
+   private boolean selectAddressing;
+
+   private boolean topOfStackCaching;
+
+   private boolean memoizePushPop;
+
+   private boolean deadFunctionElimination;
+
+   private boolean emulate;
+
+   private String moduleName = DEFAULT_MODULE_NAME;
+
+   private OutputFormat outputFormat = OutputFormat.ASM;
+
+   private String profile;
+
+   private long romBudget = DEFAULT_ROM_BUDGET;
+
+   private String writeProfile;
+
+   /**
+    * Plan built from the profile before the translation, {@code null} without profile
+    */
+   private ProfileGuidedPlan profileGuidedPlan;
+
+   private long chunkSizeKB = DEFAULT_CHUNK_SIZE_KB;
+
+   private boolean stats;
+
+   private String statsFile;
+
+   private long maxCycles = DEFAULT_MAX_CYCLES;
+
+   private String cacheDirectory;
+
+   private long cacheSizeMB = DEFAULT_CACHE_SIZE_MB;
+
+   private boolean daemon;
+
+   private boolean connect;
+
+   private boolean daemonStats;
+
+   private boolean daemonShutdown;
+
+   private int port = DEFAULT_DAEMON_PORT;
+
+   private int workers = Runtime.getRuntime().availableProcessors();
+
+   /**
+    * @param args command line arguments, options first and the vm file last
+    * @throws IllegalArgumentException When an option is unknown or the vm file is missing
+    */
+   public static TranslatorOptions parse(String[] args) {
+      TranslatorOptions options = new TranslatorOptions();
+      for (String arg : args) {
+         if (!arg.startsWith("--")) {
+            if (options.source != null) {
+               throw new IllegalArgumentException("Only one vm file or directory is accepted: " + arg);
+            }
+            options.source = arg;
+            continue;
+         }
+         if (arg.startsWith(MAX_CYCLES_OPTION)) {
+            options.maxCycles = parsePositive(arg.substring(MAX_CYCLES_OPTION.length()), "cycle budget");
+            continue;
+         }
+         if (arg.startsWith(CACHE_DIRECTORY_OPTION)) {
+            options.cacheDirectory = arg.substring(CACHE_DIRECTORY_OPTION.length());
+            continue;
+         }
+         if (arg.startsWith(MODULE_OPTION)) {
+            options.moduleName = arg.substring(MODULE_OPTION.length());
+            if (options.moduleName.isEmpty()) {
+               throw new IllegalArgumentException("Missing module name: " + arg);
+            }
+            continue;
+         }
+         if (arg.startsWith(OUTPUT_OPTION)) {
+            options.outputFormat = OutputFormat.fromOptionValue(arg.substring(OUTPUT_OPTION.length()));
+            if (options.outputFormat == null) {
+               throw new IllegalArgumentException("Unknown output format: " + arg);
+            }
+            continue;
+         }
+         if (arg.startsWith(PROFILE_OPTION)) {
+            options.profile = arg.substring(PROFILE_OPTION.length());
+            continue;
+         }
+         if (arg.startsWith(WRITE_PROFILE_OPTION)) {
+            options.writeProfile = arg.substring(WRITE_PROFILE_OPTION.length());
+            continue;
+         }
+         if (arg.startsWith(ROM_BUDGET_OPTION)) {
+            options.romBudget = parsePositive(arg.substring(ROM_BUDGET_OPTION.length()), "ROM budget");
+            continue;
+         }
+         if (arg.startsWith(CHUNK_SIZE_OPTION)) {
+            options.chunkSizeKB = parsePositive(arg.substring(CHUNK_SIZE_OPTION.length()), "chunk size");
+            continue;
+         }
+         if (arg.startsWith(STATS_FILE_OPTION)) {
+            options.stats = true;
+            options.statsFile = arg.substring(STATS_FILE_OPTION.length());
+            continue;
+         }
+         if (arg.startsWith(CACHE_SIZE_OPTION)) {
+            options.cacheSizeMB = parsePositive(arg.substring(CACHE_SIZE_OPTION.length()), "cache size");
+            continue;
+         }
+         if (arg.startsWith(PORT_OPTION)) {
+            long port = parsePositive(arg.substring(PORT_OPTION.length()), "port");
+            if (port > 65535) {
+               throw new IllegalArgumentException("Invalid port: " + port);
+            }
+            options.port = (int) port;
+            continue;
+         }
+         if (arg.startsWith(WORKERS_OPTION)) {
+            options.workers = (int) Math.min(Integer.MAX_VALUE, parsePositive(arg.substring(WORKERS_OPTION.length()), "worker count"));
+            continue;
+         }
+         switch (arg) {
+            case "--pipeline":
+               options.pipeline = true;
+               break;
+            case "--shared-compare":
+               options.sharedComparison = true;
+               break;
+            case "--fold-constants":
+               options.constantFolding = true;
+               break;
+            case "--peephole":
+               options.peephole = true;
+               break;
+            case "--select-addressing":
+               options.selectAddressing = true;
+               break;
+            case "--cache-tos":
+               options.topOfStackCaching = true;
+               break;
+            case "--memoize-push-pop":
+               options.memoizePushPop = true;
+               break;
+            case "--eliminate-dead-functions":
+               options.deadFunctionElimination = true;
+               break;
+            case "--emulate":
+               options.emulate = true;
+               break;
+            case "--daemon":
+               options.daemon = true;
+               break;
+            case "--connect":
+               options.connect = true;
+               break;
+            case "--stats":
+               options.stats = true;
+               break;
+            case "--shutdown":
+               options.daemonShutdown = true;
+               break;
+            default:
+               throw new IllegalArgumentException("Unknown option: " + arg);
+         }
+      }
+      if (options.daemonShutdown && !options.connect) {
+         throw new IllegalArgumentException("--shutdown is only accepted with --connect");
+      }
+      //without a vm file to translate, --stats asks the daemon for its own counters
+      if (options.connect && options.stats && options.statsFile == null && options.source == null) {
+         options.daemonStats = true;
+         options.stats = false;
+      }
+      boolean needsSource = !options.daemon && !options.daemonStats && !options.daemonShutdown;
+      if (needsSource && options.source == null) {
+         throw new IllegalArgumentException("Missing vm file or directory");
+      }
+      if (!needsSource && options.source != null) {
+         throw new IllegalArgumentException("No vm file or directory is accepted with --daemon, --stats or --shutdown: " + options.source);
+      }
+      if (options.isStandardStreams() && (options.pipeline || options.emulate || options.connect)) {
+         throw new IllegalArgumentException("--pipeline, --emulate and --connect need a vm file or directory, not the standard input");
+      }
+      if (options.outputFormat.isMachineCode() && (options.peephole || options.pipeline || options.cacheDirectory != null
+              || options.memoizePushPop)) {
+         throw new IllegalArgumentException("--peephole, --pipeline, --cache-dir and --memoize-push-pop work on assembly code, not with --output="
+                 + options.outputFormat.optionValue());
+      }
+      if (options.profile != null && (options.isStandardStreams() || options.pipeline || options.cacheDirectory != null)) {
+         throw new IllegalArgumentException("--profile needs the vm lines of a vm file or directory, not with the standard input, "
+                 + "--pipeline or --cache-dir");
+      }
+      //the planner measures the program without the peephole rewrites, the budget would be checked against another size
+      if (options.profile != null && options.peephole) {
+         throw new IllegalArgumentException("--profile plans the ROM budget without the peephole rewrites, not with --peephole");
+      }
+      if (options.writeProfile != null && !options.emulate) {
+         throw new IllegalArgumentException("--write-profile is only accepted with --emulate");
+      }
+      return options;
+   }
+
+   private static long parsePositive(String value, String name) {
+      try {
+         long number = Long.parseLong(value);
+         if (number <= 0) {
+            throw new IllegalArgumentException("The " + name + " must be positive: " + value);
+         }
+         return number;
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException("Invalid " + name + ": " + value);
+      }
+   }
+
+   /**
+    * @return the options that change the generated code, part of the key of the fragment cache.
+    * A new code generation option must be added here
+    */
+   public String codeGenerationKey() {
+      return "shared-compare=" + sharedComparison
+              + ",fold-constants=" + constantFolding
+              + ",peephole=" + peephole
+              + ",select-addressing=" + selectAddressing
+              + ",cache-tos=" + topOfStackCaching
+              + ",eliminate-dead-functions=" + deadFunctionElimination;
+   }
+
+   public String getSource() {
+      return source;
+   }
+
+   public void setSource(String source) {
+      this.source = source;
+   }
+
+   /**
+    * @return whether the vm code is read from the standard input and the assembly code written to the standard output
+    */
+   public boolean isStandardStreams() {
+      return STANDARD_STREAMS.equals(source);
+   }
+
+   /**
+    * @return prefix of the static symbols when the vm code does not come from a file
+    */
+   public String getModuleName() {
+      return moduleName;
+   }
+
+   public void setModuleName(String moduleName) {
+      this.moduleName = moduleName;
+   }
+
+   /**
+    * @return form of the translated program
+    */
+   public OutputFormat getOutputFormat() {
+      return outputFormat;
+   }
+
+   public void setOutputFormat(OutputFormat outputFormat) {
+      this.outputFormat = outputFormat;
+   }
+
+   /**
+    * @return execution profile guiding the form of the comparisons, {@code null} without profile
+    */
+   public String getProfile() {
+      return profile;
+   }
+
+   public void setProfile(String profile) {
+      this.profile = profile;
+   }
+
+   /**
+    * @return instructions the profile-guided program may use
+    */
+   public long getRomBudget() {
+      return romBudget;
+   }
+
+   public void setRomBudget(long romBudget) {
+      this.romBudget = romBudget;
+   }
+
+   /**
+    * @return file receiving the executions of the vm lines of the emulated run, {@code null} not to write them
+    */
+   public String getWriteProfile() {
+      return writeProfile;
+   }
+
+   public void setWriteProfile(String writeProfile) {
+      this.writeProfile = writeProfile;
+   }
+
+   /**
+    * @return plan of the comparison forms built from the profile, {@code null} without profile
+    */
+   public ProfileGuidedPlan getProfileGuidedPlan() {
+      return profileGuidedPlan;
+   }
+
+   public void setProfileGuidedPlan(ProfileGuidedPlan profileGuidedPlan) {
+      this.profileGuidedPlan = profileGuidedPlan;
+   }
+
+   public boolean isPipeline() {
+      return pipeline;
+   }
+
+   public void setPipeline(boolean pipeline) {
+      this.pipeline = pipeline;
+   }
+
+   public boolean isSharedComparison() {
+      return sharedComparison;
+   }
+
+   public void setSharedComparison(boolean sharedComparison) {
+      this.sharedComparison = sharedComparison;
+   }
+
+   public boolean isConstantFolding() {
+      return constantFolding;
+   }
+
+   public void setConstantFolding(boolean constantFolding) {
+      this.constantFolding = constantFolding;
+   }
+
+   public boolean isPeephole() {
+      return peephole;
+   }
+
+   public void setPeephole(boolean peephole) {
+      this.peephole = peephole;
+   }
+
+   public boolean isSelectAddressing() {
+      return selectAddressing;
+   }
+
+   public void setSelectAddressing(boolean selectAddressing) {
+      this.selectAddressing = selectAddressing;
+   }
+
+   public boolean isTopOfStackCaching() {
+      return topOfStackCaching;
+   }
+
+   public void setTopOfStackCaching(boolean topOfStackCaching) {
+      this.topOfStackCaching = topOfStackCaching;
+   }
+
+   /**
+    * @return whether the code of the push/pop commands is copied from the first time it was generated, the code is the same
+    */
+   public boolean isMemoizePushPop() {
+      return memoizePushPop;
+   }
+
+   public void setMemoizePushPop(boolean memoizePushPop) {
+      this.memoizePushPop = memoizePushPop;
+   }
+
+   public boolean isDeadFunctionElimination() {
+      return deadFunctionElimination;
+   }
+
+   public void setDeadFunctionElimination(boolean deadFunctionElimination) {
+      this.deadFunctionElimination = deadFunctionElimination;
+   }
+
+   public boolean isEmulate() {
+      return emulate;
+   }
+
+   public void setEmulate(boolean emulate) {
+      this.emulate = emulate;
+   }
+
+   /**
+    * @return size in KB above which a single vm file is split into chunks translated in parallel
+    */
+   public long getChunkSizeKB() {
+      return chunkSizeKB;
+   }
+
+   public void setChunkSizeKB(long chunkSizeKB) {
+      this.chunkSizeKB = chunkSizeKB;
+   }
+
+   /**
+    * @return whether the metrics of the translation are collected
+    */
+   public boolean isStats() {
+      return stats;
+   }
+
+   public void setStats(boolean stats) {
+      this.stats = stats;
+   }
+
+   /**
+    * @return file receiving the json metrics, {@code null} to print them after the report
+    */
+   public String getStatsFile() {
+      return statsFile;
+   }
+
+   public void setStatsFile(String statsFile) {
+      this.statsFile = statsFile;
+   }
+
+   public long getMaxCycles() {
+      return maxCycles;
+   }
+
+   public void setMaxCycles(long maxCycles) {
+      this.maxCycles = maxCycles;
+   }
+
+   /**
+    * @return directory of the fragment cache, {@code null} when the cache is disabled
+    */
+   public String getCacheDirectory() {
+      return cacheDirectory;
+   }
+
+   public void setCacheDirectory(String cacheDirectory) {
+      this.cacheDirectory = cacheDirectory;
+   }
+
+   public long getCacheSizeMB() {
+      return cacheSizeMB;
+   }
+
+   public void setCacheSizeMB(long cacheSizeMB) {
+      this.cacheSizeMB = cacheSizeMB;
+   }
+
+   public boolean isDaemon() {
+      return daemon;
+   }
+
+   public void setDaemon(boolean daemon) {
+      this.daemon = daemon;
+   }
+
+   public boolean isConnect() {
+      return connect;
+   }
+
+   public void setConnect(boolean connect) {
+      this.connect = connect;
+   }
+
+   public boolean isDaemonStats() {
+      return daemonStats;
+   }
+
+   public void setDaemonStats(boolean daemonStats) {
+      this.daemonStats = daemonStats;
+   }
+
+   public boolean isDaemonShutdown() {
+      return daemonShutdown;
+   }
+
+   public void setDaemonShutdown(boolean daemonShutdown) {
+      this.daemonShutdown = daemonShutdown;
+   }
+
+   public int getPort() {
+      return port;
+   }
+
+   public void setPort(int port) {
+      this.port = port;
+   }
+
+   public int getWorkers() {
+      return workers;
+   }
+
+   public void setWorkers(int workers) {
+      this.workers = workers;
+   }
+}
@@ -8,8 +8,6 @@ import java.util.*;
  */
 public class VMConstants {
 
-   public static final String INSTRUCTION_PATTERN = "^(push|pop)\\s(constant|local|argument|this|that|static|temp|pointer)\\s\\d+$";
-
    //----- Arithmetic Command -----//
    public static final String ARITHMETIC_ADD = "add";
    public static final String ARITHMETIC_SUB = "sub";
@@ -28,6 +26,19 @@ public class VMConstants {
 
    public static final String INSTRUCTION_PREFIX_POP = "pop";
 
+   //----- Program Flow And Function Command -----//
+   public static final String INSTRUCTION_LABEL = "label";
+
+   public static final String INSTRUCTION_GOTO = "goto";
+
+   public static final String INSTRUCTION_IF_GOTO = "if-goto";
+
+   public static final String INSTRUCTION_FUNCTION = "function";
+
+   public static final String INSTRUCTION_CALL = "call";
+
+   public static final String INSTRUCTION_RETURN = "return";
+
    //----- Virtual Memory Segment Name -----//
    public static final String VIRTUAL_SEGMENT_CONSTANT = "constant";
 
@@ -50,6 +61,12 @@ public class VMConstants {
 
    public static final String RESULT_ASM_FILE_SUFFIX = ".asm";
 
+   public static final String RESULT_HACK_FILE_SUFFIX = ".hack";
+
+   public static final String RESULT_BINARY_FILE_SUFFIX = ".bin";
+
+   public static final String VM_FILE_SUFFIX = ".vm";
+
    public static final Map<String, String> VIRTUAL_SEGMENT_AND_SYMBOL_MAP = new HashMap<>(4);
 
    static {
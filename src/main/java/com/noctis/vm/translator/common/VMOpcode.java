@@ -0,0 +1,125 @@
+package com.noctis.vm.translator.common;
+
+/**
+ * Operation codes of the decoded vm instructions
+ *
+ * @author Noctis
+ * @date 2025/03/02
+ */
+public enum VMOpcode {
+   ADD(VMConstants.ARITHMETIC_ADD, InstructionType.C_ARITHMETIC),
+   SUB(VMConstants.ARITHMETIC_SUB, InstructionType.C_ARITHMETIC),
+   NEG(VMConstants.ARITHMETIC_NEG, InstructionType.C_ARITHMETIC),
+   EQ(VMConstants.ARITHMETIC_EQ, InstructionType.C_ARITHMETIC),
+   GT(VMConstants.ARITHMETIC_GT, InstructionType.C_ARITHMETIC),
+   LT(VMConstants.ARITHMETIC_LT, InstructionType.C_ARITHMETIC),
+   AND(VMConstants.ARITHMETIC_AND, InstructionType.C_ARITHMETIC),
+   OR(VMConstants.ARITHMETIC_OR, InstructionType.C_ARITHMETIC),
+   NOT(VMConstants.ARITHMETIC_NOT, InstructionType.C_ARITHMETIC),
+   PUSH(VMConstants.INSTRUCTION_PREFIX_PUSH, InstructionType.C_PUSH),
+   POP(VMConstants.INSTRUCTION_PREFIX_POP, InstructionType.C_POP),
+   LABEL(VMConstants.INSTRUCTION_LABEL, InstructionType.C_LABEL),
+   GOTO(VMConstants.INSTRUCTION_GOTO, InstructionType.C_GOTO),
+   IF_GOTO(VMConstants.INSTRUCTION_IF_GOTO, InstructionType.C_IF),
+   FUNCTION(VMConstants.INSTRUCTION_FUNCTION, InstructionType.C_FUNCTION),
+   CALL(VMConstants.INSTRUCTION_CALL, InstructionType.C_CALL),
+   RETURN(VMConstants.INSTRUCTION_RETURN, InstructionType.C_RETURN),
+   /**
+    * Internal opcode produced by optimization passes: store a constant straight to a segment, i.e. {@code push constant c} + {@code pop}.
+    * It has no vm command, so it never comes out of the parser
+    */
+   STORE_CONSTANT(null, InstructionType.C_POP);
+
+   private static final VMOpcode[] VALUES = values();
+
+   private final String command;
+
+   private final InstructionType instructionType;
+
+   VMOpcode(String command, InstructionType instructionType) {
+      this.command = command;
+      this.instructionType = instructionType;
+   }
+
+   /**
+    * @return vm command of the opcode, {@code null} for internal opcodes
+    */
+   public String command() {
+      return command;
+   }
+
+   public InstructionType instructionType() {
+      return instructionType;
+   }
+
+   /**
+    * @return whether the opcode is one of {@code eq/gt/lt}, which are translated with jump labels
+    */
+   public boolean isComparison() {
+      return this == EQ || this == GT || this == LT;
+   }
+
+   /**
+    * @return whether the instruction names a label or a function, kept in the symbol field of the packed instruction
+    */
+   public boolean hasSymbol() {
+      return this == LABEL || this == GOTO || this == IF_GOTO || this == FUNCTION || this == CALL;
+   }
+
+   /**
+    * @return whether the instruction transfers control or is the target of a transfer, so no state of the code
+    * generation can be carried across it
+    */
+   public boolean isControlFlow() {
+      return hasSymbol() || this == RETURN;
+   }
+
+   public static VMOpcode ofOrdinal(int ordinal) {
+      return VALUES[ordinal];
+   }
+
+   /**
+    * @param command arithmetic, program flow or function command, or the command prefix of push/pop instructions
+    * @return the opcode, or {@code null} when the command is unknown
+    */
+   public static VMOpcode fromCommand(String command) {
+      switch (command) {
+         case VMConstants.ARITHMETIC_ADD:
+            return ADD;
+         case VMConstants.ARITHMETIC_SUB:
+            return SUB;
+         case VMConstants.ARITHMETIC_NEG:
+            return NEG;
+         case VMConstants.ARITHMETIC_EQ:
+            return EQ;
+         case VMConstants.ARITHMETIC_GT:
+            return GT;
+         case VMConstants.ARITHMETIC_LT:
+            return LT;
+         case VMConstants.ARITHMETIC_AND:
+            return AND;
+         case VMConstants.ARITHMETIC_OR:
+            return OR;
+         case VMConstants.ARITHMETIC_NOT:
+            return NOT;
+         case VMConstants.INSTRUCTION_PREFIX_PUSH:
+            return PUSH;
+         case VMConstants.INSTRUCTION_PREFIX_POP:
+            return POP;
+         case VMConstants.INSTRUCTION_LABEL:
+            return LABEL;
+         case VMConstants.INSTRUCTION_GOTO:
+            return GOTO;
+         case VMConstants.INSTRUCTION_IF_GOTO:
+            return IF_GOTO;
+         case VMConstants.INSTRUCTION_FUNCTION:
+            return FUNCTION;
+         case VMConstants.INSTRUCTION_CALL:
+            return CALL;
+         case VMConstants.INSTRUCTION_RETURN:
+            return RETURN;
+         default:
+            return null;
+      }
+   }
+}
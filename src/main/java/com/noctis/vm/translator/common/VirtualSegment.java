@@ -0,0 +1,71 @@
+package com.noctis.vm.translator.common;
+
+/**
+ * Virtual memory segments of the hack virtual machine
+ *
+ * @author Noctis
+ * @date 2025/03/02
+ */
+public enum VirtualSegment {
+   CONSTANT(VMConstants.VIRTUAL_SEGMENT_CONSTANT, null),
+   LOCAL(VMConstants.VIRTUAL_SEGMENT_LOCAL, "LCL"),
+   ARGUMENT(VMConstants.VIRTUAL_SEGMENT_ARGUMENT, "ARG"),
+   THIS(VMConstants.VIRTUAL_SEGMENT_THIS, "THIS"),
+   THAT(VMConstants.VIRTUAL_SEGMENT_THAT, "THAT"),
+   STATIC(VMConstants.VIRTUAL_SEGMENT_STATIC, null),
+   TEMP(VMConstants.VIRTUAL_SEGMENT_TEMP, null),
+   POINTER(VMConstants.VIRTUAL_SEGMENT_POINTER, null);
+
+   private static final VirtualSegment[] VALUES = values();
+
+   private final String segmentName;
+
+   /**
+    * Hack symbol holding the base address of the segment, only available for {@code local/argument/this/that}
+    */
+   private final String baseSymbol;
+
+   VirtualSegment(String segmentName, String baseSymbol) {
+      this.segmentName = segmentName;
+      this.baseSymbol = baseSymbol;
+   }
+
+   public String segmentName() {
+      return segmentName;
+   }
+
+   public String baseSymbol() {
+      return baseSymbol;
+   }
+
+   public static VirtualSegment ofOrdinal(int ordinal) {
+      return VALUES[ordinal];
+   }
+
+   /**
+    * @param segmentName segment name used in vm instructions
+    * @return the segment, or {@code null} when the name is not a virtual segment
+    */
+   public static VirtualSegment fromName(String segmentName) {
+      switch (segmentName) {
+         case VMConstants.VIRTUAL_SEGMENT_CONSTANT:
+            return CONSTANT;
+         case VMConstants.VIRTUAL_SEGMENT_LOCAL:
+            return LOCAL;
+         case VMConstants.VIRTUAL_SEGMENT_ARGUMENT:
+            return ARGUMENT;
+         case VMConstants.VIRTUAL_SEGMENT_THIS:
+            return THIS;
+         case VMConstants.VIRTUAL_SEGMENT_THAT:
+            return THAT;
+         case VMConstants.VIRTUAL_SEGMENT_STATIC:
+            return STATIC;
+         case VMConstants.VIRTUAL_SEGMENT_TEMP:
+            return TEMP;
+         case VMConstants.VIRTUAL_SEGMENT_POINTER:
+            return POINTER;
+         default:
+            return null;
+      }
+   }
+}
@@ -0,0 +1,102 @@
+package com.noctis.vm.translator.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Client of a {@link TranslationDaemon}, forwarding a command line to it with the {@link DaemonToken} of the daemon.
+ * The daemon runs in another working directory, so the paths of the command line are sent as absolute paths
+ *
+ * @author Noctis
+ * @date 2025/03/21
+ */
+public class DaemonClient {
+
+   /**
+    * Options whose value is a path
+    */
+   private static final String[] PATH_OPTIONS = {"--profile="};
+
+   private final int port;
+
+   public DaemonClient(int port) {
+      this.port = port;
+   }
+
+   /**
+    * Send the command line to the daemon and copy the report of the job to the stream
+    *
+    * @param args command line of the translator, with {@code --connect}
+    * @param out  stream receiving the report of the job
+    * @return whether the job succeeded, the reason of a failure is printed to the stream
+    */
+   public boolean send(String[] args, PrintStream out) throws IOException {
+      String request = request(args);
+      String token = DaemonToken.read(port);
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+         OutputStream requestStream = socket.getOutputStream();
+         requestStream.write((token + "\n" + request + "\n").getBytes(StandardCharsets.UTF_8));
+         requestStream.flush();
+         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+         String status = in.readLine();
+         if (status == null) {
+            throw new IOException("The translation daemon closed the connection without a response");
+         }
+         String line;
+         while ((line = in.readLine()) != null) {
+            out.println(line);
+         }
+         if (TranslationDaemon.OK_STATUS.equals(status)) {
+            return true;
+         }
+         out.println(status);
+         return false;
+      }
+   }
+
+   /**
+    * @return request line of the command line, the client options are left out
+    */
+   private static String request(String[] args) {
+      String command = TranslationDaemon.TRANSLATE_COMMAND;
+      StringBuilder arguments = new StringBuilder();
+      boolean hasSource = false;
+      for (String arg : args) {
+         hasSource |= !arg.startsWith("--");
+      }
+      for (String arg : args) {
+         //with a vm file, --stats asks for the metrics of the translation
+         if ("--stats".equals(arg) && !hasSource) {
+            command = TranslationDaemon.STATS_COMMAND;
+            continue;
+         }
+         if ("--shutdown".equals(arg)) {
+            command = TranslationDaemon.SHUTDOWN_COMMAND;
+            continue;
+         }
+         if ("--connect".equals(arg) || arg.startsWith("--port=")) {
+            continue;
+         }
+         if (!arg.startsWith("--")) {
+            arg = new File(arg).getAbsolutePath();
+         }
+         for (String pathOption : PATH_OPTIONS) {
+            if (arg.startsWith(pathOption)) {
+               arg = pathOption + new File(arg.substring(pathOption.length())).getAbsolutePath();
+            }
+         }
+         if (arg.indexOf(TranslationDaemon.ARGUMENT_SEPARATOR) >= 0 || arg.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Argument not accepted by the translation daemon: " + arg);
+         }
+         arguments.append(TranslationDaemon.ARGUMENT_SEPARATOR).append(arg);
+      }
+      return command + arguments;
+   }
+}
@@ -0,0 +1,113 @@
+package com.noctis.vm.translator.daemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Secret shared by a {@link TranslationDaemon} and its clients through a file only its owner can read, in the
+ * {@value #TOKEN_DIRECTORY} directory of the user's home. The loopback port is open to every local user, a request
+ * without the token is refused, so only the user running the daemon can have it read and write files
+ *
+ * @author Noctis
+ * @date 2025/03/21
+ */
+public final class DaemonToken {
+
+   private static final String TOKEN_DIRECTORY = ".hackvmtranslator";
+
+   private static final int TOKEN_BYTES = 32;
+
+   private DaemonToken() {
+   }
+
+   /**
+    * @return token file of the daemon listening on the port
+    */
+   public static Path file(int port) {
+      return Paths.get(System.getProperty("user.home"), TOKEN_DIRECTORY, "daemon-" + port + ".token");
+   }
+
+   /**
+    * Generate a new token and write it to the token file of the port, readable by the owner only
+    *
+    * @return the token
+    */
+   public static String create(int port) throws IOException {
+      byte[] bytes = new byte[TOKEN_BYTES];
+      new SecureRandom().nextBytes(bytes);
+      StringBuilder token = new StringBuilder(TOKEN_BYTES * 2);
+      for (byte b : bytes) {
+         token.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      Path file = file(port);
+      Path directory = file.getParent();
+      Files.createDirectories(directory);
+      restrictToOwner(directory, "rwx------");
+      //the token is written to a private file first, so that it is never readable by others even for a moment
+      Path partialFile = Files.createTempFile(directory, file.getFileName().toString(), ".partial");
+      try {
+         restrictToOwner(partialFile, "rw-------");
+         Files.write(partialFile, token.toString().getBytes(StandardCharsets.US_ASCII));
+         try {
+            Files.move(partialFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+         } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partialFile, file, StandardCopyOption.REPLACE_EXISTING);
+         }
+      } finally {
+         Files.deleteIfExists(partialFile);
+      }
+      return token.toString();
+   }
+
+   /**
+    * @return the token of the daemon listening on the port
+    * @throws IOException When there is no token file, i.e. no daemon started by this user on the port
+    */
+   public static String read(int port) throws IOException {
+      Path file = file(port);
+      try {
+         return new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+      } catch (NoSuchFileException e) {
+         throw new IOException("No translation daemon token in " + file + ", start the daemon on port " + port + " as this user", e);
+      }
+   }
+
+   /**
+    * Delete the token file of the port, once the daemon stops
+    */
+   public static void delete(int port) throws IOException {
+      Files.deleteIfExists(file(port));
+   }
+
+   /**
+    * Compare the tokens in constant time, so that the time taken does not tell how much of a guess is right
+    */
+   static boolean matches(String expected, String actual) {
+      return actual != null && MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII), actual.getBytes(StandardCharsets.US_ASCII));
+   }
+
+   private static void restrictToOwner(Path path, String posixPermissions) throws IOException {
+      PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+      if (view != null) {
+         view.setPermissions(PosixFilePermissions.fromString(posixPermissions));
+         return;
+      }
+      //without posix permissions, e.g. on windows, the home directory of the user is private already, this is best effort
+      File file = path.toFile();
+      file.setReadable(false, false);
+      file.setReadable(true, true);
+      file.setWritable(false, false);
+      file.setWritable(true, true);
+   }
+}
@@ -0,0 +1,288 @@
+package com.noctis.vm.translator.daemon;
+
+import com.noctis.vm.translator.VMTranslator;
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+import com.noctis.vm.translator.exception.InstructionParseException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running translator listening on the loopback interface, so that repeated translations skip the start-up of
+ * the jvm and run on code the JIT already compiled.
+ * Each connection carries the {@link DaemonToken} line, then one request line, {@link #TRANSLATE_COMMAND},
+ * {@link #STATS_COMMAND} or {@link #SHUTDOWN_COMMAND} followed by the arguments separated by tabs. The response is
+ * a status line, {@link #OK_STATUS} or {@link #ERROR_STATUS} and the message, followed by the report of the job.
+ * A job can not choose the files the daemon writes besides the translation itself: {@code --stats=FILE},
+ * {@code --write-profile} and {@code --cache-dir} are refused, the fragment cache is the one the daemon was started with.
+ * A connection has {@value #READ_TIMEOUT_MILLIS} ms to send each line and a line is at most {@value #MAX_LINE_BYTES}
+ * bytes, so idle or endless connections neither hold the workers nor fill the heap.
+ * The jobs run on a fixed pool of workers, each job with its own options, parser and writer, so the workers share
+ * nothing but the counters of the daemon
+ *
+ * @author Noctis
+ * @date 2025/03/21
+ */
+public class TranslationDaemon {
+
+   public static final String TRANSLATE_COMMAND = "translate";
+
+   public static final String STATS_COMMAND = "stats";
+
+   public static final String SHUTDOWN_COMMAND = "shutdown";
+
+   public static final String OK_STATUS = "OK";
+
+   public static final String ERROR_STATUS = "ERROR";
+
+   public static final char ARGUMENT_SEPARATOR = '\t';
+
+   /**
+    * Time given to the jobs in flight to complete once the daemon is asked to stop
+    */
+   private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+   private static final int READ_TIMEOUT_MILLIS = 10_000;
+
+   /**
+    * Bound of the token line and of the request line, far above the arguments of any translation
+    */
+   private static final int MAX_LINE_BYTES = 64 * 1024;
+
+   private final int port;
+
+   private final int workers;
+
+   /**
+    * Fragment cache of the jobs, {@code null} without cache
+    */
+   private final String cacheDirectory;
+
+   private final long cacheSizeMB;
+
+   /**
+    * Token expected from the clients, created once the port is bound
+    */
+   private volatile String token;
+
+   private final AtomicLong servedJobs = new AtomicLong();
+
+   private final AtomicLong failedJobs = new AtomicLong();
+
+   private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+   private volatile ServerSocket serverSocket;
+
+   private volatile boolean stopping;
+
+   public TranslationDaemon(TranslatorOptions options) {
+      this.port = options.getPort();
+      this.workers = options.getWorkers();
+      this.cacheDirectory = options.getCacheDirectory() == null ? null : new File(options.getCacheDirectory()).getAbsolutePath();
+      this.cacheSizeMB = options.getCacheSizeMB();
+   }
+
+   /**
+    * Accept jobs until a {@link #SHUTDOWN_COMMAND} request, then wait for the jobs in flight
+    */
+   public void serve() throws IOException {
+      ExecutorService pool = Executors.newFixedThreadPool(workers);
+      try (ServerSocket server = new ServerSocket(port, workers * 2, InetAddress.getLoopbackAddress())) {
+         serverSocket = server;
+         token = DaemonToken.create(port);
+         System.err.println("Translation daemon listening on " + server.getInetAddress().getHostAddress() + ":"
+                 + server.getLocalPort() + " with " + workers + " workers, token in " + DaemonToken.file(port));
+         while (!stopping) {
+            Socket connection;
+            try {
+               connection = server.accept();
+            } catch (SocketException e) {
+               if (stopping) {
+                  break;
+               }
+               throw e;
+            }
+            pool.execute(() -> handle(connection));
+         }
+      } finally {
+         pool.shutdown();
+      }
+      try {
+         pool.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } finally {
+         if (token != null) {
+            DaemonToken.delete(port);
+         }
+      }
+      System.err.println(stats());
+   }
+
+   /**
+    * @return jobs served by the daemon, the ones that failed and their mean latency
+    */
+   public String stats() {
+      long served = servedJobs.get();
+      long failed = failedJobs.get();
+      long jobs = served + failed;
+      double meanLatencyMillis = jobs == 0 ? 0 : totalLatencyNanos.get() / 1e6 / jobs;
+      return String.format(Locale.ROOT, "Jobs served: %d, failed: %d, mean latency: %.2f ms, workers: %d",
+              served, failed, meanLatencyMillis, workers);
+   }
+
+   private void handle(Socket connection) {
+      try (Socket socket = connection) {
+         socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+         InputStream in = new BufferedInputStream(socket.getInputStream());
+         OutputStream out = socket.getOutputStream();
+         String request;
+         try {
+            if (!DaemonToken.matches(token, readLine(in))) {
+               respond(out, ERROR_STATUS + " Unauthorized: the request does not carry the token of " + DaemonToken.file(port), "");
+               return;
+            }
+            request = readLine(in);
+         } catch (LineTooLongException e) {
+            respond(out, ERROR_STATUS + " " + e.getMessage(), "");
+            return;
+         }
+         if (request == null) {
+            return;
+         }
+         int separator = request.indexOf(ARGUMENT_SEPARATOR);
+         String command = separator < 0 ? request : request.substring(0, separator);
+         switch (command) {
+            case TRANSLATE_COMMAND:
+               String[] args = separator < 0 ? new String[0] : request.substring(separator + 1).split(String.valueOf(ARGUMENT_SEPARATOR));
+               translate(args, out);
+               break;
+            case STATS_COMMAND:
+               respond(out, OK_STATUS, stats() + System.lineSeparator());
+               break;
+            case SHUTDOWN_COMMAND:
+               respond(out, OK_STATUS, stats() + System.lineSeparator());
+               stop();
+               break;
+            default:
+               respond(out, ERROR_STATUS + " Unknown command: " + command, "");
+         }
+      } catch (IOException e) {
+         //the client went away, there is nobody left to report to
+      }
+   }
+
+   private void translate(String[] args, OutputStream out) throws IOException {
+      long start = System.nanoTime();
+      ByteArrayOutputStream report = new ByteArrayOutputStream();
+      String status = OK_STATUS;
+      try (PrintStream reportStream = printStream(report)) {
+         TranslatorOptions options = TranslatorOptions.parse(args);
+         if (options.isDaemon() || options.isConnect()) {
+            throw new IllegalArgumentException("A daemon job can not start or connect to a daemon");
+         }
+         if (options.getStatsFile() != null || options.getWriteProfile() != null || options.getCacheDirectory() != null) {
+            throw new IllegalArgumentException("--stats=FILE, --write-profile and --cache-dir are not accepted by the translation daemon");
+         }
+         //the options that can not go with a cache were checked by the parser without it
+         if (cacheDirectory != null && options.getProfile() == null && !options.getOutputFormat().isMachineCode()) {
+            options.setCacheDirectory(cacheDirectory);
+            options.setCacheSizeMB(cacheSizeMB);
+         }
+         //the heap is shared with the other jobs, resetting its peak would falsify theirs
+         VMTranslator.run(options, reportStream, true);
+      } catch (IllegalArgumentException | InstructionParseException | AssemblyTranslationException e) {
+         status = ERROR_STATUS + " " + e.getMessage();
+      } catch (IOException e) {
+         //the message of a file system error is often the bare path, the type tells what went wrong
+         status = ERROR_STATUS + " " + e.getClass().getSimpleName() + ": " + e.getMessage();
+      } catch (RuntimeException e) {
+         //a bug in the translation fails the job, not the daemon
+         status = ERROR_STATUS + " " + e;
+      }
+      totalLatencyNanos.addAndGet(System.nanoTime() - start);
+      if (OK_STATUS.equals(status)) {
+         servedJobs.incrementAndGet();
+      } else {
+         failedJobs.incrementAndGet();
+      }
+      respond(out, status, new String(report.toByteArray(), StandardCharsets.UTF_8));
+   }
+
+   private void stop() throws IOException {
+      stopping = true;
+      ServerSocket server = serverSocket;
+      if (server != null) {
+         //wakes the accepting thread up
+         server.close();
+      }
+   }
+
+   /**
+    * Read a line in UTF-8 without its terminator
+    *
+    * @return the line, {@code null} at the end of the stream
+    * @throws LineTooLongException When the line is longer than {@value #MAX_LINE_BYTES} bytes
+    */
+   private static String readLine(InputStream in) throws IOException {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int b;
+      while ((b = in.read()) >= 0 && b != '\n') {
+         if (line.size() == MAX_LINE_BYTES) {
+            throw new LineTooLongException("Request line longer than " + MAX_LINE_BYTES + " bytes");
+         }
+         line.write(b);
+      }
+      if (b < 0 && line.size() == 0) {
+         return null;
+      }
+      byte[] bytes = line.toByteArray();
+      int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+      return new String(bytes, 0, length, StandardCharsets.UTF_8);
+   }
+
+   private static void respond(OutputStream out, String status, String body) throws IOException {
+      //the status is a single line, whatever the message of the error
+      String response = status.replace('\r', ' ').replace('\n', ' ') + "\n" + body;
+      out.write(response.getBytes(StandardCharsets.UTF_8));
+      out.flush();
+   }
+
+   private static PrintStream printStream(ByteArrayOutputStream out) {
+      try {
+         return new PrintStream(out, false, StandardCharsets.UTF_8.name());
+      } catch (UnsupportedEncodingException e) {
+         //every java platform supports UTF-8
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * A line of the client exceeds {@link #MAX_LINE_BYTES}, the request is refused without reading the rest of it
+    */
+   private static class LineTooLongException extends IOException {
+
+      private static final long serialVersionUID = 1L;
+
+      private LineTooLongException(String message) {
+         super(message);
+      }
+   }
+}
@@ -0,0 +1,133 @@
+package com.noctis.vm.translator.emulator;
+
+import com.noctis.vm.translator.profile.ExecutionProfile;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Result of an emulated run: executed cycles, cycles of each vm command and the final RAM
+ *
+ * @author Noctis
+ * @date 2025/03/18
+ */
+public class EmulationReport {
+
+   private static final int STACK_BASE = 256;
+
+   private static final int MAX_PRINTED_STACK_WORDS = 32;
+
+   private final long cycles;
+
+   private final boolean halted;
+
+   private final long elapsedNanos;
+
+   /**
+    * Vm commands sorted by cycles, most expensive first
+    */
+   private final List<CommandCycles> profile;
+
+   /**
+    * Executions of each vm line
+    */
+   private final ExecutionProfile executionProfile;
+
+   private final short[] ram;
+
+   public EmulationReport(long cycles, boolean halted, long elapsedNanos, List<CommandCycles> profile, ExecutionProfile executionProfile,
+                          short[] ram) {
+      this.cycles = cycles;
+      this.halted = halted;
+      this.elapsedNanos = elapsedNanos;
+      this.profile = profile;
+      this.executionProfile = executionProfile;
+      this.ram = ram;
+   }
+
+   public long getCycles() {
+      return cycles;
+   }
+
+   public boolean isHalted() {
+      return halted;
+   }
+
+   public List<CommandCycles> getProfile() {
+      return profile;
+   }
+
+   public ExecutionProfile getExecutionProfile() {
+      return executionProfile;
+   }
+
+   public short[] getRam() {
+      return ram;
+   }
+
+   /**
+    * Print the cycles, the profile and the non-zero RAM words below the stack, then the stack
+    */
+   public void print(PrintStream out) {
+      out.printf("Emulator: %d cycles, %s, %.1fM instructions/s%n", cycles, halted ? "halted" : "cycle budget spent",
+              elapsedNanos == 0 ? 0.0 : cycles * 1000.0 / elapsedNanos);
+      for (CommandCycles command : profile) {
+         if (command.cycles == 0) {
+            continue;
+         }
+         out.printf("  %-32s %10d executions %12d cycles %5.1f%%%n", command.command, command.executions, command.cycles,
+                 cycles == 0 ? 0.0 : command.cycles * 100.0 / cycles);
+      }
+      StringBuilder registers = new StringBuilder("  RAM:");
+      for (int address = 0; address < STACK_BASE; address++) {
+         if (ram[address] != 0) {
+            registers.append(' ').append(address).append('=').append(ram[address]);
+         }
+      }
+      out.println(registers);
+      int sp = ram[0];
+      StringBuilder stack = new StringBuilder("  Stack:");
+      for (int address = STACK_BASE; address < sp && address < STACK_BASE + MAX_PRINTED_STACK_WORDS; address++) {
+         stack.append(' ').append(ram[address]);
+      }
+      if (sp > STACK_BASE + MAX_PRINTED_STACK_WORDS) {
+         stack.append(" ...");
+      }
+      out.println(stack);
+   }
+
+   /**
+    * Cycles spent in the code of one vm command, e.g. {@code push local}, over the whole run
+    */
+   public static class CommandCycles implements Comparable<CommandCycles> {
+
+      private final String command;
+
+      private final long executions;
+
+      private final long cycles;
+
+      public CommandCycles(String command, long executions, long cycles) {
+         this.command = command;
+         this.executions = executions;
+         this.cycles = cycles;
+      }
+
+      public String getCommand() {
+         return command;
+      }
+
+      public long getExecutions() {
+         return executions;
+      }
+
+      public long getCycles() {
+         return cycles;
+      }
+
+      @Override
+      public int compareTo(CommandCycles other) {
+         return Long.compare(other.cycles, cycles);
+      }
+   }
+}
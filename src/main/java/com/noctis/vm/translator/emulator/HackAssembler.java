@@ -0,0 +1,225 @@
+package com.noctis.vm.translator.emulator;
+
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Two-pass assembler of hack assembly: the first pass binds the labels to ROM addresses, the second one encodes the
+ * instructions and allocates the variables from {@code RAM[16]} in order of first use, like the standard assembler
+ *
+ * @author Noctis
+ * @date 2025/03/18
+ */
+public class HackAssembler {
+
+   public static final int ROM_SIZE = 32768;
+
+   public static final int FIRST_VARIABLE_ADDRESS = 16;
+
+   private static final int MAX_CONSTANT = 32767;
+
+   private static final int C_INSTRUCTION_PREFIX = 0b111 << 13;
+
+   private static final Map<String, Integer> PREDEFINED_SYMBOLS = new HashMap<>();
+
+   /**
+    * {@code a c1 c2 c3 c4 c5 c6} bits of the computations, including the commuted forms of the binary ones
+    */
+   private static final Map<String, Integer> COMPUTATIONS = new HashMap<>();
+
+   private static final Map<String, Integer> JUMPS = new HashMap<>();
+
+   static {
+      PREDEFINED_SYMBOLS.put("SP", 0);
+      PREDEFINED_SYMBOLS.put("LCL", 1);
+      PREDEFINED_SYMBOLS.put("ARG", 2);
+      PREDEFINED_SYMBOLS.put("THIS", 3);
+      PREDEFINED_SYMBOLS.put("THAT", 4);
+      for (int i = 0; i < 16; i++) {
+         PREDEFINED_SYMBOLS.put("R" + i, i);
+      }
+      PREDEFINED_SYMBOLS.put("SCREEN", 16384);
+      PREDEFINED_SYMBOLS.put("KBD", 24576);
+
+      computation(0b0101010, "0");
+      computation(0b0111111, "1");
+      computation(0b0111010, "-1");
+      computation(0b0001100, "D");
+      computation(0b0110000, "A");
+      computation(0b0001101, "!D");
+      computation(0b0110001, "!A");
+      computation(0b0001111, "-D");
+      computation(0b0110011, "-A");
+      computation(0b0011111, "D+1");
+      computation(0b0110111, "A+1");
+      computation(0b0001110, "D-1");
+      computation(0b0110010, "A-1");
+      computation(0b0000010, "D+A", "A+D");
+      computation(0b0010011, "D-A");
+      computation(0b0000111, "A-D");
+      computation(0b0000000, "D&A", "A&D");
+      computation(0b0010101, "D|A", "A|D");
+      //the same computations on M, with the a bit set
+      String[] onA = {"A", "!A", "-A", "A+1", "A-1", "D+A", "A+D", "D-A", "A-D", "D&A", "A&D", "D|A", "A|D"};
+      for (String computation : onA) {
+         COMPUTATIONS.put(computation.replace('A', 'M'), COMPUTATIONS.get(computation) | 0b1000000);
+      }
+
+      String[] jumps = {"JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP"};
+      for (int i = 0; i < jumps.length; i++) {
+         JUMPS.put(jumps[i], i + 1);
+      }
+   }
+
+   private HackAssembler() {
+   }
+
+   /**
+    * @param code   assembly code in ascii
+    * @param length number of bytes of the code
+    * @return the assembled program
+    * @throws AssemblyTranslationException When a line is not valid hack assembly or the program does not fit in the ROM
+    */
+   public static HackProgram assemble(byte[] code, int length) throws AssemblyTranslationException {
+      List<String> lines = new ArrayList<>();
+      List<Integer> lineOffsets = new ArrayList<>();
+      Map<String, Integer> symbols = new HashMap<>(PREDEFINED_SYMBOLS);
+      int start = 0;
+      int address = 0;
+      for (int i = 0; i <= length; i++) {
+         if (i < length && code[i] != '\n') {
+            continue;
+         }
+         String line = stripLine(new String(code, start, i - start, StandardCharsets.US_ASCII));
+         if (line.startsWith("(")) {
+            if (!line.endsWith(")") || line.length() < 3) {
+               throw new AssemblyTranslationException("Invalid label declaration: " + line);
+            }
+            if (symbols.put(line.substring(1, line.length() - 1), address) != null) {
+               throw new AssemblyTranslationException("Duplicate label: " + line);
+            }
+         } else if (!line.isEmpty()) {
+            lines.add(line);
+            lineOffsets.add(start);
+            address++;
+         }
+         start = i + 1;
+      }
+      if (address > ROM_SIZE) {
+         throw new AssemblyTranslationException("Program does not fit in the 32K ROM: " + address + " instructions");
+      }
+
+      short[] rom = new short[ROM_SIZE];
+      int[] sourceOffsets = new int[address];
+      int nextVariable = FIRST_VARIABLE_ADDRESS;
+      for (int i = 0; i < address; i++) {
+         String line = lines.get(i);
+         sourceOffsets[i] = lineOffsets.get(i);
+         if (line.startsWith("@")) {
+            String value = line.substring(1);
+            int constant;
+            if (Character.isDigit(value.charAt(0))) {
+               constant = parseConstant(value);
+            } else {
+               Integer symbol = symbols.get(value);
+               if (symbol == null) {
+                  symbol = nextVariable++;
+                  symbols.put(value, symbol);
+               }
+               constant = symbol;
+            }
+            rom[i] = (short) constant;
+         } else {
+            rom[i] = (short) encodeComputation(line);
+         }
+      }
+      return new HackProgram(rom, address, sourceOffsets);
+   }
+
+   private static void computation(int bits, String... mnemonics) {
+      for (String mnemonic : mnemonics) {
+         COMPUTATIONS.put(mnemonic, bits);
+      }
+   }
+
+   /**
+    * @return the line without comment and white spaces
+    */
+   private static String stripLine(String line) {
+      int comment = line.indexOf("//");
+      if (comment >= 0) {
+         line = line.substring(0, comment);
+      }
+      return line.trim();
+   }
+
+   /**
+    * @param value decimal constant of an A-instruction, without the {@code @}
+    * @return the constant
+    * @throws AssemblyTranslationException When the value is not a constant of the 15 bits of an A-instruction
+    */
+   public static int parseConstant(String value) throws AssemblyTranslationException {
+      try {
+         int constant = Integer.parseInt(value);
+         if (constant > MAX_CONSTANT) {
+            throw new AssemblyTranslationException("Constant out of range: @" + value);
+         }
+         return constant;
+      } catch (NumberFormatException e) {
+         throw new AssemblyTranslationException("Invalid constant: @" + value, e);
+      }
+   }
+
+   /**
+    * @param symbol symbol of an A-instruction
+    * @return the address of the predefined symbol, e.g. {@code SP} or {@code R13}, {@code null} for a label or a variable
+    */
+   public static Integer predefinedSymbol(String symbol) {
+      return PREDEFINED_SYMBOLS.get(symbol);
+   }
+
+   /**
+    * Encode {@code dest=comp;jump}
+    */
+   public static int encodeComputation(String line) throws AssemblyTranslationException {
+      int equals = line.indexOf('=');
+      int semicolon = line.indexOf(';');
+      String computation = line.substring(equals + 1, semicolon < 0 ? line.length() : semicolon);
+      Integer computationBits = COMPUTATIONS.get(computation);
+      if (computationBits == null) {
+         throw new AssemblyTranslationException("Invalid computation: " + line);
+      }
+      int destination = 0;
+      if (equals >= 0) {
+         for (int i = 0; i < equals; i++) {
+            switch (line.charAt(i)) {
+               case 'A':
+                  destination |= 0b100;
+                  break;
+               case 'D':
+                  destination |= 0b010;
+                  break;
+               case 'M':
+                  destination |= 0b001;
+                  break;
+               default:
+                  throw new AssemblyTranslationException("Invalid destination: " + line);
+            }
+         }
+      }
+      int jump = 0;
+      if (semicolon >= 0) {
+         Integer jumpBits = JUMPS.get(line.substring(semicolon + 1));
+         if (jumpBits == null) {
+            throw new AssemblyTranslationException("Invalid jump: " + line);
+         }
+         jump = jumpBits;
+      }
+      return C_INSTRUCTION_PREFIX | computationBits << 6 | destination << 3 | jump;
+   }
+}
@@ -0,0 +1,149 @@
+package com.noctis.vm.translator.emulator;
+
+/**
+ * Interpreter of hack machine code over a 32K ROM and a 32K RAM, counting the executions of each ROM address.
+ * Every instruction takes one cycle. The program halts when it runs past its last instruction or reaches
+ * the usual end loop {@code (END) @END 0;JMP}
+ *
+ * @author Noctis
+ * @date 2025/03/18
+ */
+public class HackCpu {
+
+   public static final int RAM_SIZE = 32768;
+
+   private static final int ADDRESS_MASK = RAM_SIZE - 1;
+
+   private static final int UNCONDITIONAL_JUMP = 0b111;
+
+   private final short[] rom;
+
+   private final int programSize;
+
+   private final short[] ram = new short[RAM_SIZE];
+
+   private final long[] executionCounts;
+
+   private int pc;
+
+   private int a;
+
+   private int d;
+
+   private boolean halted;
+
+   public HackCpu(HackProgram program) {
+      this.rom = program.rom();
+      this.programSize = program.size();
+      this.executionCounts = new long[program.size()];
+   }
+
+   /**
+    * Run until the program halts or the cycle budget is spent, can be called again to continue
+    *
+    * @param maxCycles cycle budget
+    * @return executed cycles
+    */
+   public long run(long maxCycles) {
+      short[] rom = this.rom;
+      short[] ram = this.ram;
+      long[] counts = executionCounts;
+      int pc = this.pc;
+      int a = this.a;
+      int d = this.d;
+      long cycles = 0;
+      while (!halted && cycles < maxCycles) {
+         if (pc >= programSize) {
+            halted = true;
+            break;
+         }
+         int instruction = rom[pc];
+         counts[pc]++;
+         cycles++;
+         //A-instruction: the most significant bit is 0
+         if (instruction >= 0) {
+            a = instruction;
+            pc++;
+            continue;
+         }
+         int address = a & ADDRESS_MASK;
+         int out = compute(instruction >> 6 & 0x7F, a, d, ram[address]);
+         if ((instruction & 0b001000) != 0) {
+            ram[address] = (short) out;
+         }
+         int target = a;
+         if ((instruction & 0b100000) != 0) {
+            a = out;
+         }
+         if ((instruction & 0b010000) != 0) {
+            d = out;
+         }
+         int jump = instruction & 0b111;
+         if (jump != 0 && jumps(jump, out)) {
+            target &= ADDRESS_MASK;
+            if (jump == UNCONDITIONAL_JUMP && target == pc - 1 && rom[target] == target) {
+               halted = true;
+            }
+            pc = target;
+         } else {
+            pc++;
+         }
+      }
+      this.pc = pc;
+      this.a = a;
+      this.d = d;
+      return cycles;
+   }
+
+   /**
+    * @return the RAM, can be written to set up the initial state
+    */
+   public short[] ram() {
+      return ram;
+   }
+
+   /**
+    * @return executions of each ROM address of the program
+    */
+   public long[] executionCounts() {
+      return executionCounts;
+   }
+
+   public boolean isHalted() {
+      return halted;
+   }
+
+   /**
+    * ALU of the hack CPU
+    *
+    * @param computation {@code a zx nx zy ny f no} bits of the instruction
+    * @return 16-bit result, sign-extended
+    */
+   private static int compute(int computation, int a, int d, int m) {
+      int x = d;
+      int y = (computation & 0b1000000) != 0 ? m : a;
+      if ((computation & 0b0100000) != 0) {
+         x = 0;
+      }
+      if ((computation & 0b0010000) != 0) {
+         x = ~x;
+      }
+      if ((computation & 0b0001000) != 0) {
+         y = 0;
+      }
+      if ((computation & 0b0000100) != 0) {
+         y = ~y;
+      }
+      int out = (computation & 0b0000010) != 0 ? x + y : x & y;
+      if ((computation & 0b0000001) != 0) {
+         out = ~out;
+      }
+      return (short) out;
+   }
+
+   private static boolean jumps(int jump, int out) {
+      return (jump & 0b100) != 0 && out < 0
+              || (jump & 0b010) != 0 && out == 0
+              || (jump & 0b001) != 0 && out > 0;
+   }
+}
@@ -0,0 +1,244 @@
+package com.noctis.vm.translator.emulator;
+
+import com.noctis.vm.translator.TranslationReport;
+import com.noctis.vm.translator.TranslationUnit;
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.common.VMOpcode;
+import com.noctis.vm.translator.common.VirtualSegment;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.ir.VMInstruction;
+import com.noctis.vm.translator.optimizer.CallGraph;
+import com.noctis.vm.translator.parallel.DirectoryTranslator;
+import com.noctis.vm.translator.parser.VMInstructionParser;
+import com.noctis.vm.translator.profile.ExecutionProfile;
+import com.noctis.vm.translator.writer.AssemblyBuffer;
+import com.noctis.vm.translator.writer.AssemblyCodeWriter;
+import com.noctis.vm.translator.writer.AssemblyRuntime;
+import com.noctis.vm.translator.writer.MemoryAssemblySink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Translate a vm program in memory with the given options, assemble it and run it on the {@link HackCpu}.
+ * The generated code is marked before each vm instruction, so the executed cycles are attributed to the vm commands
+ * that generated them. With the peephole optimizer the rewritten code can move across a mark, the attribution of
+ * those few instructions is approximate
+ *
+ * @author Noctis
+ * @date 2025/03/18
+ */
+public class HackEmulator {
+
+   /**
+    * Initial segment pointers of the course test scripts, used when the program has no bootstrap code
+    */
+   private static final int[][] DEFAULT_POINTERS = {{0, 256}, {1, 300}, {2, 400}, {3, 3000}, {4, 3010}};
+
+   private static final String BOOTSTRAP_COMMAND = "(bootstrap)";
+
+   /**
+    * Entry labels of the runtime code, each routine is its own command so that its executions are the times it is entered
+    */
+   private static final Set<String> ROUTINE_LABELS = new HashSet<>(Arrays.asList(
+           AssemblyRuntime.HALT_LABEL,
+           AssemblyRuntime.comparisonRoutineLabel(VMOpcode.EQ),
+           AssemblyRuntime.comparisonRoutineLabel(VMOpcode.GT),
+           AssemblyRuntime.comparisonRoutineLabel(VMOpcode.LT),
+           AssemblyRuntime.CALL_ROUTINE_LABEL,
+           AssemblyRuntime.RETURN_ROUTINE_LABEL));
+
+   private final TranslatorOptions options;
+
+   /**
+    * Vm command of each mark, e.g. {@code push local}, and the byte offset of the code generated from the mark on
+    */
+   private final List<String> commands = new ArrayList<>();
+
+   private final Map<String, Integer> commandIds = new HashMap<>();
+
+   private int[] markOffsets = new int[1024];
+
+   private int[] markCommands = new int[1024];
+
+   /**
+    * Vm file and line of each mark, the module is an index in {@link #modules}, -1 for the code of the runtime
+    */
+   private int[] markModules = new int[1024];
+
+   private int[] markLines = new int[1024];
+
+   private final List<String> modules = new ArrayList<>();
+
+   private int markCount;
+
+   public HackEmulator(TranslatorOptions options) {
+      this.options = options;
+   }
+
+   /**
+    * Translate and run a vm file or a directory of vm files
+    *
+    * @param source    vm file or directory
+    * @param maxCycles cycle budget of the run
+    * @return executed cycles, cycles of each vm command and final RAM
+    */
+   public EmulationReport emulate(String source, long maxCycles) throws InstructionParseException, AssemblyTranslationException, IOException {
+      MemoryAssemblySink program = new MemoryAssemblySink();
+      TranslationReport report = new TranslationReport();
+      File sourceFile = new File(source);
+      if (sourceFile.isDirectory()) {
+         //same file order, bootstrap code and label namespaces as the directory translation
+         List<File> vmFiles = new DirectoryTranslator(source, options).listVMFiles();
+         CallGraph callGraph = DirectoryTranslator.callGraph(vmFiles, options, report);
+         Set<String> reachableFunctions = callGraph == null ? null : callGraph.reachableFrom(AssemblyRuntime.ENTRY_FUNCTION);
+         if (DirectoryTranslator.hasBootstrap(vmFiles)) {
+            mark(program.size(), BOOTSTRAP_COMMAND, -1, 0);
+            AssemblyBuffer prologue = new AssemblyBuffer(program);
+            report.addRequiredRoutines(AssemblyRuntime.writeBootstrap(prologue));
+            prologue.flush();
+         }
+         for (File vmFile : vmFiles) {
+            String moduleName = AssemblyCodeWriter.moduleName(vmFile.getPath());
+            translate(vmFile.getPath(), moduleName + ".", program, report, reachableFunctions);
+         }
+      } else {
+         translate(source, "", program, report, null);
+      }
+      int routinesOffset = program.size();
+      AssemblyBuffer epilogue = new AssemblyBuffer(program);
+      AssemblyRuntime.writeRoutines(epilogue, report.getRequiredRoutines());
+      epilogue.flush();
+      byte[] code = program.toByteArray();
+      markRoutines(code, routinesOffset);
+
+      HackProgram hackProgram = HackAssembler.assemble(code, code.length);
+      HackCpu cpu = new HackCpu(hackProgram);
+      for (int[] pointer : DEFAULT_POINTERS) {
+         cpu.ram()[pointer[0]] = (short) pointer[1];
+      }
+      long start = System.nanoTime();
+      long cycles = cpu.run(maxCycles);
+      long elapsedNanos = System.nanoTime() - start;
+      return attribute(hackProgram, cpu, cycles, elapsedNanos);
+   }
+
+   private void translate(String vmFile, String labelNamespace, MemoryAssemblySink program, TranslationReport report,
+                          Set<String> reachableFunctions) throws InstructionParseException, AssemblyTranslationException, IOException {
+      TranslationUnit unit;
+      int module = modules.size();
+      modules.add(AssemblyCodeWriter.moduleName(vmFile));
+      try (VMInstructionParser instructionParser = new VMInstructionParser(vmFile, true)) {
+         unit = new TranslationUnit(AssemblyCodeWriter.moduleName(vmFile), program, labelNamespace, options, instructionParser.symbols(),
+                 reachableFunctions);
+         while (instructionParser.hasMoreLines()) {
+            instructionParser.advance();
+            long instruction = instructionParser.instruction();
+            unit.getWriter().flush();
+            mark(program.size(), command(instruction), module, instructionParser.lineNumber());
+            unit.getWriter().setSourceLine(instructionParser.lineNumber());
+            unit.accept(instruction);
+         }
+      }
+      unit.finish();
+      unit.close(report);
+   }
+
+   /**
+    * @return the vm command without its index, the unit of the attribution
+    */
+   private static String command(long instruction) {
+      VMOpcode opcode = VMInstruction.opcode(instruction);
+      VirtualSegment segment = VMInstruction.segment(instruction);
+      if (opcode == VMOpcode.STORE_CONSTANT) {
+         return "push constant / pop " + segment.segmentName();
+      }
+      return segment == null ? opcode.command() : opcode.command() + " " + segment.segmentName();
+   }
+
+   /**
+    * Mark the entry label of each routine written from the offset on, with the label as the command
+    */
+   private void markRoutines(byte[] code, int offset) {
+      int lineStart = offset;
+      for (int i = offset; i <= code.length; i++) {
+         if (i < code.length && code[i] != '\n' && code[i] != '\r') {
+            continue;
+         }
+         if (i - lineStart > 2 && code[lineStart] == '(' && code[i - 1] == ')') {
+            String label = new String(code, lineStart + 1, i - lineStart - 2, StandardCharsets.US_ASCII);
+            if (ROUTINE_LABELS.contains(label)) {
+               mark(lineStart, "(" + label + ")", -1, 0);
+            }
+         }
+         lineStart = i + 1;
+      }
+   }
+
+   private void mark(int offset, String command, int module, int line) {
+      Integer id = commandIds.get(command);
+      if (id == null) {
+         id = commands.size();
+         commands.add(command);
+         commandIds.put(command, id);
+      }
+      if (markCount == markOffsets.length) {
+         markOffsets = Arrays.copyOf(markOffsets, markCount * 2);
+         markCommands = Arrays.copyOf(markCommands, markCount * 2);
+         markModules = Arrays.copyOf(markModules, markCount * 2);
+         markLines = Arrays.copyOf(markLines, markCount * 2);
+      }
+      markOffsets[markCount] = offset;
+      markCommands[markCount] = id;
+      markModules[markCount] = module;
+      markLines[markCount] = line;
+      markCount++;
+   }
+
+   /**
+    * Sum the executions of the ROM addresses per vm command, a command is executed as many times as its first instruction.
+    * The executions of each vm line are the execution profile of the run
+    */
+   private EmulationReport attribute(HackProgram program, HackCpu cpu, long cycles, long elapsedNanos) {
+      long[] commandCycles = new long[commands.size()];
+      long[] commandExecutions = new long[commands.size()];
+      long[] counts = cpu.executionCounts();
+      ExecutionProfile executionProfile = new ExecutionProfile();
+      int mark = -1;
+      for (int address = 0; address < program.size(); address++) {
+         int offset = program.sourceOffset(address);
+         boolean first = false;
+         //the last mark at or before the instruction, empty marks are skipped
+         while (mark + 1 < markCount && markOffsets[mark + 1] <= offset) {
+            mark++;
+            first = true;
+         }
+         if (mark < 0) {
+            continue;
+         }
+         commandCycles[markCommands[mark]] += counts[address];
+         if (first) {
+            commandExecutions[markCommands[mark]] += counts[address];
+            if (markModules[mark] >= 0) {
+               executionProfile.add(modules.get(markModules[mark]), markLines[mark], counts[address]);
+            }
+         }
+      }
+      List<EmulationReport.CommandCycles> profile = new ArrayList<>();
+      for (int i = 0; i < commands.size(); i++) {
+         profile.add(new EmulationReport.CommandCycles(commands.get(i), commandExecutions[i], commandCycles[i]));
+      }
+      Collections.sort(profile);
+      return new EmulationReport(cycles, cpu.isHalted(), elapsedNanos, profile, executionProfile, cpu.ram().clone());
+   }
+}
@@ -0,0 +1,40 @@
+package com.noctis.vm.translator.emulator;
+
+/**
+ * Machine code of an assembled hack program
+ *
+ * @author Noctis
+ * @date 2025/03/18
+ */
+public class HackProgram {
+
+   private final short[] rom;
+
+   private final int size;
+
+   /**
+    * Byte offset of the source line of each instruction, to map the instructions back to the code that generated them
+    */
+   private final int[] sourceOffsets;
+
+   public HackProgram(short[] rom, int size, int[] sourceOffsets) {
+      this.rom = rom;
+      this.size = size;
+      this.sourceOffsets = sourceOffsets;
+   }
+
+   /**
+    * @return the whole ROM, the words after {@link #size()} are 0
+    */
+   public short[] rom() {
+      return rom;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public int sourceOffset(int address) {
+      return sourceOffsets[address];
+   }
+}
@@ -0,0 +1,135 @@
+package com.noctis.vm.translator.ir;
+
+import com.noctis.vm.translator.common.VMOpcode;
+import com.noctis.vm.translator.common.VirtualSegment;
+
+/**
+ * Packed primitive encoding of a decoded vm instruction, so that an instruction is decoded only once
+ * and can be stored and passed around without any allocation.
+ * <pre>
+ * bit 63 ........ 32 | 31 .... 24 | 23 ..... 16 | 15 .... 0
+ *      symbol id     |   opcode   |   segment   |   index
+ * </pre>
+ * The segment field is {@link #NO_SEGMENT} for arithmetic, program flow and function instructions.
+ * The symbol field holds the id of the label or function name in the {@link VMSymbolTable} of the parser, and the index
+ * field the local variables of a function or the arguments of a call.
+ *
+ * @author Noctis
+ * @date 2025/03/02
+ */
+public final class VMInstruction {
+
+   public static final int NO_SEGMENT = 0xFF;
+
+   /**
+    * Largest index that the hack platform is able to load with a single A-instruction
+    */
+   public static final int MAX_INDEX = 32767;
+
+   private static final int SEGMENT_SHIFT = 16;
+   private static final int OPCODE_SHIFT = 24;
+   private static final int SYMBOL_SHIFT = 32;
+
+   private VMInstruction() {
+   }
+
+   public static long arithmetic(VMOpcode opcode) {
+      return pack(opcode.ordinal(), NO_SEGMENT, 0, 0);
+   }
+
+   public static long pushPop(VMOpcode opcode, VirtualSegment segment, int index) {
+      return pack(opcode.ordinal(), segment.ordinal(), index, 0);
+   }
+
+   /**
+    * @param opcode label, goto, if-goto, function or call
+    * @param symbol id of the label or function name, see {@link VMSymbolTable}
+    * @param count  local variables of a function or arguments of a call, 0 otherwise
+    */
+   public static long named(VMOpcode opcode, int symbol, int count) {
+      return pack(opcode.ordinal(), NO_SEGMENT, count, symbol);
+   }
+
+   public static long functionReturn() {
+      return pack(VMOpcode.RETURN.ordinal(), NO_SEGMENT, 0, 0);
+   }
+
+   /**
+    * @param value 16-bit constant, kept in the symbol field
+    */
+   public static long storeConstant(VirtualSegment segment, int index, short value) {
+      return pack(VMOpcode.STORE_CONSTANT.ordinal(), segment.ordinal(), index, value & 0xFFFF);
+   }
+
+   public static long pack(int opcode, int segment, int index, int symbol) {
+      return ((long) symbol << SYMBOL_SHIFT)
+              | ((long) (opcode & 0xFF) << OPCODE_SHIFT)
+              | ((long) (segment & 0xFF) << SEGMENT_SHIFT)
+              | (index & 0xFFFF);
+   }
+
+   public static int opcodeOrdinal(long instruction) {
+      return (int) (instruction >>> OPCODE_SHIFT) & 0xFF;
+   }
+
+   public static VMOpcode opcode(long instruction) {
+      return VMOpcode.ofOrdinal(opcodeOrdinal(instruction));
+   }
+
+   public static int segmentOrdinal(long instruction) {
+      return (int) (instruction >>> SEGMENT_SHIFT) & 0xFF;
+   }
+
+   /**
+    * @return the segment, or {@code null} for arithmetic, program flow and function instructions
+    */
+   public static VirtualSegment segment(long instruction) {
+      int ordinal = segmentOrdinal(instruction);
+      return ordinal == NO_SEGMENT ? null : VirtualSegment.ofOrdinal(ordinal);
+   }
+
+   public static int index(long instruction) {
+      return (int) instruction & 0xFFFF;
+   }
+
+   public static int symbol(long instruction) {
+      return (int) (instruction >>> SYMBOL_SHIFT);
+   }
+
+   /**
+    * @return the constant of a {@link VMOpcode#STORE_CONSTANT} instruction
+    */
+   public static short value(long instruction) {
+      return (short) symbol(instruction);
+   }
+
+   /**
+    * Render the instruction back to its vm source form, intended for reports and error messages only.
+    * Names are rendered as their symbol id, see {@link #toString(long, VMSymbolTable)}
+    */
+   public static String toString(long instruction) {
+      return toString(instruction, null);
+   }
+
+   /**
+    * Render the instruction back to its vm source form, intended for reports and error messages only
+    *
+    * @param symbols names of the label and function ids, {@code null} to render the ids
+    */
+   public static String toString(long instruction, VMSymbolTable symbols) {
+      VMOpcode opcode = opcode(instruction);
+      VirtualSegment segment = segment(instruction);
+      if (opcode.hasSymbol()) {
+         String name = symbols == null ? "#" + symbol(instruction) : symbols.nameString(symbol(instruction));
+         boolean counted = opcode == VMOpcode.FUNCTION || opcode == VMOpcode.CALL;
+         return opcode.command() + " " + name + (counted ? " " + index(instruction) : "");
+      }
+      if (segment == null) {
+         return opcode.command();
+      }
+      if (opcode == VMOpcode.STORE_CONSTANT) {
+         return "push constant " + (value(instruction) & 0xFFFF) + " / pop " + segment.segmentName() + " " + index(instruction);
+      }
+      return opcode.command() + " " + segment.segmentName() + " " + index(instruction);
+   }
+}
@@ -0,0 +1,67 @@
+package com.noctis.vm.translator.ir;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of packed vm instructions, see {@link VMInstruction} for the encoding
+ *
+ * @author Noctis
+ * @date 2025/03/02
+ */
+public class VMInstructionBuffer {
+
+   private static final int DEFAULT_CAPACITY = 64;
+
+   private long[] instructions;
+
+   private int size;
+
+   public VMInstructionBuffer() {
+      this(DEFAULT_CAPACITY);
+   }
+
+   public VMInstructionBuffer(int initialCapacity) {
+      instructions = new long[Math.max(initialCapacity, 1)];
+      size = 0;
+   }
+
+   public void add(long instruction) {
+      if (size == instructions.length) {
+         instructions = Arrays.copyOf(instructions, size << 1);
+      }
+      instructions[size++] = instruction;
+   }
+
+   public long get(int i) {
+      if (i >= size) {
+         throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+      }
+      return instructions[i];
+   }
+
+   public void set(int i, long instruction) {
+      if (i >= size) {
+         throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+      }
+      instructions[i] = instruction;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public boolean isEmpty() {
+      return size == 0;
+   }
+
+   public void clear() {
+      size = 0;
+   }
+
+   /**
+    * @return the backing array, only the first {@link #size()} elements are valid
+    */
+   public long[] array() {
+      return instructions;
+   }
+}
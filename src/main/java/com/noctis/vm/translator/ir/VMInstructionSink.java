@@ -0,0 +1,24 @@
+package com.noctis.vm.translator.ir;
+
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+
+import java.io.IOException;
+
+/**
+ * Consumer of a stream of packed vm instructions, e.g. an optimization pass or the code writer
+ *
+ * @author Noctis
+ * @date 2025/03/14
+ */
+public interface VMInstructionSink {
+
+   /**
+    * @param instruction packed instruction, see {@link VMInstruction}
+    */
+   void accept(long instruction) throws AssemblyTranslationException, IOException;
+
+   /**
+    * Called after the last instruction, a pass must emit everything it holds back and finish its downstream sink
+    */
+   void finish() throws AssemblyTranslationException, IOException;
+}
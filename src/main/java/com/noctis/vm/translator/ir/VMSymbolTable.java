@@ -0,0 +1,132 @@
+package com.noctis.vm.translator.ir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Interned label and function names of the vm instructions, a packed instruction refers to its name by the id
+ * kept in its symbol field, see {@link VMInstruction}.
+ * The names are interned straight from the bytes of the lexer, a name is only copied the first time it is seen.
+ * <p>
+ * Symbols are added by a single thread, the lexer. The writer may look them up from another thread, as long as
+ * the ids reach it through a hand-over that publishes the instructions, e.g. a blocking queue
+ *
+ * @author Noctis
+ * @date 2025/03/22
+ */
+public class VMSymbolTable {
+
+   private static final int INITIAL_CAPACITY = 64;
+
+   /**
+    * Names in ascii indexed by id, replaced by a larger copy when full so that readers always see a complete array
+    */
+   private volatile byte[][] names = new byte[INITIAL_CAPACITY][];
+
+   private int size;
+
+   /**
+    * Open addressing table of {@code id + 1} indexed by the name hash, 0 for an empty slot
+    */
+   private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+   /**
+    * @param bytes buffer holding the name, read with absolute gets
+    * @param start offset of the first byte of the name
+    * @param end   offset after the last byte of the name
+    * @return id of the name
+    */
+   public int intern(ByteBuffer bytes, int start, int end) {
+      int mask = slots.length - 1;
+      for (int slot = hash(bytes, start, end) & mask; ; slot = (slot + 1) & mask) {
+         int entry = slots[slot];
+         if (entry == 0) {
+            byte[] name = new byte[end - start];
+            for (int i = 0; i < name.length; i++) {
+               name[i] = bytes.get(start + i);
+            }
+            return add(name, slot);
+         }
+         if (equals(names[entry - 1], bytes, start, end)) {
+            return entry - 1;
+         }
+      }
+   }
+
+   /**
+    * @return id of the name, added when it is not interned yet
+    */
+   public int intern(String name) {
+      byte[] ascii = name.getBytes(StandardCharsets.US_ASCII);
+      return intern(ByteBuffer.wrap(ascii), 0, ascii.length);
+   }
+
+   /**
+    * @return the name in ascii, must not be modified
+    */
+   public byte[] name(int id) {
+      byte[][] current = names;
+      if (id < 0 || id >= current.length || current[id] == null) {
+         throw new IllegalArgumentException("Unknown symbol id: " + id);
+      }
+      return current[id];
+   }
+
+   public String nameString(int id) {
+      return new String(name(id), StandardCharsets.US_ASCII);
+   }
+
+   public int size() {
+      return size;
+   }
+
+   private int add(byte[] name, int slot) {
+      byte[][] current = names;
+      if (size == current.length) {
+         current = Arrays.copyOf(current, size << 1);
+      }
+      current[size] = name;
+      //publish the name, or the grown array holding it
+      names = current;
+      slots[slot] = ++size;
+      if (size * 2 > slots.length) {
+         rehash(slots.length << 1);
+      }
+      return size - 1;
+   }
+
+   private void rehash(int capacity) {
+      int[] rehashed = new int[capacity];
+      int mask = capacity - 1;
+      byte[][] current = names;
+      for (int id = 0; id < size; id++) {
+         int slot = hash(ByteBuffer.wrap(current[id]), 0, current[id].length) & mask;
+         while (rehashed[slot] != 0) {
+            slot = (slot + 1) & mask;
+         }
+         rehashed[slot] = id + 1;
+      }
+      slots = rehashed;
+   }
+
+   private static boolean equals(byte[] name, ByteBuffer bytes, int start, int end) {
+      if (name.length != end - start) {
+         return false;
+      }
+      for (int i = 0; i < name.length; i++) {
+         if (name[i] != bytes.get(start + i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static int hash(ByteBuffer bytes, int start, int end) {
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+         hash = 31 * hash + bytes.get(i);
+      }
+      return hash ^ (hash >>> 16);
+   }
+}
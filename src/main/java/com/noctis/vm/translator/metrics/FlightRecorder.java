@@ -0,0 +1,15 @@
+package com.noctis.vm.translator.metrics;
+
+/**
+ * Recorder of the flight recorder events, implemented in the separate {@code src/main/jfr} source root, which is compiled
+ * against the {@code jdk.jfr} api of the build jdk since {@code --release 8} does not have it
+ *
+ * @author Noctis
+ * @date 2025/03/24
+ */
+interface FlightRecorder {
+
+   void commitTranslation(String source, TranslationMetrics metrics);
+
+   void commitFile(String source, TranslationMetrics metrics);
+}
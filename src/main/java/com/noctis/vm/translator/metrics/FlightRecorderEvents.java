@@ -0,0 +1,51 @@
+package com.noctis.vm.translator.metrics;
+
+/**
+ * Entry point of the flight recorder events, a no-op on a runtime without the {@code jdk.jfr} api, e.g. an older java 8.
+ * The event classes live in the {@code src/main/jfr} source root and are only loaded, by name, once the api is known
+ * to be there, so the rest of the translator builds with {@code --release 8}. An event is recorded when a recording
+ * enables it, e.g. {@code -XX:StartFlightRecording}, the metrics themselves are collected with {@code --stats}
+ *
+ * @author Noctis
+ * @date 2025/03/24
+ */
+public final class FlightRecorderEvents {
+
+   private static final String RECORDER_CLASS = "com.noctis.vm.translator.metrics.JdkFlightRecorder";
+
+   /**
+    * Recorder of the events, {@code null} without the flight recorder api
+    */
+   private static final FlightRecorder RECORDER = createRecorder();
+
+   private FlightRecorderEvents() {
+   }
+
+   /**
+    * @param source vm file or directory of the translation
+    */
+   public static void commitTranslation(String source, TranslationMetrics metrics) {
+      if (RECORDER != null) {
+         RECORDER.commitTranslation(source, metrics);
+      }
+   }
+
+   /**
+    * @param source vm file of the translation unit
+    */
+   public static void commitFile(String source, TranslationMetrics metrics) {
+      if (RECORDER != null) {
+         RECORDER.commitFile(source, metrics);
+      }
+   }
+
+   private static FlightRecorder createRecorder() {
+      ClassLoader classLoader = FlightRecorderEvents.class.getClassLoader();
+      try {
+         Class.forName("jdk.jfr.Event", false, classLoader);
+         return (FlightRecorder) Class.forName(RECORDER_CLASS, true, classLoader).getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError e) {
+         return null;
+      }
+   }
+}
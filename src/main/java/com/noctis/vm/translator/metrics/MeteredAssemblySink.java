@@ -0,0 +1,126 @@
+package com.noctis.vm.translator.metrics;
+
+import com.noctis.vm.translator.common.InstructionType;
+import com.noctis.vm.translator.writer.AssemblySink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Assembly sink placed right after the code writer when the metrics are collected. It counts the hack instructions
+ * of the code it receives for the vm command type being translated, and stages the code so that the writer can be flushed
+ * after every vm command without handing tiny blocks to the rest of the chain. The time spent in the downstream sinks is
+ * the write phase
+ *
+ * @author Noctis
+ * @date 2025/03/24
+ */
+public class MeteredAssemblySink implements AssemblySink {
+
+   private static final int STAGING_CAPACITY = 256 * 1024;
+
+   private final AssemblySink downstream;
+
+   private final ByteBuffer staging = ByteBuffer.allocateDirect(STAGING_CAPACITY);
+
+   private final long[] instructionCounts = new long[TranslationMetrics.UNATTRIBUTED + 1];
+
+   /**
+    * Slot of the code received now, the ordinal of an {@link InstructionType}, {@link TranslationMetrics#RUNTIME}
+    * or {@link TranslationMetrics#UNATTRIBUTED}
+    */
+   private int slot = TranslationMetrics.UNATTRIBUTED;
+
+   /**
+    * Whether the next byte starts a line
+    */
+   private boolean lineStart = true;
+
+   private long writeNanos;
+
+   public MeteredAssemblySink(AssemblySink downstream) {
+      this.downstream = downstream;
+   }
+
+   /**
+    * Attribute the code received from now on to the vm command type, {@code null} for code generated outside a vm command
+    */
+   public void attributeTo(InstructionType type) {
+      slot = type == null ? TranslationMetrics.UNATTRIBUTED : type.ordinal();
+   }
+
+   /**
+    * Attribute the code received from now on to the runtime, i.e. the bootstrap code and the shared routines
+    */
+   public void attributeToRuntime() {
+      slot = TranslationMetrics.RUNTIME;
+   }
+
+   @Override
+   public void write(ByteBuffer buffer) throws IOException {
+      for (int i = buffer.position(); i < buffer.limit(); i++) {
+         byte b = buffer.get(i);
+         if (lineStart && b != '\n' && b != '\r') {
+            if (b != '(') {
+               instructionCounts[slot]++;
+            }
+            lineStart = false;
+         }
+         if (b == '\n') {
+            lineStart = true;
+         }
+      }
+      if (buffer.remaining() > staging.remaining()) {
+         drain();
+      }
+      if (buffer.remaining() > staging.remaining()) {
+         forward(buffer);
+      } else {
+         staging.put(buffer);
+      }
+   }
+
+   /**
+    * Hand over the staged code to the downstream sink without closing it, e.g. before other code is written to it directly
+    */
+   public void flush() throws IOException {
+      drain();
+   }
+
+   @Override
+   public void close() throws IOException {
+      drain();
+      long start = System.nanoTime();
+      downstream.close();
+      writeNanos += System.nanoTime() - start;
+   }
+
+   /**
+    * @param slot ordinal of an {@link InstructionType}, {@link TranslationMetrics#RUNTIME} or {@link TranslationMetrics#UNATTRIBUTED}
+    * @return hack instructions received for the slot
+    */
+   public long getInstructionCount(int slot) {
+      return instructionCounts[slot];
+   }
+
+   /**
+    * @return time spent handing the code over to the downstream sinks
+    */
+   public long getWriteNanos() {
+      return writeNanos;
+   }
+
+   private void drain() throws IOException {
+      staging.flip();
+      if (staging.hasRemaining()) {
+         forward(staging);
+      }
+      staging.clear();
+   }
+
+   private void forward(ByteBuffer buffer) throws IOException {
+      long start = System.nanoTime();
+      downstream.write(buffer);
+      writeNanos += System.nanoTime() - start;
+   }
+}
@@ -0,0 +1,297 @@
+package com.noctis.vm.translator.metrics;
+
+import com.noctis.vm.translator.common.InstructionType;
+import com.noctis.vm.translator.common.VirtualSegment;
+import com.noctis.vm.translator.ir.VMInstruction;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Instrumentation of a translation, only created when it is requested with {@code --stats}: wall time of the phases,
+ * vm commands by type and segment, hack instructions generated for each vm command type, bytes in and out and peak heap.
+ * A collector is confined to the thread translating its vm file, the collectors of a directory are merged afterwards
+ * <p>
+ * The byte lexer validates each line in the same pass that decodes it, so the validation time is part of the parse phase.
+ * The read phase and the bytes in are the windows the lexer itself maps and loads, or reads from its channel, so the
+ * parse phase does not include the I/O and collecting the metrics does not read the vm file again
+ *
+ * @author Noctis
+ * @date 2025/03/24
+ */
+public class TranslationMetrics {
+
+   /**
+    * Slot of the hack instructions of the runtime: the bootstrap code and the shared routines
+    */
+   public static final int RUNTIME = InstructionType.values().length;
+
+   /**
+    * Slot of the hack instructions that are neither generated for a vm command nor part of the runtime, e.g. the code
+    * flushed at the end of a file
+    */
+   public static final int UNATTRIBUTED = RUNTIME + 1;
+
+   private long readNanos;
+
+   private long parseNanos;
+
+   private long codegenNanos;
+
+   private long writeNanos;
+
+   private long totalNanos;
+
+   private long bytesIn;
+
+   private long bytesOut;
+
+   private long peakHeapBytes;
+
+   /**
+    * Whether {@link #peakHeapBytes} is the peak of the whole process since it started rather than of this translation,
+    * e.g. for a job of the daemon
+    */
+   private boolean processPeakHeap;
+
+   private int fileCount;
+
+   private final long[] commandsByType = new long[InstructionType.values().length];
+
+   private final long[] commandsBySegment = new long[VirtualSegment.values().length];
+
+   /**
+    * Hack instructions generated for each vm command type, followed by the {@link #RUNTIME} and {@link #UNATTRIBUTED} slots
+    */
+   private final long[] hackInstructionsByType = new long[UNATTRIBUTED + 1];
+
+   /**
+    * Count a vm file of the translation, its bytes are counted by {@link #addInput(long, long)} as the lexer reads them
+    */
+   public void addFile() {
+      fileCount++;
+   }
+
+   /**
+    * Record the vm code read by a lexer
+    *
+    * @param bytes bytes read
+    * @param nanos time spent reading them, see {@link com.noctis.vm.translator.parser.VMInstructionLexer#getReadNanos()}
+    */
+   public void addInput(long bytes, long nanos) {
+      bytesIn += bytes;
+      readNanos += nanos;
+   }
+
+   /**
+    * Count a vm command by type and segment
+    *
+    * @param instruction packed instruction decoded by the parser
+    */
+   public void recordCommand(long instruction) {
+      commandsByType[VMInstruction.opcode(instruction).instructionType().ordinal()]++;
+      int segment = VMInstruction.segmentOrdinal(instruction);
+      if (segment != VMInstruction.NO_SEGMENT) {
+         commandsBySegment[segment]++;
+      }
+   }
+
+   public void addParseNanos(long nanos) {
+      parseNanos += nanos;
+   }
+
+   public void addCodegenNanos(long nanos) {
+      codegenNanos += nanos;
+   }
+
+   public void addWriteNanos(long nanos) {
+      writeNanos += nanos;
+   }
+
+   /**
+    * Collect the hack instructions counted by the sink metering the code writer of a vm file
+    */
+   public void addHackInstructions(MeteredAssemblySink sink) {
+      for (int i = 0; i < hackInstructionsByType.length; i++) {
+         hackInstructionsByType[i] += sink.getInstructionCount(i);
+      }
+      writeNanos += sink.getWriteNanos();
+   }
+
+   /**
+    * Count the hack instructions generated for a vm command by the binary backend, which has no sink to meter
+    */
+   public void addHackInstructions(InstructionType type, long count) {
+      hackInstructionsByType[type.ordinal()] += count;
+   }
+
+   /**
+    * Count the hack instructions of the bootstrap code or of the shared routines generated by the binary backend
+    */
+   public void addRuntimeInstructions(long count) {
+      hackInstructionsByType[RUNTIME] += count;
+   }
+
+   /**
+    * Record the figures of the whole translation, taken once it is done
+    *
+    * @param totalNanos wall time of the translation
+    * @param bytesOut   size of the asm file, or of the machine code
+    * @param processPeakHeap whether the peak heap usage was not reset before the translation, see {@link #resetPeakHeapUsage()}
+    */
+   public void complete(long totalNanos, long bytesOut, boolean processPeakHeap) {
+      this.totalNanos = totalNanos;
+      this.bytesOut = bytesOut;
+      this.peakHeapBytes = peakHeapUsage();
+      this.processPeakHeap = processPeakHeap;
+   }
+
+   public void merge(TranslationMetrics other) {
+      readNanos += other.readNanos;
+      parseNanos += other.parseNanos;
+      codegenNanos += other.codegenNanos;
+      writeNanos += other.writeNanos;
+      bytesIn += other.bytesIn;
+      fileCount += other.fileCount;
+      for (int i = 0; i < commandsByType.length; i++) {
+         commandsByType[i] += other.commandsByType[i];
+      }
+      for (int i = 0; i < commandsBySegment.length; i++) {
+         commandsBySegment[i] += other.commandsBySegment[i];
+      }
+      for (int i = 0; i < hackInstructionsByType.length; i++) {
+         hackInstructionsByType[i] += other.hackInstructionsByType[i];
+      }
+   }
+
+   /**
+    * Reset the peak usage of the heap pools, so that {@link #complete(long, long, boolean)} reports the peak of this
+    * translation. The pools are shared by the whole process: only a single translation per process may reset them,
+    * the jobs of a daemon report the peak of the daemon instead
+    */
+   public static void resetPeakHeapUsage() {
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+         if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+            pool.resetPeakUsage();
+         }
+      }
+   }
+
+   private static long peakHeapUsage() {
+      long peak = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+         MemoryUsage usage = pool.getType() == MemoryType.HEAP && pool.isValid() ? pool.getPeakUsage() : null;
+         if (usage != null) {
+            peak += usage.getUsed();
+         }
+      }
+      return peak;
+   }
+
+   public long getCommandCount() {
+      long count = 0;
+      for (long commands : commandsByType) {
+         count += commands;
+      }
+      return count;
+   }
+
+   public long getHackInstructionCount() {
+      long count = 0;
+      for (long instructions : hackInstructionsByType) {
+         count += instructions;
+      }
+      return count;
+   }
+
+   public long getReadNanos() {
+      return readNanos;
+   }
+
+   public long getParseNanos() {
+      return parseNanos;
+   }
+
+   public long getCodegenNanos() {
+      return codegenNanos;
+   }
+
+   public long getWriteNanos() {
+      return writeNanos;
+   }
+
+   public long getTotalNanos() {
+      return totalNanos;
+   }
+
+   public long getBytesIn() {
+      return bytesIn;
+   }
+
+   public long getBytesOut() {
+      return bytesOut;
+   }
+
+   public long getPeakHeapBytes() {
+      return peakHeapBytes;
+   }
+
+   public boolean isProcessPeakHeap() {
+      return processPeakHeap;
+   }
+
+   /**
+    * @param source vm file or directory of the translation
+    * @return the metrics as a json document, times in nanoseconds
+    */
+   public String toJson(String source) {
+      StringBuilder json = new StringBuilder("{\n");
+      json.append("  \"source\": \"").append(escape(source)).append("\",\n");
+      json.append("  \"files\": ").append(fileCount).append(",\n");
+      json.append("  \"phasesNanos\": {\"read\": ").append(readNanos)
+              .append(", \"parse\": ").append(parseNanos)
+              .append(", \"codegen\": ").append(codegenNanos)
+              .append(", \"write\": ").append(writeNanos)
+              .append(", \"total\": ").append(totalNanos).append("},\n");
+      json.append("  \"vmCommands\": ").append(getCommandCount()).append(",\n");
+      json.append("  \"vmCommandsByType\": {");
+      InstructionType[] types = InstructionType.values();
+      for (int i = 0; i < types.length; i++) {
+         json.append(i == 0 ? "" : ", ").append('"').append(types[i].name()).append("\": ").append(commandsByType[i]);
+      }
+      json.append("},\n  \"vmCommandsBySegment\": {");
+      VirtualSegment[] segments = VirtualSegment.values();
+      for (int i = 0; i < segments.length; i++) {
+         json.append(i == 0 ? "" : ", ").append('"').append(segments[i].segmentName()).append("\": ").append(commandsBySegment[i]);
+      }
+      json.append("},\n  \"hackInstructions\": ").append(getHackInstructionCount()).append(",\n");
+      json.append("  \"hackInstructionsByType\": {");
+      for (int i = 0; i < types.length; i++) {
+         json.append('"').append(types[i].name()).append("\": ").append(hackInstructionsByType[i]).append(", ");
+      }
+      json.append("\"runtime\": ").append(hackInstructionsByType[RUNTIME]).append(", ");
+      json.append("\"unattributed\": ").append(hackInstructionsByType[UNATTRIBUTED]).append("},\n");
+      json.append("  \"bytesIn\": ").append(bytesIn).append(",\n");
+      json.append("  \"bytesOut\": ").append(bytesOut).append(",\n");
+      json.append("  \"peakHeapBytes\": ").append(peakHeapBytes).append(",\n");
+      json.append("  \"peakHeapScope\": \"").append(processPeakHeap ? "process" : "translation").append("\"\n}");
+      return json.toString();
+   }
+
+   private static String escape(String value) {
+      StringBuilder escaped = new StringBuilder(value.length());
+      for (int i = 0; i < value.length(); i++) {
+         char c = value.charAt(i);
+         if (c == '"' || c == '\\') {
+            escaped.append('\\').append(c);
+         } else if (c < 0x20) {
+            escaped.append(String.format("\\u%04x", (int) c));
+         } else {
+            escaped.append(c);
+         }
+      }
+      return escaped.toString();
+   }
+}
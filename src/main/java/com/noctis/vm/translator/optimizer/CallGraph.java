@@ -0,0 +1,118 @@
+package com.noctis.vm.translator.optimizer;
+
+import com.noctis.vm.translator.common.VMOpcode;
+import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.ir.VMInstruction;
+import com.noctis.vm.translator.parser.VMInstructionLexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Call graph of a whole program, built from the {@code function} and {@code call} commands of all its vm files.
+ * The calls made outside any function, e.g. by the code before the first function of a file, are roots of the graph
+ * just like the entry function
+ *
+ * @author Noctis
+ * @date 2025/03/23
+ */
+public class CallGraph {
+
+   /**
+    * Callees of each function, in the order of the calls
+    */
+   private final Map<String, Set<String>> callees = new HashMap<>();
+
+   /**
+    * Functions declared by each vm file, in declaration order
+    */
+   private final Map<File, List<String>> functionsByFile = new HashMap<>();
+
+   private final Set<String> topLevelCallees = new LinkedHashSet<>();
+
+   private int functionCount;
+
+   /**
+    * Lex the vm files and collect their functions and calls
+    */
+   public static CallGraph scan(List<File> vmFiles) throws InstructionParseException, IOException {
+      CallGraph graph = new CallGraph();
+      for (File vmFile : vmFiles) {
+         List<String> functions = new ArrayList<>();
+         Set<String> calls = graph.topLevelCallees;
+         try (VMInstructionLexer lexer = new VMInstructionLexer(vmFile.getPath())) {
+            while (lexer.next()) {
+               long instruction = lexer.instruction();
+               VMOpcode opcode = VMInstruction.opcode(instruction);
+               if (opcode == VMOpcode.FUNCTION) {
+                  String function = lexer.symbols().nameString(VMInstruction.symbol(instruction));
+                  functions.add(function);
+                  calls = graph.callees.computeIfAbsent(function, name -> new LinkedHashSet<>());
+               } else if (opcode == VMOpcode.CALL) {
+                  calls.add(lexer.symbols().nameString(VMInstruction.symbol(instruction)));
+               }
+            }
+         } catch (InstructionParseException e) {
+            throw new InstructionParseException(vmFile.getName() + ": " + e.getMessage(), e);
+         }
+         graph.functionsByFile.put(vmFile, functions);
+         graph.functionCount += functions.size();
+      }
+      return graph;
+   }
+
+   /**
+    * @param entryFunction function the program starts with
+    * @return the functions reachable from the entry function and from the top-level calls
+    */
+   public Set<String> reachableFrom(String entryFunction) {
+      Set<String> reachable = new HashSet<>();
+      Deque<String> pending = new ArrayDeque<>(topLevelCallees);
+      pending.add(entryFunction);
+      while (!pending.isEmpty()) {
+         String function = pending.poll();
+         if (reachable.add(function)) {
+            pending.addAll(callees.getOrDefault(function, Collections.emptySet()));
+         }
+      }
+      return reachable;
+   }
+
+   /**
+    * @return functions declared by the vm file, in declaration order
+    */
+   public List<String> functionsOf(File vmFile) {
+      return functionsByFile.getOrDefault(vmFile, Collections.emptyList());
+   }
+
+   /**
+    * @param reachable functions reachable in the program, see {@link #reachableFrom(String)}
+    * @return functions declared by the vm file that are not reachable, in declaration order
+    */
+   public List<String> unreachableFunctionsOf(File vmFile, Set<String> reachable) {
+      List<String> unreachable = new ArrayList<>();
+      for (String function : functionsOf(vmFile)) {
+         if (!reachable.contains(function)) {
+            unreachable.add(function);
+         }
+      }
+      return unreachable;
+   }
+
+   /**
+    * @return functions declared by all the vm files
+    */
+   public int getFunctionCount() {
+      return functionCount;
+   }
+}
@@ -0,0 +1,143 @@
+package com.noctis.vm.translator.optimizer;
+
+import com.noctis.vm.translator.common.VMOpcode;
+import com.noctis.vm.translator.common.VirtualSegment;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+import com.noctis.vm.translator.ir.VMInstruction;
+import com.noctis.vm.translator.ir.VMInstructionSink;
+
+import java.io.IOException;
+
+/**
+ * Constant folding over the vm instruction stream.
+ * The pass keeps a compile-time stack of the constants pushed by the latest {@code push constant} instructions,
+ * arithmetic, comparison and logical commands whose operands are all on that stack are evaluated at translation time,
+ * and a constant that is popped right away becomes a direct store. Anything else first releases the held constants in order.
+ * <p>
+ * Values are evaluated with the 16-bit wrap-around of the hack ALU, e.g. {@code gt} compares the sign of {@code x - y}
+ * just like the generated assembly code, so the folded program behaves exactly like the original one
+ *
+ * @author Noctis
+ * @date 2025/03/14
+ */
+public class ConstantFoldingPass implements VMInstructionSink {
+
+   private static final int MAX_PENDING_CONSTANTS = 64;
+
+   private static final short TRUE = -1;
+
+   private static final short FALSE = 0;
+
+   private final VMInstructionSink downstream;
+
+   /**
+    * Compile-time stack of the constants that are not emitted yet
+    */
+   private final short[] pendingConstants = new short[MAX_PENDING_CONSTANTS];
+
+   private int pendingCount = 0;
+
+   private int eliminatedCount = 0;
+
+   public ConstantFoldingPass(VMInstructionSink downstream) {
+      this.downstream = downstream;
+   }
+
+   @Override
+   public void accept(long instruction) throws AssemblyTranslationException, IOException {
+      VMOpcode opcode = VMInstruction.opcode(instruction);
+      VirtualSegment segment = VMInstruction.segment(instruction);
+      switch (opcode) {
+         case PUSH:
+            if (segment == VirtualSegment.CONSTANT) {
+               if (pendingCount == MAX_PENDING_CONSTANTS) {
+                  releasePendingConstants();
+               }
+               pendingConstants[pendingCount++] = (short) VMInstruction.index(instruction);
+               return;
+            }
+            break;
+         case POP:
+            if (pendingCount > 0 && segment != VirtualSegment.CONSTANT) {
+               short value = pendingConstants[--pendingCount];
+               releasePendingConstants();
+               downstream.accept(VMInstruction.storeConstant(segment, VMInstruction.index(instruction), value));
+               eliminatedCount++;
+               return;
+            }
+            break;
+         case NEG:
+         case NOT:
+            if (pendingCount > 0) {
+               short x = pendingConstants[pendingCount - 1];
+               pendingConstants[pendingCount - 1] = opcode == VMOpcode.NEG ? (short) -x : (short) ~x;
+               eliminatedCount++;
+               return;
+            }
+            break;
+         case ADD:
+         case SUB:
+         case AND:
+         case OR:
+         case EQ:
+         case GT:
+         case LT:
+            if (pendingCount > 1) {
+               short y = pendingConstants[--pendingCount];
+               short x = pendingConstants[pendingCount - 1];
+               pendingConstants[pendingCount - 1] = evaluate(opcode, x, y);
+               eliminatedCount += 2;
+               return;
+            }
+            break;
+         default:
+            break;
+      }
+      releasePendingConstants();
+      downstream.accept(instruction);
+   }
+
+   @Override
+   public void finish() throws AssemblyTranslationException, IOException {
+      releasePendingConstants();
+      downstream.finish();
+   }
+
+   /**
+    * @return number of vm instructions removed by folding
+    */
+   public int getEliminatedCount() {
+      return eliminatedCount;
+   }
+
+   /**
+    * Emit the held constants as push instructions, from the bottom of the stack
+    */
+   private void releasePendingConstants() throws AssemblyTranslationException, IOException {
+      for (int i = 0; i < pendingCount; i++) {
+         downstream.accept(VMInstruction.pushPop(VMOpcode.PUSH, VirtualSegment.CONSTANT, pendingConstants[i] & 0xFFFF));
+      }
+      pendingCount = 0;
+   }
+
+   private static short evaluate(VMOpcode opcode, short x, short y) {
+      switch (opcode) {
+         case ADD:
+            return (short) (x + y);
+         case SUB:
+            return (short) (x - y);
+         case AND:
+            return (short) (x & y);
+         case OR:
+            return (short) (x | y);
+         case EQ:
+            return x == y ? TRUE : FALSE;
+         case GT:
+            return (short) (x - y) > 0 ? TRUE : FALSE;
+         case LT:
+            return (short) (x - y) < 0 ? TRUE : FALSE;
+         default:
+            throw new IllegalArgumentException("Not a binary command: " + opcode);
+      }
+   }
+}
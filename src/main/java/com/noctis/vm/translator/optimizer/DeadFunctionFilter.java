@@ -0,0 +1,113 @@
+package com.noctis.vm.translator.optimizer;
+
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.common.VMOpcode;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+import com.noctis.vm.translator.ir.VMInstruction;
+import com.noctis.vm.translator.ir.VMInstructionSink;
+import com.noctis.vm.translator.ir.VMSymbolTable;
+import com.noctis.vm.translator.writer.AssemblyCodeWriter;
+import com.noctis.vm.translator.writer.CountingAssemblySink;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Drop the functions that are not reachable in the {@link CallGraph} of the program, a function spans from its
+ * {@code function} command to the next one. The instructions before the first function of the file are kept.
+ * The dropped functions only go to a writer that counts their hack instructions, so the saving can be reported
+ *
+ * @author Noctis
+ * @date 2025/03/23
+ */
+public class DeadFunctionFilter implements VMInstructionSink {
+
+   private final VMInstructionSink downstream;
+
+   private final VMSymbolTable symbols;
+
+   private final Set<String> reachableFunctions;
+
+   private final CountingAssemblySink removedCode = new CountingAssemblySink();
+
+   private final AssemblyCodeWriter removedCodeWriter;
+
+   /**
+    * Whether the current function is dropped
+    */
+   private boolean removing = false;
+
+   private final List<String> removedFunctions = new ArrayList<>();
+
+   private int keptFunctionCount = 0;
+
+   private int removedInstructionCount = 0;
+
+   /**
+    * @param downstream         sink of the kept instructions
+    * @param moduleName         vm filename without directory and extension
+    * @param options            code generation options, to measure the dropped code as the writer would have generated it
+    * @param symbols            names of the label and function ids
+    * @param reachableFunctions functions to keep
+    */
+   public DeadFunctionFilter(VMInstructionSink downstream, String moduleName, TranslatorOptions options, VMSymbolTable symbols,
+                             Set<String> reachableFunctions) {
+      this.downstream = downstream;
+      this.symbols = symbols;
+      this.reachableFunctions = reachableFunctions;
+      this.removedCodeWriter = new AssemblyCodeWriter(moduleName, removedCode, "", options, symbols);
+   }
+
+   @Override
+   public void accept(long instruction) throws AssemblyTranslationException, IOException {
+      if (VMInstruction.opcode(instruction) == VMOpcode.FUNCTION) {
+         String function = symbols.nameString(VMInstruction.symbol(instruction));
+         removing = !reachableFunctions.contains(function);
+         if (removing) {
+            removedFunctions.add(function);
+         } else {
+            keptFunctionCount++;
+         }
+      }
+      if (removing) {
+         removedInstructionCount++;
+         removedCodeWriter.writeInstruction(instruction);
+         return;
+      }
+      downstream.accept(instruction);
+   }
+
+   @Override
+   public void finish() throws AssemblyTranslationException, IOException {
+      downstream.finish();
+      removedCodeWriter.finish();
+   }
+
+   /**
+    * @return the dropped functions, in declaration order
+    */
+   public List<String> getRemovedFunctions() {
+      return Collections.unmodifiableList(removedFunctions);
+   }
+
+   public int getKeptFunctionCount() {
+      return keptFunctionCount;
+   }
+
+   /**
+    * @return vm instructions of the dropped functions
+    */
+   public int getRemovedInstructionCount() {
+      return removedInstructionCount;
+   }
+
+   /**
+    * @return hack instructions the dropped functions would have been translated to
+    */
+   public long getSavedInstructions() {
+      return removedCode.getInstructionCount();
+   }
+}
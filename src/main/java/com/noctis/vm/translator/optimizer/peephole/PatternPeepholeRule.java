@@ -0,0 +1,112 @@
+package com.noctis.vm.translator.optimizer.peephole;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Peephole rule defined by a line pattern and a replacement.
+ * A pattern line matches itself, except the wildcards: {@value #ANY_A_INSTRUCTION} matches any A-instruction
+ * and {@value #ANY_OTHER_LINE} matches any line that is not an A-instruction.
+ * A replacement line {@code $n} is the n-th matched line (starting from 0), the other lines are copied as they are
+ *
+ * @author Noctis
+ * @date 2025/03/16
+ */
+public class PatternPeepholeRule implements PeepholeRule {
+
+   public static final String ANY_A_INSTRUCTION = "@*";
+
+   public static final String ANY_OTHER_LINE = "!@*";
+
+   private final String name;
+
+   /**
+    * Pattern and replacement lines in ascii, compared with the window bytes without decoding them
+    */
+   private final byte[][] pattern;
+
+   private final byte[][] replacement;
+
+   /**
+    * Kind of each pattern line, resolved once so matching a line is a single comparison
+    */
+   private final int[] kinds;
+
+   /**
+    * Matched line index referenced by each replacement line, -1 for a line copied as it is
+    */
+   private final int[] matchedLines;
+
+   private static final int LITERAL = 0;
+
+   private static final int A_INSTRUCTION = 1;
+
+   private static final int OTHER_LINE = 2;
+
+   public PatternPeepholeRule(String name, String[] pattern, String[] replacement) {
+      this.name = name;
+      this.pattern = encode(pattern);
+      this.replacement = encode(replacement);
+      this.kinds = new int[pattern.length];
+      for (int i = 0; i < pattern.length; i++) {
+         kinds[i] = ANY_A_INSTRUCTION.equals(pattern[i]) ? A_INSTRUCTION
+                 : ANY_OTHER_LINE.equals(pattern[i]) ? OTHER_LINE : LITERAL;
+      }
+      this.matchedLines = new int[replacement.length];
+      for (int i = 0; i < replacement.length; i++) {
+         matchedLines[i] = replacement[i].startsWith("$") ? Integer.parseInt(replacement[i].substring(1)) : -1;
+      }
+   }
+
+   @Override
+   public String name() {
+      return name;
+   }
+
+   @Override
+   public int windowSize() {
+      return pattern.length;
+   }
+
+   @Override
+   public boolean matches(PeepholeWindow window) {
+      int start = window.size() - pattern.length;
+      //the newest line fails most of the time, match backwards
+      for (int i = pattern.length - 1; i >= 0; i--) {
+         if (!matches(i, window, start + i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   @Override
+   public void rewrite(PeepholeWindow window) {
+      window.detachLast(pattern.length);
+      for (int i = 0; i < replacement.length; i++) {
+         if (matchedLines[i] < 0) {
+            window.append(replacement[i]);
+         } else {
+            window.appendDetached(matchedLines[i]);
+         }
+      }
+   }
+
+   private boolean matches(int patternIndex, PeepholeWindow window, int line) {
+      switch (kinds[patternIndex]) {
+         case A_INSTRUCTION:
+            return window.startsWith(line, (byte) '@');
+         case OTHER_LINE:
+            return !window.startsWith(line, (byte) '@');
+         default:
+            return window.lineEquals(line, pattern[patternIndex]);
+      }
+   }
+
+   private static byte[][] encode(String[] lines) {
+      byte[][] encoded = new byte[lines.length][];
+      for (int i = 0; i < lines.length; i++) {
+         encoded[i] = lines[i].getBytes(StandardCharsets.US_ASCII);
+      }
+      return encoded;
+   }
+}
@@ -0,0 +1,168 @@
+package com.noctis.vm.translator.optimizer.peephole;
+
+import com.noctis.vm.translator.writer.AssemblyBuffer;
+import com.noctis.vm.translator.writer.AssemblySink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Peephole optimizer between the code writer and the output sink.
+ * The generated code is split into lines that pass through a sliding window, each time a line enters the window
+ * the rules are tried on the end of the window until none of them applies, the lines that leave the window are emitted.
+ * The lines stay bytes from the code writer to the output, the window reuses its line buffers
+ *
+ * @author Noctis
+ * @date 2025/03/16
+ */
+public class PeepholeAssemblySink implements AssemblySink {
+
+   private static final int OUTPUT_CAPACITY = 64 * 1024;
+
+   private final AssemblySink downstream;
+
+   private final List<PeepholeRule> rules;
+
+   private final int maxWindowSize;
+
+   private final PeepholeWindow window;
+
+   /**
+    * Bytes of the line not terminated yet, assembly lines are short so it only grows for unusual input
+    */
+   private byte[] partialLine = new byte[64];
+
+   private int partialLength;
+
+   private final ByteBuffer output = ByteBuffer.allocate(OUTPUT_CAPACITY);
+
+   /**
+    * Times each rule fired and hack instructions it saved, indexed like the rules
+    */
+   private final long[] fireCounts;
+
+   private final long[] savedInstructions;
+
+   public PeepholeAssemblySink(AssemblySink downstream, PeepholeRuleRegistry registry) {
+      this.downstream = downstream;
+      this.rules = registry.rules();
+      this.maxWindowSize = registry.maxWindowSize();
+      this.window = new PeepholeWindow(maxWindowSize + 1);
+      this.fireCounts = new long[rules.size()];
+      this.savedInstructions = new long[rules.size()];
+   }
+
+   @Override
+   public void write(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+         byte b = buffer.get();
+         if (b == '\n') {
+            acceptLine();
+         } else if (b != '\r') {
+            if (partialLength == partialLine.length) {
+               partialLine = Arrays.copyOf(partialLine, partialLength * 2);
+            }
+            partialLine[partialLength++] = b;
+         }
+      }
+      drainOutput();
+   }
+
+   /**
+    * Emit the lines left in the window, then close the downstream sink
+    */
+   @Override
+   public void close() throws IOException {
+      if (partialLength > 0) {
+         acceptLine();
+      }
+      while (window.size() > 0) {
+         emitFirstLine();
+      }
+      drainOutput();
+      downstream.close();
+   }
+
+   public List<PeepholeRule> getRules() {
+      return rules;
+   }
+
+   public long getFireCount(int ruleIndex) {
+      return fireCounts[ruleIndex];
+   }
+
+   public long getSavedInstructions(int ruleIndex) {
+      return savedInstructions[ruleIndex];
+   }
+
+   /**
+    * Move the partial line into the window and apply the rules
+    */
+   private void acceptLine() throws IOException {
+      window.append(partialLine, 0, partialLength);
+      partialLength = 0;
+      boolean rewritten = true;
+      while (rewritten) {
+         rewritten = false;
+         for (int i = 0; i < rules.size(); i++) {
+            PeepholeRule rule = rules.get(i);
+            if (rule.windowSize() > window.size()) {
+               continue;
+            }
+            if (rule.matches(window)) {
+               int start = window.size() - rule.windowSize();
+               int before = countInstructions(window, start);
+               rule.rewrite(window);
+               fireCounts[i]++;
+               savedInstructions[i] += before - countInstructions(window, start);
+               rewritten = true;
+               break;
+            }
+         }
+      }
+      while (window.size() >= maxWindowSize) {
+         emitFirstLine();
+      }
+   }
+
+   /**
+    * @return number of hack instructions in the lines from the start index, label declarations excluded
+    */
+   private static int countInstructions(PeepholeWindow lines, int start) {
+      int count = 0;
+      for (int i = start; i < lines.size(); i++) {
+         if (!lines.startsWith(i, (byte) '(')) {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   private void emitFirstLine() throws IOException {
+      int length = window.length(0) + AssemblyBuffer.NEW_LINE.length;
+      if (output.remaining() < length) {
+         drainOutput();
+      }
+      if (output.remaining() < length) {
+         //a line longer than the output buffer is written on its own
+         ByteBuffer line = ByteBuffer.allocate(length);
+         window.removeFirst(line);
+         line.put(AssemblyBuffer.NEW_LINE);
+         line.flip();
+         downstream.write(line);
+         return;
+      }
+      window.removeFirst(output);
+      output.put(AssemblyBuffer.NEW_LINE);
+   }
+
+   private void drainOutput() throws IOException {
+      output.flip();
+      if (output.hasRemaining()) {
+         downstream.write(output);
+      }
+      output.clear();
+   }
+}
@@ -0,0 +1,35 @@
+package com.noctis.vm.translator.optimizer.peephole;
+
+/**
+ * Rewrite rule of the peephole optimizer, applied to the assembly lines at the end of the sliding window
+ *
+ * @author Noctis
+ * @date 2025/03/16
+ */
+public interface PeepholeRule {
+
+   /**
+    * @return name of the rule in reports
+    */
+   String name();
+
+   /**
+    * @return number of lines the rule looks at
+    */
+   int windowSize();
+
+   /**
+    * @param window assembly lines, with at least {@link #windowSize()} lines
+    * @return whether the rule applies to the last {@link #windowSize()} lines of the window
+    */
+   boolean matches(PeepholeWindow window);
+
+   /**
+    * Rewrite the last {@link #windowSize()} lines of the window in place, only called after {@link #matches(PeepholeWindow)}.
+    * A rule must keep the observable state of the program: RAM below the stack pointer, the registers read by the following code,
+    * and the control flow into labels
+    *
+    * @param window assembly lines, with at least {@link #windowSize()} lines
+    */
+   void rewrite(PeepholeWindow window);
+}
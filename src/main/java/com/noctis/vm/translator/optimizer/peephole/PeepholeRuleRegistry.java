@@ -0,0 +1,63 @@
+package com.noctis.vm.translator.optimizer.peephole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.noctis.vm.translator.optimizer.peephole.PatternPeepholeRule.ANY_A_INSTRUCTION;
+import static com.noctis.vm.translator.optimizer.peephole.PatternPeepholeRule.ANY_OTHER_LINE;
+
+/**
+ * Ordered registry of the peephole rules, the first rule that rewrites the window wins
+ *
+ * @author Noctis
+ * @date 2025/03/16
+ */
+public class PeepholeRuleRegistry {
+
+   private final List<PeepholeRule> rules = new ArrayList<>();
+
+   /**
+    * @return registry with the built-in rules
+    */
+   public static PeepholeRuleRegistry defaults() {
+      PeepholeRuleRegistry registry = new PeepholeRuleRegistry();
+      //SP increment followed by SP decrement: SP is unchanged and A ends at RAM[SP]
+      registry.register(new PatternPeepholeRule("sp-increment-decrement",
+              new String[]{"@SP", "M=M+1", "@SP", "AM=M-1"},
+              new String[]{"@SP", "A=M"}));
+      //push X + pop/operand load, as left by the rule above: the value is still in D and the following A-instruction
+      //overwrites A anyway. RAM[SP] above the stack is not written, it is dead once SP is restored
+      registry.register(new PatternPeepholeRule("push-pop-elimination",
+              new String[]{"@SP", "A=M", "M=D", "@SP", "A=M", "D=M", ANY_A_INSTRUCTION},
+              new String[]{"$6"}));
+      //push X + pop/operand load followed by code reading A/M (e.g. neg/not): keep the store and leave A at the stack top
+      registry.register(new PatternPeepholeRule("push-pop-to-store",
+              new String[]{"@SP", "A=M", "M=D", "@SP", "A=M", "D=M", ANY_OTHER_LINE},
+              new String[]{"@SP", "A=M", "M=D", "$6"}));
+      //reading back the value just stored at the same address
+      registry.register(new PatternPeepholeRule("store-reload",
+              new String[]{"M=D", "D=M"},
+              new String[]{"M=D"}));
+      return registry;
+   }
+
+   public void register(PeepholeRule rule) {
+      rules.add(rule);
+   }
+
+   public List<PeepholeRule> rules() {
+      return Collections.unmodifiableList(rules);
+   }
+
+   /**
+    * @return the largest window size of the rules
+    */
+   public int maxWindowSize() {
+      int max = 1;
+      for (PeepholeRule rule : rules) {
+         max = Math.max(max, rule.windowSize());
+      }
+      return max;
+   }
+}
@@ -0,0 +1,176 @@
+package com.noctis.vm.translator.optimizer.peephole;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Sliding window of the peephole optimizer over assembly lines without line terminators.
+ * The lines are kept as bytes in a ring of reusable line buffers, so lines entering, leaving and being rewritten
+ * do not allocate once the buffers have grown to the longest line. Lines are indexed from the oldest one
+ *
+ * @author Noctis
+ * @date 2025/03/16
+ */
+public class PeepholeWindow {
+
+   private static final int INITIAL_LINE_CAPACITY = 64;
+
+   private byte[][] lines;
+
+   private int[] lengths;
+
+   /**
+    * Slot of the oldest line
+    */
+   private int head;
+
+   private int size;
+
+   /**
+    * Lines removed by the last {@link #detachLast(int)}, that a rewrite can append again
+    */
+   private byte[][] detached;
+
+   private int[] detachedLengths;
+
+   private int detachedCount;
+
+   /**
+    * @param capacity initial number of lines, the window grows beyond it when needed
+    */
+   public PeepholeWindow(int capacity) {
+      this.lines = newLines(capacity);
+      this.lengths = new int[lines.length];
+      this.detached = newLines(capacity);
+      this.detachedLengths = new int[detached.length];
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public int length(int index) {
+      return lengths[slot(index)];
+   }
+
+   /**
+    * @return whether the line starts with the given character, e.g. {@code @} for an A-instruction
+    */
+   public boolean startsWith(int index, byte b) {
+      int slot = slot(index);
+      return lengths[slot] > 0 && lines[slot][0] == b;
+   }
+
+   /**
+    * @param text line in ascii without line terminator
+    */
+   public boolean lineEquals(int index, byte[] text) {
+      int slot = slot(index);
+      int length = lengths[slot];
+      if (length != text.length) {
+         return false;
+      }
+      byte[] line = lines[slot];
+      for (int i = 0; i < length; i++) {
+         if (line[i] != text[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Add a line after the newest one
+    */
+   public void append(byte[] text, int offset, int length) {
+      if (size == lines.length) {
+         grow();
+      }
+      int slot = slot(size);
+      if (lines[slot].length < length) {
+         lines[slot] = new byte[Math.max(length, lines[slot].length << 1)];
+      }
+      System.arraycopy(text, offset, lines[slot], 0, length);
+      lengths[slot] = length;
+      size++;
+   }
+
+   public void append(byte[] text) {
+      append(text, 0, text.length);
+   }
+
+   /**
+    * Remove the newest lines, they stay available to {@link #appendDetached(int)} until the next call
+    *
+    * @param count number of lines to remove, at most {@link #size()}
+    */
+   public void detachLast(int count) {
+      if (detached.length < count) {
+         detached = Arrays.copyOf(detached, count);
+         detachedLengths = Arrays.copyOf(detachedLengths, count);
+         for (int i = 0; i < count; i++) {
+            if (detached[i] == null) {
+               detached[i] = new byte[INITIAL_LINE_CAPACITY];
+            }
+         }
+      }
+      int start = size - count;
+      for (int i = 0; i < count; i++) {
+         int slot = slot(start + i);
+         int length = lengths[slot];
+         if (detached[i].length < length) {
+            detached[i] = new byte[Math.max(length, detached[i].length << 1)];
+         }
+         System.arraycopy(lines[slot], 0, detached[i], 0, length);
+         detachedLengths[i] = length;
+      }
+      detachedCount = count;
+      size = start;
+   }
+
+   /**
+    * Append again a line removed by the last {@link #detachLast(int)}
+    *
+    * @param detachedIndex index of the line among the removed ones, from the oldest
+    */
+   public void appendDetached(int detachedIndex) {
+      if (detachedIndex >= detachedCount) {
+         throw new IndexOutOfBoundsException("Detached line " + detachedIndex + " of " + detachedCount);
+      }
+      append(detached[detachedIndex], 0, detachedLengths[detachedIndex]);
+   }
+
+   /**
+    * Copy the oldest line, without line terminator, to the buffer and remove it from the window
+    */
+   public void removeFirst(ByteBuffer out) {
+      out.put(lines[head], 0, lengths[head]);
+      head = (head + 1) % lines.length;
+      size--;
+   }
+
+   private int slot(int index) {
+      return (head + index) % lines.length;
+   }
+
+   private void grow() {
+      byte[][] grownLines = newLines(lines.length << 1);
+      int[] grownLengths = new int[grownLines.length];
+      for (int i = 0; i < size; i++) {
+         int slot = slot(i);
+         grownLines[i] = lines[slot];
+         grownLengths[i] = lengths[slot];
+      }
+      lines = grownLines;
+      lengths = grownLengths;
+      head = 0;
+   }
+
+   private static byte[][] newLines(int count) {
+      byte[][] lines = new byte[Math.max(count, 1)][];
+      for (int i = 0; i < lines.length; i++) {
+         lines[i] = new byte[INITIAL_LINE_CAPACITY];
+      }
+      return lines;
+   }
+}
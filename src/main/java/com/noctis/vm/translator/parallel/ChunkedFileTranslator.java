@@ -0,0 +1,359 @@
+package com.noctis.vm.translator.parallel;
+
+import com.noctis.vm.translator.TranslationReport;
+import com.noctis.vm.translator.TranslationUnit;
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.common.VMOpcode;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.ir.VMInstruction;
+import com.noctis.vm.translator.ir.VMSymbolTable;
+import com.noctis.vm.translator.metrics.MeteredAssemblySink;
+import com.noctis.vm.translator.metrics.TranslationMetrics;
+import com.noctis.vm.translator.parser.VMInstructionLexer;
+import com.noctis.vm.translator.parser.VMInstructionParser;
+import com.noctis.vm.translator.writer.AssemblyBuffer;
+import com.noctis.vm.translator.writer.AssemblyCodeWriter;
+import com.noctis.vm.translator.writer.AssemblyRuntime;
+import com.noctis.vm.translator.writer.FileAssemblySink;
+import com.noctis.vm.translator.writer.MemoryAssemblySink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Translate a single big vm file on all the cores: the file is split at line boundaries into chunks, each chunk is lexed,
+ * validated and translated into its own in-memory fragment, and the fragments are stitched in order.
+ * <p>
+ * The code of a vm command only depends on the commands before it through the label indexes of the comparisons and calls,
+ * and through the function scoping the labels. A first parallel pass lexes the chunks to count their label indexes and find
+ * the last function of each of them, so that the writer of every chunk continues where the previous chunks stop and the
+ * output is byte-identical to a sequential translation. The constant folding, the peephole optimizer and the top-of-stack
+ * caching carry more state across commands, a file is translated sequentially when one of them is enabled
+ *
+ * @author Noctis
+ * @date 2025/03/25
+ */
+public class ChunkedFileTranslator {
+
+   private static final int IN_FLIGHT_CHUNKS_PER_WORKER = 2;
+
+   /**
+    * Bytes read at once when looking for the line feed that ends a chunk
+    */
+   private static final int BOUNDARY_SCAN_SIZE = 8192;
+
+   private final String vmFileLocation;
+
+   private final TranslatorOptions options;
+
+   public ChunkedFileTranslator(String vmFileLocation, TranslatorOptions options) {
+      this.vmFileLocation = vmFileLocation;
+      this.options = options;
+   }
+
+   /**
+    * @return whether the vm file is translated in chunks: it is bigger than the chunk size, there is more than one core,
+    * the code of a chunk does not depend on the state of the optimizations at its start, and no profile refers to the
+    * lines of the file, which a chunk does not know
+    */
+   public static boolean applies(String vmFileLocation, TranslatorOptions options) {
+      return !options.isConstantFolding() && !options.isPeephole() && !options.isTopOfStackCaching()
+              && options.getProfileGuidedPlan() == null
+              && Runtime.getRuntime().availableProcessors() > 1
+              && new File(vmFileLocation).length() > chunkSize(options);
+   }
+
+   private static long chunkSize(TranslatorOptions options) {
+      return options.getChunkSizeKB() * 1024;
+   }
+
+   /**
+    * Translate the vm file to the asm file next to it
+    *
+    * @return counters of the translation, merged from all the chunks
+    */
+   public TranslationReport translate() throws InstructionParseException, AssemblyTranslationException, IOException {
+      List<long[]> chunks = split();
+      int parallelism = Runtime.getRuntime().availableProcessors();
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      TranslationReport report = new TranslationReport();
+      try {
+         TranslationMetrics metrics = null;
+         if (options.isStats()) {
+            metrics = new TranslationMetrics();
+            metrics.addFile();
+         }
+         try (FileAssemblySink sink = FileAssemblySink.open(AssemblyCodeWriter.resultFileLocation(vmFileLocation))) {
+            List<ChunkTranslationTask> tasks = plan(chunks, pool);
+            //Only a window of chunks is in flight, so the fragments held in memory stay bounded
+            int window = parallelism * IN_FLIGHT_CHUNKS_PER_WORKER;
+            for (int i = 0; i < Math.min(window, tasks.size()); i++) {
+               pool.execute(tasks.get(i));
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+               ChunkTranslationTask task = tasks.get(i);
+               MemoryAssemblySink fragment = task.result();
+               long start = metrics == null ? 0 : System.nanoTime();
+               fragment.writeTo(sink);
+               if (metrics != null) {
+                  metrics.addWriteNanos(System.nanoTime() - start);
+               }
+               report.merge(task.report);
+               tasks.set(i, null);
+               if (i + window < tasks.size()) {
+                  pool.execute(tasks.get(i + window));
+               }
+            }
+            //The shared routines follow the code of the last chunk, as after a sequential translation
+            MeteredAssemblySink runtime = metrics == null ? null : new MeteredAssemblySink(sink);
+            AssemblyBuffer epilogue = new AssemblyBuffer(runtime == null ? sink : runtime);
+            if (runtime != null) {
+               runtime.attributeToRuntime();
+            }
+            AssemblyRuntime.writeRoutines(epilogue, report.getRequiredRoutines());
+            epilogue.flush();
+            if (runtime != null) {
+               runtime.flush();
+               metrics.addHackInstructions(runtime);
+            }
+            sink.commit();
+         }
+         if (metrics != null) {
+            report.addMetrics(metrics);
+         }
+      } finally {
+         pool.shutdownNow();
+      }
+      return report;
+   }
+
+   /**
+    * Scan the chunks in parallel and create their translation tasks, each one continuing the label indexes and the function
+    * scope of the chunks before it
+    */
+   private List<ChunkTranslationTask> plan(List<long[]> chunks, ForkJoinPool pool)
+           throws InstructionParseException, AssemblyTranslationException, IOException {
+      List<ChunkScanTask> scans = new ArrayList<>(chunks.size());
+      for (long[] chunk : chunks) {
+         ChunkScanTask scan = new ChunkScanTask(vmFileLocation, chunk[0], chunk[1]);
+         scans.add(scan);
+         pool.execute(scan);
+      }
+      List<ChunkTranslationTask> tasks = new ArrayList<>(chunks.size());
+      int linesBefore = 0;
+      int labelIndex = 0;
+      String function = null;
+      for (int i = 0; i < chunks.size(); i++) {
+         ChunkScanTask scan = scans.get(i);
+         try {
+            scan.result();
+         } catch (InstructionParseException e) {
+            //lex the chunk again from its line in the file, so that the error is the one of a sequential translation
+            rescan(chunks.get(i), linesBefore);
+            throw e;
+         }
+         tasks.add(new ChunkTranslationTask(vmFileLocation, options, chunks.get(i), linesBefore, labelIndex, function));
+         linesBefore += scan.lineCount;
+         labelIndex += scan.labelIndexCount;
+         if (scan.lastFunction != null) {
+            function = scan.lastFunction;
+         }
+      }
+      return tasks;
+   }
+
+   private void rescan(long[] chunk, int linesBefore) throws InstructionParseException, IOException {
+      try (VMInstructionLexer lexer = new VMInstructionLexer(vmFileLocation, new VMSymbolTable(), chunk[0], chunk[1], linesBefore)) {
+         while (lexer.next()) {
+            //only the error matters
+         }
+      }
+   }
+
+   /**
+    * @return file offsets of the chunks, each {start, end}, a chunk ends after the first line feed past the chunk size
+    */
+   private List<long[]> split() throws IOException {
+      List<long[]> chunks = new ArrayList<>();
+      long chunkSize = chunkSize(options);
+      try (FileChannel channel = FileChannel.open(Paths.get(vmFileLocation), StandardOpenOption.READ)) {
+         long size = channel.size();
+         ByteBuffer scan = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+         long start = 0;
+         while (start < size) {
+            long end = Math.min(size, start + chunkSize);
+            if (end < size) {
+               end = lineEnd(channel, end - 1, scan);
+            }
+            chunks.add(new long[]{start, end});
+            start = end;
+         }
+      }
+      return chunks;
+   }
+
+   /**
+    * @return offset after the first line feed at or after the position, the size of the file when there is none
+    */
+   private static long lineEnd(FileChannel channel, long position, ByteBuffer scan) throws IOException {
+      while (true) {
+         scan.clear();
+         int read = channel.read(scan, position);
+         if (read <= 0) {
+            return channel.size();
+         }
+         for (int i = 0; i < read; i++) {
+            if (scan.get(i) == '\n') {
+               return position + i + 1;
+            }
+         }
+         position += read;
+      }
+   }
+
+   /**
+    * Fork-join task over a chunk, checked exceptions are kept and rethrown by {@link #result()}
+    */
+   private abstract static class ChunkTask<T> extends RecursiveTask<T> {
+
+      private static final long serialVersionUID = 1L;
+
+      private Exception failure;
+
+      @Override
+      protected T compute() {
+         try {
+            return run();
+         } catch (InstructionParseException | AssemblyTranslationException | IOException e) {
+            failure = e;
+            return null;
+         }
+      }
+
+      protected abstract T run() throws InstructionParseException, AssemblyTranslationException, IOException;
+
+      /**
+       * Wait for the task and return its result
+       */
+      T result() throws InstructionParseException, AssemblyTranslationException, IOException {
+         T result = join();
+         if (failure instanceof InstructionParseException) {
+            throw (InstructionParseException) failure;
+         } else if (failure instanceof AssemblyTranslationException) {
+            throw (AssemblyTranslationException) failure;
+         } else if (failure != null) {
+            throw (IOException) failure;
+         }
+         return result;
+      }
+   }
+
+   /**
+    * Lex a chunk and collect what the chunks after it depend on
+    */
+   private static class ChunkScanTask extends ChunkTask<Void> {
+
+      private static final long serialVersionUID = 1L;
+
+      private final String vmFileLocation;
+
+      private final long start;
+
+      private final long end;
+
+      private int lineCount;
+
+      /**
+       * Label indexes generated for the chunk, one per comparison and per call
+       */
+      private int labelIndexCount;
+
+      /**
+       * Last function declared in the chunk, {@code null} when there is none
+       */
+      private String lastFunction;
+
+      private ChunkScanTask(String vmFileLocation, long start, long end) {
+         this.vmFileLocation = vmFileLocation;
+         this.start = start;
+         this.end = end;
+      }
+
+      @Override
+      protected Void run() throws InstructionParseException, IOException {
+         int lastFunctionSymbol = -1;
+         try (VMInstructionLexer lexer = new VMInstructionLexer(vmFileLocation, new VMSymbolTable(), start, end, 0)) {
+            while (lexer.next()) {
+               long instruction = lexer.instruction();
+               VMOpcode opcode = VMInstruction.opcode(instruction);
+               if (opcode.isComparison() || opcode == VMOpcode.CALL) {
+                  labelIndexCount++;
+               } else if (opcode == VMOpcode.FUNCTION) {
+                  lastFunctionSymbol = VMInstruction.symbol(instruction);
+               }
+            }
+            lineCount = lexer.lineNumber();
+            if (lastFunctionSymbol >= 0) {
+               lastFunction = lexer.symbols().nameString(lastFunctionSymbol);
+            }
+         }
+         return null;
+      }
+   }
+
+   /**
+    * Translate a chunk into an in-memory fragment, without the shared routines
+    */
+   private static class ChunkTranslationTask extends ChunkTask<MemoryAssemblySink> {
+
+      private static final long serialVersionUID = 1L;
+
+      private final String vmFileLocation;
+
+      private final TranslatorOptions options;
+
+      private final long[] chunk;
+
+      private final int linesBefore;
+
+      private final int labelIndex;
+
+      private final String function;
+
+      private final TranslationReport report = new TranslationReport();
+
+      private ChunkTranslationTask(String vmFileLocation, TranslatorOptions options, long[] chunk, int linesBefore, int labelIndex,
+                                   String function) {
+         this.vmFileLocation = vmFileLocation;
+         this.options = options;
+         this.chunk = chunk;
+         this.linesBefore = linesBefore;
+         this.labelIndex = labelIndex;
+         this.function = function;
+      }
+
+      @Override
+      protected MemoryAssemblySink run() throws InstructionParseException, AssemblyTranslationException, IOException {
+         MemoryAssemblySink fragment = new MemoryAssemblySink();
+         TranslationUnit unit;
+         VMInstructionLexer lexer = new VMInstructionLexer(vmFileLocation, new VMSymbolTable(), chunk[0], chunk[1], linesBefore);
+         try (VMInstructionParser instructionParser = new VMInstructionParser(lexer)) {
+            unit = new TranslationUnit(AssemblyCodeWriter.moduleName(vmFileLocation), fragment, "", options, instructionParser.symbols());
+            unit.getWriter().continueFrom(labelIndex, function);
+            unit.translate(instructionParser);
+         }
+         unit.finish();
+         unit.close(report);
+         return fragment;
+      }
+   }
+}
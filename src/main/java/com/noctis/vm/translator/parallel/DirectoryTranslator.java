@@ -0,0 +1,288 @@
+package com.noctis.vm.translator.parallel;
+
+import com.noctis.vm.translator.TranslationReport;
+import com.noctis.vm.translator.TranslationUnit;
+import com.noctis.vm.translator.cache.FragmentCache;
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.common.VMConstants;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.metrics.MeteredAssemblySink;
+import com.noctis.vm.translator.metrics.TranslationMetrics;
+import com.noctis.vm.translator.optimizer.CallGraph;
+import com.noctis.vm.translator.parser.VMInstructionParser;
+import com.noctis.vm.translator.writer.AssemblyBuffer;
+import com.noctis.vm.translator.writer.AssemblyCodeWriter;
+import com.noctis.vm.translator.writer.AssemblyRuntime;
+import com.noctis.vm.translator.writer.FileAssemblySink;
+import com.noctis.vm.translator.writer.MemoryAssemblySink;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Translate all the vm files in a directory into one asm file named after the directory.
+ * Each vm file is translated on a fork-join pool into its own in-memory fragment, with its own static symbols and labels
+ * namespaced by the file name, so the workers never coordinate. The fragments are stitched in file name order.
+ * With a {@link FragmentCache} the fragments of unchanged vm files are reused instead of translated.
+ * With the dead function elimination the {@link CallGraph} of all the vm files is built first, and only the functions
+ * reachable from the entry function are translated
+ *
+ * @author Noctis
+ * @date 2025/03/10
+ */
+public class DirectoryTranslator {
+
+   private static final int IN_FLIGHT_FILES_PER_WORKER = 2;
+
+   private final File directory;
+
+   private final TranslatorOptions options;
+
+   public DirectoryTranslator(String directoryLocation, TranslatorOptions options) {
+      this.directory = new File(directoryLocation);
+      this.options = options;
+   }
+
+   /**
+    * @param directoryLocation absolute / relative path of the directory
+    * @return path of the asm file, inside the directory and named after it
+    */
+   public static String resultFileLocation(String directoryLocation) {
+      File directory = new File(directoryLocation).getAbsoluteFile();
+      return new File(directory, directory.getName() + VMConstants.RESULT_ASM_FILE_SUFFIX).getPath();
+   }
+
+   /**
+    * @return the vm files of the directory sorted by name
+    */
+   public List<File> listVMFiles() throws IOException {
+      File[] files = directory.listFiles((dir, name) -> name.endsWith(VMConstants.VM_FILE_SUFFIX));
+      if (files == null) {
+         throw new IOException("Failed to list directory: " + directory);
+      }
+      Arrays.sort(files);
+      return Arrays.asList(files);
+   }
+
+   /**
+    * @return whether the program starts with the bootstrap code calling {@value AssemblyRuntime#ENTRY_FUNCTION},
+    * i.e. whether the directory has the {@value AssemblyRuntime#ENTRY_MODULE} vm file that defines it
+    */
+   public static boolean hasBootstrap(List<File> vmFiles) {
+      for (File vmFile : vmFiles) {
+         if (AssemblyRuntime.ENTRY_MODULE.equals(AssemblyCodeWriter.moduleName(vmFile.getPath()))) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Build the call graph of the program when the dead function elimination is enabled and applies
+    *
+    * @param report report of the program, records why the elimination does not apply
+    * @return the call graph, {@code null} when all the functions are translated
+    */
+   public static CallGraph callGraph(List<File> vmFiles, TranslatorOptions options, TranslationReport report)
+           throws InstructionParseException, IOException {
+      if (!options.isDeadFunctionElimination()) {
+         return null;
+      }
+      if (!hasBootstrap(vmFiles)) {
+         report.skipDeadFunctionElimination("no " + AssemblyRuntime.ENTRY_MODULE + VMConstants.VM_FILE_SUFFIX
+                 + " defines the entry function " + AssemblyRuntime.ENTRY_FUNCTION);
+         return null;
+      }
+      return CallGraph.scan(vmFiles);
+   }
+
+   /**
+    * Translate the directory to the asm file inside it
+    *
+    * @return counters of the translation, merged from all the vm files
+    */
+   public TranslationReport translate() throws InstructionParseException, AssemblyTranslationException, IOException {
+      List<File> vmFiles = listVMFiles();
+      if (vmFiles.isEmpty()) {
+         throw new IOException("No vm file found in directory: " + directory);
+      }
+      int parallelism = Runtime.getRuntime().availableProcessors();
+      FragmentCache cache = FragmentCache.fromOptions(options);
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      TranslationReport report = new TranslationReport();
+      CallGraph callGraph = callGraph(vmFiles, options, report);
+      Set<String> reachableFunctions = callGraph == null ? null : callGraph.reachableFrom(AssemblyRuntime.ENTRY_FUNCTION);
+      try (FileAssemblySink sink = FileAssemblySink.open(resultFileLocation(directory.getPath()))) {
+         List<FileTranslationTask> tasks = new ArrayList<>(vmFiles.size());
+         for (File vmFile : vmFiles) {
+            List<String> removedFunctions = callGraph == null ? Collections.<String>emptyList()
+                    : callGraph.unreachableFunctionsOf(vmFile, reachableFunctions);
+            tasks.add(new FileTranslationTask(vmFile, options, cache, reachableFunctions, removedFunctions));
+         }
+         //Only a window of files is in flight, so the fragments held in memory stay bounded
+         int window = parallelism * IN_FLIGHT_FILES_PER_WORKER;
+         for (int i = 0; i < Math.min(window, tasks.size()); i++) {
+            pool.execute(tasks.get(i));
+         }
+         //The bootstrap code and the shared routines are metered as runtime code, the fragments by their own units
+         TranslationMetrics stitching = options.isStats() ? new TranslationMetrics() : null;
+         MeteredAssemblySink runtime = stitching == null ? null : new MeteredAssemblySink(sink);
+         if (runtime != null) {
+            runtime.attributeToRuntime();
+         }
+         if (hasBootstrap(vmFiles)) {
+            AssemblyBuffer prologue = new AssemblyBuffer(runtime == null ? sink : runtime);
+            report.addRequiredRoutines(AssemblyRuntime.writeBootstrap(prologue));
+            prologue.flush();
+            if (runtime != null) {
+               runtime.flush();
+            }
+         }
+         //Stitch the fragments in order as soon as each of them is ready
+         for (int i = 0; i < tasks.size(); i++) {
+            FileTranslationTask task = tasks.get(i);
+            MemoryAssemblySink fragment = task.fragment();
+            long start = stitching == null ? 0 : System.nanoTime();
+            fragment.writeTo(sink);
+            if (stitching != null) {
+               stitching.addWriteNanos(System.nanoTime() - start);
+            }
+            report.merge(task.report);
+            tasks.set(i, null);
+            if (i + window < tasks.size()) {
+               pool.execute(tasks.get(i + window));
+            }
+         }
+         //The shared routines are emitted once for the whole program
+         AssemblyBuffer epilogue = new AssemblyBuffer(runtime == null ? sink : runtime);
+         AssemblyRuntime.writeRoutines(epilogue, report.getRequiredRoutines());
+         epilogue.flush();
+         if (stitching != null) {
+            runtime.flush();
+            stitching.addHackInstructions(runtime);
+            report.addMetrics(stitching);
+         }
+         sink.commit();
+      } finally {
+         pool.shutdownNow();
+      }
+      if (cache != null) {
+         cache.evict();
+      }
+      return report;
+   }
+
+   /**
+    * Translate one vm file into an in-memory fragment, with labels in the namespace of the file
+    *
+    * @param vmFile             vm file
+    * @param options            translation options
+    * @param report             report collecting the counters of the file
+    * @param reachableFunctions functions to translate, {@code null} to translate all of them
+    * @return the fragment, without the shared routines
+    */
+   public static MemoryAssemblySink translateFile(File vmFile, TranslatorOptions options, TranslationReport report,
+                                                  Set<String> reachableFunctions)
+           throws InstructionParseException, AssemblyTranslationException, IOException {
+      String moduleName = AssemblyCodeWriter.moduleName(vmFile.getPath());
+      MemoryAssemblySink fragment = new MemoryAssemblySink();
+      TranslationUnit unit;
+      try (VMInstructionParser instructionParser = new VMInstructionParser(vmFile.getPath(), true)) {
+         unit = new TranslationUnit(moduleName, fragment, moduleName + ".", options, instructionParser.symbols(), reachableFunctions);
+         if (unit.getMetrics() != null) {
+            unit.getMetrics().addFile();
+         }
+         unit.translate(instructionParser);
+      }
+      unit.finish();
+      unit.close(report);
+      return fragment;
+   }
+
+   /**
+    * Fork-join task translating one vm file or loading its fragment from the cache,
+    * checked exceptions are kept and rethrown by {@link #fragment()}
+    */
+   private static class FileTranslationTask extends RecursiveTask<MemoryAssemblySink> {
+
+      private static final long serialVersionUID = 1L;
+
+      private final File vmFile;
+
+      private final TranslatorOptions options;
+
+      /**
+       * Fragment cache, {@code null} when disabled
+       */
+      private final FragmentCache cache;
+
+      /**
+       * Functions to translate, {@code null} to translate all of them
+       */
+      private final Set<String> reachableFunctions;
+
+      /**
+       * Functions of the file that are dropped, part of the cache key
+       */
+      private final List<String> removedFunctions;
+
+      private final TranslationReport report = new TranslationReport();
+
+      private Exception failure;
+
+      private FileTranslationTask(File vmFile, TranslatorOptions options, FragmentCache cache, Set<String> reachableFunctions,
+                                  List<String> removedFunctions) {
+         this.vmFile = vmFile;
+         this.options = options;
+         this.cache = cache;
+         this.reachableFunctions = reachableFunctions;
+         this.removedFunctions = removedFunctions;
+      }
+
+      @Override
+      protected MemoryAssemblySink compute() {
+         try {
+            if (cache == null) {
+               return translateFile(vmFile, options, report, reachableFunctions);
+            }
+            String key = cache.key(vmFile, options, removedFunctions);
+            FragmentCache.CachedFragment cached = cache.load(key);
+            if (cached != null) {
+               report.merge(cached.getReport());
+               report.addCacheHit();
+               return cached.getFragment();
+            }
+            MemoryAssemblySink fragment = translateFile(vmFile, options, report, reachableFunctions);
+            cache.store(key, fragment, report);
+            report.addCacheMiss();
+            return fragment;
+         } catch (InstructionParseException | AssemblyTranslationException | IOException e) {
+            failure = e;
+            return null;
+         }
+      }
+
+      /**
+       * Wait for the task and return the translated fragment
+       */
+      private MemoryAssemblySink fragment() throws InstructionParseException, AssemblyTranslationException, IOException {
+         MemoryAssemblySink fragment = join();
+         if (failure instanceof InstructionParseException) {
+            throw new InstructionParseException(vmFile.getName() + ": " + failure.getMessage(), failure);
+         } else if (failure instanceof AssemblyTranslationException) {
+            throw new AssemblyTranslationException(vmFile.getName() + ": " + failure.getMessage(), failure);
+         } else if (failure != null) {
+            throw new IOException(vmFile.getName() + ": " + failure.getMessage(), failure);
+         }
+         return fragment;
+      }
+   }
+}
@@ -0,0 +1,82 @@
+package com.noctis.vm.translator.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte channel over a character reader, so that vm code held as characters can be lexed by a {@link VMInstructionLexer}.
+ * The characters are encoded in utf-8, the vm commands are ascii and the other characters can only appear in comments.
+ * Closing the channel does not close the reader
+ *
+ * @author Noctis
+ * @date 2025/03/26
+ */
+public class ReaderByteChannel implements ReadableByteChannel {
+
+   private static final int CHAR_BUFFER_SIZE = 8192;
+
+   private final Reader reader;
+
+   private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+           .onMalformedInput(CodingErrorAction.REPLACE)
+           .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+   /**
+    * Characters read from the reader and not encoded yet, between position and limit
+    */
+   private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+
+   private boolean endOfInput = false;
+
+   /**
+    * Whether all the characters are encoded, the channel is at its end
+    */
+   private boolean flushed = false;
+
+   private boolean open = true;
+
+   public ReaderByteChannel(Reader reader) {
+      this.reader = reader;
+      chars.flip();
+   }
+
+   @Override
+   public int read(ByteBuffer destination) throws IOException {
+      if (flushed) {
+         return -1;
+      }
+      int start = destination.position();
+      while (destination.hasRemaining()) {
+         if (!chars.hasRemaining() && !endOfInput) {
+            chars.clear();
+            endOfInput = reader.read(chars) < 0;
+            chars.flip();
+         }
+         if (encoder.encode(chars, destination, endOfInput).isOverflow()) {
+            break;
+         }
+         if (endOfInput) {
+            flushed = !encoder.flush(destination).isOverflow();
+            break;
+         }
+      }
+      int read = destination.position() - start;
+      return read == 0 && flushed ? -1 : read;
+   }
+
+   @Override
+   public boolean isOpen() {
+      return open;
+   }
+
+   @Override
+   public void close() {
+      open = false;
+   }
+}
@@ -0,0 +1,494 @@
+package com.noctis.vm.translator.parser;
+
+import com.noctis.vm.translator.common.VMOpcode;
+import com.noctis.vm.translator.common.VirtualSegment;
+import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.ir.VMInstruction;
+import com.noctis.vm.translator.ir.VMSymbolTable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Byte level lexer of the vm file, the file is mapped into memory window by window and the instructions are
+ * recognized and decoded straight from the bytes, no string is created unless an error is reported.
+ * A lexer can also read a channel, e.g. the standard input, through a reusable window refilled at line boundaries.
+ * A mapped window is loaded before it is lexed, so the time spent mapping, loading and reading the windows, counted by
+ * {@link #getReadNanos()}, is the I/O of the lexer and the rest of its time is lexing.
+ * <p>
+ * Everything from {@code //} to the end of the line is a comment, empty lines and comment lines are skipped.
+ * The remaining lines are trimmed and must be an arithmetic command, {@code return}, {@code (push|pop)\s<segment>\s\d+},
+ * {@code (label|goto|if-goto)\s<symbol>} or {@code (function|call)\s<symbol>\s\d+}. A symbol is made of letters, digits,
+ * {@code _.$:} and does not start with a digit, it is interned in the {@link VMSymbolTable} of the lexer
+ *
+ * @author Noctis
+ * @date 2025/03/04
+ */
+public class VMInstructionLexer implements Closeable {
+
+   /**
+    * Size of the mapped region, a window always ends at a line boundary so no line is split across two windows
+    */
+   private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+   /**
+    * Size of the window refilled from a channel
+    */
+   private static final int STREAM_WINDOW_SIZE = 1024 * 1024;
+
+   private static final byte[][] OPCODE_KEYWORDS = new byte[VMOpcode.values().length][];
+
+   private static final byte[][] SEGMENT_KEYWORDS = new byte[VirtualSegment.values().length][];
+
+   static {
+      for (VMOpcode opcode : VMOpcode.values()) {
+         //internal opcodes never match
+         OPCODE_KEYWORDS[opcode.ordinal()] = opcode.command() == null ? new byte[0] : opcode.command().getBytes(StandardCharsets.US_ASCII);
+      }
+      for (VirtualSegment segment : VirtualSegment.values()) {
+         SEGMENT_KEYWORDS[segment.ordinal()] = segment.segmentName().getBytes(StandardCharsets.US_ASCII);
+      }
+   }
+
+   /**
+    * The mapped vm file, {@code null} when the lexer reads a channel
+    */
+   private final FileChannel channel;
+
+   /**
+    * Channel read by the lexer, {@code null} when it maps a vm file
+    */
+   private final ReadableByteChannel input;
+
+   /**
+    * Buffer the channel is read into, {@link #window} is a read-only view of it so that the lexer always reads
+    * the same buffer class as with a mapped file
+    */
+   private final ByteBuffer inputBuffer;
+
+   /**
+    * Bytes read into the input buffer, the bytes after {@link #limit} are the start of a line that is not complete yet
+    */
+   private int filled;
+
+   private final VMSymbolTable symbols;
+
+   /**
+    * File offset after the last byte to lex, the end of the file unless the lexer reads a chunk of it
+    */
+   private final long end;
+
+   /**
+    * File offset of the current window
+    */
+   private long windowStart;
+
+   private ByteBuffer window;
+
+   /**
+    * Offset of the next unread line in the current window
+    */
+   private int position;
+
+   /**
+    * End of the last complete line in the current window
+    */
+   private int limit;
+
+   private int lineNumber;
+
+   private long instruction;
+
+   /**
+    * Bytes of the lines of the windows read so far
+    */
+   private long bytesRead;
+
+   private long readNanos;
+
+   public VMInstructionLexer(String vmFileLocation) throws IOException {
+      this(vmFileLocation, new VMSymbolTable());
+   }
+
+   /**
+    * @param vmFileLocation absolute / relative file name of the vm file
+    * @param symbols        table interning the label and function names
+    */
+   public VMInstructionLexer(String vmFileLocation, VMSymbolTable symbols) throws IOException {
+      this(vmFileLocation, symbols, 0, Long.MAX_VALUE, 0);
+   }
+
+   /**
+    * Lex a chunk of the vm file, the chunk must start at the beginning of a line and end after a line feed or at the end of the file
+    *
+    * @param vmFileLocation absolute / relative file name of the vm file
+    * @param symbols        table interning the label and function names
+    * @param start          file offset of the chunk
+    * @param end            file offset after the chunk
+    * @param linesBefore    lines of the file before the chunk, so that the errors report the line number in the file
+    */
+   public VMInstructionLexer(String vmFileLocation, VMSymbolTable symbols, long start, long end, int linesBefore) throws IOException {
+      this.symbols = symbols;
+      channel = FileChannel.open(Paths.get(vmFileLocation), StandardOpenOption.READ);
+      input = null;
+      inputBuffer = null;
+      this.end = Math.min(end, channel.size());
+      windowStart = start;
+      position = 0;
+      limit = 0;
+      lineNumber = linesBefore;
+   }
+
+   /**
+    * Lex the vm code read from the channel, the channel is read to its end but not closed
+    *
+    * @param input   channel of the vm code, e.g. the standard input
+    * @param symbols table interning the label and function names
+    */
+   public VMInstructionLexer(ReadableByteChannel input, VMSymbolTable symbols) {
+      this.symbols = symbols;
+      this.input = input;
+      channel = null;
+      inputBuffer = ByteBuffer.allocateDirect(STREAM_WINDOW_SIZE);
+      window = inputBuffer.asReadOnlyBuffer();
+      end = Long.MAX_VALUE;
+      windowStart = 0;
+      position = 0;
+      limit = 0;
+      lineNumber = 0;
+   }
+
+   /**
+    * Lex the next instruction, skipping empty lines and comment lines
+    *
+    * @return whether an instruction is decoded, {@code false} when the lexer reaches the end of the vm file
+    * @throws InstructionParseException When the instruction is invalid, the message contains the line and column number
+    */
+   public boolean next() throws InstructionParseException, IOException {
+      while (true) {
+         if (position >= limit && !mapNextWindow()) {
+            return false;
+         }
+         int lineStart = position;
+         int lineEnd = lineStart;
+         while (lineEnd < limit && window.get(lineEnd) != '\n') {
+            lineEnd++;
+         }
+         position = lineEnd + 1;
+         lineNumber++;
+         if (lineEnd > lineStart && window.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+         }
+         if (lineEnd == lineStart) {
+            continue;
+         }
+         int commentStart = commentStart(lineStart, lineEnd);
+         if (commentStart < lineEnd) {
+            if (isBlank(lineStart, commentStart)) {
+               continue;
+            }
+            lineEnd = commentStart;
+         }
+         instruction = lexLine(lineStart, lineEnd);
+         return true;
+      }
+   }
+
+   /**
+    * @return the last decoded instruction in packed form, see {@link VMInstruction}
+    */
+   public long instruction() {
+      return instruction;
+   }
+
+   /**
+    * @return names of the label and function ids of the decoded instructions
+    */
+   public VMSymbolTable symbols() {
+      return symbols;
+   }
+
+   /**
+    * @return line number of the last decoded instruction, starting from 1
+    */
+   public int lineNumber() {
+      return lineNumber;
+   }
+
+   /**
+    * @return bytes of the vm code read so far
+    */
+   public long getBytesRead() {
+      return bytesRead;
+   }
+
+   /**
+    * @return time spent reading the vm code so far, mapping and loading the windows of a file or reading the channel
+    */
+   public long getReadNanos() {
+      return readNanos;
+   }
+
+   @Override
+   public void close() throws IOException {
+      window = null;
+      if (channel != null) {
+         channel.close();
+      }
+   }
+
+   /**
+    * Refill the input buffer after the lines of the current window, the incomplete line at its end is moved to the start
+    * of the buffer. The window is cut at its last line feed unless the channel reaches its end
+    *
+    * @return whether there is anything left to lex
+    */
+   private boolean readNextWindow() throws InstructionParseException, IOException {
+      inputBuffer.limit(filled);
+      inputBuffer.position(limit);
+      inputBuffer.compact();
+      int carried = inputBuffer.position();
+      long start = System.nanoTime();
+      while (inputBuffer.hasRemaining() && input.read(inputBuffer) >= 0) {
+         //read until the buffer is full or the channel ends
+      }
+      readNanos += System.nanoTime() - start;
+      bytesRead += inputBuffer.position() - carried;
+      boolean endOfInput = inputBuffer.hasRemaining();
+      filled = inputBuffer.position();
+      position = 0;
+      limit = filled;
+      if (filled == 0) {
+         return false;
+      }
+      if (!endOfInput) {
+         while (limit > 0 && window.get(limit - 1) != '\n') {
+            limit--;
+         }
+         if (limit == 0) {
+            throw new InstructionParseException("Line " + (lineNumber + 1) + ": Instruction exceeds " + STREAM_WINDOW_SIZE + " bytes");
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Map the region after the current window, the region is cut at its last line feed unless it reaches the end of the file
+    * or of the chunk
+    *
+    * @return whether there is anything left to lex
+    */
+   private boolean mapNextWindow() throws InstructionParseException, IOException {
+      if (input != null) {
+         return readNextWindow();
+      }
+      windowStart += limit;
+      if (windowStart >= end) {
+         return false;
+      }
+      int size = (int) Math.min(WINDOW_SIZE, end - windowStart);
+      long start = System.nanoTime();
+      window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size).load();
+      readNanos += System.nanoTime() - start;
+      position = 0;
+      limit = size;
+      if (windowStart + size < end) {
+         while (limit > 0 && window.get(limit - 1) != '\n') {
+            limit--;
+         }
+         if (limit == 0) {
+            throw new InstructionParseException("Line " + (lineNumber + 1) + ": Instruction exceeds " + WINDOW_SIZE + " bytes");
+         }
+      }
+      bytesRead += limit;
+      return true;
+   }
+
+   /**
+    * @return offset of the comment of the line, {@code end} when the line has no comment
+    */
+   private int commentStart(int start, int end) {
+      for (int i = start; i < end - 1; i++) {
+         if (window.get(i) == '/' && window.get(i + 1) == '/') {
+            return i;
+         }
+      }
+      return end;
+   }
+
+   private boolean isBlank(int start, int end) {
+      for (int i = start; i < end; i++) {
+         if ((window.get(i) & 0xFF) > ' ') {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Validate and decode a non-comment line
+    *
+    * @param start offset of the first byte of the line
+    * @param end   offset after the last byte of the line, excluding the line terminator
+    * @return packed instruction
+    */
+   private long lexLine(int start, int end) throws InstructionParseException {
+      //ignore all the whitespace at the start and end of the instruction, the same as String#trim
+      int lineStart = start;
+      while (start < end && (window.get(start) & 0xFF) <= ' ') {
+         start++;
+      }
+      while (end > start && (window.get(end - 1) & 0xFF) <= ' ') {
+         end--;
+      }
+      if (start == end) {
+         throw error("Instruction is empty", lineStart, start, end);
+      }
+
+      int wordEnd = start;
+      while (wordEnd < end && !isSeparator(window.get(wordEnd))) {
+         wordEnd++;
+      }
+      int opcodeOrdinal = match(OPCODE_KEYWORDS, start, wordEnd);
+      if (opcodeOrdinal < 0) {
+         throw error("Invalid instruction", lineStart, start, end);
+      }
+      VMOpcode opcode = VMOpcode.ofOrdinal(opcodeOrdinal);
+      switch (opcode.instructionType()) {
+         case C_ARITHMETIC:
+            if (wordEnd == end) {
+               return VMInstruction.arithmetic(opcode);
+            }
+            throw error("Invalid instruction", lineStart, wordEnd, end);
+         case C_RETURN:
+            if (wordEnd == end) {
+               return VMInstruction.functionReturn();
+            }
+            throw error("Invalid instruction", lineStart, wordEnd, end);
+         case C_PUSH:
+         case C_POP:
+            if (wordEnd == end) {
+               throw error("Invalid instruction", lineStart, wordEnd, end);
+            }
+            break;
+         default:
+            return lexNamedInstruction(opcode, lineStart, wordEnd, end);
+      }
+
+      //push/pop instruction, exactly one separator between the tokens
+      int segmentStart = wordEnd + 1;
+      int segmentEnd = segmentStart;
+      while (segmentEnd < end && !isSeparator(window.get(segmentEnd))) {
+         segmentEnd++;
+      }
+      int segmentOrdinal = match(SEGMENT_KEYWORDS, segmentStart, segmentEnd);
+      if (segmentOrdinal < 0 || segmentEnd == end) {
+         throw error("Invalid instruction", lineStart, segmentStart, end);
+      }
+
+      int index = lexIndex(lineStart, segmentEnd + 1, end);
+      return VMInstruction.pushPop(opcode, VirtualSegment.ofOrdinal(segmentOrdinal), index);
+   }
+
+   /**
+    * Validate and decode the operands of a program flow or function instruction
+    *
+    * @param wordEnd offset after the command
+    */
+   private long lexNamedInstruction(VMOpcode opcode, int lineStart, int wordEnd, int end) throws InstructionParseException {
+      int symbolStart = wordEnd + 1;
+      if (wordEnd == end || symbolStart == end) {
+         throw error("Invalid instruction", lineStart, wordEnd, end);
+      }
+      int symbolEnd = symbolStart;
+      while (symbolEnd < end && !isSeparator(window.get(symbolEnd))) {
+         if (!isSymbolByte(window.get(symbolEnd), symbolEnd == symbolStart)) {
+            throw error("Invalid symbol", lineStart, symbolEnd, end);
+         }
+         symbolEnd++;
+      }
+      boolean counted = opcode == VMOpcode.FUNCTION || opcode == VMOpcode.CALL;
+      if (counted == (symbolEnd == end)) {
+         throw error("Invalid instruction", lineStart, symbolEnd, end);
+      }
+      int count = counted ? lexIndex(lineStart, symbolEnd + 1, end) : 0;
+      return VMInstruction.named(opcode, symbols.intern(window, symbolStart, symbolEnd), count);
+   }
+
+   /**
+    * Decode the decimal index that ends the instruction
+    *
+    * @param indexStart offset of the first digit
+    */
+   private int lexIndex(int lineStart, int indexStart, int end) throws InstructionParseException {
+      if (indexStart == end) {
+         throw error("Invalid instruction", lineStart, indexStart, end);
+      }
+      int index = 0;
+      for (int i = indexStart; i < end; i++) {
+         int digit = window.get(i) - '0';
+         if (digit < 0 || digit > 9) {
+            throw error("Invalid instruction", lineStart, i, end);
+         }
+         index = index * 10 + digit;
+         if (index > VMInstruction.MAX_INDEX) {
+            throw error("Index out of range", lineStart, indexStart, end);
+         }
+      }
+      return index;
+   }
+
+   /**
+    * @return ordinal of the keyword that equals the bytes in range, -1 when nothing matches
+    */
+   private int match(byte[][] keywords, int start, int end) {
+      int length = end - start;
+      for (int k = 0; k < keywords.length; k++) {
+         byte[] keyword = keywords[k];
+         if (keyword.length != length || length == 0) {
+            continue;
+         }
+         int i = 0;
+         while (i < length && keyword[i] == window.get(start + i)) {
+            i++;
+         }
+         if (i == length) {
+            return k;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * @return whether the byte is one of the whitespace characters accepted between instruction tokens
+    */
+   private static boolean isSeparator(byte b) {
+      return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+   }
+
+   /**
+    * @return whether the byte may appear in a label or function name
+    */
+   private static boolean isSymbolByte(byte b, boolean first) {
+      if (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b == '_' || b == '.' || b == '$' || b == ':') {
+         return true;
+      }
+      return !first && b >= '0' && b <= '9';
+   }
+
+   private InstructionParseException error(String message, int lineStart, int errorOffset, int instructionEnd) {
+      byte[] text = new byte[instructionEnd - lineStart];
+      for (int i = 0; i < text.length; i++) {
+         text[i] = window.get(lineStart + i);
+      }
+      String instruction = new String(text, StandardCharsets.UTF_8).trim();
+      String position = "Line " + lineNumber + ", column " + (errorOffset - lineStart + 1) + ": ";
+      return new InstructionParseException(instruction.isEmpty() ? position + message : position + message + ": " + instruction);
+   }
+}
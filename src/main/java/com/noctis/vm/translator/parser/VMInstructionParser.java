@@ -1,46 +1,135 @@
 package com.noctis.vm.translator.parser;
 
 import com.noctis.vm.translator.common.InstructionType;
-import com.noctis.vm.translator.common.VMConstants;
+import com.noctis.vm.translator.common.VMOpcode;
+import com.noctis.vm.translator.common.VirtualSegment;
 import com.noctis.vm.translator.exception.InstructionParseException;
-import com.noctis.vm.translator.util.StringUtils;
+import com.noctis.vm.translator.ir.VMInstruction;
+import com.noctis.vm.translator.ir.VMInstructionBuffer;
+import com.noctis.vm.translator.ir.VMSymbolTable;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * @author Noctis
  * @date 2025/02/02
  */
-public class VMInstructionParser {
+public class VMInstructionParser implements Closeable {
 
-   private final List<String> vmInstructionList;
+   /**
+    * Decoded instructions of the vm file in eager mode, {@code null} in streaming mode
+    */
+   private final VMInstructionBuffer vmInstructionBuffer;
+
+   /**
+    * Lexer of the vm file in streaming mode, {@code null} when all the instructions are loaded eagerly
+    */
+   private final VMInstructionLexer lexer;
+
+   /**
+    * Names of the label and function ids of the instructions
+    */
+   private final VMSymbolTable symbols;
+
+   /**
+    * Current instruction in packed form, see {@link VMInstruction}
+    */
+   private long currentInstruction;
 
-   private String currentInstruction;
+   private boolean hasCurrentInstruction;
+
+   /**
+    * Whether the lexer already holds the next instruction in streaming mode
+    */
+   private boolean hasNextInstruction;
 
    private int index;
 
+   /**
+    * Line of the current instruction in the vm file in streaming mode, 0 when the instructions are loaded eagerly
+    */
+   private int lineNumber;
+
+   /**
+    * Bytes read and read time of the lexer in eager mode, which is closed once the instructions are loaded
+    */
+   private long bytesRead;
+
+   private long readNanos;
+
    /**
     * Open the vm file and initialize the parser by reading the vm instructions
     *
     * @param vmFileLocation absolute file path for the vm file
     */
    public VMInstructionParser(String vmFileLocation) throws InstructionParseException, IOException {
+      this(vmFileLocation, false);
+   }
+
+   /**
+    * Open the vm file and initialize the parser.
+    * In streaming mode only one instruction is kept in memory, each line is lexed and validated when the parser advances to it,
+    * so the memory footprint stays constant no matter how big the vm file is
+    *
+    * @param vmFileLocation absolute file path for the vm file
+    * @param streaming      whether to read the vm file line by line instead of loading all the instructions
+    */
+   public VMInstructionParser(String vmFileLocation, boolean streaming) throws InstructionParseException, IOException {
+      this(vmFileLocation, streaming, new VMSymbolTable());
+   }
+
+   /**
+    * Open the vm file and initialize the parser, interning the label and function names in the given table
+    *
+    * @param vmFileLocation absolute file path for the vm file
+    * @param streaming      whether to read the vm file line by line instead of loading all the instructions
+    * @param symbols        table interning the label and function names
+    */
+   public VMInstructionParser(String vmFileLocation, boolean streaming, VMSymbolTable symbols) throws InstructionParseException, IOException {
       index = 0;
-      currentInstruction = null;
-      vmInstructionList = Files.lines(Paths.get(vmFileLocation))
-              .filter(vmInstruction -> !isCommentLine(vmInstruction))
-              //ignore all the whitespace at the start and end of the instruction
-              .map(String::trim)
-              .collect(Collectors.toList());
-      //Validate all the non-whitespace instructions in vm file
-      for (String instruction : vmInstructionList) {
-         validate(instruction);
+      hasCurrentInstruction = false;
+      this.symbols = symbols;
+      VMInstructionLexer vmInstructionLexer = new VMInstructionLexer(vmFileLocation, symbols);
+      try {
+         if (streaming) {
+            vmInstructionBuffer = null;
+            hasNextInstruction = vmInstructionLexer.next();
+            lexer = vmInstructionLexer;
+            return;
+         }
+         //Validate and decode all the non-whitespace instructions in vm file
+         vmInstructionBuffer = new VMInstructionBuffer();
+         while (vmInstructionLexer.next()) {
+            vmInstructionBuffer.add(vmInstructionLexer.instruction());
+         }
+         lexer = null;
+         bytesRead = vmInstructionLexer.getBytesRead();
+         readNanos = vmInstructionLexer.getReadNanos();
+      } catch (InstructionParseException | IOException e) {
+         vmInstructionLexer.close();
+         throw e;
+      }
+      vmInstructionLexer.close();
+   }
+
+   /**
+    * Parse the instructions of the lexer in streaming mode, e.g. a lexer reading one chunk of the vm file.
+    * The parser owns the lexer from now on and closes it
+    *
+    * @param vmInstructionLexer lexer positioned before its first instruction
+    */
+   public VMInstructionParser(VMInstructionLexer vmInstructionLexer) throws InstructionParseException, IOException {
+      index = 0;
+      hasCurrentInstruction = false;
+      symbols = vmInstructionLexer.symbols();
+      vmInstructionBuffer = null;
+      lexer = vmInstructionLexer;
+      try {
+         hasNextInstruction = vmInstructionLexer.next();
+      } catch (InstructionParseException | IOException e) {
+         vmInstructionLexer.close();
+         throw e;
       }
    }
 
@@ -50,17 +139,77 @@ public class VMInstructionParser {
     * @return If the parser already reach the end of the vm file
     */
    public boolean hasMoreLines() {
-      return index < vmInstructionList.size();
+      if (lexer != null) {
+         return hasNextInstruction;
+      }
+      return index < vmInstructionBuffer.size();
    }
 
    /**
     * Reads the next command and makes it the current command
     */
-   public void advance() {
+   public void advance() throws InstructionParseException, IOException {
       if (!hasMoreLines()) {
          return;
       }
-      currentInstruction = vmInstructionList.get(index++);
+      if (lexer != null) {
+         currentInstruction = lexer.instruction();
+         lineNumber = lexer.lineNumber();
+         hasCurrentInstruction = true;
+         hasNextInstruction = lexer.next();
+         return;
+      }
+      currentInstruction = vmInstructionBuffer.get(index++);
+      hasCurrentInstruction = true;
+   }
+
+   /**
+    * @return the current instruction in packed form, see {@link VMInstruction}
+    */
+   public long instruction() throws InstructionParseException {
+      if (!hasCurrentInstruction) {
+         throw new InstructionParseException("Empty Instruction");
+      }
+      return currentInstruction;
+   }
+
+   /**
+    * @return line of the current instruction in the vm file, starting from 1, 0 when the parser is not streaming
+    */
+   public int lineNumber() {
+      return lineNumber;
+   }
+
+   /**
+    * @return bytes of the vm file read so far, see {@link VMInstructionLexer#getBytesRead()}
+    */
+   public long getBytesRead() {
+      return lexer == null ? bytesRead : lexer.getBytesRead();
+   }
+
+   /**
+    * @return time spent reading the vm file so far, see {@link VMInstructionLexer#getReadNanos()}
+    */
+   public long getReadNanos() {
+      return lexer == null ? readNanos : lexer.getReadNanos();
+   }
+
+   /**
+    * @return names of the label and function ids of the instructions
+    */
+   public VMSymbolTable symbols() {
+      return symbols;
+   }
+
+   public VMOpcode opcode() throws InstructionParseException {
+      return VMInstruction.opcode(instruction());
+   }
+
+   /**
+    * @return the virtual segment of the current push/pop instruction, {@code null} for the other instructions
+    */
+   public VirtualSegment segment() throws InstructionParseException {
+      return VMInstruction.segment(instruction());
    }
 
    /**
@@ -69,70 +218,53 @@ public class VMInstructionParser {
     * @return Type of VM instruction
     */
    public InstructionType commandType() throws InstructionParseException {
-      if (StringUtils.isEmpty(currentInstruction)) {
-         throw new InstructionParseException("Empty Instruction");
-      }
-      if (VMConstants.ARITHMETIC_COMMAND_SET.contains(currentInstruction)) {
-         return InstructionType.C_ARITHMETIC;
-      } else if (currentInstruction.startsWith(VMConstants.INSTRUCTION_PREFIX_PUSH)) {
-         return InstructionType.C_PUSH;
-      } else {
-         return InstructionType.C_POP;
-      }
+      return opcode().instructionType();
    }
 
    /**
     * @return The first argument of the vm instruction
     */
    public String arg1() throws InstructionParseException {
-      InstructionType instructionType = this.commandType();
+      VMOpcode opcode = this.opcode();
       //For arithmetic instruction return the instruction itself
-      if (InstructionType.C_ARITHMETIC.equals(instructionType)) {
-         return currentInstruction;
+      if (InstructionType.C_ARITHMETIC.equals(opcode.instructionType())) {
+         return opcode.command();
+      }
+      //Should not be called for return, which has no argument
+      if (InstructionType.C_RETURN.equals(opcode.instructionType())) {
+         throw new InstructionParseException("Invalid instruction operands for command " + opcode.command());
+      }
+      //Program flow and function commands return the label or function name
+      if (opcode.hasSymbol()) {
+         return symbols.nameString(VMInstruction.symbol(currentInstruction));
       }
-      //C_PUSH/C_POP returns the virtual segment identifier, an valid c_push/c_pop vm instruction only contains two whitespace
-      return currentInstruction.substring(currentInstruction.indexOf(" ") + 1, currentInstruction.lastIndexOf(" "));
+      //C_PUSH/C_POP returns the virtual segment identifier
+      return VMInstruction.segment(currentInstruction).segmentName();
    }
 
    /**
     * @return the second argument of the current command
     */
-   public Integer arg2() throws InstructionParseException {
+   public int arg2() throws InstructionParseException {
       InstructionType instructionType = this.commandType();
-      //Should be called only if the instruction type is push/pop type
+      //Should be called only if the instruction type is push/pop/function/call type
       if (InstructionType.C_ARITHMETIC.equals(instructionType)) {
-         throw new InstructionParseException("Invalid instruction operands for arithmetic command" + currentInstruction);
+         throw new InstructionParseException("Invalid instruction operands for arithmetic command" + opcode().command());
       }
-      return Integer.parseInt(currentInstruction.substring(currentInstruction.lastIndexOf(" ") + 1));
-   }
-
-   /**
-    * Check whether the instruction is an VM instruction comment
-    *
-    * @param vmInstruction instruction
-    * @return whether is comment
-    */
-   private boolean isCommentLine(String vmInstruction) {
-      if (StringUtils.isEmpty(vmInstruction)) {
-         return true;
+      if (!InstructionType.C_PUSH.equals(instructionType) && !InstructionType.C_POP.equals(instructionType)
+              && !InstructionType.C_FUNCTION.equals(instructionType) && !InstructionType.C_CALL.equals(instructionType)) {
+         throw new InstructionParseException("Invalid instruction operands for command " + opcode().command());
       }
-      return vmInstruction.contains(VMConstants.COMMENT_IDENTIFIER);
+      return VMInstruction.index(currentInstruction);
    }
 
    /**
-    * Check whether the instruction is valid by regex
-    *
-    * @param instruction instruction that need to validate
-    * @throws InstructionParseException When instruction does not match the regular expression (for those who contains more than 2 white-space will not match also)
+    * Release the underlying vm file, no-op when the instructions are loaded eagerly
     */
-   private void validate(String instruction) throws InstructionParseException {
-      if (StringUtils.isEmpty(instruction)) {
-         throw new InstructionParseException("Instruction is empty");
-      }
-      Pattern pattern = Pattern.compile(VMConstants.INSTRUCTION_PATTERN);
-      Matcher matcher = pattern.matcher(instruction);
-      if (!VMConstants.ARITHMETIC_COMMAND_SET.contains(instruction) && !matcher.matches()) {
-         throw new InstructionParseException("Invalid instruction: " + instruction);
+   @Override
+   public void close() throws IOException {
+      if (lexer != null) {
+         lexer.close();
       }
    }
 }
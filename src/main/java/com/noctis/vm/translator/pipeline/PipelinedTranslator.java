@@ -0,0 +1,168 @@
+package com.noctis.vm.translator.pipeline;
+
+import com.noctis.vm.translator.TranslationReport;
+import com.noctis.vm.translator.TranslationUnit;
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.ir.VMInstructionBuffer;
+import com.noctis.vm.translator.parser.VMInstructionLexer;
+import com.noctis.vm.translator.writer.AssemblyCodeWriter;
+import com.noctis.vm.translator.writer.FileAssemblySink;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Translate a vm file in three pipelined stages: the parser thread decodes instructions in batches,
+ * the calling thread generates the assembly code, and the writer thread drains the code chunks to disk.
+ * The stages are connected by bounded queues, a stage blocks when the next one falls behind.
+ * Code generation stays on a single thread, so the output is byte-identical to the sequential translation
+ *
+ * @author Noctis
+ * @date 2025/03/08
+ */
+public class PipelinedTranslator {
+
+   private static final int BATCH_SIZE = 8192;
+
+   private static final int BATCH_COUNT = 8;
+
+   private static final int CHUNK_SIZE = 256 * 1024;
+
+   private static final int CHUNK_COUNT = 8;
+
+   private static final VMInstructionBuffer END_OF_BATCHES = new VMInstructionBuffer(1);
+
+   private final BlockingQueue<VMInstructionBuffer> batches = new ArrayBlockingQueue<>(BATCH_COUNT + 1);
+
+   private final BlockingQueue<VMInstructionBuffer> freeBatches = new ArrayBlockingQueue<>(BATCH_COUNT);
+
+   private final String vmFileLocation;
+
+   private final TranslatorOptions options;
+
+   private volatile Exception parseFailure;
+
+   /**
+    * Time the parser thread spent lexing, without the waits on the queues nor the reads, published by the end of the batches
+    */
+   private long parseNanos;
+
+   /**
+    * Bytes the lexer read and the time it spent reading them, published by the end of the batches
+    */
+   private long bytesRead;
+
+   private long readNanos;
+
+   public PipelinedTranslator(String vmFileLocation, TranslatorOptions options) {
+      this.vmFileLocation = vmFileLocation;
+      this.options = options;
+      for (int i = 0; i < BATCH_COUNT; i++) {
+         freeBatches.add(new VMInstructionBuffer(BATCH_SIZE));
+      }
+   }
+
+   /**
+    * Translate the vm file to the asm file next to it
+    *
+    * @return counters of the translation
+    */
+   public TranslationReport translate() throws InstructionParseException, AssemblyTranslationException, IOException {
+      VMInstructionLexer lexer = new VMInstructionLexer(vmFileLocation);
+      FileAssemblySink file = FileAssemblySink.open(AssemblyCodeWriter.resultFileLocation(vmFileLocation));
+      QueueAssemblySink sink = new QueueAssemblySink(file, CHUNK_COUNT, CHUNK_SIZE);
+      TranslationUnit unit = new TranslationUnit(AssemblyCodeWriter.moduleName(vmFileLocation), sink, "", options, lexer.symbols());
+      if (unit.getMetrics() != null) {
+         unit.getMetrics().addFile();
+      }
+      Thread parserThread = new Thread(() -> parse(lexer), "vm-translator-parser");
+      parserThread.setDaemon(true);
+      parserThread.start();
+
+      TranslationReport report = new TranslationReport();
+      try {
+         while (true) {
+            VMInstructionBuffer batch = batches.take();
+            if (batch == END_OF_BATCHES) {
+               break;
+            }
+            long[] instructions = batch.array();
+            for (int i = 0; i < batch.size(); i++) {
+               unit.accept(instructions[i]);
+            }
+            batch.clear();
+            freeBatches.put(batch);
+         }
+         if (unit.getMetrics() != null) {
+            unit.getMetrics().addParseNanos(parseNanos);
+            unit.getMetrics().addInput(bytesRead, readNanos);
+         }
+         if (parseFailure == null) {
+            unit.finish();
+            unit.writeRuntimeRoutines();
+            //the asm file is replaced once the writer thread has written the rest of the code
+            file.commit();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while translating " + vmFileLocation);
+      } finally {
+         parserThread.interrupt();
+         try {
+            unit.close(report);
+         } finally {
+            file.close();
+         }
+      }
+      if (parseFailure instanceof InstructionParseException) {
+         throw (InstructionParseException) parseFailure;
+      } else if (parseFailure != null) {
+         throw new IOException("Failed to read " + vmFileLocation, parseFailure);
+      }
+      return report;
+   }
+
+   private void parse(VMInstructionLexer lexer) {
+      long start = System.nanoTime();
+      long blockedNanos = 0;
+      try {
+         VMInstructionBuffer batch = freeBatches.take();
+         while (lexer.next()) {
+            batch.add(lexer.instruction());
+            if (batch.size() == BATCH_SIZE) {
+               long handOver = System.nanoTime();
+               batches.put(batch);
+               batch = freeBatches.take();
+               blockedNanos += System.nanoTime() - handOver;
+            }
+         }
+         if (!batch.isEmpty()) {
+            batches.put(batch);
+         }
+         bytesRead = lexer.getBytesRead();
+         readNanos = lexer.getReadNanos();
+         parseNanos = System.nanoTime() - start - blockedNanos - readNanos;
+      } catch (InterruptedException e) {
+         return;
+      } catch (InstructionParseException | IOException e) {
+         parseFailure = e;
+      } finally {
+         try {
+            lexer.close();
+         } catch (IOException e) {
+            if (parseFailure == null) {
+               parseFailure = e;
+            }
+         }
+      }
+      try {
+         batches.put(END_OF_BATCHES);
+      } catch (InterruptedException ignored) {
+         //the translation thread has stopped consuming batches
+      }
+   }
+}
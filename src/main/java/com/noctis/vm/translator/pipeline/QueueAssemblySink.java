@@ -0,0 +1,114 @@
+package com.noctis.vm.translator.pipeline;
+
+import com.noctis.vm.translator.writer.AssemblySink;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Assembly sink handing the code chunks over to a dedicated writer thread through a bounded queue.
+ * Chunks are taken from a fixed pool, so the code generation blocks when the writer thread falls behind
+ *
+ * @author Noctis
+ * @date 2025/03/08
+ */
+public class QueueAssemblySink implements AssemblySink {
+
+   private static final ByteBuffer END_OF_CHUNKS = ByteBuffer.allocate(0);
+
+   private final BlockingQueue<ByteBuffer> chunks;
+
+   private final BlockingQueue<ByteBuffer> freeChunks;
+
+   private final AssemblySink downstream;
+
+   private final Thread writerThread;
+
+   private volatile IOException failure;
+
+   /**
+    * @param downstream sink that is written by the writer thread
+    * @param chunkCount number of chunks in the pool, which bounds the memory held by the queue
+    * @param chunkSize  capacity of each chunk
+    */
+   public QueueAssemblySink(AssemblySink downstream, int chunkCount, int chunkSize) {
+      this.downstream = downstream;
+      this.chunks = new ArrayBlockingQueue<>(chunkCount + 1);
+      this.freeChunks = new ArrayBlockingQueue<>(chunkCount);
+      for (int i = 0; i < chunkCount; i++) {
+         freeChunks.add(ByteBuffer.allocateDirect(chunkSize));
+      }
+      this.writerThread = new Thread(this::drain, "vm-translator-writer");
+      this.writerThread.setDaemon(true);
+      this.writerThread.start();
+   }
+
+   @Override
+   public void write(ByteBuffer buffer) throws IOException {
+      checkFailure();
+      try {
+         while (buffer.hasRemaining()) {
+            ByteBuffer chunk = freeChunks.take();
+            int length = Math.min(chunk.remaining(), buffer.remaining());
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(slice.position() + length);
+            chunk.put(slice);
+            buffer.position(buffer.position() + length);
+            chunk.flip();
+            chunks.put(chunk);
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while handing over assembly code");
+      }
+   }
+
+   /**
+    * Wait for the writer thread to drain all the chunks, then close the downstream sink
+    */
+   @Override
+   public void close() throws IOException {
+      try {
+         chunks.put(END_OF_CHUNKS);
+         writerThread.join();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while waiting for the writer thread");
+      } finally {
+         downstream.close();
+      }
+      checkFailure();
+   }
+
+   private void drain() {
+      try {
+         while (true) {
+            ByteBuffer chunk = chunks.take();
+            if (chunk == END_OF_CHUNKS) {
+               return;
+            }
+            //Keep taking chunks after a failure, so that the producer never blocks on an empty pool
+            if (failure == null) {
+               try {
+                  downstream.write(chunk);
+               } catch (IOException e) {
+                  failure = e;
+               }
+            }
+            chunk.clear();
+            freeChunks.put(chunk);
+         }
+      } catch (InterruptedException e) {
+         failure = new InterruptedIOException("Writer thread interrupted");
+      }
+   }
+
+   private void checkFailure() throws IOException {
+      if (failure != null) {
+         throw new IOException("Failed to write assembly code", failure);
+      }
+   }
+}
@@ -0,0 +1,97 @@
+package com.noctis.vm.translator.profile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Execution counts of the vm lines of a program, recorded by the emulator with {@code --write-profile} or converted
+ * from an external trace. The profile file has one line per executed vm line: the module, i.e. the vm file name without
+ * extension, the line number starting from 1 and the executions, separated by white spaces. Lines starting with
+ * {@code #} are comments
+ *
+ * @author Noctis
+ * @date 2025/03/28
+ */
+public class ExecutionProfile {
+
+   private static final String COMMENT_PREFIX = "#";
+
+   /**
+    * Executions by line of each module
+    */
+   private final Map<String, Map<Integer, Long>> executions = new HashMap<>();
+
+   /**
+    * Add executions of a vm line
+    *
+    * @param module vm file name without extension
+    * @param line   line number in the vm file, starting from 1
+    * @param count  executions
+    */
+   public void add(String module, int line, long count) {
+      if (count > 0) {
+         executions.computeIfAbsent(module, name -> new HashMap<>()).merge(line, count, Long::sum);
+      }
+   }
+
+   /**
+    * @return executions of the vm line, 0 when it is not in the profile
+    */
+   public long executions(String module, int line) {
+      Map<Integer, Long> lines = executions.get(module);
+      Long count = lines == null ? null : lines.get(line);
+      return count == null ? 0 : count;
+   }
+
+   /**
+    * @param profileLocation path of the profile file
+    * @throws IOException When the file can not be read or a line is not {@code module line executions}
+    */
+   public static ExecutionProfile read(String profileLocation) throws IOException {
+      ExecutionProfile profile = new ExecutionProfile();
+      try (BufferedReader reader = Files.newBufferedReader(Paths.get(profileLocation), StandardCharsets.UTF_8)) {
+         String line;
+         int lineNumber = 0;
+         while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith(COMMENT_PREFIX)) {
+               continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 3) {
+               throw new IOException(profileLocation + ": line " + lineNumber + ": expected 'module line executions': " + line);
+            }
+            try {
+               profile.add(fields[0], Integer.parseInt(fields[1]), Long.parseLong(fields[2]));
+            } catch (NumberFormatException e) {
+               throw new IOException(profileLocation + ": line " + lineNumber + ": invalid number: " + line, e);
+            }
+         }
+      }
+      return profile;
+   }
+
+   /**
+    * Write the profile file, modules and lines in order
+    *
+    * @param profileLocation path of the profile file
+    */
+   public void write(String profileLocation) throws IOException {
+      try (Writer writer = Files.newBufferedWriter(Paths.get(profileLocation), StandardCharsets.UTF_8)) {
+         writer.write(COMMENT_PREFIX + " module line executions" + System.lineSeparator());
+         for (Map.Entry<String, Map<Integer, Long>> module : new TreeMap<>(executions).entrySet()) {
+            for (Map.Entry<Integer, Long> line : new TreeMap<>(module.getValue()).entrySet()) {
+               writer.write(module.getKey() + " " + line.getKey() + " " + line.getValue() + System.lineSeparator());
+            }
+         }
+      }
+   }
+}
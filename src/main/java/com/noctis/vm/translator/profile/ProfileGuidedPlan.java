@@ -0,0 +1,163 @@
+package com.noctis.vm.translator.profile;
+
+import com.noctis.vm.translator.common.VMOpcode;
+import com.noctis.vm.translator.writer.AssemblyRuntime;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Form of each comparison site chosen from an execution profile, consulted by the code writer: the hot sites get the
+ * fast inline expansion, the others call the compact shared routine. A site is a vm line, the writer passes the line
+ * of the comparison it translates.
+ * <p>
+ * A recording plan answers the shared form everywhere and collects the sites it is asked about, this is how
+ * {@link ProfileGuidedPlanner} measures the program before choosing
+ *
+ * @author Noctis
+ * @date 2025/03/28
+ */
+public class ProfileGuidedPlan {
+
+   /**
+    * Sites asked about, {@code null} when the plan is not recording
+    */
+   private final List<ComparisonSite> recordedSites;
+
+   /**
+    * Lines of the inlined sites of each module
+    */
+   private final Map<String, Set<Integer>> inlineSites = new HashMap<>();
+
+   private int siteCount;
+
+   private long romBudget;
+
+   private long romWithoutProfile;
+
+   private long romWithProfile;
+
+   private long sharedExecutionsWithoutProfile;
+
+   private long sharedExecutionsWithProfile;
+
+   /**
+    * Whether the plan fell back to the forms chosen without profile
+    */
+   private boolean withoutProfile;
+
+   private ProfileGuidedPlan(boolean recording) {
+      this.recordedSites = recording ? Collections.synchronizedList(new ArrayList<>()) : null;
+   }
+
+   /**
+    * @return a plan choosing the shared form everywhere and collecting the comparison sites
+    */
+   static ProfileGuidedPlan recording() {
+      return new ProfileGuidedPlan(true);
+   }
+
+   /**
+    * @return a plan inlining the given sites
+    */
+   static ProfileGuidedPlan inlining(List<ComparisonSite> sites) {
+      ProfileGuidedPlan plan = new ProfileGuidedPlan(false);
+      for (ComparisonSite site : sites) {
+         plan.inlineSites.computeIfAbsent(site.module, module -> new HashSet<>()).add(site.line);
+      }
+      return plan;
+   }
+
+   /**
+    * @param module module of the vm file being translated
+    * @param line   line of the comparison, 0 when the line is unknown
+    * @param opcode eq, gt or lt
+    * @return whether the comparison is inlined, otherwise it calls the shared routine
+    */
+   public boolean isInlineComparison(String module, int line, VMOpcode opcode) {
+      if (recordedSites != null) {
+         recordedSites.add(new ComparisonSite(module, line, opcode));
+         return false;
+      }
+      Set<Integer> lines = inlineSites.get(module);
+      return lines != null && lines.contains(line);
+   }
+
+   List<ComparisonSite> getRecordedSites() {
+      return recordedSites;
+   }
+
+   /**
+    * Record the estimates of the plan, cycles are counted as the executions of shared comparisons, each one costing
+    * a few cycles more than an inline one
+    */
+   void estimate(int siteCount, long romBudget, long romWithoutProfile, long sharedExecutionsWithoutProfile, long romWithProfile,
+                 long sharedExecutionsWithProfile, boolean withoutProfile) {
+      this.siteCount = siteCount;
+      this.romBudget = romBudget;
+      this.romWithoutProfile = romWithoutProfile;
+      this.sharedExecutionsWithoutProfile = sharedExecutionsWithoutProfile;
+      this.romWithProfile = romWithProfile;
+      this.sharedExecutionsWithProfile = sharedExecutionsWithProfile;
+      this.withoutProfile = withoutProfile;
+   }
+
+   public int getInlineSiteCount() {
+      int count = 0;
+      for (Set<Integer> lines : inlineSites.values()) {
+         count += lines.size();
+      }
+      return count;
+   }
+
+   public long getRomWithProfile() {
+      return romWithProfile;
+   }
+
+   public long getRomWithoutProfile() {
+      return romWithoutProfile;
+   }
+
+   /**
+    * Print the estimated ROM use and extra comparison cycles over an all inline program, without and with the profile
+    */
+   public void print(PrintStream out) {
+      int extraCyclesTrue = AssemblyRuntime.COMPARISON_EXTRA_CYCLES_TRUE;
+      int extraCyclesFalse = AssemblyRuntime.COMPARISON_EXTRA_CYCLES_FALSE;
+      out.printf("Profile-guided comparisons: %d sites, %d inlined, %d shared, ROM budget %d%s%n", siteCount, getInlineSiteCount(),
+              siteCount - getInlineSiteCount(), romBudget, romWithProfile > romBudget ? " (exceeded by the compact program)" : "");
+      out.printf("  without profile: ROM %d instructions, +%d~%d cycles in shared comparisons%n", romWithoutProfile,
+              sharedExecutionsWithoutProfile * extraCyclesTrue, sharedExecutionsWithoutProfile * extraCyclesFalse);
+      out.printf("  with profile:    ROM %d instructions, +%d~%d cycles in shared comparisons%n", romWithProfile,
+              sharedExecutionsWithProfile * extraCyclesTrue, sharedExecutionsWithProfile * extraCyclesFalse);
+      if (withoutProfile) {
+         out.println("  worse than without profile, the comparisons keep their form without profile");
+      }
+   }
+
+   /**
+    * Comparison met while translating, with its executions in the profile
+    */
+   static final class ComparisonSite {
+
+      final String module;
+
+      final int line;
+
+      final VMOpcode opcode;
+
+      long executions;
+
+      ComparisonSite(String module, int line, VMOpcode opcode) {
+         this.module = module;
+         this.line = line;
+         this.opcode = opcode;
+      }
+   }
+}
@@ -0,0 +1,157 @@
+package com.noctis.vm.translator.profile;
+
+import com.noctis.vm.translator.HackTranslator;
+import com.noctis.vm.translator.TranslationReport;
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.common.VMOpcode;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.writer.AssemblyRuntime;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Choose the form of each comparison from the execution profile of {@code --profile}. The program is first translated
+ * with every comparison shared, the most compact form, to measure it and collect its comparison sites. The sites are
+ * then inlined from the most executed one while the program stays within the ROM budget: an inlined site grows the code
+ * by the difference between the two forms, and the routine of a comparison disappears with its last shared site, so
+ * inlining that site may shrink the program and is always allowed. Sites that are never executed stay shared, unless
+ * they are the only callers left of a routine and inlining them saves ROM. A plan worse than the program translated
+ * without the profile, and better on neither ROM nor cycles, falls back to that program
+ *
+ * @author Noctis
+ * @date 2025/03/28
+ */
+public class ProfileGuidedPlanner {
+
+   private static final int INLINE_GROWTH = AssemblyRuntime.INLINE_COMPARISON_SIZE - AssemblyRuntime.COMPARISON_CALL_SIZE;
+
+   private static final int COMPARISON_ROUTINES = AssemblyRuntime.ROUTINE_EQ | AssemblyRuntime.ROUTINE_GT | AssemblyRuntime.ROUTINE_LT;
+
+   private ProfileGuidedPlanner() {
+   }
+
+   /**
+    * @param options options of the translation, with the profile file, the ROM budget and the vm file or directory
+    * @return the plan to set in the options before translating
+    */
+   public static ProfileGuidedPlan plan(TranslatorOptions options) throws InstructionParseException, AssemblyTranslationException, IOException {
+      ExecutionProfile profile = ExecutionProfile.read(options.getProfile());
+      ProfileGuidedPlan recording = ProfileGuidedPlan.recording();
+      TranslationReport report = new TranslationReport();
+      boolean stats = options.isStats();
+      long sharedSize;
+      //the measure is not part of the translation, its metrics would be counted twice
+      options.setStats(false);
+      options.setProfileGuidedPlan(recording);
+      try {
+         sharedSize = new HackTranslator(options).measure(options.getSource(), report);
+      } finally {
+         options.setProfileGuidedPlan(null);
+         options.setStats(stats);
+      }
+
+      List<ProfileGuidedPlan.ComparisonSite> sites = new ArrayList<>(recording.getRecordedSites());
+      Map<VMOpcode, Integer> sharedSites = new EnumMap<>(VMOpcode.class);
+      long totalExecutions = 0;
+      for (ProfileGuidedPlan.ComparisonSite site : sites) {
+         site.executions = profile.executions(site.module, site.line);
+         totalExecutions += site.executions;
+         sharedSites.merge(site.opcode, 1, Integer::sum);
+      }
+      //the directory files are measured in parallel, the order of the sites is made deterministic
+      sites.sort(Comparator.comparingLong((ProfileGuidedPlan.ComparisonSite site) -> site.executions).reversed()
+              .thenComparing(site -> site.module).thenComparingInt(site -> site.line));
+
+      int routines = report.getRequiredRoutines();
+      long size = sharedSize;
+      long sharedExecutions = totalExecutions;
+      List<ProfileGuidedPlan.ComparisonSite> inlined = new ArrayList<>();
+      Map<VMOpcode, List<ProfileGuidedPlan.ComparisonSite>> idleSites = new EnumMap<>(VMOpcode.class);
+      for (ProfileGuidedPlan.ComparisonSite site : sites) {
+         if (site.executions == 0) {
+            idleSites.computeIfAbsent(site.opcode, opcode -> new ArrayList<>()).add(site);
+            continue;
+         }
+         int remaining = sharedSites.get(site.opcode) - 1;
+         int remainingRoutines = remaining == 0 ? routines & ~routine(site.opcode) : routines;
+         long growth = INLINE_GROWTH - routineSize(routines) + routineSize(remainingRoutines);
+         //inlining the last shared site of a comparison drops its routine and may shrink the program
+         if (growth > 0 && size + growth > options.getRomBudget()) {
+            continue;
+         }
+         size += growth;
+         sharedExecutions -= site.executions;
+         sharedSites.put(site.opcode, remaining);
+         routines = remainingRoutines;
+         inlined.add(site);
+      }
+      //a routine only called by sites never executed is dropped when inlining all of them saves ROM
+      for (Map.Entry<VMOpcode, List<ProfileGuidedPlan.ComparisonSite>> entry : idleSites.entrySet()) {
+         List<ProfileGuidedPlan.ComparisonSite> idle = entry.getValue();
+         if (sharedSites.get(entry.getKey()) != idle.size()) {
+            continue;
+         }
+         int remainingRoutines = routines & ~routine(entry.getKey());
+         long growth = (long) idle.size() * INLINE_GROWTH - routineSize(routines) + routineSize(remainingRoutines);
+         if (growth >= 0) {
+            continue;
+         }
+         size += growth;
+         sharedSites.put(entry.getKey(), 0);
+         routines = remainingRoutines;
+         inlined.addAll(idle);
+      }
+
+      long romWithoutProfile;
+      long sharedExecutionsWithoutProfile;
+      if (options.isSharedComparison()) {
+         romWithoutProfile = sharedSize;
+         sharedExecutionsWithoutProfile = totalExecutions;
+      } else {
+         int allRoutines = report.getRequiredRoutines();
+         romWithoutProfile = sharedSize + (long) sites.size() * INLINE_GROWTH - routineSize(allRoutines)
+                 + routineSize(allRoutines & ~COMPARISON_ROUTINES);
+         sharedExecutionsWithoutProfile = 0;
+      }
+      //a plan worse on one of ROM and cycles and better on neither falls back to the program translated without the profile
+      boolean withoutProfile = size >= romWithoutProfile && sharedExecutions >= sharedExecutionsWithoutProfile
+              && (size > romWithoutProfile || sharedExecutions > sharedExecutionsWithoutProfile);
+      if (withoutProfile) {
+         inlined = options.isSharedComparison() ? new ArrayList<>() : sites;
+         size = romWithoutProfile;
+         sharedExecutions = sharedExecutionsWithoutProfile;
+      }
+      ProfileGuidedPlan plan = ProfileGuidedPlan.inlining(inlined);
+      plan.estimate(sites.size(), options.getRomBudget(), romWithoutProfile, sharedExecutionsWithoutProfile, size, sharedExecutions,
+              withoutProfile);
+      return plan;
+   }
+
+   private static int routine(VMOpcode opcode) {
+      switch (opcode) {
+         case EQ:
+            return AssemblyRuntime.ROUTINE_EQ;
+         case GT:
+            return AssemblyRuntime.ROUTINE_GT;
+         default:
+            return AssemblyRuntime.ROUTINE_LT;
+      }
+   }
+
+   /**
+    * @return instructions of the comparison routines and of the halt loop in front of the routines
+    */
+   private static long routineSize(int routines) {
+      if (routines == 0) {
+         return 0;
+      }
+      return AssemblyRuntime.HALT_LOOP_SIZE + (long) AssemblyRuntime.routineCount(routines & COMPARISON_ROUTINES)
+              * AssemblyRuntime.COMPARISON_ROUTINE_SIZE;
+   }
+}
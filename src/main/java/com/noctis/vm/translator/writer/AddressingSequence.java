@@ -0,0 +1,36 @@
+package com.noctis.vm.translator.writer;
+
+import com.noctis.vm.translator.common.InstructionType;
+import com.noctis.vm.translator.common.VirtualSegment;
+
+import java.io.IOException;
+
+/**
+ * Candidate code sequence for the memory access of a push or a pop, see {@link AddressingTable}.
+ * A push sequence loads {@code segment[index]} to D, the writer pushes D afterwards.
+ * A pop sequence pops the stack top and stores it to {@code segment[index]}
+ *
+ * @author Noctis
+ * @date 2025/03/17
+ */
+public interface AddressingSequence {
+
+   /**
+    * @return name of the sequence in reports
+    */
+   String name();
+
+   /**
+    * @return {@link InstructionType#C_PUSH} or {@link InstructionType#C_POP}
+    */
+   InstructionType instructionType();
+
+   boolean supports(VirtualSegment segment, int index);
+
+   /**
+    * @return hack instructions of the sequence, which are also its cycles since the sequence has no jump
+    */
+   int cost(VirtualSegment segment, int index);
+
+   void emit(AssemblyBuffer out, VirtualSegment segment, int index) throws IOException;
+}
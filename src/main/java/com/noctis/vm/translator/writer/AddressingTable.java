@@ -0,0 +1,224 @@
+package com.noctis.vm.translator.writer;
+
+import com.noctis.vm.translator.common.InstructionType;
+import com.noctis.vm.translator.common.VirtualSegment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Table of the candidate sequences for the memory access of push and pop, the cheapest candidate that supports
+ * a (segment, index) pair is selected. The straight-line sequences cost one cycle per instruction, so the cost model
+ * is the instruction count. On a tie the candidate registered first wins, the first candidate of each kind is
+ * the generic sequence used without selection
+ *
+ * @author Noctis
+ * @date 2025/03/17
+ */
+public class AddressingTable {
+
+   private static final Set<VirtualSegment> BASE_POINTER_SEGMENTS = EnumSet.of(VirtualSegment.LOCAL, VirtualSegment.ARGUMENT,
+           VirtualSegment.THIS, VirtualSegment.THAT);
+
+   private static final Set<VirtualSegment> FIXED_SEGMENTS = EnumSet.of(VirtualSegment.TEMP, VirtualSegment.POINTER);
+
+   private static final int TEMP_BASE = 5;
+
+   private static final int POINTER_BASE = 3;
+
+   private static final byte[] SP_DECREMENT_AND_SET_RAM_VALUE_TO_D = AssemblyBuffer.encode("@SP", "AM=M-1", "D=M");
+   private static final byte[] LOAD_RAM_D_PLUS_A_TO_D = AssemblyBuffer.encode("A=D+A", "D=M");
+   private static final byte[] SET_D_FROM_A = AssemblyBuffer.encode("D=A");
+   private static final byte[] SET_D_FROM_M = AssemblyBuffer.encode("D=M");
+   private static final byte[] SET_M_FROM_D = AssemblyBuffer.encode("M=D");
+   private static final byte[] INCREMENT_A = AssemblyBuffer.encode("A=A+1");
+   private static final byte[] SAVE_D_TO_R15 = AssemblyBuffer.encode("@R15", "M=D");
+   private static final byte[] SET_RAM_ADDRESS_FROM_R15 = AssemblyBuffer.encode("D=D+A", "@R16", "M=D", "@R15", "D=M", "@R16", "A=M", "M=D");
+   private static final byte[] SAVE_ADDRESS_TO_R13 = AssemblyBuffer.encode("D=D+A", "@R13", "M=D");
+   private static final byte[] SET_RAM_R13_FROM_D = AssemblyBuffer.encode("@R13", "A=M", "M=D");
+
+   /**
+    * Templates indexed by the segment ordinal, only available for {@code local/argument/this/that}
+    */
+   private static final byte[][] LOAD_SEGMENT_BASE_TO_D = new byte[VirtualSegment.values().length][];
+   private static final byte[][] LOAD_SEGMENT_BASE_TO_A = new byte[VirtualSegment.values().length][];
+
+   static {
+      for (VirtualSegment segment : BASE_POINTER_SEGMENTS) {
+         LOAD_SEGMENT_BASE_TO_D[segment.ordinal()] = AssemblyBuffer.encode("@" + segment.baseSymbol(), "D=M");
+         LOAD_SEGMENT_BASE_TO_A[segment.ordinal()] = AssemblyBuffer.encode("@" + segment.baseSymbol(), "A=M");
+      }
+   }
+
+   private final List<AddressingSequence> sequences = new ArrayList<>();
+
+   /**
+    * @return table with the built-in sequences
+    */
+   public static AddressingTable defaults() {
+      AddressingTable table = new AddressingTable();
+      //----- push: segment[index] to D -----//
+      table.register(new TableSequence("base-plus-index", InstructionType.C_PUSH, BASE_POINTER_SEGMENTS, index -> 5,
+              (out, segment, index) -> {
+                 out.template(LOAD_SEGMENT_BASE_TO_D[segment.ordinal()]);
+                 out.address(index);
+                 out.template(LOAD_RAM_D_PLUS_A_TO_D);
+              }));
+      table.register(new TableSequence("base-increment", InstructionType.C_PUSH, BASE_POINTER_SEGMENTS, index -> 3 + index,
+              (out, segment, index) -> {
+                 out.template(LOAD_SEGMENT_BASE_TO_A[segment.ordinal()]);
+                 incrementA(out, index);
+                 out.template(SET_D_FROM_M);
+              }));
+      table.register(new TableSequence("fixed-base-plus-index", InstructionType.C_PUSH, FIXED_SEGMENTS, index -> 5,
+              (out, segment, index) -> {
+                 out.address(segment == VirtualSegment.TEMP ? TEMP_BASE : POINTER_BASE);
+                 out.template(SET_D_FROM_A);
+                 out.address(index);
+                 out.template(LOAD_RAM_D_PLUS_A_TO_D);
+              }));
+      table.register(new TableSequence("direct", InstructionType.C_PUSH, FIXED_SEGMENTS, index -> 2,
+              (out, segment, index) -> {
+                 out.address(fixedAddress(segment, index));
+                 out.template(SET_D_FROM_M);
+              }));
+      //----- pop: stack top to segment[index] -----//
+      table.register(new TableSequence("base-plus-index-via-R15", InstructionType.C_POP, BASE_POINTER_SEGMENTS, index -> 16,
+              (out, segment, index) -> {
+                 out.template(SP_DECREMENT_AND_SET_RAM_VALUE_TO_D);
+                 out.template(SAVE_D_TO_R15);
+                 out.template(LOAD_SEGMENT_BASE_TO_D[segment.ordinal()]);
+                 out.address(index);
+                 out.template(SET_RAM_ADDRESS_FROM_R15);
+              }));
+      table.register(new TableSequence("address-in-R13", InstructionType.C_POP, BASE_POINTER_SEGMENTS, index -> 12,
+              (out, segment, index) -> {
+                 //compute the address before popping, so the popped value stays in D
+                 out.template(LOAD_SEGMENT_BASE_TO_D[segment.ordinal()]);
+                 out.address(index);
+                 out.template(SAVE_ADDRESS_TO_R13);
+                 out.template(SP_DECREMENT_AND_SET_RAM_VALUE_TO_D);
+                 out.template(SET_RAM_R13_FROM_D);
+              }));
+      table.register(new TableSequence("base-increment", InstructionType.C_POP, BASE_POINTER_SEGMENTS, index -> 6 + index,
+              (out, segment, index) -> {
+                 out.template(SP_DECREMENT_AND_SET_RAM_VALUE_TO_D);
+                 out.template(LOAD_SEGMENT_BASE_TO_A[segment.ordinal()]);
+                 incrementA(out, index);
+                 out.template(SET_M_FROM_D);
+              }));
+      table.register(new TableSequence("direct", InstructionType.C_POP, FIXED_SEGMENTS, index -> 5,
+              (out, segment, index) -> {
+                 out.template(SP_DECREMENT_AND_SET_RAM_VALUE_TO_D);
+                 out.address(fixedAddress(segment, index));
+                 out.template(SET_M_FROM_D);
+              }));
+      return table;
+   }
+
+   public void register(AddressingSequence sequence) {
+      sequences.add(sequence);
+   }
+
+   /**
+    * @return the cheapest sequence, {@code null} when no sequence supports the pair
+    */
+   public AddressingSequence select(InstructionType instructionType, VirtualSegment segment, int index) {
+      AddressingSequence selected = null;
+      int selectedCost = Integer.MAX_VALUE;
+      for (AddressingSequence sequence : sequences) {
+         if (sequence.instructionType() == instructionType && sequence.supports(segment, index)) {
+            int cost = sequence.cost(segment, index);
+            if (cost < selectedCost) {
+               selected = sequence;
+               selectedCost = cost;
+            }
+         }
+      }
+      return selected;
+   }
+
+   /**
+    * @return the first registered sequence that supports the pair, {@code null} when there is none
+    */
+   public AddressingSequence generic(InstructionType instructionType, VirtualSegment segment, int index) {
+      for (AddressingSequence sequence : sequences) {
+         if (sequence.instructionType() == instructionType && sequence.supports(segment, index)) {
+            return sequence;
+         }
+      }
+      return null;
+   }
+
+   private static void incrementA(AssemblyBuffer out, int times) throws IOException {
+      for (int i = 0; i < times; i++) {
+         out.template(INCREMENT_A);
+      }
+   }
+
+   private static int fixedAddress(VirtualSegment segment, int index) {
+      return (segment == VirtualSegment.TEMP ? TEMP_BASE : POINTER_BASE) + index;
+   }
+
+   /**
+    * Writes the code of a sequence
+    */
+   @FunctionalInterface
+   public interface Emitter {
+
+      void emit(AssemblyBuffer out, VirtualSegment segment, int index) throws IOException;
+   }
+
+   /**
+    * Sequence described by its segments, a cost depending on the index only and an emitter
+    */
+   public static class TableSequence implements AddressingSequence {
+
+      private final String name;
+
+      private final InstructionType instructionType;
+
+      private final Set<VirtualSegment> segments;
+
+      private final IntUnaryOperator cost;
+
+      private final Emitter emitter;
+
+      public TableSequence(String name, InstructionType instructionType, Set<VirtualSegment> segments, IntUnaryOperator cost, Emitter emitter) {
+         this.name = name;
+         this.instructionType = instructionType;
+         this.segments = segments;
+         this.cost = cost;
+         this.emitter = emitter;
+      }
+
+      @Override
+      public String name() {
+         return name;
+      }
+
+      @Override
+      public InstructionType instructionType() {
+         return instructionType;
+      }
+
+      @Override
+      public boolean supports(VirtualSegment segment, int index) {
+         return segments.contains(segment);
+      }
+
+      @Override
+      public int cost(VirtualSegment segment, int index) {
+         return cost.applyAsInt(index);
+      }
+
+      @Override
+      public void emit(AssemblyBuffer out, VirtualSegment segment, int index) throws IOException {
+         emitter.emit(out, segment, index);
+      }
+   }
+}
@@ -0,0 +1,185 @@
+package com.noctis.vm.translator.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable output buffer of the hack assembly code. The code is appended as pre-encoded templates and numbers,
+ * and handed over to the sink in large blocks, so that emitting code allocates nothing once the buffer is created
+ *
+ * @author Noctis
+ * @date 2025/03/06
+ */
+public class AssemblyBuffer {
+
+   public static final byte[] NEW_LINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+   private static final int DEFAULT_CAPACITY = 256 * 1024;
+
+   /**
+    * Room reserved for the punctuation, the digits and the new line of a single line
+    */
+   private static final int LINE_OVERHEAD = 16;
+
+   private static final int MIN_CAPACITY = 1024;
+
+   private final ByteBuffer buffer;
+
+   private final AssemblySink sink;
+
+   public AssemblyBuffer(AssemblySink sink) {
+      this(sink, DEFAULT_CAPACITY);
+   }
+
+   public AssemblyBuffer(AssemblySink sink, int capacity) {
+      this.sink = sink;
+      this.buffer = ByteBuffer.allocateDirect(Math.max(capacity, MIN_CAPACITY));
+   }
+
+   /**
+    * For a buffer that does not generate text, such as {@link HackCodeBuffer}, it overrides all the methods
+    */
+   protected AssemblyBuffer() {
+      this.sink = null;
+      this.buffer = null;
+   }
+
+   /**
+    * Encode the lines as a template that can be appended by {@link #template(byte[])}
+    *
+    * @param lines assembly code lines
+    * @return the lines in ascii, each of them ends with a new line
+    */
+   public static byte[] encode(String... lines) {
+      StringBuilder builder = new StringBuilder();
+      for (String line : lines) {
+         builder.append(line).append(System.lineSeparator());
+      }
+      return builder.toString().getBytes(StandardCharsets.US_ASCII);
+   }
+
+   /**
+    * Append pre-encoded assembly code lines
+    */
+   public void template(byte[] template) throws IOException {
+      if (buffer.remaining() < template.length) {
+         flush();
+         if (template.length > buffer.capacity()) {
+            sink.write(ByteBuffer.wrap(template));
+            return;
+         }
+      }
+      buffer.put(template);
+   }
+
+   /**
+    * Append an A-instruction loading the constant, i.e. {@code @value}
+    */
+   public void address(int value) throws IOException {
+      reserve(LINE_OVERHEAD);
+      buffer.put((byte) '@');
+      putDigits(value);
+      buffer.put(NEW_LINE);
+   }
+
+   /**
+    * Append an A-instruction referring to a numbered symbol, i.e. {@code @prefix<n>}
+    *
+    * @param prefix symbol prefix in ascii
+    * @param n      symbol number
+    */
+   public void symbol(byte[] prefix, int n) throws IOException {
+      reserve(prefix.length + LINE_OVERHEAD);
+      buffer.put((byte) '@');
+      buffer.put(prefix);
+      putDigits(n);
+      buffer.put(NEW_LINE);
+   }
+
+   /**
+    * Append a label declaration of a numbered symbol, i.e. {@code (prefix<n>)}
+    *
+    * @param prefix symbol prefix in ascii
+    * @param n      symbol number
+    */
+   public void label(byte[] prefix, int n) throws IOException {
+      reserve(prefix.length + LINE_OVERHEAD);
+      buffer.put((byte) '(');
+      buffer.put(prefix);
+      putDigits(n);
+      buffer.put((byte) ')');
+      buffer.put(NEW_LINE);
+   }
+
+   /**
+    * Append an A-instruction referring to a named symbol, i.e. {@code @prefix<name>}
+    *
+    * @param prefix symbol prefix in ascii, e.g. the scope of a label
+    * @param name   symbol name in ascii
+    */
+   public void symbol(byte[] prefix, byte[] name) throws IOException {
+      reserve(prefix.length + name.length + LINE_OVERHEAD);
+      buffer.put((byte) '@');
+      buffer.put(prefix);
+      buffer.put(name);
+      buffer.put(NEW_LINE);
+   }
+
+   /**
+    * Append a label declaration of a named symbol, i.e. {@code (prefix<name>)}
+    *
+    * @param prefix symbol prefix in ascii, e.g. the scope of a label
+    * @param name   symbol name in ascii
+    */
+   public void label(byte[] prefix, byte[] name) throws IOException {
+      reserve(prefix.length + name.length + LINE_OVERHEAD);
+      buffer.put((byte) '(');
+      buffer.put(prefix);
+      buffer.put(name);
+      buffer.put((byte) ')');
+      buffer.put(NEW_LINE);
+   }
+
+   /**
+    * Hand over the buffered code to the sink
+    */
+   public void flush() throws IOException {
+      buffer.flip();
+      if (buffer.hasRemaining()) {
+         sink.write(buffer);
+      }
+      buffer.clear();
+   }
+
+   /**
+    * Flush the buffered code and close the sink
+    */
+   public void close() throws IOException {
+      flush();
+      sink.close();
+   }
+
+   private void reserve(int length) throws IOException {
+      if (buffer.remaining() < length) {
+         flush();
+         if (buffer.remaining() < length) {
+            throw new IOException("Assembly line exceeds the buffer capacity: " + length);
+         }
+      }
+   }
+
+   private void putDigits(int value) {
+      if (value < 0) {
+         buffer.put((byte) '-');
+         value = -value;
+      }
+      int divisor = 1;
+      while (divisor <= value / 10) {
+         divisor *= 10;
+      }
+      for (; divisor > 0; divisor /= 10) {
+         buffer.put((byte) ('0' + value / divisor % 10));
+      }
+   }
+}
@@ -1,68 +1,551 @@
 package com.noctis.vm.translator.writer;
 
 import com.noctis.vm.translator.common.InstructionType;
+import com.noctis.vm.translator.common.TranslatorOptions;
 import com.noctis.vm.translator.common.VMConstants;
+import com.noctis.vm.translator.common.VMOpcode;
+import com.noctis.vm.translator.common.VirtualSegment;
 import com.noctis.vm.translator.exception.AssemblyTranslationException;
-import com.noctis.vm.translator.util.StringUtils;
+import com.noctis.vm.translator.ir.VMInstruction;
+import com.noctis.vm.translator.ir.VMInstructionSink;
+import com.noctis.vm.translator.ir.VMSymbolTable;
+import com.noctis.vm.translator.profile.ProfileGuidedPlan;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Locale;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author Noctis
  * @date 2025/02/02
  */
-public class AssemblyCodeWriter {
+public class AssemblyCodeWriter implements VMInstructionSink {
 
-   private final FileWriter fw;
+   //----- Pre-encoded assembly templates -----//
+   private static final byte[] SET_RAM_SP_FROM_D_AND_SP_INCREMENT = AssemblyBuffer.encode("@SP", "A=M", "M=D", "@SP", "M=M+1");
+   private static final byte[] SP_DECREMENT_AND_SET_RAM_VALUE_TO_D = AssemblyBuffer.encode("@SP", "AM=M-1", "D=M");
+   private static final byte[] SET_D_FROM_A = AssemblyBuffer.encode("D=A");
+   private static final byte[] SET_D_FROM_NOT_A = AssemblyBuffer.encode("D=!A");
+   private static final byte[] SET_ADDRESS_TO_R13 = AssemblyBuffer.encode("D=D+A", "@R13", "M=D");
+   private static final byte[] SET_RAM_R13_FROM_D = AssemblyBuffer.encode("@R13", "A=M", "M=D");
+   private static final byte[] SET_A_TO_D_PLUS_A = AssemblyBuffer.encode("A=D+A");
+   private static final byte[] SET_THIS_ADDRESS = AssemblyBuffer.encode("@THIS");
+   private static final byte[] SET_THAT_ADDRESS = AssemblyBuffer.encode("@THAT");
+   private static final byte[] SET_M_ZERO = AssemblyBuffer.encode("M=0");
+   private static final byte[] SET_M_ONE = AssemblyBuffer.encode("M=1");
+   private static final byte[] SET_M_MINUS_ONE = AssemblyBuffer.encode("M=-1");
+   private static final byte[] SET_D_FROM_M = AssemblyBuffer.encode("D=M");
+   private static final byte[] SET_M_FROM_D = AssemblyBuffer.encode("M=D");
+   private static final byte[] LOAD_RAM_D_PLUS_A_TO_D = AssemblyBuffer.encode("A=D+A", "D=M");
+   private static final byte[] SAVE_D_TO_R15 = AssemblyBuffer.encode("@R15", "M=D");
+   private static final byte[] SET_RAM_ADDRESS_FROM_R15 = AssemblyBuffer.encode("D=D+A", "@R16", "M=D", "@R15", "D=M", "@R16", "A=M", "M=D");
+   private static final byte[] LOAD_TEMP_BASE_TO_D = AssemblyBuffer.encode("@5", "D=A");
+   private static final byte[] LOAD_POINTER_BASE_TO_D = AssemblyBuffer.encode("@3", "D=A");
+   private static final byte[] SET_THIS_FROM_D = AssemblyBuffer.encode("@THIS", "M=D");
+   private static final byte[] SET_THAT_FROM_D = AssemblyBuffer.encode("@THAT", "M=D");
+   private static final byte[] SP_INCREMENT = AssemblyBuffer.encode("@SP", "M=M+1");
+   private static final byte[] SET_RAM_SP_FALSE = AssemblyBuffer.encode("@SP", "A=M", "M=0");
+   private static final byte[] SET_RAM_SP_TRUE = AssemblyBuffer.encode("@SP", "A=M", "M=-1");
+   private static final byte[] UNCONDITIONAL_JUMP = AssemblyBuffer.encode("0;JMP");
+   private static final String TRUE_LABEL_PREFIX = "TRUE";
+   private static final String CONTINUE_LABEL_PREFIX = "CONTINUE";
+   private static final String COMPARE_RETURN_LABEL_PREFIX = "COMPARE_RETURN";
+   private static final byte[] SET_R13_FROM_A = AssemblyBuffer.encode("D=A", "@R13", "M=D");
+   private static final byte[] SET_D_FALSE = AssemblyBuffer.encode("D=0");
+   private static final byte[] SET_D_TRUE = AssemblyBuffer.encode("D=-1");
+   private static final byte[] POP_AND_SUBTRACT_FROM_D = AssemblyBuffer.encode("@SP", "AM=M-1", "D=M-D");
+   private static final byte[] JUMP_IF_D_TRUE = AssemblyBuffer.encode("D;JNE");
+   private static final byte[] SET_R14_FROM_A = AssemblyBuffer.encode("D=A", "@R14", "M=D");
+   private static final byte[] JUMP_TO_CALL_ROUTINE = AssemblyBuffer.encode("D=A", "@" + AssemblyRuntime.CALL_ROUTINE_LABEL, "0;JMP");
+   private static final byte[] JUMP_TO_RETURN_ROUTINE = AssemblyBuffer.encode("@" + AssemblyRuntime.RETURN_ROUTINE_LABEL, "0;JMP");
+   private static final byte[] PUSH_ZERO = AssemblyBuffer.encode("@SP", "A=M", "M=0", "@SP", "M=M+1");
+   private static final byte[] SET_A_TO_STACK_TOP = AssemblyBuffer.encode("@SP", "A=M");
+   private static final byte[] SET_M_ZERO_AND_A_INCREMENT = AssemblyBuffer.encode("M=0", "A=A+1");
+   private static final byte[] SET_M_ZERO_AND_SP_ABOVE = AssemblyBuffer.encode("M=0", "D=A+1", "@SP", "M=D");
+   private static final String RETURN_LABEL_PREFIX = "RETURN";
+   private static final byte[] NO_PREFIX = new byte[0];
+   private static final byte LABEL_SCOPE_SEPARATOR = '$';
+
+   /**
+    * Templates indexed by the segment ordinal, only available for {@code local/argument/this/that}
+    */
+   private static final byte[][] LOAD_SEGMENT_BASE_TO_D = new byte[VirtualSegment.values().length][];
+
+   /**
+    * Whole arithmetic templates indexed by opcode ordinal, {@code null} for comparison commands which contain labels
+    */
+   private static final byte[][] ARITHMETIC_TEMPLATES = new byte[VMOpcode.values().length][];
+
+   /**
+    * Comparison templates indexed by opcode ordinal: loading operands and computing the difference, then the jump
+    */
+   private static final byte[] COMPARE_OPERANDS = AssemblyBuffer.encode("@SP", "AM=M-1", "D=M", "@SP", "AM=M-1", "D=M-D");
+   private static final byte[][] COMPARISON_JUMPS = new byte[VMOpcode.values().length][];
+
+   /**
+    * Jumps to the shared comparison routines indexed by opcode ordinal, see {@link AssemblyRuntime}
+    */
+   private static final byte[][] COMPARISON_ROUTINE_JUMPS = new byte[VMOpcode.values().length][];
+
+   /**
+    * Arithmetic templates of the top-of-stack caching mode indexed by opcode ordinal, {@code null} for comparison commands.
+    * The stack top is in D before and after the template
+    */
+   private static final byte[][] CACHED_ARITHMETIC_TEMPLATES = new byte[VMOpcode.values().length][];
+
+   static {
+      for (VirtualSegment segment : VirtualSegment.values()) {
+         if (segment.baseSymbol() != null) {
+            LOAD_SEGMENT_BASE_TO_D[segment.ordinal()] = AssemblyBuffer.encode("@" + segment.baseSymbol(), "D=M");
+         }
+      }
+      String[] saveSecondOperandToD = {"@SP", "AM=M-1", "D=M"};
+      String[] loadOperands = {"@SP", "AM=M-1", "D=M", "@SP", "AM=M-1"};
+      ARITHMETIC_TEMPLATES[VMOpcode.ADD.ordinal()] = arithmeticTemplate(loadOperands, "M=D+M");
+      ARITHMETIC_TEMPLATES[VMOpcode.SUB.ordinal()] = arithmeticTemplate(loadOperands, "M=M-D");
+      ARITHMETIC_TEMPLATES[VMOpcode.OR.ordinal()] = arithmeticTemplate(loadOperands, "M=D|M");
+      ARITHMETIC_TEMPLATES[VMOpcode.AND.ordinal()] = arithmeticTemplate(loadOperands, "M=D&M");
+      ARITHMETIC_TEMPLATES[VMOpcode.NEG.ordinal()] = arithmeticTemplate(saveSecondOperandToD, "M=-D");
+      ARITHMETIC_TEMPLATES[VMOpcode.NOT.ordinal()] = arithmeticTemplate(saveSecondOperandToD, "M=!D");
+      CACHED_ARITHMETIC_TEMPLATES[VMOpcode.ADD.ordinal()] = AssemblyBuffer.encode("@SP", "AM=M-1", "D=D+M");
+      CACHED_ARITHMETIC_TEMPLATES[VMOpcode.SUB.ordinal()] = AssemblyBuffer.encode("@SP", "AM=M-1", "D=M-D");
+      CACHED_ARITHMETIC_TEMPLATES[VMOpcode.OR.ordinal()] = AssemblyBuffer.encode("@SP", "AM=M-1", "D=D|M");
+      CACHED_ARITHMETIC_TEMPLATES[VMOpcode.AND.ordinal()] = AssemblyBuffer.encode("@SP", "AM=M-1", "D=D&M");
+      CACHED_ARITHMETIC_TEMPLATES[VMOpcode.NEG.ordinal()] = AssemblyBuffer.encode("D=-D");
+      CACHED_ARITHMETIC_TEMPLATES[VMOpcode.NOT.ordinal()] = AssemblyBuffer.encode("D=!D");
+      for (VMOpcode opcode : VMOpcode.values()) {
+         if (opcode.isComparison()) {
+            COMPARISON_JUMPS[opcode.ordinal()] = AssemblyBuffer.encode("D;J" + opcode.name());
+            COMPARISON_ROUTINE_JUMPS[opcode.ordinal()] = AssemblyBuffer.encode("@" + AssemblyRuntime.comparisonRoutineLabel(opcode), "0;JMP");
+         }
+      }
+   }
+
+   private AssemblyBuffer out;
    private final String fileName;
-   private static final String newLine = System.lineSeparator();
+
+   /**
+    * Static symbol prefix {@code Xxx.} in ascii
+    */
+   private final byte[] staticSymbolPrefix;
+
+   /**
+    * Label prefixes of the comparison commands in ascii, prefixed by the label namespace of the writer
+    */
+   private final byte[] trueLabelPrefix;
+   private final byte[] continueLabelPrefix;
+   private final byte[] compareReturnLabelPrefix;
+   private final byte[] returnLabelPrefix;
    private int labelIndexSuffix = 0;
 
+   /**
+    * Names of the label and function ids of the instructions
+    */
+   private final VMSymbolTable symbols;
+
+   /**
+    * Prefix of the labels declared by the vm code, {@code function$} inside a function and {@code Xxx$} before
+    * the first function of the file
+    */
+   private byte[] labelScope;
+
+   private int callCount = 0;
+
+   private int returnCount = 0;
+
+   /**
+    * Whether eq/gt/lt call the shared routines instead of being inlined
+    */
+   private final boolean sharedComparison;
+
+   private int comparisonCount = 0;
+
+   /**
+    * Comparisons among {@link #comparisonCount} that call the shared routines, the others are inlined
+    */
+   private int sharedComparisonCount = 0;
+
+   /**
+    * Form of each comparison site chosen from an execution profile, {@code null} when the form follows {@link #sharedComparison}
+    */
+   private final ProfileGuidedPlan profileGuidedPlan;
+
+   /**
+    * Line of the vm instruction being translated, the site of a comparison in the profile-guided plan, 0 when unknown
+    */
+   private int sourceLine = 0;
+
+   /**
+    * Candidate push/pop sequences, {@code null} when the generic sequences are used
+    */
+   private final AddressingTable addressingTable;
+
+   /**
+    * Hack instructions saved by the selected push/pop sequences over the generic ones
+    */
+   private long addressingSavedInstructions = 0;
+
+   /**
+    * Whether the stack top is kept in D between vm commands, in which case SP points at the stack top instead of above it
+    */
+   private final boolean topOfStackCaching;
+
+   /**
+    * State of the top-of-stack caching: whether D currently holds the stack top that is not written to RAM yet
+    */
+   private boolean topOfStackInD = false;
+
+   private int spillCount = 0;
+
+   /**
+    * Shared routines referenced by the generated code, see {@link AssemblyRuntime}
+    */
+   private int requiredRoutines = 0;
+
+   /**
+    * Encoded code of the push/pop commands met before, {@code null} when every command is generated
+    */
+   private final PushPopFragmentTable pushPopFragments;
+
+   /**
+    * Buffer and sink receiving the code of a push/pop command missing from {@link #pushPopFragments}
+    */
+   private final MemoryAssemblySink fragmentSink;
+
+   private final AssemblyBuffer fragmentBuffer;
+
    public AssemblyCodeWriter(String fileName) throws IOException {
-      String filePrefix = "";
+      this(fileName, new TranslatorOptions());
+   }
+
+   /**
+    * Create a writer that writes to the asm file next to the vm file, for a vm file validated beforehand:
+    * closing the writer replaces the asm file
+    *
+    * @param fileName absolute / relative file name of the vm file
+    * @param options  code generation options
+    */
+   public AssemblyCodeWriter(String fileName, TranslatorOptions options) throws IOException {
+      this(moduleName(fileName), committedFile(resultFileLocation(fileName)), "", options);
+   }
+
+   /**
+    * Create a writer that writes to the given sink instead of the asm file next to the vm file
+    *
+    * @param fileName vm filename without directory and extension, to generate static symbol Xxx.i
+    * @param sink     destination of the assembly code
+    */
+   public AssemblyCodeWriter(String fileName, AssemblySink sink) {
+      this(fileName, sink, "", new TranslatorOptions());
+   }
+
+   /**
+    * Create a writer whose generated labels are prefixed by a namespace, so that the code of several vm files
+    * can be generated independently and stitched into one program
+    *
+    * @param fileName       vm filename without directory and extension, to generate static symbol Xxx.i
+    * @param sink           destination of the assembly code
+    * @param labelNamespace prefix of the generated labels, e.g. {@code Xxx.}, empty for the global namespace
+    * @param options        code generation options
+    */
+   public AssemblyCodeWriter(String fileName, AssemblySink sink, String labelNamespace, TranslatorOptions options) {
+      this(fileName, sink, labelNamespace, options, new VMSymbolTable());
+   }
+
+   /**
+    * Create a writer whose generated labels are prefixed by a namespace, for the instructions of a parser
+    *
+    * @param fileName       vm filename without directory and extension, to generate static symbol Xxx.i
+    * @param sink           destination of the assembly code
+    * @param labelNamespace prefix of the generated labels, e.g. {@code Xxx.}, empty for the global namespace
+    * @param options        code generation options
+    * @param symbols        names of the label and function ids of the instructions
+    */
+   public AssemblyCodeWriter(String fileName, AssemblySink sink, String labelNamespace, TranslatorOptions options, VMSymbolTable symbols) {
+      this(fileName, new AssemblyBuffer(sink), labelNamespace, options, symbols);
+   }
+
+   /**
+    * Create a writer that emits to the given buffer, e.g. a {@link HackCodeBuffer} generating machine code instead of text
+    *
+    * @param fileName       vm filename without directory and extension, to generate static symbol Xxx.i
+    * @param out            destination of the code
+    * @param labelNamespace prefix of the generated labels, e.g. {@code Xxx.}, empty for the global namespace
+    * @param options        code generation options
+    * @param symbols        names of the label and function ids of the instructions
+    */
+   public AssemblyCodeWriter(String fileName, AssemblyBuffer out, String labelNamespace, TranslatorOptions options, VMSymbolTable symbols) {
+      this.fileName = fileName;
+      this.symbols = symbols;
+      this.labelScope = scope(fileName.getBytes(StandardCharsets.US_ASCII));
+      this.staticSymbolPrefix = (fileName + ".").getBytes(StandardCharsets.US_ASCII);
+      this.trueLabelPrefix = (labelNamespace + TRUE_LABEL_PREFIX).getBytes(StandardCharsets.US_ASCII);
+      this.continueLabelPrefix = (labelNamespace + CONTINUE_LABEL_PREFIX).getBytes(StandardCharsets.US_ASCII);
+      this.compareReturnLabelPrefix = (labelNamespace + COMPARE_RETURN_LABEL_PREFIX).getBytes(StandardCharsets.US_ASCII);
+      this.returnLabelPrefix = (labelNamespace + RETURN_LABEL_PREFIX).getBytes(StandardCharsets.US_ASCII);
+      this.sharedComparison = options.isSharedComparison();
+      this.profileGuidedPlan = options.getProfileGuidedPlan();
+      this.addressingTable = options.isSelectAddressing() ? AddressingTable.defaults() : null;
+      this.topOfStackCaching = options.isTopOfStackCaching();
+      this.out = out;
+      //the machine code buffer keeps the encoding of each template by identity, the evicted fragments would pile up there
+      boolean memoizePushPop = options.isMemoizePushPop() && !(out instanceof HackCodeBuffer);
+      this.pushPopFragments = memoizePushPop ? new PushPopFragmentTable() : null;
+      this.fragmentSink = memoizePushPop ? new MemoryAssemblySink() : null;
+      this.fragmentBuffer = memoizePushPop ? new AssemblyBuffer(fragmentSink, 0) : null;
+   }
+
+   /**
+    * Continue the code generated by the writers of the previous chunks of the same vm file, so that the code of the chunks
+    * stitched in order is the code of the whole file
+    *
+    * @param labelIndex   number of generated label indexes in the previous chunks, i.e. their comparisons and calls
+    * @param functionName function the chunk starts in, {@code null} when no function is declared before the chunk
+    */
+   public void continueFrom(int labelIndex, String functionName) {
+      labelIndexSuffix = labelIndex;
+      if (functionName != null) {
+         labelScope = scope(functionName.getBytes(StandardCharsets.US_ASCII));
+      }
+   }
+
+   /**
+    * @param sourceLine line of the next vm instruction in the vm file, starting from 1
+    */
+   public void setSourceLine(int sourceLine) {
+      this.sourceLine = sourceLine;
+   }
+
+   /**
+    * @param vmFileLocation absolute / relative path of the vm file
+    * @return vm filename without directory and extension, which is the prefix of the static symbols
+    */
+   public static String moduleName(String vmFileLocation) {
+      String fileName = vmFileLocation;
       //Absolute path file name cutting
       if (fileName.contains(File.separator)) {
-         filePrefix = fileName.substring(0, fileName.lastIndexOf(File.separator) + 1);
          fileName = fileName.substring(fileName.lastIndexOf(File.separator) + 1);
       }
-      this.fileName = fileName.substring(0, fileName.lastIndexOf("."));
-      fileName = this.fileName + VMConstants.RESULT_ASM_FILE_SUFFIX;
-      fw = new FileWriter(filePrefix + fileName);
+      return fileName.substring(0, fileName.lastIndexOf("."));
+   }
+
+   /**
+    * @param vmFileLocation absolute / relative path of the vm file
+    * @return path of the asm file, in the same directory of the vm file
+    */
+   public static String resultFileLocation(String vmFileLocation) {
+      String filePrefix = "";
+      if (vmFileLocation.contains(File.separator)) {
+         filePrefix = vmFileLocation.substring(0, vmFileLocation.lastIndexOf(File.separator) + 1);
+      }
+      return filePrefix + moduleName(vmFileLocation) + VMConstants.RESULT_ASM_FILE_SUFFIX;
+   }
+
+   private static FileAssemblySink committedFile(String fileLocation) throws IOException {
+      FileAssemblySink sink = FileAssemblySink.open(fileLocation);
+      sink.commit();
+      return sink;
+   }
+
+   /**
+    * Translate a decoded vm instruction
+    *
+    * @param instruction packed instruction, see {@link VMInstruction}
+    */
+   public void writeInstruction(long instruction) throws AssemblyTranslationException, IOException {
+      VMOpcode opcode = VMInstruction.opcode(instruction);
+      if (opcode.isControlFlow()) {
+         writeControlFlow(opcode, instruction);
+      } else if (topOfStackCaching) {
+         writeCachedInstruction(opcode, instruction);
+      } else if (InstructionType.C_ARITHMETIC.equals(opcode.instructionType())) {
+         writeArithmetic(opcode);
+      } else if (pushPopFragments != null) {
+         writeMemoizedPushPop(opcode, instruction);
+      } else {
+         writePushPopInstruction(opcode, instruction);
+      }
+   }
+
+   /**
+    * Translate a push, a pop or a folded constant store
+    */
+   private void writePushPopInstruction(VMOpcode opcode, long instruction) throws AssemblyTranslationException, IOException {
+      if (opcode == VMOpcode.STORE_CONSTANT) {
+         translateStoreConstantToAssembly(VMInstruction.segment(instruction), VMInstruction.index(instruction), VMInstruction.value(instruction));
+      } else {
+         writePushPop(opcode.instructionType(), VMInstruction.segment(instruction), VMInstruction.index(instruction));
+      }
+   }
+
+   /**
+    * Append the code of a push/pop command generated before as one copy, otherwise generate it into the fragment buffer
+    * and keep it. The code of these commands depends on the instruction only, it has no label and no state of the writer
+    */
+   private void writeMemoizedPushPop(VMOpcode opcode, long instruction) throws AssemblyTranslationException, IOException {
+      int slot = pushPopFragments.find(instruction);
+      if (slot >= 0) {
+         addressingSavedInstructions += pushPopFragments.saving(slot);
+         out.template(pushPopFragments.fragment(slot));
+         return;
+      }
+      AssemblyBuffer target = out;
+      long savedInstructions = addressingSavedInstructions;
+      byte[] fragment;
+      out = fragmentBuffer;
+      try {
+         writePushPopInstruction(opcode, instruction);
+         fragmentBuffer.flush();
+         fragment = fragmentSink.toByteArray();
+      } finally {
+         out = target;
+         fragmentBuffer.flush();
+         fragmentSink.reset();
+      }
+      pushPopFragments.put(instruction, fragment, addressingSavedInstructions - savedInstructions);
+      out.template(fragment);
    }
 
-   public void writeArithmetic(String instruction) throws IOException {
-      String content = translateArithmeticCommandToAssembly(instruction);
-      write(content);
+   @Override
+   public void accept(long instruction) throws AssemblyTranslationException, IOException {
+      writeInstruction(instruction);
    }
 
-   public void writePushPop(InstructionType instructionType, String segment, Integer index) throws AssemblyTranslationException, IOException {
-      String content;
+   /**
+    * Write back the cached stack top and hand over the generated code to the sink
+    */
+   @Override
+   public void finish() throws IOException {
+      spillTopOfStack();
+      out.flush();
+   }
+
+   public void writeArithmetic(VMOpcode command) throws IOException {
+      translateArithmeticCommandToAssembly(command);
+   }
+
+   public void writePushPop(InstructionType instructionType, VirtualSegment segment, int index) throws AssemblyTranslationException, IOException {
       switch (instructionType) {
          case C_PUSH:
-            content = translatePushCommandToAssembly(segment, index, fileName);
+            translatePushCommandToAssembly(segment, index);
             break;
          case C_POP:
-            content = translatePopCommandToAssembly(segment, index, fileName);
+            translatePopCommandToAssembly(segment, index);
             break;
          case C_ARITHMETIC:
          default:
-            return;
+            break;
       }
-      write(content);
    }
 
-   private void write(String content) throws IOException {
-      if (StringUtils.isNotEmpty(content)) {
-         fw.write(content);
-      }
+   public void writeLabel(String label) throws AssemblyTranslationException, IOException {
+      writeInstruction(VMInstruction.named(VMOpcode.LABEL, symbols.intern(label), 0));
+   }
+
+   public void writeGoto(String label) throws AssemblyTranslationException, IOException {
+      writeInstruction(VMInstruction.named(VMOpcode.GOTO, symbols.intern(label), 0));
+   }
+
+   public void writeIf(String label) throws AssemblyTranslationException, IOException {
+      writeInstruction(VMInstruction.named(VMOpcode.IF_GOTO, symbols.intern(label), 0));
+   }
+
+   public void writeFunction(String functionName, int nVars) throws AssemblyTranslationException, IOException {
+      writeInstruction(VMInstruction.named(VMOpcode.FUNCTION, symbols.intern(functionName), nVars));
+   }
+
+   public void writeCall(String functionName, int nArgs) throws AssemblyTranslationException, IOException {
+      writeInstruction(VMInstruction.named(VMOpcode.CALL, symbols.intern(functionName), nArgs));
+   }
+
+   public void writeReturn() throws AssemblyTranslationException, IOException {
+      writeInstruction(VMInstruction.functionReturn());
+   }
+
+   public String getFileName() {
+      return fileName;
+   }
+
+   /**
+    * @return number of eq/gt/lt commands translated so far
+    */
+   public int getComparisonCount() {
+      return comparisonCount;
+   }
+
+   /**
+    * @return number of eq/gt/lt commands translated so far into a call of the shared routine
+    */
+   public int getSharedComparisonCount() {
+      return sharedComparisonCount;
+   }
+
+   /**
+    * @return number of call commands translated so far
+    */
+   public int getCallCount() {
+      return callCount;
+   }
+
+   /**
+    * @return number of return commands translated so far
+    */
+   public int getReturnCount() {
+      return returnCount;
+   }
+
+   /**
+    * @return hack instructions saved by the selected push/pop sequences, 0 when the selection is disabled
+    */
+   public long getAddressingSavedInstructions() {
+      return addressingSavedInstructions;
+   }
+
+   public boolean isAddressingSelection() {
+      return addressingTable != null;
+   }
+
+   public boolean isTopOfStackCaching() {
+      return topOfStackCaching;
+   }
+
+   /**
+    * @return times the cached stack top was written back to RAM
+    */
+   public int getSpillCount() {
+      return spillCount;
+   }
+
+   /**
+    * @return the push/pop fragments of the writer, {@code null} when they are not memoized
+    */
+   public PushPopFragmentTable getPushPopFragments() {
+      return pushPopFragments;
+   }
+
+   /**
+    * @return shared routines referenced by the generated code, see {@link AssemblyRuntime}
+    */
+   public int getRequiredRoutines() {
+      return requiredRoutines;
+   }
+
+   /**
+    * Emit the shared routines referenced by the code of this writer, only for a writer that generates a whole program
+    */
+   public void writeRuntimeRoutines() throws IOException {
+      AssemblyRuntime.writeRoutines(out, requiredRoutines);
+   }
+
+   /**
+    * Hand over the buffered assembly code to the sink without closing it
+    */
+   public void flush() throws IOException {
+      out.flush();
    }
 
    public void close() throws IOException {
-      fw.close();
+      out.close();
    }
 
    /**
@@ -71,67 +554,51 @@ public class AssemblyCodeWriter {
     * the push instruction only read the virtual segment (when the segment value is not {@code constant}),
     * the equivalent assembly code only write the corresponding value to RAM[SP]
     *
-    * @param segment  push instruction segment, must be {@code constant/local/argument/this/that/static/temp/pointer}
-    * @param index    push instruction operands
-    * @param fileName vm filename, to generate static symbol Xxx.i
-    * @return equivalent hack assembly code with separate lines
-    */
-   private String translatePushCommandToAssembly(String segment, Integer index, String fileName) throws AssemblyTranslationException {
-      String setSegmentValueToD = null;
-      String setRAMSpFromDAndSpIncrement = String.join(newLine, Arrays.asList(
-              "@SP",
-              "A=M",
-              "M=D",
-              "@SP",
-              "M=M+1"
-      )) + newLine;
+    * @param segment push instruction segment, must be {@code constant/local/argument/this/that/static/temp/pointer}
+    * @param index   push instruction operands
+    */
+   private void translatePushCommandToAssembly(VirtualSegment segment, int index) throws AssemblyTranslationException, IOException {
+      loadPushValueToD(segment, index);
+      out.template(SET_RAM_SP_FROM_D_AND_SP_INCREMENT);
+   }
 
+   /**
+    * Load the value pushed by {@code push segment index} to D
+    */
+   private void loadPushValueToD(VirtualSegment segment, int index) throws AssemblyTranslationException, IOException {
+      if (addressingTable != null && writeSelectedSequence(InstructionType.C_PUSH, segment, index)) {
+         return;
+      }
       switch (segment) {
-         case VMConstants.VIRTUAL_SEGMENT_CONSTANT:
-            setSegmentValueToD = String.join(newLine, Arrays.asList(
-                    "@" + index,
-                    "D=A"
-            )) + newLine;
+         case CONSTANT:
+            //a folded constant may take all the 16 bits
+            loadConstantToD((short) index);
             break;
-         case VMConstants.VIRTUAL_SEGMENT_LOCAL:
-         case VMConstants.VIRTUAL_SEGMENT_ARGUMENT:
-         case VMConstants.VIRTUAL_SEGMENT_THIS:
-         case VMConstants.VIRTUAL_SEGMENT_THAT:
-            String symbol = VMConstants.VIRTUAL_SEGMENT_AND_SYMBOL_MAP.get(segment);
-            if (StringUtils.isEmpty(symbol)) {
-               throw new AssemblyTranslationException("Empty virtual-segment-symbol mapping for segment:" + segment);
-            }
-            setSegmentValueToD = String.join(newLine, Arrays.asList(
-                    symbol,
-                    "D=M",
-                    "@" + index,
-                    "A=D+A",
-                    "D=M"
-            )) + newLine;
+         case LOCAL:
+         case ARGUMENT:
+         case THIS:
+         case THAT:
+            out.template(loadSegmentBaseToD(segment));
+            out.address(index);
+            out.template(LOAD_RAM_D_PLUS_A_TO_D);
             break;
-         case VMConstants.VIRTUAL_SEGMENT_STATIC:
-            setSegmentValueToD = this.getStaticInstructionAsmSymbol(fileName, index) + "D=M" + newLine;
+         case STATIC:
+            out.symbol(staticSymbolPrefix, index);
+            out.template(SET_D_FROM_M);
             break;
-         case VMConstants.VIRTUAL_SEGMENT_TEMP:
-            setSegmentValueToD = String.join(newLine, Arrays.asList(
-                    "@5",
-                    "D=A",
-                    "@" + index,
-                    "A=D+A",
-                    "D=M"
-            )) + newLine;
+         case TEMP:
+            out.template(LOAD_TEMP_BASE_TO_D);
+            out.address(index);
+            out.template(LOAD_RAM_D_PLUS_A_TO_D);
             break;
-         case VMConstants.VIRTUAL_SEGMENT_POINTER:
-            setSegmentValueToD = String.join(newLine, Arrays.asList(
-                    "@3",
-                    "D=A",
-                    "@" + index,
-                    "A=D+A",
-                    "D=M"
-            )) + newLine;
+         case POINTER:
+            out.template(LOAD_POINTER_BASE_TO_D);
+            out.address(index);
+            out.template(LOAD_RAM_D_PLUS_A_TO_D);
             break;
+         default:
+            throw new AssemblyTranslationException("Unsupported segment for push instruction: " + segment.segmentName());
       }
-      return setSegmentValueToD + setRAMSpFromDAndSpIncrement;
    }
 
    /**
@@ -140,136 +607,387 @@ public class AssemblyCodeWriter {
     * the pop instruction only write the virtual segment,
     * the equivalent assembly code will write the RAM[segment] to specific value
     *
-    * @param segment  push instruction segment, must be {@code local/argument/this/that/static/temp/pointer},
-    *                 note that {@code pop constant i} is not supported in hack virtual machine instruction
-    * @param index    push instruction operands
-    * @param fileName vm filename, to generate static symbol Xxx.i
-    * @return equivalent hack assembly code with separate lines
-    */
-   private String translatePopCommandToAssembly(String segment, Integer index, String fileName) throws AssemblyTranslationException {
-      String spDecrementAndSetRAMValueToD = String.join(newLine, Arrays.asList(
-              "@SP",
-              "AM=M-1",
-              "D=M"
-      )) + newLine;
+    * @param segment push instruction segment, must be {@code local/argument/this/that/static/temp/pointer},
+    *                note that {@code pop constant i} is not supported in hack virtual machine instruction
+    * @param index   push instruction operands
+    */
+   private void translatePopCommandToAssembly(VirtualSegment segment, int index) throws AssemblyTranslationException, IOException {
+      if (segment == VirtualSegment.CONSTANT) {
+         throw new AssemblyTranslationException("Unsupported segment for pop instruction: " + segment.segmentName());
+      }
+      if (addressingTable != null && writeSelectedSequence(InstructionType.C_POP, segment, index)) {
+         return;
+      }
+      out.template(SP_DECREMENT_AND_SET_RAM_VALUE_TO_D);
+      storeDToSegment(segment, index);
+   }
 
+   /**
+    * Store D to {@code segment[index]}
+    */
+   private void storeDToSegment(VirtualSegment segment, int index) throws AssemblyTranslationException, IOException {
       //calculate address according to different segment,then set RAM[address] = D
-      String getDestinationAddressAndSetRAMValueFromD = null;
       switch (segment) {
-         case VMConstants.VIRTUAL_SEGMENT_LOCAL:
-         case VMConstants.VIRTUAL_SEGMENT_ARGUMENT:
-         case VMConstants.VIRTUAL_SEGMENT_THIS:
-         case VMConstants.VIRTUAL_SEGMENT_THAT:
-            String symbol = VMConstants.VIRTUAL_SEGMENT_AND_SYMBOL_MAP.get(segment);
-            if (StringUtils.isEmpty(symbol)) {
-               throw new AssemblyTranslationException("Empty virtual-segment-symbol mapping for segment:" + segment);
-            }
-            getDestinationAddressAndSetRAMValueFromD = String.join(newLine, Arrays.asList(
-                    "@R15",
-                    "M=D",
-                    symbol,
-                    "D=M",
-                    "@" + index,
-                    "D=D+A",
-                    "@R16",
-                    "M=D",
-                    "@R15",
-                    "D=M",
-                    "@R16",
-                    "A=M",
-                    "M=D"
-            )) + newLine;
+         case LOCAL:
+         case ARGUMENT:
+         case THIS:
+         case THAT:
+            out.template(SAVE_D_TO_R15);
+            out.template(loadSegmentBaseToD(segment));
+            out.address(index);
+            out.template(SET_RAM_ADDRESS_FROM_R15);
             break;
-         case VMConstants.VIRTUAL_SEGMENT_STATIC:
-            getDestinationAddressAndSetRAMValueFromD = this.getStaticInstructionAsmSymbol(fileName, index) + "M=D" + newLine;
+         case STATIC:
+            out.symbol(staticSymbolPrefix, index);
+            out.template(SET_M_FROM_D);
             break;
-         case VMConstants.VIRTUAL_SEGMENT_TEMP:
-            int finalIndex = 5 + index;
-            getDestinationAddressAndSetRAMValueFromD = String.join(newLine, Arrays.asList(
-                    "@" + finalIndex,
-                    "M=D"
-            )) + newLine;
+         case TEMP:
+            out.address(5 + index);
+            out.template(SET_M_FROM_D);
             break;
-         case VMConstants.VIRTUAL_SEGMENT_POINTER:
-            String base = index == 0 ? VMConstants.VIRTUAL_SEGMENT_AND_SYMBOL_MAP.get(VMConstants.VIRTUAL_SEGMENT_THIS)
-                    : VMConstants.VIRTUAL_SEGMENT_AND_SYMBOL_MAP.get(VMConstants.VIRTUAL_SEGMENT_THAT);
-            getDestinationAddressAndSetRAMValueFromD = String.join(newLine, Arrays.asList(
-                    base,
-                    "M=D"
-            )) + newLine;
+         case POINTER:
+            out.template(index == 0 ? SET_THIS_FROM_D : SET_THAT_FROM_D);
+            break;
+         default:
             break;
       }
-      return spDecrementAndSetRAMValueToD + getDestinationAddressAndSetRAMValueFromD;
    }
 
-   private String translateArithmeticCommandToAssembly(String command) {
-      String spIncrement = "@SP" + newLine + "M=M+1";
-      String saveSecondOperandToD = String.join(newLine, Arrays.asList(
-              "@SP",
-              "AM=M-1",
-              "D=M"
-      ));
-      String loadFirstOperandToM = String.join(newLine, Arrays.asList(
-              "@SP",
-              "AM=M-1"
-      ));
-
-      String loadOperands = saveSecondOperandToD + newLine + loadFirstOperandToM;
-
-      String computeResultAndPush = null;
-
-      switch (command) {
-         case VMConstants.ARITHMETIC_ADD:
-            computeResultAndPush = "M=D+M";
-            break;
-         case VMConstants.ARITHMETIC_SUB:
-            computeResultAndPush = "M=M-D";
-            break;
-         case VMConstants.ARITHMETIC_OR:
-            computeResultAndPush = "M=D|M";
+   /**
+    * Translate a program flow or function instruction.
+    * A label is a jump target, so the cached stack top is spilled before any of them and every path reaches a label
+    * with the stack in RAM. {@code if-goto} consumes the cached stack top instead
+    */
+   private void writeControlFlow(VMOpcode opcode, long instruction) throws AssemblyTranslationException, IOException {
+      if (opcode == VMOpcode.IF_GOTO) {
+         if (!topOfStackInD) {
+            out.template(SP_DECREMENT_AND_SET_RAM_VALUE_TO_D);
+         }
+         topOfStackInD = false;
+         out.symbol(labelScope, symbols.name(VMInstruction.symbol(instruction)));
+         out.template(JUMP_IF_D_TRUE);
+         return;
+      }
+      spillTopOfStack();
+      switch (opcode) {
+         case LABEL:
+            out.label(labelScope, symbols.name(VMInstruction.symbol(instruction)));
             break;
-         case VMConstants.ARITHMETIC_AND:
-            computeResultAndPush = "M=D&M";
+         case GOTO:
+            out.symbol(labelScope, symbols.name(VMInstruction.symbol(instruction)));
+            out.template(UNCONDITIONAL_JUMP);
             break;
-         case VMConstants.ARITHMETIC_NEG:
-            loadOperands = saveSecondOperandToD;
-            computeResultAndPush = "M=-D";
+         case FUNCTION:
+            translateFunctionToAssembly(symbols.name(VMInstruction.symbol(instruction)), VMInstruction.index(instruction));
             break;
-         case VMConstants.ARITHMETIC_NOT:
-            loadOperands = saveSecondOperandToD;
-            computeResultAndPush = "M=!D";
+         case CALL:
+            translateCallToAssembly(symbols.name(VMInstruction.symbol(instruction)), VMInstruction.index(instruction));
             break;
-         //Using jump to handle the eq/gt/lt commands in assembly
-         case VMConstants.ARITHMETIC_EQ:
-         case VMConstants.ARITHMETIC_GT:
-         case VMConstants.ARITHMETIC_LT:
-            //Using index that increment itself to fix multiple arithmetic call in same vm file
-            String trueLabel = "TRUE" + labelIndexSuffix;
-            String continueLabel = "CONTINUE" + labelIndexSuffix;
-            labelIndexSuffix++;
-            computeResultAndPush = String.join(newLine, Arrays.asList(
-                    "D=M-D",
-                    "@" + trueLabel,
-                    "D;J" + command.toUpperCase(Locale.ROOT),
-                    //FALSE
-                    "@SP",
-                    "A=M",
-                    "M=0",
-                    "@" + continueLabel,
-                    "0;JMP",
-                    //TRUE
-                    "(" + trueLabel + ")",
-                    "@SP",
-                    "A=M",
-                    "M=-1",
-                    "(" + continueLabel + ")"
-            ));
+         case RETURN:
+            returnCount++;
+            requiredRoutines |= AssemblyRuntime.ROUTINE_RETURN;
+            out.template(JUMP_TO_RETURN_ROUTINE);
             break;
+         default:
+            throw new AssemblyTranslationException("Not a program flow or function instruction: " + VMInstruction.toString(instruction, symbols));
+      }
+   }
+
+   /**
+    * Declare the function and push its local variables initialized to 0, the labels that follow are scoped by the function
+    *
+    * @param functionName function name in ascii
+    * @param nVars        number of local variables
+    */
+   private void translateFunctionToAssembly(byte[] functionName, int nVars) throws IOException {
+      out.label(NO_PREFIX, functionName);
+      labelScope = scope(functionName);
+      if (nVars == 1) {
+         out.template(PUSH_ZERO);
+      } else if (nVars > 1) {
+         //zero the locals through A and move SP above them once
+         out.template(SET_A_TO_STACK_TOP);
+         for (int i = 1; i < nVars; i++) {
+            out.template(SET_M_ZERO_AND_A_INCREMENT);
+         }
+         out.template(SET_M_ZERO_AND_SP_ABOVE);
+      }
+   }
+
+   /**
+    * Pass the argument count in R13, the callee in R14 and the return address in D to the shared call routine,
+    * see {@link AssemblyRuntime}
+    *
+    * @param functionName callee name in ascii
+    * @param nArgs        number of arguments pushed by the caller
+    */
+   private void translateCallToAssembly(byte[] functionName, int nArgs) throws IOException {
+      callCount++;
+      requiredRoutines |= AssemblyRuntime.ROUTINE_CALL;
+      int labelIndex = labelIndexSuffix++;
+      out.address(nArgs);
+      out.template(SET_R13_FROM_A);
+      out.symbol(NO_PREFIX, functionName);
+      out.template(SET_R14_FROM_A);
+      out.symbol(returnLabelPrefix, labelIndex);
+      out.template(JUMP_TO_CALL_ROUTINE);
+      out.label(returnLabelPrefix, labelIndex);
+   }
+
+   /**
+    * @return label prefix of the scope, i.e. {@code name$}
+    */
+   private static byte[] scope(byte[] name) {
+      byte[] scope = new byte[name.length + 1];
+      System.arraycopy(name, 0, scope, 0, name.length);
+      scope[name.length] = LABEL_SCOPE_SEPARATOR;
+      return scope;
+   }
+
+   /**
+    * Translate an instruction in the top-of-stack caching mode.
+    * A push loads its value to D, spilling the previous stack top first. A pop or an arithmetic command uses the stack
+    * top in D, loading it from RAM first when it is not cached, and the arithmetic result stays in D.
+    * The commands that need D or the stack in RAM spill the cached value first
+    */
+   private void writeCachedInstruction(VMOpcode opcode, long instruction) throws AssemblyTranslationException, IOException {
+      VirtualSegment segment = VMInstruction.segment(instruction);
+      int index = VMInstruction.index(instruction);
+      if (opcode == VMOpcode.STORE_CONSTANT) {
+         spillTopOfStack();
+         translateStoreConstantToAssembly(segment, index, VMInstruction.value(instruction));
+         return;
+      }
+      switch (opcode.instructionType()) {
+         case C_PUSH:
+            spillTopOfStack();
+            if (segment == VirtualSegment.CONSTANT) {
+               loadConstantToD((short) index);
+            } else {
+               loadPushValueToD(segment, index);
+            }
+            topOfStackInD = true;
+            return;
+         case C_POP:
+            if (!topOfStackInD) {
+               translatePopCommandToAssembly(segment, index);
+               return;
+            }
+            if (segment == VirtualSegment.CONSTANT) {
+               throw new AssemblyTranslationException("Unsupported segment for pop instruction: " + segment.segmentName());
+            }
+            topOfStackInD = false;
+            storeDToSegment(segment, index);
+            return;
+         case C_ARITHMETIC:
+         default:
+            if (opcode.isComparison() && isSharedComparison(opcode)) {
+               //the shared routines take their operands from the stack
+               spillTopOfStack();
+               writeSharedComparison(opcode);
+               return;
+            }
+            if (!topOfStackInD) {
+               out.template(SP_DECREMENT_AND_SET_RAM_VALUE_TO_D);
+               topOfStackInD = true;
+            }
+            if (opcode.isComparison()) {
+               writeCachedComparison(opcode);
+            } else {
+               out.template(CACHED_ARITHMETIC_TEMPLATES[opcode.ordinal()]);
+            }
+      }
+   }
+
+   /**
+    * Inline comparison of the top-of-stack caching mode, the result replaces the operands in D.
+    * The jumps stay inside the command, so the cache state is the same on every path
+    */
+   private void writeCachedComparison(VMOpcode command) throws IOException {
+      comparisonCount++;
+      int labelIndex = labelIndexSuffix++;
+      out.template(POP_AND_SUBTRACT_FROM_D);
+      out.symbol(trueLabelPrefix, labelIndex);
+      out.template(COMPARISON_JUMPS[command.ordinal()]);
+      //FALSE
+      out.template(SET_D_FALSE);
+      out.symbol(continueLabelPrefix, labelIndex);
+      out.template(UNCONDITIONAL_JUMP);
+      //TRUE
+      out.label(trueLabelPrefix, labelIndex);
+      out.template(SET_D_TRUE);
+      out.label(continueLabelPrefix, labelIndex);
+   }
+
+   /**
+    * Write the stack top cached in D back to RAM, needed before code that uses D or expects the stack in RAM
+    */
+   private void spillTopOfStack() throws IOException {
+      if (topOfStackInD) {
+         out.template(SET_RAM_SP_FROM_D_AND_SP_INCREMENT);
+         topOfStackInD = false;
+         spillCount++;
+      }
+   }
+
+   /**
+    * Emit the cheapest sequence of the addressing table for the push/pop
+    *
+    * @return {@code false} when the table has no sequence for the segment
+    */
+   private boolean writeSelectedSequence(InstructionType instructionType, VirtualSegment segment, int index) throws IOException {
+      AddressingSequence selected = addressingTable.select(instructionType, segment, index);
+      if (selected == null) {
+         return false;
+      }
+      addressingSavedInstructions += addressingTable.generic(instructionType, segment, index).cost(segment, index)
+              - selected.cost(segment, index);
+      selected.emit(out, segment, index);
+      return true;
+   }
+
+   /**
+    * Translate a {@code push constant c} + {@code pop segment index} pair folded by the optimizer,
+    * the constant goes straight to the segment without touching the stack
+    *
+    * @param segment destination segment, must be {@code local/argument/this/that/static/temp/pointer}
+    * @param index   destination index
+    * @param value   16-bit constant
+    */
+   private void translateStoreConstantToAssembly(VirtualSegment segment, int index, short value) throws AssemblyTranslationException, IOException {
+      byte[] storeConstant = constantStore(value);
+      switch (segment) {
+         case LOCAL:
+         case ARGUMENT:
+         case THIS:
+         case THAT:
+            out.template(loadSegmentBaseToD(segment));
+            out.address(index);
+            if (storeConstant != null) {
+               out.template(SET_A_TO_D_PLUS_A);
+               out.template(storeConstant);
+               return;
+            }
+            out.template(SET_ADDRESS_TO_R13);
+            loadConstantToD(value);
+            out.template(SET_RAM_R13_FROM_D);
+            return;
+         case STATIC:
+         case TEMP:
+         case POINTER:
+            if (storeConstant == null) {
+               loadConstantToD(value);
+               storeConstant = SET_M_FROM_D;
+            }
+            if (segment == VirtualSegment.STATIC) {
+               out.symbol(staticSymbolPrefix, index);
+            } else if (segment == VirtualSegment.TEMP) {
+               out.address(5 + index);
+            } else {
+               out.template(index == 0 ? SET_THIS_ADDRESS : SET_THAT_ADDRESS);
+            }
+            out.template(storeConstant);
+            return;
+         case CONSTANT:
+         default:
+            throw new AssemblyTranslationException("Unsupported segment for pop instruction: " + segment.segmentName());
+      }
+   }
+
+   /**
+    * Load a 16-bit constant to D, a negative constant is loaded as the complement of a 15-bit one
+    */
+   private void loadConstantToD(short value) throws IOException {
+      if (value >= 0) {
+         out.address(value);
+         out.template(SET_D_FROM_A);
+      } else {
+         out.address(~value);
+         out.template(SET_D_FROM_NOT_A);
+      }
+   }
+
+   /**
+    * @return template storing the constant to M without going through D, {@code null} when the ALU can not produce the constant
+    */
+   private static byte[] constantStore(short value) {
+      switch (value) {
+         case 0:
+            return SET_M_ZERO;
+         case 1:
+            return SET_M_ONE;
+         case -1:
+            return SET_M_MINUS_ONE;
+         default:
+            return null;
+      }
+   }
+
+   private void translateArithmeticCommandToAssembly(VMOpcode command) throws IOException {
+      if (!command.isComparison()) {
+         out.template(ARITHMETIC_TEMPLATES[command.ordinal()]);
+         return;
+      }
+      if (isSharedComparison(command)) {
+         writeSharedComparison(command);
+         return;
+      }
+      comparisonCount++;
+      //Using index that increment itself to fix multiple arithmetic call in same vm file
+      int labelIndex = labelIndexSuffix++;
+      //Using jump to handle the eq/gt/lt commands in assembly
+      out.template(COMPARE_OPERANDS);
+      out.symbol(trueLabelPrefix, labelIndex);
+      out.template(COMPARISON_JUMPS[command.ordinal()]);
+      //FALSE
+      out.template(SET_RAM_SP_FALSE);
+      out.symbol(continueLabelPrefix, labelIndex);
+      out.template(UNCONDITIONAL_JUMP);
+      //TRUE
+      out.label(trueLabelPrefix, labelIndex);
+      out.template(SET_RAM_SP_TRUE);
+      out.label(continueLabelPrefix, labelIndex);
+      out.template(SP_INCREMENT);
+   }
+
+   /**
+    * Pass the return address in R13 and jump to the shared routine of the comparison
+    */
+   private void writeSharedComparison(VMOpcode command) throws IOException {
+      comparisonCount++;
+      sharedComparisonCount++;
+      int labelIndex = labelIndexSuffix++;
+      requiredRoutines |= AssemblyRuntime.comparisonRoutine(command);
+      out.symbol(compareReturnLabelPrefix, labelIndex);
+      out.template(SET_R13_FROM_A);
+      out.template(COMPARISON_ROUTINE_JUMPS[command.ordinal()]);
+      out.label(compareReturnLabelPrefix, labelIndex);
+   }
+
+   /**
+    * @return whether the comparison calls the shared routine, chosen per site by the profile-guided plan when there is one
+    */
+   private boolean isSharedComparison(VMOpcode command) {
+      if (profileGuidedPlan == null) {
+         return sharedComparison;
+      }
+      return !profileGuidedPlan.isInlineComparison(fileName, sourceLine, command);
+   }
+
+   private static byte[] loadSegmentBaseToD(VirtualSegment segment) throws AssemblyTranslationException {
+      byte[] template = LOAD_SEGMENT_BASE_TO_D[segment.ordinal()];
+      if (template == null) {
+         throw new AssemblyTranslationException("Empty virtual-segment-symbol mapping for segment:" + segment);
       }
-      return loadOperands + newLine + computeResultAndPush + newLine + spIncrement + newLine;
+      return template;
    }
 
-   private String getStaticInstructionAsmSymbol(String fileName, Integer index) {
-      return "@" + fileName + "." + index + newLine;
+   private static byte[] arithmeticTemplate(String[] loadOperands, String computeResult) {
+      String[] lines = new String[loadOperands.length + 3];
+      System.arraycopy(loadOperands, 0, lines, 0, loadOperands.length);
+      lines[loadOperands.length] = computeResult;
+      lines[loadOperands.length + 1] = "@SP";
+      lines[loadOperands.length + 2] = "M=M+1";
+      return AssemblyBuffer.encode(lines);
    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,304 @@
+package com.noctis.vm.translator.writer;
+
+import com.noctis.vm.translator.common.VMOpcode;
+
+import java.io.IOException;
+
+/**
+ * Shared assembly routines that are emitted once per program and called from the translated vm instructions.
+ * The routines are placed after the program behind a halt loop, so only the referenced ones are emitted and a fragment
+ * never needs to know the routines in advance. A comparison routine is entered with the return address in {@code R13}.
+ * <p>
+ * Function calls go through one call routine and one return routine, instead of saving and restoring the frame
+ * at every site. The call routine is entered with the return address in D, the argument count in {@code R13} and the
+ * callee address in {@code R14}, the return routine is entered with a plain jump
+ *
+ * @author Noctis
+ * @date 2025/03/12
+ */
+public class AssemblyRuntime {
+
+   public static final int ROUTINE_EQ = 1;
+   public static final int ROUTINE_GT = 1 << 1;
+   public static final int ROUTINE_LT = 1 << 2;
+   public static final int ROUTINE_CALL = 1 << 3;
+   public static final int ROUTINE_RETURN = 1 << 4;
+
+   public static final String CALL_ROUTINE_LABEL = "__VM_CALL";
+
+   public static final String RETURN_ROUTINE_LABEL = "__VM_RETURN";
+
+   public static final String HALT_LABEL = "__VM_HALT";
+
+   /**
+    * Function called by the bootstrap code, and the vm file that defines it
+    */
+   public static final String ENTRY_MODULE = "Sys";
+
+   public static final String ENTRY_FUNCTION = ENTRY_MODULE + ".init";
+
+   /**
+    * Initial stack pointer set by the bootstrap code
+    */
+   public static final int STACK_BASE = 256;
+
+   /**
+    * Instructions of an inline comparison, see {@link AssemblyCodeWriter}
+    */
+   public static final int INLINE_COMPARISON_SIZE = 18;
+
+   /**
+    * Instructions of a call site of a shared comparison routine
+    */
+   public static final int COMPARISON_CALL_SIZE = 6;
+
+   public static final int COMPARISON_ROUTINE_SIZE = 17;
+
+   public static final int HALT_LOOP_SIZE = 2;
+
+   /**
+    * Instructions of a call and a return that save and restore the frame inline
+    */
+   public static final int INLINE_CALL_SIZE = 49;
+   public static final int INLINE_RETURN_SIZE = 42;
+
+   /**
+    * Instructions of a call site and a return site of the shared routines
+    */
+   public static final int CALL_SITE_SIZE = 12;
+   public static final int RETURN_SITE_SIZE = 2;
+
+   public static final int CALL_ROUTINE_SIZE = 36;
+   public static final int RETURN_ROUTINE_SIZE = 41;
+
+   /**
+    * Extra cycles of a shared comparison over the inline one when the result is true, and when the result is false
+    */
+   public static final int COMPARISON_EXTRA_CYCLES_TRUE = 7;
+   public static final int COMPARISON_EXTRA_CYCLES_FALSE = 8;
+
+   private static final byte[] HALT_LOOP = AssemblyBuffer.encode("(" + HALT_LABEL + ")", "@" + HALT_LABEL, "0;JMP");
+
+   private static final byte[] RETURN_TO_R13 = AssemblyBuffer.encode("@R13", "A=M", "0;JMP");
+
+   private static final VMOpcode[] COMPARISONS = {VMOpcode.EQ, VMOpcode.GT, VMOpcode.LT};
+
+   /**
+    * Push the return address, LCL, ARG, THIS and THAT, then set ARG to the arguments and LCL to the new stack top
+    */
+   private static final byte[] CALL_ROUTINE = AssemblyBuffer.encode(
+           "(" + CALL_ROUTINE_LABEL + ")",
+           "@SP",
+           "A=M",
+           "M=D",
+           "@LCL",
+           "D=M",
+           "@SP",
+           "AM=M+1",
+           "M=D",
+           "@ARG",
+           "D=M",
+           "@SP",
+           "AM=M+1",
+           "M=D",
+           "@THIS",
+           "D=M",
+           "@SP",
+           "AM=M+1",
+           "M=D",
+           "@THAT",
+           "D=M",
+           "@SP",
+           "AM=M+1",
+           "M=D",
+           "@SP",
+           "MD=M+1",
+           "@LCL",
+           "M=D",
+           //ARG = SP - nArgs - 5
+           "@R13",
+           "D=D-M",
+           "@5",
+           "D=D-A",
+           "@ARG",
+           "M=D",
+           "@R14",
+           "A=M",
+           "0;JMP");
+
+   /**
+    * Move the return value to ARG[0], restore the frame of the caller from below LCL and jump to the return address.
+    * The return address is read first, ARG[0] overwrites it when the callee has no argument
+    */
+   private static final byte[] RETURN_ROUTINE = AssemblyBuffer.encode(
+           "(" + RETURN_ROUTINE_LABEL + ")",
+           "@5",
+           "D=A",
+           "@LCL",
+           "A=M-D",
+           "D=M",
+           "@R14",
+           "M=D",
+           "@SP",
+           "AM=M-1",
+           "D=M",
+           "@ARG",
+           "A=M",
+           "M=D",
+           "D=A+1",
+           "@SP",
+           "M=D",
+           //walk down the saved frame with R13
+           "@LCL",
+           "D=M",
+           "@R13",
+           "AM=D-1",
+           "D=M",
+           "@THAT",
+           "M=D",
+           "@R13",
+           "AM=M-1",
+           "D=M",
+           "@THIS",
+           "M=D",
+           "@R13",
+           "AM=M-1",
+           "D=M",
+           "@ARG",
+           "M=D",
+           "@R13",
+           "AM=M-1",
+           "D=M",
+           "@LCL",
+           "M=D",
+           "@R14",
+           "A=M",
+           "0;JMP");
+
+   /**
+    * Set SP and call the entry function with no argument, returning to the halt loop
+    */
+   private static final byte[] BOOTSTRAP = AssemblyBuffer.encode(
+           "@" + STACK_BASE,
+           "D=A",
+           "@SP",
+           "M=D",
+           "@R13",
+           "M=0",
+           "@" + ENTRY_FUNCTION,
+           "D=A",
+           "@R14",
+           "M=D",
+           "@" + HALT_LABEL,
+           "D=A",
+           "@" + CALL_ROUTINE_LABEL,
+           "0;JMP");
+
+   /**
+    * Comparison routines indexed by opcode ordinal
+    */
+   private static final byte[][] COMPARISON_ROUTINES = new byte[VMOpcode.values().length][];
+
+   static {
+      for (VMOpcode opcode : COMPARISONS) {
+         COMPARISON_ROUTINES[opcode.ordinal()] = comparisonRoutine(opcode.name());
+      }
+   }
+
+   private AssemblyRuntime() {
+   }
+
+   /**
+    * @return the routine bit of a comparison opcode
+    */
+   public static int comparisonRoutine(VMOpcode opcode) {
+      switch (opcode) {
+         case EQ:
+            return ROUTINE_EQ;
+         case GT:
+            return ROUTINE_GT;
+         case LT:
+            return ROUTINE_LT;
+         default:
+            throw new IllegalArgumentException("Not a comparison command: " + opcode);
+      }
+   }
+
+   /**
+    * @return label of the shared comparison routine
+    */
+   public static String comparisonRoutineLabel(VMOpcode opcode) {
+      return "__VM_" + opcode.name();
+   }
+
+   /**
+    * Emit the bootstrap code that starts a program at its entry function, it must come before the program
+    *
+    * @param out assembly output
+    * @return routine bits referenced by the bootstrap code
+    */
+   public static int writeBootstrap(AssemblyBuffer out) throws IOException {
+      out.template(BOOTSTRAP);
+      return ROUTINE_CALL;
+   }
+
+   /**
+    * @return number of routines in the mask
+    */
+   public static int routineCount(int routines) {
+      return Integer.bitCount(routines);
+   }
+
+   /**
+    * Emit the halt loop and the routines, nothing is emitted when no routine is referenced
+    *
+    * @param out      assembly output
+    * @param routines routine bits referenced by the program
+    */
+   public static void writeRoutines(AssemblyBuffer out, int routines) throws IOException {
+      if (routines == 0) {
+         return;
+      }
+      out.template(HALT_LOOP);
+      for (VMOpcode opcode : COMPARISONS) {
+         if ((routines & comparisonRoutine(opcode)) != 0) {
+            out.template(COMPARISON_ROUTINES[opcode.ordinal()]);
+         }
+      }
+      if ((routines & ROUTINE_CALL) != 0) {
+         out.template(CALL_ROUTINE);
+      }
+      if ((routines & ROUTINE_RETURN) != 0) {
+         out.template(RETURN_ROUTINE);
+      }
+   }
+
+   /**
+    * Pop y and x, push -1 when {@code x - y} satisfies the jump condition otherwise 0, then return to the caller
+    */
+   private static byte[] comparisonRoutine(String jump) {
+      String label = comparisonRoutineLabel(VMOpcode.valueOf(jump));
+      byte[] body = AssemblyBuffer.encode(
+              "(" + label + ")",
+              "@SP",
+              "AM=M-1",
+              "D=M",
+              "@SP",
+              "AM=M-1",
+              "D=M-D",
+              //tentatively true, A still points to x
+              "M=-1",
+              "@" + label + "_TRUE",
+              "D;J" + jump,
+              "@SP",
+              "A=M",
+              "M=0",
+              "(" + label + "_TRUE)",
+              "@SP",
+              "M=M+1");
+      byte[] routine = new byte[body.length + RETURN_TO_R13.length];
+      System.arraycopy(body, 0, routine, 0, body.length);
+      System.arraycopy(RETURN_TO_R13, 0, routine, body.length, RETURN_TO_R13.length);
+      return routine;
+   }
+}
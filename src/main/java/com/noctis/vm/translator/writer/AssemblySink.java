@@ -0,0 +1,21 @@
+package com.noctis.vm.translator.writer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of the encoded hack assembly code
+ *
+ * @author Noctis
+ * @date 2025/03/06
+ */
+public interface AssemblySink extends Closeable {
+
+   /**
+    * Consume all the remaining bytes of the buffer, the buffer is reused by the caller once this method returns
+    *
+    * @param buffer encoded assembly code, between position and limit
+    */
+   void write(ByteBuffer buffer) throws IOException;
+}
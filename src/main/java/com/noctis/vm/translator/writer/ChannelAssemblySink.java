@@ -0,0 +1,48 @@
+package com.noctis.vm.translator.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Assembly sink writing to a channel, e.g. the standard output, see {@link FileAssemblySink} for the result asm file
+ *
+ * @author Noctis
+ * @date 2025/03/06
+ */
+public class ChannelAssemblySink implements AssemblySink {
+
+   private final WritableByteChannel channel;
+
+   /**
+    * Whether closing the sink closes the channel, {@code false} for a channel that belongs to the caller, e.g. the standard output
+    */
+   private final boolean closeChannel;
+
+   public ChannelAssemblySink(WritableByteChannel channel) {
+      this(channel, true);
+   }
+
+   /**
+    * @param channel      destination of the assembly code
+    * @param closeChannel whether closing the sink closes the channel
+    */
+   public ChannelAssemblySink(WritableByteChannel channel, boolean closeChannel) {
+      this.channel = channel;
+      this.closeChannel = closeChannel;
+   }
+
+   @Override
+   public void write(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+         channel.write(buffer);
+      }
+   }
+
+   @Override
+   public void close() throws IOException {
+      if (closeChannel) {
+         channel.close();
+      }
+   }
+}
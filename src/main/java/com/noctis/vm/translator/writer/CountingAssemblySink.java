@@ -0,0 +1,47 @@
+package com.noctis.vm.translator.writer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Assembly sink dropping the code and counting its hack instructions, i.e. the lines that are not label declarations.
+ * Used to measure the ROM taken by code that is not emitted
+ *
+ * @author Noctis
+ * @date 2025/03/23
+ */
+public class CountingAssemblySink implements AssemblySink {
+
+   private long instructionCount;
+
+   /**
+    * Whether the next byte starts a line
+    */
+   private boolean lineStart = true;
+
+   @Override
+   public void write(ByteBuffer buffer) {
+      while (buffer.hasRemaining()) {
+         byte b = buffer.get();
+         if (lineStart && b != '\n' && b != '\r') {
+            if (b != '(') {
+               instructionCount++;
+            }
+            lineStart = false;
+         }
+         if (b == '\n') {
+            lineStart = true;
+         }
+      }
+   }
+
+   @Override
+   public void close() {
+   }
+
+   /**
+    * @return hack instructions written so far
+    */
+   public long getInstructionCount() {
+      return instructionCount;
+   }
+}
@@ -0,0 +1,116 @@
+package com.noctis.vm.translator.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Assembly sink writing the asm file through a partial file next to it. The vm code is parsed while the assembly code
+ * is written, so a syntax error is only found after part of the code is out: the partial file replaces the asm file
+ * when the sink is closed after {@link #commit()}, otherwise it is deleted and the asm file is left as it was
+ *
+ * @author Noctis
+ * @date 2025/03/06
+ */
+public class FileAssemblySink extends ChannelAssemblySink {
+
+   private static final String PARTIAL_FILE_SUFFIX = ".partial";
+
+   private final Path file;
+
+   private final Path partialFile;
+
+   private boolean committed;
+
+   /**
+    * Whether writing the partial file failed, it never replaces the asm file then
+    */
+   private boolean failed;
+
+   private boolean closed;
+
+   private FileAssemblySink(Path file, Path partialFile, FileChannel channel) {
+      super(channel);
+      this.file = file;
+      this.partialFile = partialFile;
+   }
+
+   /**
+    * Create the partial file of the asm file, in the same directory so that it can be moved over the asm file atomically
+    *
+    * @param fileLocation file path of the asm file
+    */
+   public static FileAssemblySink open(String fileLocation) throws IOException {
+      Path file = Paths.get(fileLocation).toAbsolutePath();
+      while (true) {
+         Path partialFile = file.resolveSibling(file.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong())
+                 + PARTIAL_FILE_SUFFIX);
+         try {
+            return new FileAssemblySink(file, partialFile,
+                    FileChannel.open(partialFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+         } catch (FileAlreadyExistsException e) {
+            //a concurrent translation of the same file picked the same name
+         }
+      }
+   }
+
+   /**
+    * Mark the code complete: closing the sink, once the code still buffered upstream is written, replaces the asm file
+    */
+   public void commit() {
+      committed = true;
+   }
+
+   @Override
+   public void write(ByteBuffer buffer) throws IOException {
+      try {
+         super.write(buffer);
+      } catch (IOException e) {
+         failed = true;
+         throw e;
+      }
+   }
+
+   /**
+    * Close the partial file, then move it over the asm file when the code is committed, or delete it.
+    * Closing the sink again does nothing
+    */
+   @Override
+   public void close() throws IOException {
+      if (closed) {
+         return;
+      }
+      closed = true;
+      try {
+         super.close();
+      } catch (IOException e) {
+         failed = true;
+         throw e;
+      } finally {
+         if (!committed || failed) {
+            Files.deleteIfExists(partialFile);
+         }
+      }
+      if (!committed || failed) {
+         return;
+      }
+      try {
+         try {
+            Files.move(partialFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+         } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partialFile, file, StandardCopyOption.REPLACE_EXISTING);
+         }
+      } catch (IOException e) {
+         Files.deleteIfExists(partialFile);
+         throw e;
+      }
+   }
+}
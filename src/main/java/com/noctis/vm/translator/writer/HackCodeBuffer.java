@@ -0,0 +1,301 @@
+package com.noctis.vm.translator.writer;
+
+import com.noctis.vm.translator.emulator.HackAssembler;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Output buffer of the binary backend: the code writer appends the same templates, numbers and symbols as to an
+ * {@link AssemblyBuffer}, but they are emitted as 16-bit hack instructions instead of assembly text.
+ * <p>
+ * The code of a buffer is relocatable, its addresses start at 0. The labels declared in the buffer are bound to their
+ * address, and every A-instruction referring to a symbol that is not predefined is recorded in a fixup table with a
+ * placeholder, since the symbol may be a label of a later buffer or a variable. {@link HackLinker} concatenates the buffers
+ * and patches the fixups, so the buffers of a directory can be generated in parallel like the text fragments
+ *
+ * @author Noctis
+ * @date 2025/03/27
+ */
+public class HackCodeBuffer extends AssemblyBuffer {
+
+   private static final int DEFAULT_CAPACITY = 16 * 1024;
+
+   private static final int DEFAULT_FIXUP_CAPACITY = 256;
+
+   /**
+    * Machine code of the templates. The templates are constants of the writer and of the runtime, a byte array is
+    * hashed by identity, so a template is encoded once per process
+    */
+   private static final Map<byte[], EncodedTemplate> ENCODED_TEMPLATES = new ConcurrentHashMap<>();
+
+   private short[] code;
+
+   private int size;
+
+   /**
+    * Labels declared in the buffer, bound to their address relative to the start of the buffer
+    */
+   private final Map<String, Integer> labels = new HashMap<>();
+
+   /**
+    * Fixup table: address of each A-instruction referring to a symbol, relative to the start of the buffer, and the symbol
+    */
+   private int[] fixupAddresses = new int[DEFAULT_FIXUP_CAPACITY];
+
+   private String[] fixupSymbols = new String[DEFAULT_FIXUP_CAPACITY];
+
+   private int fixupCount;
+
+   /**
+    * First label declared twice, {@code null} when there is none. The linker reports it, the code writer only expects I/O errors
+    */
+   private String duplicateLabel;
+
+   /**
+    * Symbol prefixes of the writer decoded once, the writer passes the same arrays again and again
+    */
+   private final Map<byte[], String> prefixes = new IdentityHashMap<>();
+
+   public HackCodeBuffer() {
+      this(DEFAULT_CAPACITY);
+   }
+
+   /**
+    * @param capacity initial number of instructions, the buffer grows as needed
+    */
+   public HackCodeBuffer(int capacity) {
+      this.code = new short[Math.max(capacity, 16)];
+   }
+
+   /**
+    * Append the machine code of pre-encoded assembly code lines
+    */
+   @Override
+   public void template(byte[] template) {
+      EncodedTemplate encoded = ENCODED_TEMPLATES.get(template);
+      if (encoded == null) {
+         encoded = EncodedTemplate.of(template);
+         ENCODED_TEMPLATES.put(template, encoded);
+      }
+      short[] instructions = encoded.instructions;
+      reserve(instructions.length);
+      int base = size;
+      System.arraycopy(instructions, 0, code, base, instructions.length);
+      size += instructions.length;
+      for (int i = 0; i < encoded.labelNames.length; i++) {
+         declare(encoded.labelNames[i], base + encoded.labelOffsets[i]);
+      }
+      for (int i = 0; i < encoded.symbolNames.length; i++) {
+         addFixup(base + encoded.symbolOffsets[i], encoded.symbolNames[i]);
+      }
+   }
+
+   /**
+    * Append an A-instruction loading the constant
+    */
+   @Override
+   public void address(int value) {
+      if (value < 0 || value > Short.MAX_VALUE) {
+         throw new IllegalArgumentException("Constant out of range: @" + value);
+      }
+      reserve(1);
+      code[size++] = (short) value;
+   }
+
+   @Override
+   public void symbol(byte[] prefix, int n) {
+      symbol(prefix(prefix) + n);
+   }
+
+   @Override
+   public void label(byte[] prefix, int n) {
+      declare(prefix(prefix) + n, size);
+   }
+
+   @Override
+   public void symbol(byte[] prefix, byte[] name) {
+      symbol(prefix(prefix) + new String(name, StandardCharsets.US_ASCII));
+   }
+
+   @Override
+   public void label(byte[] prefix, byte[] name) {
+      declare(prefix(prefix) + new String(name, StandardCharsets.US_ASCII), size);
+   }
+
+   /**
+    * The code stays in the buffer until it is linked
+    */
+   @Override
+   public void flush() {
+   }
+
+   @Override
+   public void close() {
+   }
+
+   /**
+    * @return number of instructions in the buffer
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * @return instructions of the buffer, the A-instructions of the fixups hold 0 until they are linked
+    */
+   short[] code() {
+      return code;
+   }
+
+   /**
+    * @return the first label declared twice in the buffer, {@code null} when there is none
+    */
+   String duplicateLabel() {
+      return duplicateLabel;
+   }
+
+   Map<String, Integer> labels() {
+      return labels;
+   }
+
+   int fixupCount() {
+      return fixupCount;
+   }
+
+   int fixupAddress(int i) {
+      return fixupAddresses[i];
+   }
+
+   String fixupSymbol(int i) {
+      return fixupSymbols[i];
+   }
+
+   /**
+    * Append an A-instruction referring to a symbol, resolved when the buffer is linked
+    */
+   private void symbol(String symbol) {
+      reserve(1);
+      addFixup(size, symbol);
+      code[size++] = 0;
+   }
+
+   private void declare(String label, int address) {
+      Integer previous = labels.put(label, address);
+      if (previous != null) {
+         labels.put(label, previous);
+         if (duplicateLabel == null) {
+            duplicateLabel = label;
+         }
+      }
+   }
+
+   private void addFixup(int address, String symbol) {
+      if (fixupCount == fixupAddresses.length) {
+         fixupAddresses = Arrays.copyOf(fixupAddresses, fixupCount * 2);
+         fixupSymbols = Arrays.copyOf(fixupSymbols, fixupCount * 2);
+      }
+      fixupAddresses[fixupCount] = address;
+      fixupSymbols[fixupCount] = symbol;
+      fixupCount++;
+   }
+
+   private String prefix(byte[] prefix) {
+      String decoded = prefixes.get(prefix);
+      if (decoded == null) {
+         decoded = new String(prefix, StandardCharsets.US_ASCII);
+         prefixes.put(prefix, decoded);
+      }
+      return decoded;
+   }
+
+   private void reserve(int length) {
+      if (code.length - size < length) {
+         code = Arrays.copyOf(code, Math.max(code.length * 2, size + length));
+      }
+   }
+
+   /**
+    * Machine code of a template, with the labels it declares and the symbols it refers to, both by instruction offset
+    */
+   private static final class EncodedTemplate {
+
+      private final short[] instructions;
+
+      private final int[] labelOffsets;
+
+      private final String[] labelNames;
+
+      private final int[] symbolOffsets;
+
+      private final String[] symbolNames;
+
+      private EncodedTemplate(short[] instructions, List<Integer> labelOffsets, List<String> labelNames, List<Integer> symbolOffsets,
+                              List<String> symbolNames) {
+         this.instructions = instructions;
+         this.labelOffsets = toArray(labelOffsets);
+         this.labelNames = labelNames.toArray(new String[0]);
+         this.symbolOffsets = toArray(symbolOffsets);
+         this.symbolNames = symbolNames.toArray(new String[0]);
+      }
+
+      /**
+       * @throws IllegalArgumentException When the template is not valid hack assembly, templates are constants of the translator
+       */
+      private static EncodedTemplate of(byte[] template) {
+         String[] lines = new String(template, StandardCharsets.US_ASCII).split("\n");
+         short[] instructions = new short[lines.length];
+         List<Integer> labelOffsets = new ArrayList<>();
+         List<String> labelNames = new ArrayList<>();
+         List<Integer> symbolOffsets = new ArrayList<>();
+         List<String> symbolNames = new ArrayList<>();
+         int count = 0;
+         try {
+            for (String rawLine : lines) {
+               String line = rawLine.trim();
+               if (line.isEmpty()) {
+                  continue;
+               }
+               if (line.startsWith("(")) {
+                  labelOffsets.add(count);
+                  labelNames.add(line.substring(1, line.length() - 1));
+                  continue;
+               }
+               if (line.startsWith("@")) {
+                  String value = line.substring(1);
+                  Integer predefined = HackAssembler.predefinedSymbol(value);
+                  if (Character.isDigit(value.charAt(0))) {
+                     instructions[count] = (short) HackAssembler.parseConstant(value);
+                  } else if (predefined != null) {
+                     instructions[count] = (short) predefined.intValue();
+                  } else {
+                     symbolOffsets.add(count);
+                     symbolNames.add(value);
+                  }
+               } else {
+                  instructions[count] = (short) HackAssembler.encodeComputation(line);
+               }
+               count++;
+            }
+         } catch (AssemblyTranslationException e) {
+            throw new IllegalArgumentException("Invalid assembly template: " + e.getMessage(), e);
+         }
+         return new EncodedTemplate(Arrays.copyOf(instructions, count), labelOffsets, labelNames, symbolOffsets, symbolNames);
+      }
+
+      private static int[] toArray(List<Integer> values) {
+         int[] array = new int[values.size()];
+         for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+         }
+         return array;
+      }
+   }
+}
@@ -0,0 +1,127 @@
+package com.noctis.vm.translator.writer;
+
+import com.noctis.vm.translator.common.OutputFormat;
+import com.noctis.vm.translator.emulator.HackAssembler;
+import com.noctis.vm.translator.exception.AssemblyTranslationException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Link the {@link HackCodeBuffer}s of a program into its ROM image: the buffers are placed one after the other,
+ * their labels are bound to ROM addresses, then the fixups are patched. A symbol that is not a label is a variable,
+ * e.g. the static {@code Xxx.i}, allocated from {@code RAM[16]} in order of first use like the standard assembler,
+ * so the image is the one the assembler would produce from the asm file
+ *
+ * @author Noctis
+ * @date 2025/03/27
+ */
+public class HackLinker {
+
+   /**
+    * Bytes handed over to the channel at once when the image is written
+    */
+   private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+   private static final int HACK_WORD_BITS = 16;
+
+   private final List<HackCodeBuffer> buffers = new ArrayList<>();
+
+   /**
+    * Append the code of a buffer to the program
+    */
+   public void add(HackCodeBuffer buffer) {
+      buffers.add(buffer);
+   }
+
+   /**
+    * @return number of instructions of the program
+    */
+   public int size() {
+      int size = 0;
+      for (HackCodeBuffer buffer : buffers) {
+         size += buffer.size();
+      }
+      return size;
+   }
+
+   /**
+    * @return the ROM image of the program, one instruction per element
+    * @throws AssemblyTranslationException When a label is declared twice or the program does not fit in the ROM
+    */
+   public short[] link() throws AssemblyTranslationException {
+      int size = 0;
+      Map<String, Integer> symbols = new HashMap<>();
+      for (HackCodeBuffer buffer : buffers) {
+         if (buffer.duplicateLabel() != null) {
+            throw new AssemblyTranslationException("Duplicate label: (" + buffer.duplicateLabel() + ")");
+         }
+         for (Map.Entry<String, Integer> label : buffer.labels().entrySet()) {
+            if (symbols.put(label.getKey(), size + label.getValue()) != null) {
+               throw new AssemblyTranslationException("Duplicate label: (" + label.getKey() + ")");
+            }
+         }
+         size += buffer.size();
+      }
+      if (size > HackAssembler.ROM_SIZE) {
+         throw new AssemblyTranslationException("Program does not fit in the 32K ROM: " + size + " instructions");
+      }
+
+      short[] rom = new short[size];
+      int base = 0;
+      int nextVariable = HackAssembler.FIRST_VARIABLE_ADDRESS;
+      for (HackCodeBuffer buffer : buffers) {
+         System.arraycopy(buffer.code(), 0, rom, base, buffer.size());
+         for (int i = 0; i < buffer.fixupCount(); i++) {
+            String symbol = buffer.fixupSymbol(i);
+            Integer address = symbols.get(symbol);
+            if (address == null) {
+               address = nextVariable++;
+               symbols.put(symbol, address);
+            }
+            rom[base + buffer.fixupAddress(i)] = (short) address.intValue();
+         }
+         base += buffer.size();
+      }
+      return rom;
+   }
+
+   /**
+    * Write the ROM image to the channel, which is not closed
+    *
+    * @param rom    linked program
+    * @param format {@link OutputFormat#HACK} or {@link OutputFormat#BINARY}
+    */
+   public static void write(short[] rom, OutputFormat format, WritableByteChannel channel) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+      int lineLength = HACK_WORD_BITS + AssemblyBuffer.NEW_LINE.length;
+      for (short instruction : rom) {
+         if (buffer.remaining() < lineLength) {
+            drain(buffer, channel);
+         }
+         if (format == OutputFormat.BINARY) {
+            buffer.putShort(instruction);
+         } else {
+            for (int bit = HACK_WORD_BITS - 1; bit >= 0; bit--) {
+               buffer.put((byte) ('0' + (instruction >>> bit & 1)));
+            }
+            buffer.put(AssemblyBuffer.NEW_LINE);
+         }
+      }
+      drain(buffer, channel);
+   }
+
+   private static void drain(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+         channel.write(buffer);
+      }
+      buffer.clear();
+   }
+}
@@ -0,0 +1,70 @@
+package com.noctis.vm.translator.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Assembly sink keeping the code in memory, e.g. a fragment that is stitched into a bigger program later
+ *
+ * @author Noctis
+ * @date 2025/03/10
+ */
+public class MemoryAssemblySink implements AssemblySink {
+
+   private static final int DEFAULT_CAPACITY = 4096;
+
+   private byte[] bytes;
+
+   private int size;
+
+   public MemoryAssemblySink() {
+      this.bytes = new byte[DEFAULT_CAPACITY];
+   }
+
+   /**
+    * Create a sink holding code generated before, e.g. a fragment loaded from the cache
+    *
+    * @param code the code, owned by the sink from now on
+    */
+   public MemoryAssemblySink(byte[] code) {
+      this.bytes = code;
+      this.size = code.length;
+   }
+
+   @Override
+   public void write(ByteBuffer buffer) throws IOException {
+      int length = buffer.remaining();
+      if (size + length > bytes.length) {
+         bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, size + length));
+      }
+      buffer.get(bytes, size, length);
+      size += length;
+   }
+
+   /**
+    * Write the collected code to another sink
+    */
+   public void writeTo(AssemblySink sink) throws IOException {
+      sink.write(ByteBuffer.wrap(bytes, 0, size));
+   }
+
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Discard the collected code, e.g. to collect the next fragment into the same sink
+    */
+   public void reset() {
+      size = 0;
+   }
+
+   public byte[] toByteArray() {
+      return Arrays.copyOf(bytes, size);
+   }
+
+   @Override
+   public void close() {
+   }
+}
@@ -0,0 +1,171 @@
+package com.noctis.vm.translator.writer;
+
+import java.util.Arrays;
+
+/**
+ * Bounded table of the encoded code of push/pop commands, keyed by the packed instruction, i.e. its opcode, segment and
+ * index, plus the constant of a folded store. A program repeats a few hundred of these commands many times, so most
+ * of them are appended to the output as one bulk copy of the fragment generated the first time.
+ * <p>
+ * The keys are kept in an open addressing table with linear probing, without any boxing. Once the table holds
+ * {@link #DEFAULT_CAPACITY} fragments, an entry is evicted for each new one with the clock policy: an entry read since
+ * the clock hand last passed over it gets a second chance. Only label-free fragments are stored, the code of a comparison
+ * or a call declares labels numbered per site and is generated every time
+ *
+ * @author Noctis
+ * @date 2025/03/29
+ */
+public class PushPopFragmentTable {
+
+   public static final int DEFAULT_CAPACITY = 1024;
+
+   /**
+    * Key of the empty slots, the packed instructions stored here never have all the symbol bits set
+    */
+   private static final long EMPTY = -1L;
+
+   private final long[] keys;
+
+   private final byte[][] fragments;
+
+   /**
+    * Counter attached to each fragment, e.g. the instructions saved by the addressing selection when it was generated
+    */
+   private final long[] savings;
+
+   private final boolean[] referenced;
+
+   private final int capacity;
+
+   private final int mask;
+
+   private int size = 0;
+
+   private int clockHand = 0;
+
+   private long hits = 0;
+
+   private long misses = 0;
+
+   private long evictions = 0;
+
+   public PushPopFragmentTable() {
+      this(DEFAULT_CAPACITY);
+   }
+
+   /**
+    * @param capacity fragments held at most, the table has twice as many slots rounded up to a power of 2
+    */
+   public PushPopFragmentTable(int capacity) {
+      this.capacity = Math.max(capacity, 1);
+      int slots = Integer.highestOneBit(this.capacity * 2 - 1) << 1;
+      this.mask = slots - 1;
+      this.keys = new long[slots];
+      this.fragments = new byte[slots][];
+      this.savings = new long[slots];
+      this.referenced = new boolean[slots];
+      Arrays.fill(keys, EMPTY);
+   }
+
+   /**
+    * @param key packed push/pop instruction
+    * @return slot of the fragment, or -1 when it is not in the table, counted as a hit or a miss
+    */
+   public int find(long key) {
+      for (int slot = slot(key); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+         if (keys[slot] == key) {
+            referenced[slot] = true;
+            hits++;
+            return slot;
+         }
+      }
+      misses++;
+      return -1;
+   }
+
+   public byte[] fragment(int slot) {
+      return fragments[slot];
+   }
+
+   public long saving(int slot) {
+      return savings[slot];
+   }
+
+   /**
+    * Store the fragment of an instruction that is not in the table, evicting one when the table is full
+    *
+    * @param key      packed push/pop instruction
+    * @param fragment encoded code, owned by the table from now on
+    * @param saving   counter attached to the fragment
+    */
+   public void put(long key, byte[] fragment, long saving) {
+      if (size == capacity) {
+         evict();
+      }
+      int slot = slot(key);
+      while (keys[slot] != EMPTY) {
+         slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      fragments[slot] = fragment;
+      savings[slot] = saving;
+      referenced[slot] = false;
+      size++;
+   }
+
+   public long getHits() {
+      return hits;
+   }
+
+   public long getMisses() {
+      return misses;
+   }
+
+   public long getEvictions() {
+      return evictions;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Advance the clock hand to the first entry not read since the hand last passed over it and remove it
+    */
+   private void evict() {
+      while (keys[clockHand] == EMPTY || referenced[clockHand]) {
+         referenced[clockHand] = false;
+         clockHand = (clockHand + 1) & mask;
+      }
+      remove(clockHand);
+      evictions++;
+   }
+
+   /**
+    * Remove the entry of the slot and shift back the following entries of its probe sequence, so that no lookup
+    * stops early at the freed slot
+    */
+   private void remove(int slot) {
+      int free = slot;
+      for (int next = (free + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+         int home = slot(keys[next]);
+         //the entry can fill the free slot when its home is not cyclically inside (free, next]
+         if (((next - home) & mask) >= ((next - free) & mask)) {
+            keys[free] = keys[next];
+            fragments[free] = fragments[next];
+            savings[free] = savings[next];
+            referenced[free] = referenced[next];
+            free = next;
+         }
+      }
+      keys[free] = EMPTY;
+      fragments[free] = null;
+      referenced[free] = false;
+      size--;
+   }
+
+   private int slot(long key) {
+      long hash = key * 0x9E3779B97F4A7C15L;
+      return (int) (hash >>> 32) & mask;
+   }
+}
@@ -0,0 +1,41 @@
+package com.noctis.vm.translator.writer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * Assembly sink handing the code to a character writer, e.g. to keep the program in a string.
+ * The code is ascii so each byte is one character. Closing the sink flushes the writer without closing it
+ *
+ * @author Noctis
+ * @date 2025/03/26
+ */
+public class WriterAssemblySink implements AssemblySink {
+
+   private static final int CHAR_BUFFER_SIZE = 8192;
+
+   private final Writer writer;
+
+   private final char[] chars = new char[CHAR_BUFFER_SIZE];
+
+   public WriterAssemblySink(Writer writer) {
+      this.writer = writer;
+   }
+
+   @Override
+   public void write(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+         int length = Math.min(chars.length, buffer.remaining());
+         for (int i = 0; i < length; i++) {
+            chars[i] = (char) buffer.get();
+         }
+         writer.write(chars, 0, length);
+      }
+   }
+
+   @Override
+   public void close() throws IOException {
+      writer.flush();
+   }
+}
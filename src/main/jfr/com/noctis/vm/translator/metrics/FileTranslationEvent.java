@@ -0,0 +1,71 @@
+package com.noctis.vm.translator.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event of the translation of one vm file.
+ * Only loaded through {@link JdkFlightRecorder}, on a runtime that provides the flight recorder api
+ *
+ * @author Noctis
+ * @date 2025/03/24
+ */
+@Name("com.noctis.vm.translator.FileTranslation")
+@Label("VM File Translation")
+@Category("Hack VM Translator")
+@Description("Phases and counters of the translation of one vm file")
+class FileTranslationEvent extends Event {
+
+   @Label("Source")
+   String source;
+
+   @Label("Read Time")
+   @Timespan
+   long readTime;
+
+   @Label("Parse Time")
+   @Timespan
+   long parseTime;
+
+   @Label("Code Generation Time")
+   @Timespan
+   long codegenTime;
+
+   @Label("Write Time")
+   @Timespan
+   long writeTime;
+
+   @Label("VM Commands")
+   long vmCommands;
+
+   @Label("Hack Instructions")
+   long hackInstructions;
+
+   @Label("Bytes In")
+   @DataAmount
+   long bytesIn;
+
+   static void commit(String source, TranslationMetrics metrics) {
+      FileTranslationEvent event = new FileTranslationEvent();
+      if (event.shouldCommit()) {
+         event.fill(source, metrics);
+         event.commit();
+      }
+   }
+
+   void fill(String source, TranslationMetrics metrics) {
+      this.source = source;
+      readTime = metrics.getReadNanos();
+      parseTime = metrics.getParseNanos();
+      codegenTime = metrics.getCodegenNanos();
+      writeTime = metrics.getWriteNanos();
+      vmCommands = metrics.getCommandCount();
+      hackInstructions = metrics.getHackInstructionCount();
+      bytesIn = metrics.getBytesIn();
+   }
+}
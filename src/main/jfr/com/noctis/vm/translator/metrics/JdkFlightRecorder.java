@@ -0,0 +1,20 @@
+package com.noctis.vm.translator.metrics;
+
+/**
+ * Flight recorder of the {@code jdk.jfr} api, created by {@link FlightRecorderEvents} once the api is known to be there
+ *
+ * @author Noctis
+ * @date 2025/03/24
+ */
+class JdkFlightRecorder implements FlightRecorder {
+
+   @Override
+   public void commitTranslation(String source, TranslationMetrics metrics) {
+      TranslationEvent.commit(source, metrics);
+   }
+
+   @Override
+   public void commitFile(String source, TranslationMetrics metrics) {
+      FileTranslationEvent.commit(source, metrics);
+   }
+}
@@ -0,0 +1,50 @@
+package com.noctis.vm.translator.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event of a whole translation, committed with the metrics printed by {@code --stats}.
+ * Only loaded through {@link JdkFlightRecorder}, on a runtime that provides the flight recorder api
+ *
+ * @author Noctis
+ * @date 2025/03/24
+ */
+@Name("com.noctis.vm.translator.Translation")
+@Label("VM Translation")
+@Category("Hack VM Translator")
+@Description("Phases and counters of the translation of a vm file or directory")
+class TranslationEvent extends FileTranslationEvent {
+
+   @Label("Total Time")
+   @Timespan
+   long totalTime;
+
+   @Label("Bytes Out")
+   @DataAmount
+   long bytesOut;
+
+   @Label("Peak Heap")
+   @DataAmount
+   long peakHeap;
+
+   @Label("Process Peak Heap")
+   @Description("Whether the peak heap is the one of the whole process, for a job of the daemon")
+   boolean processPeakHeap;
+
+   static void commit(String source, TranslationMetrics metrics) {
+      TranslationEvent event = new TranslationEvent();
+      if (event.shouldCommit()) {
+         event.fill(source, metrics);
+         event.totalTime = metrics.getTotalNanos();
+         event.bytesOut = metrics.getBytesOut();
+         event.peakHeap = metrics.getPeakHeapBytes();
+         event.processPeakHeap = metrics.isProcessPeakHeap();
+         event.commit();
+      }
+   }
+}
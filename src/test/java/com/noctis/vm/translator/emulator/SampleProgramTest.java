@@ -0,0 +1,123 @@
+package com.noctis.vm.translator.emulator;
+
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.profile.ProfileGuidedPlanner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The sample programs of the course run on the hack emulator with every code generation option, the RAM cells checked
+ * by their comparison files must hold the expected values whatever the options
+ *
+ * @author Noctis
+ * @date 2025/03/18
+ */
+@RunWith(Parameterized.class)
+public class SampleProgramTest {
+
+   private static final long MAX_CYCLES = 100_000;
+
+   /**
+    * Program, vm file or directory under the test resources, then pairs of RAM address and expected value
+    */
+   private static final Object[][] PROGRAMS = {
+           {"StackTest/StackTest.vm", new int[]{0, 266, 256, -1, 257, 0, 258, 0, 259, 0, 260, -1, 261, 0, 262, -1,
+                   263, 0, 264, 0, 265, -91}},
+           {"BasicTest/BasicTest.vm", new int[]{256, 472, 300, 10, 401, 21, 402, 22, 3006, 36, 3012, 42, 3015, 45, 11, 510}},
+           {"PointerTest/PointerTest.vm", new int[]{256, 6084, 3, 3030, 4, 3040, 3032, 32, 3046, 46}},
+           {"StaticTest/StaticTest.vm", new int[]{256, 1110}},
+           {"FibonacciElement", new int[]{0, 262, 261, 3}},
+           {"StaticsTest", new int[]{0, 263, 261, -2, 262, 8}}};
+
+   private static final String PROFILE = "--profile";
+
+   private static final String[][] OPTIONS = {
+           {},
+           {"--shared-compare"},
+           {"--fold-constants"},
+           {"--peephole"},
+           {"--select-addressing"},
+           {"--cache-tos"},
+           {"--memoize-push-pop"},
+           {"--eliminate-dead-functions"},
+           {PROFILE},
+           //a budget too small for any inlined comparison, the planner shares them all
+           {PROFILE, "--rom-budget=1"},
+           {"--shared-compare", "--fold-constants", "--peephole", "--select-addressing", "--cache-tos",
+                   "--memoize-push-pop", "--eliminate-dead-functions"}};
+
+   @Rule
+   public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+   private final String program;
+
+   private final int[] expectedRam;
+
+   private final String[] options;
+
+   public SampleProgramTest(String name, String program, int[] expectedRam, String[] options) {
+      this.program = program;
+      this.expectedRam = expectedRam;
+      this.options = options;
+   }
+
+   @Parameterized.Parameters(name = "{0}")
+   public static Collection<Object[]> parameters() {
+      List<Object[]> parameters = new ArrayList<>();
+      for (Object[] program : PROGRAMS) {
+         for (String[] options : OPTIONS) {
+            parameters.add(new Object[]{program[0] + " " + String.join(" ", options), program[0], program[1], options});
+         }
+      }
+      return parameters;
+   }
+
+   @Test
+   public void ramMatchesComparisonFile() throws Exception {
+      String source = resource(program);
+      List<String> args = new ArrayList<>();
+      args.add(source);
+      for (String option : options) {
+         if (PROFILE.equals(option)) {
+            //the profile of the program translated without options
+            File profile = temporaryFolder.newFile("program.profile");
+            emulate(TranslatorOptions.parse(new String[]{source}), source).getExecutionProfile().write(profile.getPath());
+            args.add(PROFILE + "=" + profile.getPath());
+         } else {
+            args.add(option);
+         }
+      }
+      TranslatorOptions translatorOptions = TranslatorOptions.parse(args.toArray(new String[0]));
+      if (translatorOptions.getProfile() != null) {
+         translatorOptions.setProfileGuidedPlan(ProfileGuidedPlanner.plan(translatorOptions));
+      }
+      EmulationReport report = emulate(translatorOptions, source);
+      for (int i = 0; i < expectedRam.length; i += 2) {
+         assertEquals("RAM[" + expectedRam[i] + "] with " + Arrays.toString(options),
+                 (short) expectedRam[i + 1], report.getRam()[expectedRam[i]]);
+      }
+   }
+
+   private static EmulationReport emulate(TranslatorOptions options, String source) throws Exception {
+      EmulationReport report = new HackEmulator(options).emulate(source, MAX_CYCLES);
+      assertTrue("program did not halt within " + MAX_CYCLES + " cycles", report.isHalted());
+      return report;
+   }
+
+   private static String resource(String program) throws URISyntaxException {
+      return new File(SampleProgramTest.class.getResource("/programs/" + program).toURI()).getPath();
+   }
+}
@@ -0,0 +1,136 @@
+package com.noctis.vm.translator.optimizer.peephole;
+
+import com.noctis.vm.translator.emulator.HackAssembler;
+import com.noctis.vm.translator.emulator.HackCpu;
+import com.noctis.vm.translator.writer.MemoryAssemblySink;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Each built-in peephole rule runs the code around its pattern before and after the rewrite on the hack CPU,
+ * the observable state, SP and the RAM below it, must be the same
+ *
+ * @author Noctis
+ * @date 2025/03/16
+ */
+public class PeepholeRuleEquivalenceTest {
+
+   private static final long MAX_CYCLES = 10_000;
+
+   /**
+    * SP at 256 with 17 on the stack, 300 in LCL and 42 in D
+    */
+   private static final String[] PRELUDE = {
+           "@256", "D=A", "@SP", "M=D",
+           "@300", "D=A", "@LCL", "M=D",
+           "@17", "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1",
+           "@42", "D=A"};
+
+   @Test
+   public void spIncrementDecrement() throws Exception {
+      //push D then add: the add pops right after the push
+      assertEquivalent("sp-increment-decrement",
+              "@SP", "A=M", "M=D", "@SP", "M=M+1",
+              "@SP", "AM=M-1", "D=M", "A=A-1", "M=D+M");
+   }
+
+   @Test
+   public void pushPopElimination() throws Exception {
+      //push D then pop local 1
+      assertEquivalent("push-pop-elimination",
+              "@SP", "A=M", "M=D", "@SP", "A=M", "D=M", "@LCL", "A=M+1", "M=D");
+   }
+
+   @Test
+   public void pushPopToStore() throws Exception {
+      //push D then neg on the stack top
+      assertEquivalent("push-pop-to-store",
+              "@SP", "A=M", "M=D", "@SP", "A=M", "D=M", "M=-M",
+              "@SP", "M=M+1", "@LCL", "A=M", "M=D");
+   }
+
+   @Test
+   public void storeReload() throws Exception {
+      assertEquivalent("store-reload",
+              "@LCL", "A=M", "M=D", "D=M", "@SP", "A=M", "M=D+1", "@SP", "M=M+1");
+   }
+
+   @Test
+   public void defaultRulesTogether() throws Exception {
+      //push D, push local 0, add, pop local 2, push D, neg
+      String[] body = {
+              "@SP", "A=M", "M=D", "@SP", "M=M+1",
+              "@LCL", "A=M", "D=M", "@SP", "A=M", "M=D", "@SP", "M=M+1",
+              "@SP", "AM=M-1", "D=M", "A=A-1", "M=D+M",
+              "@SP", "AM=M-1", "D=M", "@R13", "M=D", "@LCL", "D=M", "@2", "D=D+A", "@R14", "M=D", "@R13", "D=M",
+              "@R14", "A=M", "M=D",
+              "@SP", "A=M", "M=D", "@SP", "M=M+1",
+              "@SP", "AM=M-1", "M=-M", "@SP", "M=M+1"};
+      assertEquivalent(PeepholeRuleRegistry.defaults(), body);
+   }
+
+   private static void assertEquivalent(String ruleName, String... body) throws Exception {
+      PeepholeRuleRegistry registry = new PeepholeRuleRegistry();
+      for (PeepholeRule rule : PeepholeRuleRegistry.defaults().rules()) {
+         if (rule.name().equals(ruleName)) {
+            registry.register(rule);
+         }
+      }
+      assertEquals("rule " + ruleName, 1, registry.rules().size());
+      assertEquivalent(registry, body);
+   }
+
+   private static void assertEquivalent(PeepholeRuleRegistry registry, String... body) throws Exception {
+      String[] lines = Arrays.copyOf(PRELUDE, PRELUDE.length + body.length);
+      System.arraycopy(body, 0, lines, PRELUDE.length, body.length);
+      byte[] original = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.US_ASCII);
+
+      MemoryAssemblySink output = new MemoryAssemblySink();
+      PeepholeAssemblySink peephole = new PeepholeAssemblySink(output, registry);
+      //one byte at a time, lines cut anywhere by the writer must be rewritten the same way
+      for (byte b : original) {
+         peephole.write(ByteBuffer.wrap(new byte[]{b}));
+      }
+      peephole.close();
+      byte[] rewritten = output.toByteArray();
+
+      long fired = 0;
+      for (int i = 0; i < peephole.getRules().size(); i++) {
+         fired += peephole.getFireCount(i);
+      }
+      assertTrue("no rule fired", fired > 0);
+      assertTrue("no instruction saved", countLines(rewritten) < countLines(original));
+
+      short[] expected = run(original);
+      short[] actual = run(rewritten);
+      assertEquals("SP", expected[0], actual[0]);
+      assertArrayEquals("RAM below SP", Arrays.copyOf(expected, expected[0]), Arrays.copyOf(actual, actual[0]));
+   }
+
+   /**
+    * @return the RAM once the code has run to its end
+    */
+   private static short[] run(byte[] code) throws Exception {
+      HackCpu cpu = new HackCpu(HackAssembler.assemble(code, code.length));
+      cpu.run(MAX_CYCLES);
+      assertTrue("program did not halt", cpu.isHalted());
+      return cpu.ram();
+   }
+
+   private static int countLines(byte[] code) {
+      int count = 0;
+      for (byte b : code) {
+         if (b == '\n') {
+            count++;
+         }
+      }
+      return count;
+   }
+}
@@ -0,0 +1,222 @@
+package com.noctis.vm.translator.parallel;
+
+import com.noctis.vm.translator.VMTranslator;
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.writer.AssemblyCodeWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A vm file translated in chunks must give the asm file of a sequential translation byte for byte, with the label
+ * indexes and the function scope carried from one chunk to the next, and a syntax error must be the sequential one
+ *
+ * @author Noctis
+ * @date 2025/03/25
+ */
+public class ChunkedFileTranslatorTest {
+
+   private static final int CHUNK_SIZE_KB = 1;
+
+   private static final int CHUNK_SIZE = CHUNK_SIZE_KB * 1024;
+
+   private static final int CHUNKS = 48;
+
+   @Rule
+   public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+   @Test
+   public void chunkedOutputIsSequentialOutput() throws Exception {
+      assertSameOutput(new GeneratedProgram().generate(CHUNKS * CHUNK_SIZE), "--chunk-size=" + CHUNK_SIZE_KB);
+   }
+
+   @Test
+   public void chunkedOutputIsSequentialOutputWithOptions() throws Exception {
+      assertSameOutput(new GeneratedProgram().generate(CHUNKS * CHUNK_SIZE), "--chunk-size=" + CHUNK_SIZE_KB,
+              "--shared-compare", "--select-addressing", "--memoize-push-pop");
+   }
+
+   @Test
+   public void parseErrorInLaterChunkIsSequentialError() throws Exception {
+      GeneratedProgram program = new GeneratedProgram();
+      program.generate(CHUNKS * CHUNK_SIZE / 2);
+      program.line("push constant 99999");
+      int errorLine = program.lineCount;
+      program.generate(CHUNKS * CHUNK_SIZE);
+      File vmFile = write(program);
+      TranslatorOptions options = TranslatorOptions.parse(new String[]{vmFile.getPath(), "--chunk-size=" + CHUNK_SIZE_KB});
+
+      InstructionParseException sequential = null;
+      try {
+         VMTranslator.translate(vmFile.getPath(), options);
+      } catch (InstructionParseException e) {
+         sequential = e;
+      }
+      InstructionParseException chunked = null;
+      try {
+         new ChunkedFileTranslator(vmFile.getPath(), options).translate();
+      } catch (InstructionParseException e) {
+         chunked = e;
+      }
+      assertNotNull("sequential translation accepted the error", sequential);
+      assertNotNull("chunked translation accepted the error", chunked);
+      assertTrue("line " + errorLine + " not in " + sequential.getMessage(), sequential.getMessage().contains(String.valueOf(errorLine)));
+      assertEquals(sequential.getMessage(), chunked.getMessage());
+      assertTrue("no asm file is left by a failed translation", !new File(AssemblyCodeWriter.resultFileLocation(vmFile.getPath())).exists());
+   }
+
+   private void assertSameOutput(GeneratedProgram program, String... args) throws Exception {
+      assertTrue("chunk ends on a carriage return", program.carriageReturnEdges > 0);
+      assertTrue("chunk ends on a line feed", program.lineFeedEdges > 0);
+      assertTrue("chunk ends mid-line", program.midLineEdges > 0);
+      assertTrue("function spanning chunks", program.longestFunction > 2 * CHUNK_SIZE);
+
+      File vmFile = write(program);
+      String[] options = new String[args.length + 1];
+      options[0] = vmFile.getPath();
+      System.arraycopy(args, 0, options, 1, args.length);
+      String asmFile = AssemblyCodeWriter.resultFileLocation(vmFile.getPath());
+
+      VMTranslator.translate(vmFile.getPath(), TranslatorOptions.parse(options));
+      byte[] sequential = Files.readAllBytes(Paths.get(asmFile));
+      new ChunkedFileTranslator(vmFile.getPath(), TranslatorOptions.parse(options)).translate();
+      byte[] chunked = Files.readAllBytes(Paths.get(asmFile));
+      assertArrayEquals(sequential, chunked);
+   }
+
+   private File write(GeneratedProgram program) throws Exception {
+      File vmFile = new File(temporaryFolder.getRoot(), "Main.vm");
+      Files.write(vmFile.toPath(), program.text.toString().getBytes(StandardCharsets.US_ASCII));
+      return vmFile;
+   }
+
+   /**
+    * Vm program with CRLF line terminators, its long functions compare, call and jump. Padding comments place the byte
+    * where the search for the end of each chunk starts on a carriage return, on a line feed or inside a line in turn
+    */
+   private static class GeneratedProgram {
+
+      private static final String[] SEGMENTS = {"local", "argument", "this", "that", "temp", "static"};
+
+      private static final String[] ARITHMETIC = {"add", "sub", "neg", "and", "or", "not", "eq", "gt", "lt"};
+
+      private final Random random = new Random(42);
+
+      private final StringBuilder text = new StringBuilder();
+
+      private int lineCount;
+
+      private int functionCount;
+
+      private int functionStart;
+
+      private int labelCount;
+
+      /**
+       * Byte where the chunker starts looking for the line feed ending the current chunk
+       */
+      private int edge = CHUNK_SIZE - 1;
+
+      private int edgeCount;
+
+      private int carriageReturnEdges;
+
+      private int lineFeedEdges;
+
+      private int midLineEdges;
+
+      private int longestFunction;
+
+      private GeneratedProgram generate(int size) {
+         if (lineCount == 0) {
+            function();
+         }
+         while (text.length() < size) {
+            if (random.nextInt(400) == 0) {
+               function();
+            }
+            int kind = random.nextInt(10);
+            if (kind < 4) {
+               line("push " + segment() + " " + random.nextInt(5));
+            } else if (kind < 6) {
+               line("pop " + segment() + " " + random.nextInt(5));
+            } else if (kind < 8) {
+               line(ARITHMETIC[random.nextInt(ARITHMETIC.length)]);
+            } else if (kind < 9) {
+               line("call Main.f" + random.nextInt(functionCount) + " " + random.nextInt(3));
+            } else {
+               String label = "L" + labelCount++;
+               line("label " + label);
+               line((random.nextBoolean() ? "goto " : "if-goto ") + label);
+            }
+         }
+         longestFunction = Math.max(longestFunction, text.length() - functionStart);
+         return this;
+      }
+
+      private String segment() {
+         return SEGMENTS[random.nextInt(SEGMENTS.length)];
+      }
+
+      private void function() {
+         longestFunction = Math.max(longestFunction, text.length() - functionStart);
+         functionStart = text.length();
+         line("function Main.f" + functionCount++ + " " + random.nextInt(3));
+      }
+
+      private void line(String line) {
+         int gap = edge - text.length();
+         boolean coversEdge = gap < line.length() + 2 && !pad(gap, line.length());
+         text.append(line).append("\r\n");
+         lineCount++;
+         if (coversEdge) {
+            edge = text.length() + CHUNK_SIZE - 1;
+         }
+      }
+
+      /**
+       * Before a line that would cover the edge, end the chunk with a comment whose carriage return or line feed is on
+       * the edge, or let the line cover it
+       *
+       * @return whether the comment ends the chunk, otherwise the line does
+       */
+      private boolean pad(int gap, int lineLength) {
+         int mode = edgeCount++ % 3;
+         if (mode == 0 && gap >= 2) {
+            text.append("//").append(repeat('c', gap - 2)).append("\r\n");
+            carriageReturnEdges++;
+         } else if (mode == 1 && gap >= 3) {
+            text.append("//").append(repeat('n', gap - 3)).append("\r\n");
+            lineFeedEdges++;
+         } else {
+            if (gap < lineLength) {
+               midLineEdges++;
+            }
+            return false;
+         }
+         lineCount++;
+         edge = text.length() + CHUNK_SIZE - 1;
+         return true;
+      }
+
+      private static String repeat(char c, int count) {
+         StringBuilder repeated = new StringBuilder(count);
+         for (int i = 0; i < count; i++) {
+            repeated.append(c);
+         }
+         return repeated.toString();
+      }
+   }
+}
@@ -0,0 +1,140 @@
+package com.noctis.vm.translator.pipeline;
+
+import com.noctis.vm.translator.VMTranslator;
+import com.noctis.vm.translator.common.TranslatorOptions;
+import com.noctis.vm.translator.exception.InstructionParseException;
+import com.noctis.vm.translator.writer.AssemblyCodeWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * The pipelined translation must write the asm file of the sequential translation byte for byte, and fail on a syntax
+ * error like it, leaving the asm file of the last successful translation in place
+ *
+ * @author Noctis
+ * @date 2025/03/08
+ */
+public class PipelinedTranslatorTest {
+
+   /**
+    * Enough vm commands to fill every batch of the parser and every code chunk of the writer several times
+    */
+   private static final int COMMANDS = 150_000;
+
+   private static final String[] SEGMENTS = {"local", "argument", "this", "that", "temp", "static", "pointer"};
+
+   private static final String[] ARITHMETIC = {"add", "sub", "neg", "and", "or", "not", "eq", "gt", "lt"};
+
+   @Rule
+   public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+   @Test
+   public void pipelinedOutputIsSequentialOutput() throws Exception {
+      assertSameOutput(write(generate(COMMANDS, -1)));
+   }
+
+   @Test
+   public void pipelinedOutputIsSequentialOutputWithOptions() throws Exception {
+      File vmFile = write(generate(COMMANDS, -1));
+      assertSameOutput(vmFile, "--shared-compare", "--select-addressing", "--memoize-push-pop");
+      assertSameOutput(vmFile, "--fold-constants", "--peephole", "--cache-tos");
+   }
+
+   @Test
+   public void parseErrorIsSequentialError() throws Exception {
+      File vmFile = write(generate(COMMANDS, COMMANDS / 2));
+      String asmFile = AssemblyCodeWriter.resultFileLocation(vmFile.getPath());
+      byte[] previous = "// previous translation\n".getBytes(StandardCharsets.US_ASCII);
+      Files.write(Paths.get(asmFile), previous);
+
+      InstructionParseException sequential = null;
+      try {
+         VMTranslator.translate(vmFile.getPath(), TranslatorOptions.parse(new String[]{vmFile.getPath()}));
+      } catch (InstructionParseException e) {
+         sequential = e;
+      }
+      InstructionParseException pipelined = null;
+      try {
+         new PipelinedTranslator(vmFile.getPath(), TranslatorOptions.parse(new String[]{vmFile.getPath(), "--pipeline"})).translate();
+      } catch (InstructionParseException e) {
+         pipelined = e;
+      }
+      assertNotNull("sequential translation accepted the error", sequential);
+      assertNotNull("pipelined translation accepted the error", pipelined);
+      assertEquals(sequential.getMessage(), pipelined.getMessage());
+      assertArrayEquals("asm file of the previous translation", previous, Files.readAllBytes(Paths.get(asmFile)));
+      File[] leftovers = temporaryFolder.getRoot().listFiles((dir, name) -> name.endsWith(".partial"));
+      assertEquals("partial files left", 0, leftovers == null ? 0 : leftovers.length);
+   }
+
+   private static void assertSameOutput(File vmFile, String... args) throws Exception {
+      String[] options = new String[args.length + 1];
+      options[0] = vmFile.getPath();
+      System.arraycopy(args, 0, options, 1, args.length);
+      String asmFile = AssemblyCodeWriter.resultFileLocation(vmFile.getPath());
+
+      VMTranslator.translate(vmFile.getPath(), TranslatorOptions.parse(options));
+      byte[] sequential = Files.readAllBytes(Paths.get(asmFile));
+      String[] pipelineOptions = new String[options.length + 1];
+      System.arraycopy(options, 0, pipelineOptions, 0, options.length);
+      pipelineOptions[options.length] = "--pipeline";
+      new PipelinedTranslator(vmFile.getPath(), TranslatorOptions.parse(pipelineOptions)).translate();
+      byte[] pipelined = Files.readAllBytes(Paths.get(asmFile));
+      assertArrayEquals(sequential, pipelined);
+   }
+
+   /**
+    * @param errorCommand index of the command replaced by a syntax error, -1 for none
+    */
+   private static String generate(int commands, int errorCommand) {
+      Random random = new Random(7);
+      StringBuilder text = new StringBuilder();
+      int functions = 0;
+      int labels = 0;
+      for (int i = 0; i < commands; i++) {
+         if (i == errorCommand) {
+            text.append("push constant 32768\n");
+         } else if (i % 500 == 0) {
+            text.append("function Main.f").append(functions++).append(' ').append(random.nextInt(3)).append('\n');
+         } else {
+            int kind = random.nextInt(10);
+            if (kind < 4) {
+               text.append(random.nextBoolean() ? "push constant " + random.nextInt(100) : "push " + segment(random));
+            } else if (kind < 6) {
+               text.append("pop ").append(segment(random));
+            } else if (kind < 8) {
+               text.append(ARITHMETIC[random.nextInt(ARITHMETIC.length)]);
+            } else if (kind < 9) {
+               text.append("call Main.f").append(random.nextInt(functions)).append(' ').append(random.nextInt(3));
+            } else {
+               text.append("label L").append(labels).append('\n');
+               text.append(random.nextBoolean() ? "goto L" : "if-goto L").append(labels++);
+            }
+            text.append('\n');
+         }
+      }
+      return text.toString();
+   }
+
+   private static String segment(Random random) {
+      String segment = SEGMENTS[random.nextInt(SEGMENTS.length)];
+      return segment + " " + random.nextInt("pointer".equals(segment) ? 2 : 5);
+   }
+
+   private File write(String program) throws Exception {
+      File vmFile = new File(temporaryFolder.getRoot(), "Main.vm");
+      Files.write(vmFile.toPath(), program.getBytes(StandardCharsets.US_ASCII));
+      return vmFile;
+   }
+}